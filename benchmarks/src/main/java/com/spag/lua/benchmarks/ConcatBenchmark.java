@@ -0,0 +1,68 @@
+package com.spag.lua.benchmarks;
+
+import com.spag.lua.LuaConcatable;
+import com.spag.lua.LuaNum;
+import com.spag.lua.LuaString;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building a string from {@code parts} pieces with repeated {@code ..}, as ropes, in bulk and by
+ * copying and interning every intermediate string as concatenation used to
+ *
+ * @author MR_Spagetty
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcatBenchmark {
+  @Param({"10", "1000"})
+  int parts;
+
+  LuaConcatable[] pieces;
+
+  @Setup
+  public void setup() {
+    this.pieces = new LuaConcatable[this.parts];
+    for (int i = 0; i < this.parts; i++) {
+      this.pieces[i] = i % 2 == 0 ? LuaString.of("piece" + i) : LuaNum.of(i);
+    }
+  }
+
+  @Benchmark
+  public String rope() {
+    LuaString out = LuaString.of("");
+    for (LuaConcatable piece : this.pieces) {
+      out = out.concat(piece);
+    }
+    return out.value();
+  }
+
+  @Benchmark
+  public String bulk() {
+    return LuaString.concat(this.pieces).value();
+  }
+
+  @Benchmark
+  public String eager() {
+    LuaString out = LuaString.of("");
+    for (LuaConcatable piece : this.pieces) {
+      String next = piece instanceof LuaString string ? string.value() : piece.toString();
+      out = LuaString.of(out.value() + next);
+    }
+    return out.value();
+  }
+}
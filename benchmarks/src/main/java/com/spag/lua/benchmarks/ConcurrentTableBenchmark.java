@@ -0,0 +1,84 @@
+package com.spag.lua.benchmarks;
+
+import com.spag.lua.ConcurrentLuaTable;
+import com.spag.lua.LuaNum;
+import com.spag.lua.LuaObject;
+import com.spag.lua.LuaString;
+import com.spag.lua.LuaTable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of a table shared between threads, {@link ConcurrentLuaTable} against a {@link
+ * LuaTable} guarded by a single monitor
+ *
+ * <p>each operation is a read, or a write for {@code writePercent} of them, of a random key or
+ * index. run with {@code -t} set to 1, 2, 4, ... to see how each scales with the core count
+ *
+ * @author MR_Spagetty
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(Threads.MAX)
+public class ConcurrentTableBenchmark {
+  private static final int KEYS = 4096;
+
+  @Param({"10", "50"})
+  int writePercent;
+
+  final LuaObject[] keys = new LuaObject[KEYS];
+  ConcurrentLuaTable concurrent;
+  LuaTable locked;
+
+  @Setup
+  public void setup() {
+    this.concurrent = new ConcurrentLuaTable();
+    this.locked = new LuaTable();
+    for (int i = 0; i < KEYS; i++) {
+      // half indexes and half string keys
+      this.keys[i] = i % 2 == 0 ? LuaNum.of(i / 2 + 1) : LuaString.of("key" + i);
+      this.concurrent.put(this.keys[i], LuaNum.of(i));
+      this.locked.put(this.keys[i], LuaNum.of(i));
+    }
+  }
+
+  @Benchmark
+  public LuaObject concurrentTable() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    LuaObject key = this.keys[random.nextInt(KEYS)];
+    if (random.nextInt(100) < this.writePercent) {
+      this.concurrent.put(key, LuaNum.of(random.nextInt(1024)));
+      return key;
+    }
+    return this.concurrent.get(key);
+  }
+
+  @Benchmark
+  public LuaObject synchronizedTable() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    LuaObject key = this.keys[random.nextInt(KEYS)];
+    synchronized (this.locked) {
+      if (random.nextInt(100) < this.writePercent) {
+        this.locked.put(key, LuaNum.of(random.nextInt(1024)));
+        return key;
+      }
+      return this.locked.get(key);
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package com.spag.lua.benchmarks;
+
+import com.spag.lua.LuaNum;
+import com.spag.lua.LuaString;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The flyweight {@code of()} factories of {@link LuaString} and {@link LuaNum}, for values that
+ * are already cached (hit) and ones that have never been seen (miss), on one thread and on every
+ * available thread at once
+ *
+ * @author MR_Spagetty
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterningBenchmark {
+  private static final int CACHED = 1024;
+
+  final String[] strings = new String[CACHED];
+  final String[] numbers = new String[CACHED];
+  // held so the cached values are not collected during the run
+  final LuaString[] heldStrings = new LuaString[CACHED];
+  final LuaNum[] heldNumbers = new LuaNum[CACHED];
+
+  /** a source of values that have not been cached before, one per thread */
+  @State(Scope.Thread)
+  public static class Fresh {
+    final String prefix = Long.toString(ThreadLocalRandom.current().nextLong(), 36) + ':';
+    long next;
+  }
+
+  @Setup
+  public void setup() {
+    for (int i = 0; i < CACHED; i++) {
+      this.strings[i] = "cached" + i;
+      this.numbers[i] = Double.toString(i + 0.5);
+      this.heldStrings[i] = LuaString.of(this.strings[i]);
+      this.heldNumbers[i] = LuaNum.of(this.numbers[i]);
+    }
+  }
+
+  @Benchmark
+  public LuaString stringHit() {
+    return LuaString.of(this.strings[ThreadLocalRandom.current().nextInt(CACHED)]);
+  }
+
+  @Benchmark
+  public LuaString stringMiss(Fresh fresh) {
+    return LuaString.of(fresh.prefix + fresh.next++);
+  }
+
+  @Benchmark
+  public LuaNum numberHit() {
+    return LuaNum.of(this.numbers[ThreadLocalRandom.current().nextInt(CACHED)]);
+  }
+
+  @Benchmark
+  public LuaNum numberMiss(Fresh fresh) {
+    return LuaNum.of(fresh.next++ + 0.25);
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public LuaString stringHitContended() {
+    return stringHit();
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public LuaString stringMissContended(Fresh fresh) {
+    return stringMiss(fresh);
+  }
+}
@@ -0,0 +1,64 @@
+package com.spag.lua.benchmarks;
+
+import com.spag.lua.LuaTable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how {@link LuaTable#fromStringParallel(CharSequence, ForkJoinPool)} scales with the
+ * number of threads against the single threaded {@link LuaTable#fromString(CharSequence)}, run it
+ * on a machine with at least as many cores as the largest thread count
+ *
+ * @author MR_Spagetty
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class ParallelParseBenchmark {
+  /** the parallelism of the pool */
+  @Param({"1", "2", "4", "8"})
+  int threads;
+
+  /** the number of stargate records in the payload, about 250 bytes each */
+  @Param({"100000"})
+  int records;
+
+  String payload;
+  ForkJoinPool pool;
+
+  @Setup
+  public void setup() {
+    this.payload = TableGenerator.serialized(TableGenerator.Shape.WIDE, this.records, 42);
+    this.pool = new ForkJoinPool(this.threads);
+  }
+
+  @TearDown
+  public void tearDown() {
+    this.pool.close();
+  }
+
+  @Benchmark
+  public LuaTable sequential() {
+    return LuaTable.fromString(this.payload);
+  }
+
+  @Benchmark
+  public LuaTable parallel() {
+    return LuaTable.fromStringParallel(this.payload, this.pool);
+  }
+}
@@ -0,0 +1,121 @@
+package com.spag.lua.benchmarks;
+
+import com.spag.lua.LuaNum;
+import com.spag.lua.LuaObject;
+import com.spag.lua.LuaParseCache;
+import com.spag.lua.LuaPushParser;
+import com.spag.lua.LuaString;
+import com.spag.lua.LuaTable;
+import com.spag.lua.LuaTableReader;
+import com.spag.lua.LuaTableVisitor;
+import com.spag.lua.LuaTableView;
+import java.nio.CharBuffer;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the single pass parser behind {@link LuaTable#fromString(String)} against the regular
+ * expression based parser it replaced
+ *
+ * @author MR_Spagetty
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+  /** the number of gate records in the payload */
+  @Param({"10", "100", "1000"})
+  int records;
+
+  String payload;
+  LuaParseCache cache = new LuaParseCache(16, 1 << 24);
+
+  @Setup
+  public void setup() {
+    StringBuilder out = new StringBuilder("{");
+    for (int i = 0; i < records; i++) {
+      out.append("{id=\"").append(new UUID(i, i * 31L)).append("\",")
+          .append("data={\"init\",hasDHD=false,dialed=\"[]\",status=\"idle\",name=\"Gate")
+          .append(i).append("\",energy=").append(i * 1.5).append("},")
+          .append("glyphs={").append(i % 9).append(',').append(i % 7).append(',')
+          .append(i % 5).append("}},");
+    }
+    out.setCharAt(out.length() - 1, '}');
+    this.payload = out.toString();
+  }
+
+  @Benchmark
+  public LuaTable streaming() {
+    return LuaTable.fromString(this.payload);
+  }
+
+  /** the same payload again, as nodes resending unchanged state do */
+  @Benchmark
+  public LuaTableView cached() {
+    return this.cache.parse(this.payload);
+  }
+
+  /** feeds the payload in network sized chunks */
+  @Benchmark
+  public LuaTable push() {
+    LuaPushParser parser = new LuaPushParser();
+    for (int i = 0; i < this.payload.length(); i += 4096) {
+      parser.feed(CharBuffer.wrap(this.payload, i, Math.min(this.payload.length(), i + 4096)));
+    }
+    return parser.complete();
+  }
+
+  /** sums the numbers in the payload without building any tables */
+  @Benchmark
+  public double events() {
+    double[] total = {0};
+    LuaTableReader.read(this.payload, new LuaTableVisitor() {
+      @Override
+      public void value(long value) {
+        total[0] += value;
+      }
+
+      @Override
+      public void value(double value) {
+        total[0] += value;
+      }
+
+      @Override
+      public void value(CharSequence value) {}
+    });
+    return total[0];
+  }
+
+  /** reads a single field of the last record, as most consumers of large payloads do */
+  @Benchmark
+  public LuaObject lazyField() {
+    LuaTableView last = (LuaTableView) LuaTable.lazy(this.payload).get(LuaNum.of(this.records));
+    return ((LuaTableView) last.get(LuaString.of("data"))).get(LuaString.of("name"));
+  }
+
+  /** the same as {@link #lazyField()} but stepping over records with the vector scanner's index */
+  @Benchmark
+  @Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+  public LuaObject lazyFieldVector() {
+    return lazyField();
+  }
+
+  @Benchmark
+  public LuaTable regex() {
+    return RegexTableParser.fromString(this.payload);
+  }
+}
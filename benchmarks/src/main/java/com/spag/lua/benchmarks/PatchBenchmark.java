@@ -0,0 +1,80 @@
+package com.spag.lua.benchmarks;
+
+import com.spag.lua.LuaNum;
+import com.spag.lua.LuaString;
+import com.spag.lua.LuaTable;
+import com.spag.lua.LuaTablePatch;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures keeping a remote copy of a slowly changing table in sync, by writing and reading the
+ * whole table as text each tick against doing so for a {@link LuaTablePatch} of the few records
+ * that changed
+ *
+ * @author MR_Spagetty
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PatchBenchmark {
+  /** the number of stargate records in the table */
+  @Param({"10000"})
+  int records;
+
+  LuaTable old;
+  LuaTable updated;
+  String patch;
+  String full;
+
+  @Setup
+  public void setup() {
+    this.old = TableGenerator.generate(TableGenerator.Shape.WIDE, this.records, 42);
+    this.updated = TableGenerator.generate(TableGenerator.Shape.WIDE, this.records, 42);
+    for (int i = 1; i <= this.records; i += this.records / 10) {
+      LuaTable record = (LuaTable) this.updated.get(LuaNum.of(i));
+      ((LuaTable) record.get(LuaString.of("data"))).put(LuaString.of("status"),
+          LuaString.of("open"));
+    }
+    this.patch = LuaTable.diff(this.old, this.updated).toString();
+    this.full = this.updated.toString();
+  }
+
+  @Benchmark
+  public LuaTable fullSync() {
+    return LuaTable.fromString(this.updated.toString());
+  }
+
+  @Benchmark
+  public LuaTablePatch patchSync() {
+    return LuaTablePatch.fromString(LuaTable.diff(this.old, this.updated).toString());
+  }
+
+  @Benchmark
+  public LuaTable readFull() {
+    return LuaTable.fromString(this.full);
+  }
+
+  @Benchmark
+  public LuaTablePatch readPatch() {
+    return LuaTablePatch.fromString(this.patch);
+  }
+
+  @Benchmark
+  public LuaTablePatch diff() {
+    return LuaTable.diff(this.old, this.updated);
+  }
+}
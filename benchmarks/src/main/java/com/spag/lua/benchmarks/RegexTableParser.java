@@ -0,0 +1,88 @@
+package com.spag.lua.benchmarks;
+
+import com.spag.lua.LuaBool;
+import com.spag.lua.LuaNum;
+import com.spag.lua.LuaObject;
+import com.spag.lua.LuaString;
+import com.spag.lua.LuaTable;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The regular expression based parser that {@code LuaTable.fromString} used before it was
+ * replaced by the single pass parser, kept here as the baseline to benchmark against
+ *
+ * @author MR_Spagetty
+ */
+final class RegexTableParser {
+  static final Pattern bracePat = Pattern.compile("^\\{(.*)\\}$");
+  static final String numRegex = "-?(([1-9][0-9]*\\.[0-9]+" + ")|(0\\.[0-9]+)|0|([1-9][0-9]*))";
+  static final Pattern numPat = Pattern.compile(numRegex);
+  static final String stringRegex = "((\\\"\\\")|(\\\".*?[^\\\\]\\\"))";
+  static final Pattern stringPat = Pattern.compile(stringRegex);
+  static final String luaValueRegex = "(" + stringRegex + "|" + numPat
+      + "|\\{((?:[^{}]++|\\{(?:[^{}]++|\\{[^{}]*\\})*\\})*)\\}|" + LuaObject.nil.toString()
+      + "|true|false)";
+  static final Pattern indexed = Pattern
+      .compile("\\G\\s*\\s*" + luaValueRegex + "(?:,|\\Z)\\s*");
+  static final Pattern keyed = Pattern
+      .compile("\\G\\s*(?:([a-zA-Z_]\\w*)|(\\[" + luaValueRegex + "]))\\s*=");
+
+  private RegexTableParser() {}
+
+  @SuppressWarnings("removal")
+  static LuaTable fromString(String data) {
+    Matcher match = bracePat.matcher(data);
+    if (!match.matches()) {
+      throw new IllegalArgumentException("Invalid Lua table: " + data);
+    }
+    LuaTable out = new LuaTable();
+    data = match.group(1);
+    Matcher indexedValues = indexed.matcher(data);
+    Matcher keyedValues = keyed.matcher(data);
+    int end = 0;
+    while (indexedValues.find(end) || keyedValues.find(end)) {
+      while (indexedValues.find(end)) {
+        String val = indexedValues.group(1);
+        end = indexedValues.end();
+        out.add(parseObject(val));
+      }
+      while (keyedValues.find(end)) {
+        String key = Optional.ofNullable(keyedValues.group(2)).orElse(keyedValues.group(1));
+        if (key.equals("true") || key.equals("false") || key.equals("nil")) {
+          throw new IllegalArgumentException(
+              "implicit string keys may not match boolean value names or nil");
+        } else if (key.startsWith("[") && key.endsWith("]")) {
+          key = key.substring(1, key.length() - 1);
+        } else if (Pattern.matches("[a-zA-Z_]\\w*", key)) {
+          key = "\"" + key + "\"";
+        }
+        if (!indexedValues.find(keyedValues.end())) {
+          throw new IllegalArgumentException("Invalid lua table, no value for key: " + key);
+        }
+        String val = indexedValues.group(1);
+        end = indexedValues.end();
+        out.put(parseObject(key), parseObject(val));
+      }
+    }
+    return out;
+  }
+
+  private static LuaObject parseObject(String data) {
+    Objects.requireNonNull(data, "Lua data may not be null");
+    if (data.startsWith("{")) {
+      return fromString(data);
+    } else if (stringPat.matcher(data).matches()) {
+      return LuaString.of(data.substring(1, data.length() - 1));
+    } else if (numPat.matcher(data).matches()) {
+      return LuaNum.of(data);
+    } else if (data.equals("true") || data.equals("false")) {
+      return LuaBool.of(data.equals("true"));
+    } else if (data.equals(LuaObject.nil.toString())) {
+      return LuaObject.nil;
+    }
+    throw new IllegalArgumentException("Unrecognised type detected: " + data);
+  }
+}
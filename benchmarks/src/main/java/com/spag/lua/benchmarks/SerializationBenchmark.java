@@ -0,0 +1,54 @@
+package com.spag.lua.benchmarks;
+
+import com.spag.lua.LuaTable;
+import com.spag.lua.benchmarks.TableGenerator.Shape;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing and serializing generated tables of each shape
+ *
+ * @author MR_Spagetty
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+  @Param({"FLAT", "DEEP", "WIDE"})
+  Shape shape;
+
+  @Param({"100", "1000"})
+  int size;
+
+  LuaTable table;
+  String serialized;
+
+  @Setup
+  public void setup() {
+    this.table = TableGenerator.generate(this.shape, this.size, 42);
+    this.serialized = this.table.toString();
+  }
+
+  @Benchmark
+  public LuaTable fromString() {
+    return LuaTable.fromString(this.serialized);
+  }
+
+  @Benchmark
+  public String toString() {
+    return this.table.toString();
+  }
+}
@@ -0,0 +1,67 @@
+package com.spag.lua.benchmarks;
+
+import com.spag.lua.LuaNum;
+import com.spag.lua.LuaString;
+import com.spag.lua.LuaTable;
+import com.spag.lua.PersistentLuaTable;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures taking a snapshot of a table after changing one value, by deep copying a mutable
+ * {@link LuaTable} against deriving a new version of a {@link PersistentLuaTable}
+ *
+ * @author MR_Spagetty
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnapshotBenchmark {
+  /** the number of stargate records in the table */
+  @Param({"1000", "100000"})
+  int records;
+
+  LuaTable table;
+  PersistentLuaTable persistent;
+  int tick;
+
+  @Setup
+  public void setup() {
+    this.table = TableGenerator.generate(TableGenerator.Shape.WIDE, this.records, 42);
+    this.persistent = this.table.toPersistent();
+  }
+
+  @Benchmark
+  public LuaTable copy() {
+    this.table.put(LuaString.of("tick"), LuaNum.of(++this.tick));
+    return this.table.readOnly().toTable();
+  }
+
+  @Benchmark
+  public PersistentLuaTable persistent() {
+    this.persistent = this.persistent.with(LuaString.of("tick"), LuaNum.of(++this.tick));
+    return this.persistent;
+  }
+
+  @Benchmark
+  public PersistentLuaTable persistentIndex() {
+    // replaces a record with another one so the table keeps its shape
+    int index = this.tick++ % this.records + 1;
+    LuaNum other = LuaNum.of(this.records - index + 1);
+    this.persistent = this.persistent.with(LuaNum.of(index), this.persistent.get(other));
+    return this.persistent;
+  }
+}
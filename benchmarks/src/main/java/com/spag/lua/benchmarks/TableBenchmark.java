@@ -0,0 +1,157 @@
+package com.spag.lua.benchmarks;
+
+import com.spag.lua.LuaNum;
+import com.spag.lua.LuaObject;
+import com.spag.lua.LuaString;
+import com.spag.lua.LuaTable;
+import com.spag.lua.benchmarks.TableGenerator.Shape;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Single threaded table operations: building, indexed and keyed access, iteration and merging,
+ * with and without tracking changes
+ *
+ * <p>the access benchmarks walk through every index or key of a table of {@code size} values so
+ * each reports the time for {@code size} operations
+ *
+ * @author MR_Spagetty
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TableBenchmark {
+  @Param({"1000", "100000"})
+  int size;
+
+  LuaTable indexed;
+  LuaTable keyed;
+  LuaTable flat;
+  LuaTable changed;
+  LuaNum[] indexes;
+  LuaString[] keys;
+  double[] samples;
+
+  @Setup
+  public void setup() {
+    this.indexed = new LuaTable();
+    this.keyed = new LuaTable();
+    this.indexes = new LuaNum[this.size];
+    this.keys = new LuaString[this.size];
+    this.samples = new double[this.size];
+    for (int i = 0; i < this.size; i++) {
+      this.indexes[i] = LuaNum.of(i + 1);
+      this.keys[i] = LuaString.of("key" + i);
+      this.indexed.insert(LuaNum.of(i));
+      this.keyed.put(this.keys[i], LuaNum.of(i));
+      this.samples[i] = i % 20 * 0.05;
+    }
+    this.flat = TableGenerator.generate(Shape.FLAT, this.size, 42);
+    this.changed = TableGenerator.generate(Shape.FLAT, this.size, 42);
+    // the last value compared, so telling the tables apart by their content walks all of them
+    this.changed.put(LuaString.of("field" + (this.size - 1)), LuaString.of("changed"));
+  }
+
+  @Benchmark
+  public void indexedGet(Blackhole bh) {
+    for (LuaNum index : this.indexes) {
+      bh.consume(this.indexed.get(index));
+    }
+  }
+
+  @Benchmark
+  public void keyedGet(Blackhole bh) {
+    for (LuaString key : this.keys) {
+      bh.consume(this.keyed.get(key));
+    }
+  }
+
+  @Benchmark
+  public LuaTable indexedPut() {
+    LuaTable out = new LuaTable();
+    for (LuaNum index : this.indexes) {
+      out.put(index, index);
+    }
+    return out;
+  }
+
+  @Benchmark
+  public LuaTable keyedPut() {
+    LuaTable out = new LuaTable();
+    for (int i = 0; i < this.keys.length; i++) {
+      out.put(this.keys[i], this.indexes[i]);
+    }
+    return out;
+  }
+
+  @Benchmark
+  public LuaTable trackedKeyedPut() {
+    LuaTable out = new LuaTable();
+    out.trackChanges(true);
+    for (int i = 0; i < this.keys.length; i++) {
+      out.put(this.keys[i], this.indexes[i]);
+    }
+    return out;
+  }
+
+  @Benchmark
+  public void ipairs(Blackhole bh) {
+    this.indexed.ipairs((i, v) -> bh.consume(v));
+  }
+
+  @Benchmark
+  public void forEachIndexed(Blackhole bh) {
+    this.indexed.forEachIndexed((i, v) -> bh.consume(v));
+  }
+
+  @Benchmark
+  public void cursor(Blackhole bh) {
+    LuaTable.Cursor cursor = this.flat.cursor();
+    while (cursor.next()) {
+      bh.consume(cursor.value());
+    }
+  }
+
+  @Benchmark
+  public void pairs(Blackhole bh) {
+    this.flat.pairs((k, v) -> bh.consume(v));
+  }
+
+  @Benchmark
+  public LuaTable insertSamples() {
+    LuaTable out = new LuaTable();
+    for (double sample : this.samples) {
+      out.insert(LuaNum.of(sample));
+    }
+    return out;
+  }
+
+  @Benchmark
+  public LuaTable ofArraySamples() {
+    return LuaTable.ofArray(this.samples);
+  }
+
+  @Benchmark
+  public boolean equalsChanged() {
+    return this.flat.equals(this.changed);
+  }
+
+  @Benchmark
+  public LuaObject merge() {
+    return new LuaTable().merge(this.indexed).merge(this.keyed);
+  }
+}
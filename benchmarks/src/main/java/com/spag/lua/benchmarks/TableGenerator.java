@@ -0,0 +1,118 @@
+package com.spag.lua.benchmarks;
+
+import com.spag.lua.LuaBool;
+import com.spag.lua.LuaNum;
+import com.spag.lua.LuaObject;
+import com.spag.lua.LuaString;
+import com.spag.lua.LuaTable;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Builds reproducible synthetic tables for the benchmarks, the same shape, size and seed always
+ * give the same table
+ *
+ * @author MR_Spagetty
+ */
+public final class TableGenerator {
+  /** the overall layout of a generated table */
+  public enum Shape {
+    /** a single table of scalars, half indexed and half keyed */
+    FLAT,
+    /** a chain of tables each nested in the one before, {@code size} levels deep */
+    DEEP,
+    /** {@code size} OpenComputers stargate style records, each a few small nested tables */
+    WIDE
+  }
+
+  private static final String[] STATUSES = {"idle", "dialing", "open", "closing"};
+
+  private final Random random;
+
+  private TableGenerator(long seed) {
+    this.random = new Random(seed);
+  }
+
+  /**
+   * generates a table
+   *
+   * @param shape the layout of the table
+   * @param size the number of values, levels or records depending on the shape
+   * @param seed the seed for the random content of the table
+   * @return the generated table
+   */
+  public static LuaTable generate(Shape shape, int size, long seed) {
+    TableGenerator generator = new TableGenerator(seed);
+    return switch (shape) {
+      case FLAT -> generator.flat(size);
+      case DEEP -> generator.deep(size);
+      case WIDE -> generator.wide(size);
+    };
+  }
+
+  /**
+   * generates a table and serializes it
+   *
+   * @see #generate(Shape, int, long)
+   */
+  public static String serialized(Shape shape, int size, long seed) {
+    return generate(shape, size, seed).toString();
+  }
+
+  private LuaTable flat(int size) {
+    LuaTable out = new LuaTable();
+    for (int i = 0; i < size / 2; i++) {
+      out.insert(scalar());
+    }
+    for (int i = size / 2; i < size; i++) {
+      out.put(LuaString.of("field" + i), scalar());
+    }
+    return out;
+  }
+
+  private LuaTable deep(int size) {
+    LuaTable root = new LuaTable();
+    LuaTable level = root;
+    for (int i = 0; i < size; i++) {
+      level.put(LuaString.of("level"), LuaNum.of(i));
+      level.put(LuaString.of("name"), scalar());
+      LuaTable child = new LuaTable();
+      level.put(LuaString.of("child"), child);
+      level = child;
+    }
+    return root;
+  }
+
+  private LuaTable wide(int size) {
+    LuaTable out = new LuaTable();
+    for (int i = 0; i < size; i++) {
+      LuaTable data = new LuaTable();
+      data.insert(LuaString.of("init"));
+      data.put(LuaString.of("hasDHD"), LuaBool.of(this.random.nextBoolean()));
+      data.put(LuaString.of("status"),
+          LuaString.of(STATUSES[this.random.nextInt(STATUSES.length)]));
+      data.put(LuaString.of("name"), LuaString.of("Gate" + this.random.nextInt(size)));
+      data.put(LuaString.of("energy"), LuaNum.of(this.random.nextDouble() * 1e6));
+      LuaTable glyphs = new LuaTable();
+      for (int g = 0; g < 7; g++) {
+        glyphs.insert(LuaNum.of(this.random.nextInt(39)));
+      }
+      LuaTable record = new LuaTable();
+      record.put(LuaString.of("id"),
+          LuaString.of(new UUID(this.random.nextLong(), this.random.nextLong()).toString()));
+      record.put(LuaString.of("data"), data);
+      record.put(LuaString.of("glyphs"), glyphs);
+      out.insert(record);
+    }
+    return out;
+  }
+
+  private LuaObject scalar() {
+    return switch (this.random.nextInt(4)) {
+      case 0 -> LuaNum.of(this.random.nextInt(100_000));
+      case 1 -> LuaNum.of(this.random.nextDouble() * 1000);
+      case 2 -> LuaBool.of(this.random.nextBoolean());
+      default -> LuaString.of(Long.toString(this.random.nextLong(), 36));
+    };
+  }
+}
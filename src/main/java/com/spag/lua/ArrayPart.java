@@ -0,0 +1,179 @@
+package com.spag.lua;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * The array part of a {@link LuaTable}, a contiguous growable {@code LuaObject[]} holding the
+ * values stored at the indexes {@code 1..size()}
+ *
+ * <p>indexes given to and taken by this class are lua style (from 1), slots that hold no value
+ * contain {@link LuaObject#nil} rather than null
+ *
+ * @author MR_Spagetty
+ */
+final class ArrayPart {
+  private static final LuaObject[] EMPTY = {};
+  private static final int MIN_CAPACITY = 8;
+
+  private LuaObject[] data = EMPTY;
+  private int size;
+  private int count;
+
+  /**
+   * the number of slots in use, including any nil holes, equivilent to the border of the table
+   *
+   * @return the number of slots in use
+   */
+  int size() {
+    return this.size;
+  }
+
+  /**
+   * the number of non nil values stored in this array part
+   *
+   * @return the number of non nil values
+   */
+  int count() {
+    return this.count;
+  }
+
+  boolean isEmpty() {
+    return this.size == 0;
+  }
+
+  /**
+   * gets the value at the given index
+   *
+   * @param index the index to get the value at
+   * @return the value or nil if the index is outside of the used slots
+   */
+  LuaObject get(int index) {
+    if (index < 1 || index > this.size) {
+      return LuaObject.nil;
+    }
+    return this.data[index - 1];
+  }
+
+  /**
+   * replaces the value at the given index
+   *
+   * @param index the index to set
+   * @param value the new value
+   * @return the old value at the index
+   * @throws IndexOutOfBoundsException if the index is outside of the used slots
+   */
+  LuaObject set(int index, LuaObject value) {
+    Objects.checkIndex(index - 1, this.size);
+    LuaObject old = this.data[index - 1];
+    this.data[index - 1] = value;
+    this.count += weight(value) - weight(old);
+    return old;
+  }
+
+  /**
+   * adds the given value after the last used slot
+   *
+   * @param value the value to add
+   */
+  void append(LuaObject value) {
+    ensureCapacity(this.size + 1);
+    this.data[this.size++] = value;
+    this.count += weight(value);
+  }
+
+  /**
+   * adds all the used slots of the given array part after the last used slot of this one
+   *
+   * @param other the array part to copy the values from
+   */
+  void appendAll(ArrayPart other) {
+    ensureCapacity(this.size + other.size);
+    System.arraycopy(other.data, 0, this.data, this.size, other.size);
+    this.size += other.size;
+    this.count += other.count;
+  }
+
+  /**
+   * extends the used slots with nil holes until {@code size() == newSize}
+   *
+   * @param newSize the new number of used slots
+   */
+  void fillTo(int newSize) {
+    ensureCapacity(newSize);
+    Arrays.fill(this.data, this.size, newSize, LuaObject.nil);
+    this.size = Math.max(this.size, newSize);
+  }
+
+  /**
+   * inserts the value at the given index shifting the values at and after it up by one
+   *
+   * @param index the index to insert at, at most {@code size() + 1}
+   * @param value the value to insert
+   * @throws IndexOutOfBoundsException if the index is outside of {@code 1..size() + 1}
+   */
+  void insert(int index, LuaObject value) {
+    Objects.checkIndex(index - 1, this.size + 1);
+    ensureCapacity(this.size + 1);
+    System.arraycopy(this.data, index - 1, this.data, index, this.size - index + 1);
+    this.data[index - 1] = value;
+    this.size++;
+    this.count += weight(value);
+  }
+
+  /**
+   * replaces a run of slots with a run of nil holes of a possibly different length, shifting the
+   * values after the run
+   *
+   * @param index the index of the first slot to replace, at most {@code size() + 1}
+   * @param removed the number of slots to remove
+   * @param inserted the number of nil holes to put in their place
+   * @throws IndexOutOfBoundsException if the removed slots are not all in use
+   */
+  void splice(int index, int removed, int inserted) {
+    Objects.checkFromIndexSize(index - 1, removed, this.size);
+    int from = index - 1;
+    for (int i = from; i < from + removed; i++) {
+      this.count -= weight(this.data[i]);
+    }
+    int newSize = this.size - removed + inserted;
+    ensureCapacity(newSize);
+    System.arraycopy(this.data, from + removed, this.data, from + inserted,
+        this.size - from - removed);
+    Arrays.fill(this.data, from, from + inserted, LuaObject.nil);
+    if (newSize < this.size) {
+      Arrays.fill(this.data, newSize, this.size, null);
+    }
+    this.size = newSize;
+  }
+
+  /** releases trailing nil slots so that the last used slot always holds a value */
+  void trimTrailingNils() {
+    while (this.size > 0 && this.data[this.size - 1] == LuaObject.nil) {
+      this.data[--this.size] = null;
+    }
+  }
+
+  /**
+   * ensures the backing array can hold at least the given number of slots growing it by half
+   * again when it can't
+   *
+   * @param capacity the number of slots needed
+   */
+  void ensureCapacity(int capacity) {
+    if (capacity <= this.data.length) {
+      return;
+    }
+    int grown = this.data.length + (this.data.length >> 1);
+    this.data = Arrays.copyOf(this.data, Math.max(Math.max(grown, capacity), MIN_CAPACITY));
+  }
+
+  Stream<LuaObject> stream() {
+    return Arrays.stream(this.data, 0, this.size);
+  }
+
+  private static int weight(LuaObject value) {
+    return value == LuaObject.nil ? 0 : 1;
+  }
+}
@@ -0,0 +1,58 @@
+package com.spag.lua;
+
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The changes made to a {@link LuaTable} since they were last drained, only kept while the table
+ * is tracking its changes
+ *
+ * <p>only which keys changed is recorded and not their old values, the current values are read
+ * from the table when the changes are drained
+ *
+ * @author MR_Spagetty
+ */
+final class ChangeJournal {
+  /** the indexes in or near the array part whose value changed */
+  final BitSet indexes = new BitSet();
+  /**
+   * the other keys whose value changed, including indexes far past the array part. table keys are
+   * wrapped by {@link TableKey#of(LuaObject)}
+   */
+  final Set<Object> keys = new LinkedHashSet<>();
+  /** the keys of nested tables that changed in place, wrapped as in {@link #keys} */
+  final Map<Object, LuaTable> nested = new LinkedHashMap<>();
+  /** the tracked tables this table is in, and the key it was last seen at in each */
+  final Map<LuaTable, LuaObject> parents = new IdentityHashMap<>();
+
+  /**
+   * check if nothing has changed since the last drain
+   *
+   * @return true if there are no changes
+   */
+  boolean isEmpty() {
+    return this.indexes.isEmpty() && this.keys.isEmpty() && this.nested.isEmpty();
+  }
+
+  /**
+   * check if the value at the given key was changed rather than only changed in place
+   *
+   * @param key the key
+   * @param index the index the key represents or 0 if it is not one
+   * @return true if the value at the key changed
+   */
+  boolean changed(LuaObject key, int index) {
+    return index > 0 && this.indexes.get(index) || this.keys.contains(TableKey.of(key));
+  }
+
+  /** forgets the changes, keeping the links to the tables this table is in */
+  void clear() {
+    this.indexes.clear();
+    this.keys.clear();
+    this.nested.clear();
+  }
+}
@@ -0,0 +1,392 @@
+package com.spag.lua;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+/**
+ * A lua table that may be shared between and modified by several threads at once
+ *
+ * <p>keyed values live in a {@link ConcurrentHashMap} and are read and written without any
+ * locking. the array part is guarded by a {@link StampedLock}: reads are optimistic and never
+ * block, replacing one non nil value with another only needs the shared lock (so such writes from
+ * different threads run in parallel) and only changes to the shape of the array part (growing,
+ * shrinking, inserting and moving values over from the hash part) take the exclusive lock
+ *
+ * <p>{@link #put}, {@link #insert(LuaObject)}, {@link #insert(LuaNum, LuaObject)} and the array
+ * part of {@link #merge(LuaTableView)} are atomic, iteration is weakly consistent in the same way
+ * as the iterators of {@link ConcurrentHashMap}. as in {@link LuaTable} tables used as keys are
+ * matched by their identity
+ *
+ * @author MR_Spagetty
+ */
+public final class ConcurrentLuaTable implements MutableLuaTable {
+  private static final LuaObject[] EMPTY = {};
+  private static final int MIN_CAPACITY = 8;
+  private static final VarHandle ELEMENTS = MethodHandles.arrayElementVarHandle(LuaObject[].class);
+
+  // table keys are wrapped in a TableKey so they are matched by identity
+  private final ConcurrentHashMap<Object, LuaObject> dataByKey = new ConcurrentHashMap<>();
+  private final StampedLock lock = new StampedLock();
+  // the array part, the fields may only be changed while holding the exclusive lock
+  private LuaObject[] data = EMPTY;
+  private int size;
+  private int count;
+
+  /** creates a new empty table */
+  public ConcurrentLuaTable() {}
+
+  /**
+   * creates a new table holding the same values as the given table
+   *
+   * @param table the table to copy
+   */
+  public ConcurrentLuaTable(LuaTableView table) {
+    merge(table);
+  }
+
+  @Override
+  public LuaObject get(LuaObject keyInd) {
+    Objects.requireNonNull(keyInd, "Key/Index may not be null");
+    int index = indexOf(keyInd);
+    if (index > 0) {
+      return getByIndex(index);
+    }
+    if (keyInd instanceof LuaNum ln && !Double.isNaN(ln.doubleValue())) {
+      keyInd = ln.normalized();
+    }
+    return this.dataByKey.getOrDefault(TableKey.of(keyInd), LuaObject.nil);
+  }
+
+  private LuaObject getByIndex(int index) {
+    long stamp = this.lock.tryOptimisticRead();
+    LuaObject value = readIndex(index);
+    if (!this.lock.validate(stamp)) {
+      stamp = this.lock.readLock();
+      try {
+        value = readIndex(index);
+      } finally {
+        this.lock.unlockRead(stamp);
+      }
+    }
+    return value;
+  }
+
+  /** reads an index, under an optimistic read the fields may be out of step with each other */
+  private LuaObject readIndex(int index) {
+    LuaObject[] data = this.data;
+    if (index > this.size || index > data.length) {
+      return this.dataByKey.getOrDefault(LuaNum.of(index), LuaObject.nil);
+    }
+    return (LuaObject) ELEMENTS.getVolatile(data, index - 1);
+  }
+
+  @Override
+  public void put(LuaObject keyInd, LuaObject value) {
+    Objects.requireNonNull(keyInd, "Key may not be null");
+    Objects.requireNonNull(value, "new Element may not be null");
+    if (keyInd == LuaObject.nil) {
+      throw new IllegalArgumentException("Key may not be nil");
+    }
+    int index = indexOf(keyInd);
+    if (index > 0) {
+      if (!replaceAtIndex(index, value)) {
+        long stamp = this.lock.writeLock();
+        try {
+          putAtIndex(index, value);
+        } finally {
+          this.lock.unlockWrite(stamp);
+        }
+      }
+      return;
+    }
+    if (keyInd instanceof LuaNum ln) {
+      if (Double.isNaN(ln.doubleValue())) {
+        throw new IllegalArgumentException("Key may not be NaN");
+      }
+      keyInd = ln.normalized();
+    }
+    if (value == LuaObject.nil) {
+      this.dataByKey.remove(TableKey.of(keyInd));
+    } else {
+      this.dataByKey.put(TableKey.of(keyInd), value);
+    }
+  }
+
+  /**
+   * replaces a non nil value in the array part with another non nil value, the only index write
+   * that leaves the shape of the array part unchanged and so can be done under the shared lock
+   *
+   * @return true if the value was replaced, false if the exclusive lock is needed
+   */
+  private boolean replaceAtIndex(int index, LuaObject value) {
+    if (value == LuaObject.nil) {
+      return false;
+    }
+    long stamp = this.lock.readLock();
+    try {
+      if (index > this.size) {
+        return false;
+      }
+      // nil values are only written under the exclusive lock so this can not race to nil
+      if (ELEMENTS.getVolatile(this.data, index - 1) == LuaObject.nil) {
+        return false;
+      }
+      ELEMENTS.setVolatile(this.data, index - 1, value);
+      return true;
+    } finally {
+      this.lock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * stores a value at a positive integer key using the same rules as {@link LuaTable}, the caller
+   * must hold the exclusive lock
+   */
+  private void putAtIndex(int index, LuaObject value) {
+    if (index <= this.size) {
+      LuaObject old = (LuaObject) ELEMENTS.getVolatile(this.data, index - 1);
+      ELEMENTS.setVolatile(this.data, index - 1, value);
+      this.count += weight(value) - weight(old);
+      trimTrailingNils();
+      return;
+    }
+    LuaNum key = LuaNum.of(index);
+    if (value == LuaObject.nil) {
+      this.dataByKey.remove(key);
+      return;
+    }
+    if (index > this.size + 1 && (long) (this.count + 1) * 2 < index) {
+      this.dataByKey.put(key, value);
+      return;
+    }
+    this.dataByKey.remove(key);
+    while (this.size < index - 1) {
+      // the indexes skipped over may already have values in the hash part
+      LuaObject skipped = this.dataByKey.isEmpty() ? null
+          : this.dataByKey.remove(LuaNum.of(this.size + 1));
+      append(skipped == null ? LuaObject.nil : skipped);
+    }
+    append(value);
+    migrateFromHash();
+  }
+
+  @Override
+  public void insert(LuaObject value) {
+    Objects.requireNonNull(value);
+    long stamp = this.lock.writeLock();
+    try {
+      insertAt(this.size + 1, value);
+    } finally {
+      this.lock.unlockWrite(stamp);
+    }
+  }
+
+  @Override
+  public void insert(LuaNum index, LuaObject value) {
+    Objects.requireNonNull(index);
+    Objects.requireNonNull(value);
+    if (!index.isInteger() || !index.isPositive()) {
+      throw new IllegalArgumentException("Expected positive integer for index");
+    }
+    int i = indexOf(index);
+    long stamp = this.lock.writeLock();
+    try {
+      if (i < 1 || i > this.size + 1) {
+        throw new IndexOutOfBoundsException(index.toString());
+      }
+      insertAt(i, value);
+    } finally {
+      this.lock.unlockWrite(stamp);
+    }
+  }
+
+  /** inserts a value shunting the values after it up, the caller must hold the exclusive lock */
+  private void insertAt(int index, LuaObject value) {
+    ensureCapacity(this.size + 1);
+    System.arraycopy(this.data, index - 1, this.data, index, this.size - index + 1);
+    ELEMENTS.setVolatile(this.data, index - 1, value);
+    this.size++;
+    this.count += weight(value);
+    trimTrailingNils();
+    migrateFromHash();
+  }
+
+  /**
+   * merges another table into this one
+   *
+   * <p>the other table is copied before this table is locked, so two tables may safely be merged
+   * into each other at the same time. the indexed items of the other table are added to this one
+   * in a single atomic step, keyed items are then put one at a time
+   *
+   * @param other the table to merge from
+   * @return this table after the merge operation
+   * @see LuaTable#merge(LuaTable) LuaTable.merge(LuaTable) for merge rules
+   */
+  @Override
+  public ConcurrentLuaTable merge(LuaTableView other) {
+    Objects.requireNonNull(other);
+    LuaTable source = other instanceof ConcurrentLuaTable table ? table.snapshot() : null;
+    List<LuaObject> indexed;
+    List<Map.Entry<LuaObject, LuaObject>> keyed = new ArrayList<>();
+    if (source != null) {
+      indexed = source.stream().toList();
+      source.forEachKeyed((k, v) -> keyed.add(Map.entry(k, v)));
+    } else {
+      indexed = other.stream().toList();
+      int border = indexed.size();
+      other.pairs((k, v) -> {
+        if (!(k instanceof LuaNum num) || num.asIndex() == 0 || num.asIndex() > border) {
+          keyed.add(Map.entry(k, v));
+        }
+      });
+    }
+    long stamp = this.lock.writeLock();
+    try {
+      ensureCapacity(this.size + indexed.size());
+      for (LuaObject value : indexed) {
+        // the appended values replace any kept in the hash part at the same indexes
+        if (!this.dataByKey.isEmpty()) {
+          this.dataByKey.remove(LuaNum.of(this.size + 1));
+        }
+        append(value);
+      }
+      migrateFromHash();
+      for (Map.Entry<LuaObject, LuaObject> entry : keyed) {
+        int index = indexOf(entry.getKey());
+        if (index > 0) {
+          putAtIndex(index, entry.getValue());
+        } else {
+          this.dataByKey.put(TableKey.of(entry.getKey()), entry.getValue());
+        }
+      }
+    } finally {
+      this.lock.unlockWrite(stamp);
+    }
+    return this;
+  }
+
+  /**
+   * copies the current content of this table into a plain {@link LuaTable}, the array part of the
+   * copy is consistent while the hash part is as weakly consistent as iterating this table
+   *
+   * @return a new LuaTable holding the values in this table
+   */
+  public LuaTable snapshot() {
+    LuaTable out = new LuaTable();
+    for (LuaObject value : indexedSnapshot()) {
+      out.append(value);
+    }
+    this.dataByKey.forEach((k, v) -> out.put(TableKey.unwrap(k), v));
+    return out;
+  }
+
+  private LuaObject[] indexedSnapshot() {
+    long stamp = this.lock.readLock();
+    try {
+      return Arrays.copyOf(this.data, this.size);
+    } finally {
+      this.lock.unlockRead(stamp);
+    }
+  }
+
+  @Override
+  public int size() {
+    long stamp = this.lock.tryOptimisticRead();
+    int size = this.size;
+    if (!this.lock.validate(stamp)) {
+      stamp = this.lock.readLock();
+      try {
+        size = this.size;
+      } finally {
+        this.lock.unlockRead(stamp);
+      }
+    }
+    return size;
+  }
+
+  @Override
+  public void ipairs(BiConsumer<LuaNum, LuaObject> iterator) {
+    LuaObject[] values = indexedSnapshot();
+    for (int i = 0; i < values.length && values[i] != LuaObject.nil; i++) {
+      iterator.accept(LuaNum.of(i + 1), values[i]);
+    }
+  }
+
+  @Override
+  public void forEachIndexed(IntObjConsumer<LuaObject> action) {
+    LuaObject[] values = indexedSnapshot();
+    for (int i = 0; i < values.length && values[i] != LuaObject.nil; i++) {
+      action.accept(i + 1, values[i]);
+    }
+  }
+
+  @Override
+  public void pairs(BiConsumer<LuaObject, LuaObject> iterator) {
+    LuaObject[] values = indexedSnapshot();
+    for (int i = 0; i < values.length; i++) {
+      if (values[i] != LuaObject.nil) {
+        iterator.accept(LuaNum.of(i + 1), values[i]);
+      }
+    }
+    this.dataByKey.forEach((k, v) -> iterator.accept(TableKey.unwrap(k), v));
+  }
+
+  @Override
+  public Stream<LuaObject> stream() {
+    return Arrays.stream(indexedSnapshot());
+  }
+
+  @Override
+  public String toString() {
+    return snapshot().toString();
+  }
+
+  private static int indexOf(LuaObject key) {
+    return key instanceof LuaNum ln ? ln.asIndex() : 0;
+  }
+
+  private static int weight(LuaObject value) {
+    return value == LuaObject.nil ? 0 : 1;
+  }
+
+  // the helpers below change the shape of the array part, the caller must hold the exclusive lock
+
+  private void append(LuaObject value) {
+    ensureCapacity(this.size + 1);
+    ELEMENTS.setVolatile(this.data, this.size, value);
+    this.size++;
+    this.count += weight(value);
+  }
+
+  private void migrateFromHash() {
+    if (this.dataByKey.isEmpty()) {
+      return;
+    }
+    LuaObject next;
+    while ((next = this.dataByKey.remove(LuaNum.of(this.size + 1))) != null) {
+      append(next);
+    }
+  }
+
+  private void trimTrailingNils() {
+    while (this.size > 0 && this.data[this.size - 1] == LuaObject.nil) {
+      this.size--;
+    }
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > this.data.length) {
+      int grown = Math.max(MIN_CAPACITY, this.data.length + (this.data.length >> 1));
+      this.data = Arrays.copyOf(this.data, Math.max(grown, capacity));
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package com.spag.lua;
+
+/**
+ * An approximate count of how often each key has been seen recently, used by {@link LuaParseCache}
+ * to decide which tables are worth keeping
+ *
+ * <p>a count-min sketch of 4 bit counters packed 16 to a long, each key is counted in 4 counters
+ * and its frequency is the smallest of them so collisions only ever overestimate. once as many
+ * keys as 10 times the capacity have been counted every counter is halved, so the counts follow
+ * what is popular now rather than over the whole life of the cache
+ *
+ * @author MR_Spagetty
+ */
+final class FrequencySketch {
+  private static final long[] SEEDS = {
+      0xC3A5C85C97CB3127L, 0xB492B66FBE98F273L, 0x9AE16A3B2F90404FL, 0xCBF29CE484222325L};
+  private static final long RESET_MASK = 0x7777_7777_7777_7777L;
+
+  private final long[] table;
+  private final int sampleSize;
+  private int additions;
+
+  /** @param capacity the number of keys the sketch should tell apart */
+  FrequencySketch(int capacity) {
+    int length = Integer.highestOneBit(Math.max(8, Math.min(capacity, 1 << 24)) - 1) << 1;
+    this.table = new long[length];
+    this.sampleSize = 10 * Math.max(capacity, 8);
+  }
+
+  /** the estimated number of times the key with the given hash has been counted, at most 15 */
+  int frequency(long hash) {
+    int frequency = 15;
+    for (int i = 0; i < SEEDS.length; i++) {
+      long h = mix(hash, i);
+      int index = (int) h & (this.table.length - 1);
+      int offset = (int) (h >>> 60) << 2;
+      frequency = Math.min(frequency, (int) (this.table[index] >>> offset) & 0xF);
+    }
+    return frequency;
+  }
+
+  /** counts the key with the given hash once more */
+  void increment(long hash) {
+    boolean added = false;
+    for (int i = 0; i < SEEDS.length; i++) {
+      long h = mix(hash, i);
+      int index = (int) h & (this.table.length - 1);
+      int offset = (int) (h >>> 60) << 2;
+      if (((this.table[index] >>> offset) & 0xF) != 0xF) {
+        this.table[index] += 1L << offset;
+        added = true;
+      }
+    }
+    if (added && ++this.additions == this.sampleSize) {
+      reset();
+    }
+  }
+
+  /** halves every counter */
+  private void reset() {
+    for (int i = 0; i < this.table.length; i++) {
+      this.table[i] = (this.table[i] >>> 1) & RESET_MASK;
+    }
+    this.additions /= 2;
+  }
+
+  private static long mix(long hash, int i) {
+    long h = (hash ^ SEEDS[i]) * 0x9E3779B97F4A7C15L;
+    return h ^ (h >>> 29);
+  }
+}
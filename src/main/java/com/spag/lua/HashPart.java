@@ -0,0 +1,282 @@
+package com.spag.lua;
+
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/**
+ * The hash part of a {@link LuaTable}, an insertion ordered open addressing map specialized for
+ * lua keys and values
+ *
+ * <p>entries are stored densely in insertion order across three parallel arrays (keys, values and
+ * the cached hash of each key), so iterating visits entries in the order they were first put.
+ * lookups go through a separate power of two sized {@code int[]} index holding positions into
+ * those arrays, collisions are resolved by linear probing with Robin Hood displacement and removals
+ * use backward shifting so no tombstones are ever left in the index
+ *
+ * <p>removing an entry leaves a gap in the entry arrays, gaps are squeezed out when the arrays
+ * would otherwise have to grow. positions given out by this class stay valid until the next put
+ * of a new key or removal
+ *
+ * <p>table keys are matched by identity as they are in lua, other keys by their content
+ *
+ * @author MR_Spagetty
+ */
+final class HashPart {
+  private static final int MIN_CAPACITY = 8;
+  private static final int[] NO_INDEX = {};
+  private static final LuaObject[] EMPTY = {};
+
+  private LuaObject[] keys = EMPTY;
+  private LuaObject[] values = EMPTY;
+  private int[] hashes = NO_INDEX;
+  /** the number of entry slots used, including gaps left by removals */
+  private int used;
+  /** the number of live entries */
+  private int size;
+  /** slots hold an entry position + 1, 0 marks an empty slot */
+  private int[] index = NO_INDEX;
+
+  int size() {
+    return this.size;
+  }
+
+  boolean isEmpty() {
+    return this.size == 0;
+  }
+
+  /**
+   * gets the value stored at the given key
+   *
+   * @param key the key to look up
+   * @return the value or null if the key is not present
+   */
+  LuaObject get(LuaObject key) {
+    int pos = find(key);
+    return pos < 0 ? null : this.values[pos];
+  }
+
+  /**
+   * stores a value at the given key, new keys are placed after all existing ones
+   *
+   * @param key the key to store the value at
+   * @param value the value to store, never nil
+   * @return the old value or null if the key was not present
+   */
+  LuaObject put(LuaObject key, LuaObject value) {
+    int hash = hash(key);
+    int pos = find(key, hash);
+    if (pos >= 0) {
+      LuaObject old = this.values[pos];
+      this.values[pos] = value;
+      return old;
+    }
+    if (this.used == this.keys.length) {
+      makeRoom();
+    }
+    pos = this.used++;
+    this.keys[pos] = key;
+    this.values[pos] = value;
+    this.hashes[pos] = hash;
+    this.size++;
+    link(pos, hash);
+    return null;
+  }
+
+  /**
+   * removes the entry with the given key
+   *
+   * @param key the key to remove
+   * @return the removed value or null if the key was not present
+   */
+  LuaObject remove(LuaObject key) {
+    if (this.size == 0) {
+      return null;
+    }
+    int hash = hash(key);
+    int mask = this.index.length - 1;
+    int slot = slotOf(key, hash, mask);
+    if (slot < 0) {
+      return null;
+    }
+    int pos = this.index[slot] - 1;
+    // shift the following run back a slot so lookups never need to skip a hole
+    int next = (slot + 1) & mask;
+    while (this.index[next] != 0 && distance(next, mask) > 0) {
+      this.index[slot] = this.index[next];
+      slot = next;
+      next = (next + 1) & mask;
+    }
+    this.index[slot] = 0;
+    LuaObject old = this.values[pos];
+    this.keys[pos] = null;
+    this.values[pos] = null;
+    this.size--;
+    while (this.used > 0 && this.keys[this.used - 1] == null) {
+      this.used--;
+    }
+    return old;
+  }
+
+  boolean containsKey(LuaObject key) {
+    return find(key) >= 0;
+  }
+
+  /**
+   * finds the position of the entry with the given key
+   *
+   * @param key the key to find
+   * @return the position or -1 if the key is not present
+   */
+  int find(LuaObject key) {
+    return this.size == 0 ? -1 : find(key, hash(key));
+  }
+
+  /**
+   * the position of the first live entry at or after the given position
+   *
+   * @param pos the position to start from, 0 for the first entry
+   * @return the position or -1 if there are no more entries
+   */
+  int next(int pos) {
+    for (; pos < this.used; pos++) {
+      if (this.keys[pos] != null) {
+        return pos;
+      }
+    }
+    return -1;
+  }
+
+  LuaObject keyAt(int pos) {
+    return this.keys[pos];
+  }
+
+  LuaObject valueAt(int pos) {
+    return this.values[pos];
+  }
+
+  /**
+   * visits every entry in insertion order
+   *
+   * @param action what to do for each entry
+   */
+  void forEach(BiConsumer<LuaObject, LuaObject> action) {
+    for (int pos = 0; pos < this.used; pos++) {
+      if (this.keys[pos] != null) {
+        action.accept(this.keys[pos], this.values[pos]);
+      }
+    }
+  }
+
+  private int find(LuaObject key, int hash) {
+    if (this.size == 0) {
+      return -1;
+    }
+    int slot = slotOf(key, hash, this.index.length - 1);
+    return slot < 0 ? -1 : this.index[slot] - 1;
+  }
+
+  private int slotOf(LuaObject key, int hash, int mask) {
+    int slot = hash & mask;
+    for (int dist = 0; ; dist++) {
+      int entry = this.index[slot];
+      if (entry == 0) {
+        return -1;
+      }
+      int pos = entry - 1;
+      if (this.hashes[pos] == hash) {
+        LuaObject other = this.keys[pos];
+        if (other == key || !(other instanceof LuaTable) && other.equals(key)) {
+          return slot;
+        }
+      }
+      // a richer entry can't come after a poorer one, so the key would have been placed by now
+      if (distance(slot, mask) < dist) {
+        return -1;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  /** places an entry in the index, displacing entries closer to their home slot */
+  private void link(int pos, int hash) {
+    int mask = this.index.length - 1;
+    int slot = hash & mask;
+    int entry = pos + 1;
+    for (int dist = 0; ; dist++) {
+      int other = this.index[slot];
+      if (other == 0) {
+        this.index[slot] = entry;
+        return;
+      }
+      int otherDist = distance(slot, mask);
+      if (otherDist < dist) {
+        this.index[slot] = entry;
+        entry = other;
+        dist = otherDist;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  /** how far the entry in the given slot is from the slot its hash would place it in */
+  private int distance(int slot, int mask) {
+    return (slot - (this.hashes[this.index[slot] - 1] & mask)) & mask;
+  }
+
+  /**
+   * makes room for at least the given number of entries, so that many can be put without growing
+   *
+   * @param capacity the number of entries to make room for
+   */
+  void ensureCapacity(int capacity) {
+    if (capacity > this.keys.length) {
+      resize(capacity);
+    }
+  }
+
+  /**
+   * makes room for a new entry, squeezing out gaps left by removals if there are enough of them
+   * otherwise doubling the capacity
+   */
+  private void makeRoom() {
+    resize(this.size < this.used - (this.used >> 2)
+        ? this.keys.length
+        : Math.max(MIN_CAPACITY, this.keys.length << 1));
+  }
+
+  /** moves the live entries into arrays of the given capacity with a matching index */
+  private void resize(int capacity) {
+    LuaObject[] keys = new LuaObject[capacity];
+    LuaObject[] values = new LuaObject[capacity];
+    int[] hashes = new int[capacity];
+    int live = 0;
+    for (int pos = 0; pos < this.used; pos++) {
+      if (this.keys[pos] != null) {
+        keys[live] = this.keys[pos];
+        values[live] = this.values[pos];
+        hashes[live] = this.hashes[pos];
+        live++;
+      }
+    }
+    this.keys = keys;
+    this.values = values;
+    this.hashes = hashes;
+    this.used = live;
+    // keep the index at most two thirds full
+    int slots = Integer.highestOneBit(Math.max(MIN_CAPACITY, capacity + (capacity >> 1)) - 1) << 1;
+    if (slots != this.index.length) {
+      this.index = new int[slots];
+    } else {
+      Arrays.fill(this.index, 0);
+    }
+    for (int pos = 0; pos < live; pos++) {
+      link(pos, hashes[pos]);
+    }
+  }
+
+  private static int hash(LuaObject key) {
+    // tables are keys by identity as in lua, their own hash follows their content which can change
+    int h = (key instanceof LuaTable ? System.identityHashCode(key) : key.hashCode()) * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+}
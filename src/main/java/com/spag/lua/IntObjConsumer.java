@@ -0,0 +1,19 @@
+package com.spag.lua;
+
+/**
+ * An operation on an {@code int} and an object, the primitive specialization of {@link
+ * java.util.function.BiConsumer} used to iterate over table indexes without boxing them
+ *
+ * @param <T> the type of the object
+ * @author MR_Spagetty
+ */
+@FunctionalInterface
+public interface IntObjConsumer<T> {
+  /**
+   * performs this operation on the given arguments
+   *
+   * @param index the int argument
+   * @param value the object argument
+   */
+  void accept(int index, T value);
+}
@@ -0,0 +1,404 @@
+package com.spag.lua;
+
+import java.util.Objects;
+import java.util.function.BiConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * A read only view of a serialized table that only parses what is asked for
+ *
+ * <p>creating the view only scans the top level of the table, noting where each value starts and
+ * ends in the serialized data. a value is parsed the first time it is accessed, nested tables
+ * become lazy tables of their own so only the path that is actually followed is ever parsed.
+ * strings and numbers are likewise only created when they are read
+ *
+ * <p>keys are parsed up front so lookups follow exactly the same rules as {@link LuaTable}.
+ * as values are only checked when they are parsed an invalid nested value is only reported when
+ * it is accessed
+ *
+ * <p><b>NOTE</b>: the view keeps a reference to the serialized data, which must not change while
+ * the view is in use. like {@link LuaTable} it is not safe to use from several threads at once
+ *
+ * @author MR_Spagetty
+ */
+public final class LazyLuaTable implements LuaTableView {
+  private final Source source;
+  private final long start;
+  private final long end;
+  // values not yet parsed are held as spans
+  private final LuaTable index;
+
+  /**
+   * serialized data a lazy table can be read from, positions are longs so that sources larger than
+   * a {@link CharSequence} can index may be used
+   */
+  interface Source {
+    /** the length of the data */
+    long length();
+
+    /**
+     * the character at the given position, sources holding UTF-8 bytes give each byte on its own
+     * which is enough to find the structure of a table as that is all ascii
+     */
+    int charAt(long pos);
+
+    /** parses the single value between the given positions */
+    LuaObject parse(long start, long end);
+
+    /**
+     * finds the end of the table starting at the given position without reading it, for sources
+     * that know their structure ahead of time
+     *
+     * @return the position after the closing brace of the table or -1 if it has to be found by
+     *     reading the table
+     */
+    default long tableEnd(long start) {
+      return -1;
+    }
+  }
+
+  /**
+   * a source over a character sequence, with the structural index of the whole sequence when it
+   * can be built with the vector scanner. without it reading past a table directly is cheaper than
+   * building the index one character at a time
+   */
+  private record Chars(CharSequence data, StructuralIndex index) implements Source {
+    Chars(CharSequence data) {
+      this(data, StructuralIndex.VECTORIZED ? StructuralIndex.of(data) : null);
+    }
+
+    @Override
+    public long tableEnd(long start) {
+      return this.index == null ? -1 : this.index.tableEnd((int) start);
+    }
+
+    @Override
+    public long length() {
+      return this.data.length();
+    }
+
+    @Override
+    public int charAt(long pos) {
+      return this.data.charAt((int) pos);
+    }
+
+    @Override
+    public LuaObject parse(long start, long end) {
+      return LuaTableParser.parse(this.data, (int) start, (int) end);
+    }
+  }
+
+  /** the position of a value that has not yet been parsed */
+  record Span(long start, long end) implements LuaObject {
+    @Override
+    public String type() {
+      return "span";
+    }
+  }
+
+  /**
+   * @param source the serialized data
+   * @param start the offset of the opening brace of the table
+   * @param end the offset after the closing brace of the table
+   */
+  private LazyLuaTable(Source source, long start, long end) {
+    this(source, start, end, new LuaTable());
+    scan();
+  }
+
+  /**
+   * creates a view from an index that has already been built
+   *
+   * @param source the serialized data
+   * @param start the offset of the opening brace of the table
+   * @param end the offset after the closing brace of the table
+   * @param index the table holding the values of the table, with {@link Span}s in place of the
+   *     values that have not been parsed
+   */
+  LazyLuaTable(Source source, long start, long end, LuaTable index) {
+    this.source = source;
+    this.start = start;
+    this.end = end;
+    this.index = index;
+  }
+
+  /**
+   * creates a lazy view of the serialized table held in the given character sequence
+   *
+   * @param data the serialized table
+   * @return the lazy view of the table
+   * @throws IllegalArgumentException if the top level of the table is invalid
+   */
+  static LazyLuaTable of(CharSequence data) {
+    Objects.requireNonNull(data, "Lua data may not be null");
+    return of(new Chars(data));
+  }
+
+  /**
+   * scans the table that has already been found between the given offsets of the source
+   *
+   * @param data the serialized data
+   * @param start the offset of the opening brace of the table
+   * @param end the offset after the closing brace of the table
+   * @return the lazy view of the table
+   * @throws IllegalArgumentException if the top level of the table is invalid
+   */
+  static LazyLuaTable of(Source data, long start, long end) {
+    return new LazyLuaTable(data, start, end);
+  }
+
+  /**
+   * creates a lazy view of the serialized table held in the given source
+   *
+   * @param data the serialized table
+   * @return the lazy view of the table
+   * @throws IllegalArgumentException if the top level of the table is invalid
+   */
+  static LazyLuaTable of(Source data) {
+    long start = skipWhitespace(data, 0, data.length());
+    if (start == data.length() || data.charAt(start) != '{') {
+      throw error("Invalid Lua table, expected '{'", start);
+    }
+    long end = skipValue(data, start, data.length());
+    if (skipWhitespace(data, end, data.length()) != data.length()) {
+      throw error("Invalid Lua table, unexpected data after the closing '}'", end);
+    }
+    return new LazyLuaTable(data, start, end);
+  }
+
+  /**
+   * the table holding the values of this table, with {@link Span}s in place of the values that have
+   * not been parsed
+   */
+  LuaTable index() {
+    return this.index;
+  }
+
+  Source source() {
+    return this.source;
+  }
+
+  long start() {
+    return this.start;
+  }
+
+  long end() {
+    return this.end;
+  }
+
+  /** indexes the top level fields of the table */
+  private void scan() {
+    Source data = this.source;
+    long limit = this.end - 1;
+    long pos = this.start + 1;
+    while (true) {
+      pos = skipWhitespace(data, pos, limit);
+      if (pos == limit) {
+        return;
+      }
+      LuaObject key = null;
+      int c = data.charAt(pos);
+      if (c == '[') {
+        long keyStart = skipWhitespace(data, pos + 1, limit);
+        long keyEnd = skipValue(data, keyStart, limit);
+        key = data.parse(keyStart, keyEnd);
+        pos = expect(data, expect(data, keyEnd, limit, ']'), limit, '=');
+      } else if (isNameStart(c)) {
+        long nameEnd = pos;
+        while (nameEnd < limit && (isNameStart(data.charAt(nameEnd))
+            || isDigit(data.charAt(nameEnd)))) {
+          nameEnd++;
+        }
+        long after = skipWhitespace(data, nameEnd, limit);
+        if (after < limit && data.charAt(after) == '=') {
+          StringBuilder builder = new StringBuilder((int) (nameEnd - pos));
+          for (long i = pos; i < nameEnd; i++) {
+            builder.append((char) data.charAt(i));
+          }
+          String name = builder.toString();
+          if (name.equals("true") || name.equals("false") || name.equals("nil")) {
+            throw error("implicit string keys may not match boolean value names or nil", after);
+          }
+          key = LuaString.of(name);
+          pos = after + 1;
+        }
+      }
+      long valueStart = skipWhitespace(data, pos, limit);
+      long valueEnd = skipValue(data, valueStart, limit);
+      LuaObject value = valueOf(data, valueStart, valueEnd);
+      if (key == null) {
+        this.index.append(value);
+      } else {
+        this.index.put(key, value);
+      }
+      pos = skipWhitespace(data, valueEnd, limit);
+      if (pos < limit) {
+        c = data.charAt(pos);
+        if (c != ',' && c != ';') {
+          throw error("Invalid Lua table, expected ',' or '}'", pos);
+        }
+        pos++;
+      }
+    }
+  }
+
+  /**
+   * the placeholder for a value, nil and the booleans are stored directly so that the table has
+   * the same shape as a fully parsed one
+   */
+  private static LuaObject valueOf(Source data, long start, long end) {
+    if (matches(data, start, end, "nil")) {
+      return LuaObject.nil;
+    } else if (matches(data, start, end, "true")) {
+      return LuaBool.True;
+    } else if (matches(data, start, end, "false")) {
+      return LuaBool.False;
+    }
+    return new Span(start, end);
+  }
+
+  private LuaObject resolve(LuaObject key, LuaObject value) {
+    if (!(value instanceof Span span)) {
+      return value;
+    }
+    LuaObject parsed = this.source.charAt(span.start) == '{'
+        ? new LazyLuaTable(this.source, span.start, span.end)
+        : this.source.parse(span.start, span.end);
+    this.index.put(key, parsed);
+    return parsed;
+  }
+
+  @Override
+  public LuaObject get(LuaObject keyInd) {
+    return resolve(keyInd, this.index.get(keyInd));
+  }
+
+  @Override
+  public int size() {
+    return this.index.size();
+  }
+
+  @Override
+  public void ipairs(BiConsumer<LuaNum, LuaObject> iterator) {
+    this.index.ipairs((i, v) -> iterator.accept(i, resolve(i, v)));
+  }
+
+  @Override
+  public void pairs(BiConsumer<LuaObject, LuaObject> iterator) {
+    this.index.pairs((k, v) -> iterator.accept(k, resolve(k, v)));
+  }
+
+  @Override
+  public Stream<LuaObject> stream() {
+    return IntStream.rangeClosed(1, size()).mapToObj(i -> get(LuaNum.of(i)));
+  }
+
+  /**
+   * fully parses the table this view is of
+   *
+   * @return the parsed table
+   * @throws IllegalArgumentException if the table is invalid
+   */
+  public LuaTable toTable() {
+    return (LuaTable) this.source.parse(this.start, this.end);
+  }
+
+  @Override
+  public String toString() {
+    return toTable().toString();
+  }
+
+  /**
+   * finds the end of the value starting at the given offset without parsing it
+   *
+   * @return the offset after the last character of the value
+   */
+  private static long skipValue(Source data, long pos, long limit) {
+    if (pos == limit) {
+      throw error("Invalid Lua table, unexpected end of data", pos);
+    }
+    int c = data.charAt(pos);
+    if (c == '"') {
+      return skipString(data, pos, limit);
+    } else if (c == '{') {
+      long end = data.tableEnd(pos);
+      if (end >= 0 && end <= limit) {
+        return end;
+      }
+      // read the table to find out what is wrong with it
+      int depth = 0;
+      for (long i = pos; i < limit; i++) {
+        c = data.charAt(i);
+        if (c == '"') {
+          i = skipString(data, i, limit) - 1;
+        } else if (c == '{') {
+          depth++;
+        } else if (c == '}' && --depth == 0) {
+          return i + 1;
+        }
+      }
+      throw error("Invalid Lua table, unterminated table", pos);
+    }
+    long i = pos;
+    while (i < limit && (c = data.charAt(i)) > ' ' && c != ',' && c != ';' && c != '}'
+        && c != ']') {
+      i++;
+    }
+    if (i == pos) {
+      throw error("Unrecognised type detected: " + (char) c, pos);
+    }
+    return i;
+  }
+
+  private static long skipString(Source data, long pos, long limit) {
+    for (long i = pos + 1; i < limit; i++) {
+      int c = data.charAt(i);
+      if (c == '\\') {
+        i++;
+      } else if (c == '"') {
+        return i + 1;
+      }
+    }
+    throw error("Invalid Lua table, unterminated string", pos);
+  }
+
+  private static long skipWhitespace(Source data, long pos, long limit) {
+    while (pos < limit && data.charAt(pos) <= ' ') {
+      pos++;
+    }
+    return pos;
+  }
+
+  private static long expect(Source data, long pos, long limit, char expected) {
+    pos = skipWhitespace(data, pos, limit);
+    if (pos == limit || data.charAt(pos) != expected) {
+      throw error("Invalid Lua table, expected '" + expected + "'", pos);
+    }
+    return pos + 1;
+  }
+
+  private static boolean matches(Source data, long start, long end, String word) {
+    if (end - start != word.length()) {
+      return false;
+    }
+    for (int i = 0; i < word.length(); i++) {
+      if (data.charAt(start + i) != word.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static IllegalArgumentException error(String message, long offset) {
+    return new IllegalArgumentException(message + " at offset " + offset);
+  }
+
+  private static boolean isDigit(int c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static boolean isNameStart(int c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+  }
+}
@@ -0,0 +1,574 @@
+package com.spag.lua;
+
+import java.lang.foreign.MemorySegment;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Compact tagged binary encoding of lua values, an alternative to the serialized text form for
+ * moving tables between machines
+ *
+ * <p>an encoded value starts with the magic bytes {@code LUAB} and a version byte followed by a
+ * dictionary of the strings that occur more than once in the value, which are then referred to by
+ * their position in the dictionary rather than being written out again. values are a tag byte
+ * followed by:
+ *
+ * <ul>
+ *   <li>nil, false, true: nothing
+ *   <li>integer: a zigzag varint
+ *   <li>float: the 8 bytes of the double, little endian
+ *   <li>decimal: the zigzag varint scale then the varint length and bytes of the unscaled value
+ *   <li>string: the varint length and the UTF-8 bytes, or the varint index of a dictionary entry
+ *   <li>table: the varint number of array slots and the slots (nil holes included) then the varint
+ *       number of keyed entries and each key followed by its value
+ * </ul>
+ *
+ * <p>decoding a table reproduces the same table as parsing the text that {@link
+ * LuaTable#toString()} gives for it, nil slots at the end of an array part are dropped as they are
+ * when parsing. nested tables are walked with an explicit stack in both directions so there is no
+ * limit on how deeply they may be nested
+ *
+ * @author MR_Spagetty
+ */
+public final class LuaBinary {
+  private static final byte[] MAGIC = {'L', 'U', 'A', 'B'};
+  private static final byte VERSION = 1;
+
+  static final byte NIL = 0;
+  static final byte FALSE = 1;
+  static final byte TRUE = 2;
+  static final byte INTEGER = 3;
+  static final byte FLOAT = 4;
+  static final byte DECIMAL = 5;
+  static final byte STRING = 6;
+  static final byte STRING_REF = 7;
+  static final byte TABLE = 8;
+
+  private LuaBinary() {}
+
+  /**
+   * encodes the given value into a new buffer sized to fit it exactly
+   *
+   * @param value the value to encode
+   * @return the encoded value ready to be read
+   */
+  public static ByteBuffer encode(LuaObject value) {
+    Encoder encoder = new Encoder(value);
+    ByteBuffer out = ByteBuffer.allocate(encoder.size());
+    encoder.write(out);
+    return out.flip();
+  }
+
+  /**
+   * encodes the given value into the given buffer starting at its position
+   *
+   * @param value the value to encode
+   * @param out the buffer to write to, its position is advanced past the written value
+   * @throws BufferOverflowException if the buffer does not have enough space remaining
+   */
+  public static void encode(LuaObject value, ByteBuffer out) {
+    Encoder encoder = new Encoder(value);
+    if (out.remaining() < encoder.size()) {
+      throw new BufferOverflowException();
+    }
+    encoder.write(out);
+  }
+
+  /**
+   * encodes the given value into the start of the given segment
+   *
+   * @param value the value to encode
+   * @param out the segment to write to
+   * @return the number of bytes written
+   * @throws IndexOutOfBoundsException if the segment is too small
+   */
+  public static long encode(LuaObject value, MemorySegment out) {
+    Encoder encoder = new Encoder(value);
+    int size = encoder.size();
+    encoder.write(out.asSlice(0, size).asByteBuffer());
+    return size;
+  }
+
+  /**
+   * the number of bytes the given value takes up when encoded
+   *
+   * @param value the value to measure
+   * @return the encoded size in bytes
+   */
+  public static int encodedSize(LuaObject value) {
+    return new Encoder(value).size();
+  }
+
+  /**
+   * decodes a value from the given buffer starting at its position
+   *
+   * @param in the buffer to read from, its position is advanced past the read value
+   * @return the decoded value
+   * @throws IllegalArgumentException if the data is not a valid encoded value
+   */
+  public static LuaObject decode(ByteBuffer in) {
+    try {
+      return new Decoder(in).readDocument();
+    } catch (BufferUnderflowException e) {
+      throw new IllegalArgumentException("Truncated binary lua value", e);
+    }
+  }
+
+  /**
+   * decodes a value from the start of the given segment
+   *
+   * @param in the segment to read from
+   * @return the decoded value
+   * @throws IllegalArgumentException if the data is not a valid encoded value
+   */
+  public static LuaObject decode(MemorySegment in) {
+    return decode(in.asByteBuffer());
+  }
+
+  /**
+   * decodes a table from the given buffer starting at its position
+   *
+   * @param in the buffer to read from, its position is advanced past the read table
+   * @return the decoded table
+   * @throws IllegalArgumentException if the data is not a valid encoded table
+   */
+  public static LuaTable decodeTable(ByteBuffer in) {
+    if (decode(in) instanceof LuaTable table) {
+      return table;
+    }
+    throw new IllegalArgumentException("Encoded value is not a table");
+  }
+
+  /** writes a single value, measuring it and building its string dictionary first */
+  private static final class Encoder {
+    private final LuaObject root;
+    private final Map<LuaString, Integer> seen = new LinkedHashMap<>();
+    private final Map<LuaString, Integer> dictionary = new HashMap<>();
+    private final List<LuaString> entries = new ArrayList<>();
+    private int size = -1;
+
+    Encoder(LuaObject root) {
+      this.root = Objects.requireNonNull(root, "value may not be null");
+      count(root);
+      this.seen.forEach((string, times) -> {
+        if (times > 1) {
+          this.dictionary.put(string, this.entries.size());
+          this.entries.add(string);
+        }
+      });
+    }
+
+    private void count(LuaObject value) {
+      walk(value, v -> {
+        if (v instanceof LuaString string) {
+          this.seen.merge(string, 1, Integer::sum);
+        }
+      }, table -> {});
+    }
+
+    int size() {
+      if (this.size < 0) {
+        long total = MAGIC.length + 1 + varintSize(this.entries.size());
+        for (LuaString entry : this.entries) {
+          total += varintSize(entry.length()) + entry.length();
+        }
+        total += measure(this.root);
+        if (total > Integer.MAX_VALUE) {
+          throw new IllegalArgumentException("Value is too large to encode");
+        }
+        this.size = (int) total;
+      }
+      return this.size;
+    }
+
+    private long measure(LuaObject value) {
+      long[] total = {0};
+      walk(value, v -> total[0] += measureOne(v),
+          table -> total[0] += varintSize(table.keyedSize()));
+      return total[0];
+    }
+
+    /** the size of a single value, for a table only its tag and the number of array slots */
+    private long measureOne(LuaObject value) {
+      return 1 + switch (value) {
+        case LuaNum num when !num.isFloat() -> varintSize(zigzag(num.longValue()));
+        case LuaNum num when num.isDecimal() -> {
+          BigDecimal decimal = num.value();
+          int length = decimal.unscaledValue().bitLength() / 8 + 1;
+          yield varintSize(zigzag(decimal.scale())) + varintSize(length) + length;
+        }
+        case LuaNum _ -> 8;
+        case LuaString string -> {
+          Integer index = this.dictionary.get(string);
+          if (index != null) {
+            yield varintSize(index);
+          }
+          yield varintSize(string.length()) + string.length();
+        }
+        case LuaTable table -> varintSize(table.size());
+        default -> 0;
+      };
+    }
+
+    void write(ByteBuffer out) {
+      out.put(MAGIC).put(VERSION);
+      writeVarint(out, this.entries.size());
+      for (LuaString entry : this.entries) {
+        writeString(out, entry);
+      }
+      walk(this.root, v -> writeOne(out, v),
+          table -> writeVarint(out, table.keyedSize()));
+    }
+
+    /** writes a single value, for a table only its tag and the number of array slots */
+    private void writeOne(ByteBuffer out, LuaObject value) {
+      switch (value) {
+        case LuaBool bool -> out.put(bool.get() ? TRUE : FALSE);
+        case LuaNum num when !num.isFloat() -> {
+          out.put(INTEGER);
+          writeVarint(out, zigzag(num.longValue()));
+        }
+        case LuaNum num when num.isDecimal() -> {
+          BigDecimal decimal = num.value();
+          byte[] unscaled = decimal.unscaledValue().toByteArray();
+          out.put(DECIMAL);
+          writeVarint(out, zigzag(decimal.scale()));
+          writeVarint(out, unscaled.length);
+          out.put(unscaled);
+        }
+        case LuaNum num -> {
+          out.put(FLOAT);
+          long bits = Double.doubleToRawLongBits(num.doubleValue());
+          for (int i = 0; i < 8; i++) {
+            out.put((byte) (bits >>> (i * 8)));
+          }
+        }
+        case LuaString string -> {
+          Integer index = this.dictionary.get(string);
+          if (index != null) {
+            out.put(STRING_REF);
+            writeVarint(out, index);
+          } else {
+            out.put(STRING);
+            writeString(out, string);
+          }
+        }
+        case LuaTable table -> {
+          out.put(TABLE);
+          writeVarint(out, table.size());
+        }
+        default -> {
+          if (value != LuaObject.nil) {
+            throw new IllegalArgumentException("Unrecognised type detected: " + value.type());
+          }
+          out.put(NIL);
+        }
+      }
+    }
+  }
+
+  /** the position reached in a table that is being walked */
+  private static final class Frame {
+    final LuaTable table;
+    int index = 1;
+    int keyed = -1;
+    boolean started;
+    boolean atValue;
+
+    Frame(LuaTable table) {
+      this.table = table;
+    }
+  }
+
+  /**
+   * visits a value and everything nested in it in the order they are encoded, a table is visited
+   * before its array slots, then it is given to {@code keyed} before each of its keys is visited
+   * followed by the value at that key
+   *
+   * @param root the value to walk
+   * @param visit what to do for each value
+   * @param keyed what to do for a table between its array slots and its keyed entries
+   * @throws IllegalArgumentException if a table contains itself
+   */
+  private static void walk(LuaObject root, Consumer<LuaObject> visit, Consumer<LuaTable> keyed) {
+    visit.accept(root);
+    if (!(root instanceof LuaTable table)) {
+      return;
+    }
+    Deque<Frame> stack = new ArrayDeque<>();
+    // the tables on the stack, a table inside itself would otherwise be walked forever
+    Map<LuaTable, Boolean> open = new IdentityHashMap<>();
+    open.put(table, Boolean.TRUE);
+    Frame frame = new Frame(table);
+    while (frame != null) {
+      LuaObject next;
+      if (frame.index <= frame.table.size()) {
+        next = frame.table.getByIndex(frame.index++);
+      } else {
+        if (!frame.started) {
+          frame.started = true;
+          keyed.accept(frame.table);
+        }
+        HashPart part = frame.table.keyed();
+        if (frame.atValue) {
+          frame.atValue = false;
+          next = part.valueAt(frame.keyed);
+        } else {
+          frame.keyed = part.next(frame.keyed + 1);
+          if (frame.keyed < 0) {
+            open.remove(frame.table);
+            frame = stack.poll();
+            continue;
+          }
+          frame.atValue = true;
+          next = part.keyAt(frame.keyed);
+        }
+      }
+      visit.accept(next);
+      if (next instanceof LuaTable nested) {
+        if (open.put(nested, Boolean.TRUE) != null) {
+          throw new IllegalArgumentException("tables that contain themselves can not be encoded");
+        }
+        stack.push(frame);
+        frame = new Frame(nested);
+      }
+    }
+  }
+
+  /** writes the length and bytes of a string, text is encoded straight into the buffer */
+  private static void writeString(ByteBuffer out, LuaString string) {
+    writeVarint(out, string.length());
+    if (string.isText()) {
+      writeUtf8(out, string.value());
+    } else {
+      out.put(string.rawBytes());
+    }
+  }
+
+  /** reads a single value along with its string dictionary */
+  private static final class Decoder {
+    private final ByteBuffer in;
+    private LuaString[] dictionary;
+
+    Decoder(ByteBuffer in) {
+      this.in = in;
+    }
+
+    LuaObject readDocument() {
+      for (byte b : MAGIC) {
+        if (this.in.get() != b) {
+          throw new IllegalArgumentException("Not a binary lua value");
+        }
+      }
+      byte version = this.in.get();
+      if (version != VERSION) {
+        throw new IllegalArgumentException("Unsupported binary lua version: " + version);
+      }
+      this.dictionary = new LuaString[length()];
+      for (int i = 0; i < this.dictionary.length; i++) {
+        this.dictionary[i] = readString(length());
+      }
+      return read();
+    }
+
+    /** a decoded table whose content is still being read */
+    private static final class Filling {
+      final LuaTable table;
+      int slots;
+      int pairs = -1;
+      LuaObject key;
+
+      Filling(LuaTable table, int slots) {
+        this.table = table;
+        this.slots = slots;
+      }
+    }
+
+    /** reads a value, filling in nested tables with an explicit stack */
+    private LuaObject read() {
+      Deque<Filling> stack = new ArrayDeque<>();
+      LuaObject root = readOne(stack);
+      while (!stack.isEmpty()) {
+        Filling top = stack.peek();
+        if (top.slots > 0) {
+          top.slots--;
+          top.table.append(readOne(stack));
+          continue;
+        }
+        if (top.pairs < 0) {
+          // as the parser does, so the decoded table is the same as the parsed one
+          top.table.indexed().trimTrailingNils();
+          top.pairs = length();
+        }
+        if (top.pairs == 0) {
+          stack.pop();
+        } else if (top.key == null) {
+          top.key = readOne(stack);
+        } else {
+          LuaObject key = top.key;
+          top.key = null;
+          top.pairs--;
+          top.table.put(key, readOne(stack));
+        }
+      }
+      return root;
+    }
+
+    /** reads a single value, a table is returned empty and pushed to be filled in */
+    private LuaObject readOne(Deque<Filling> stack) {
+      byte tag = this.in.get();
+      return switch (tag) {
+        case NIL -> LuaObject.nil;
+        case FALSE -> LuaBool.False;
+        case TRUE -> LuaBool.True;
+        case INTEGER -> LuaNum.of(unzigzag(readVarint(this.in)));
+        case FLOAT -> {
+          long bits = 0;
+          for (int i = 0; i < 8; i++) {
+            bits |= (this.in.get() & 0xFFL) << (i * 8);
+          }
+          yield LuaNum.of(Double.longBitsToDouble(bits));
+        }
+        case DECIMAL -> {
+          int scale = (int) unzigzag(readVarint(this.in));
+          byte[] unscaled = new byte[length()];
+          this.in.get(unscaled);
+          yield LuaNum.of(new BigDecimal(new BigInteger(unscaled), scale));
+        }
+        case STRING -> readString(length());
+        case STRING_REF -> {
+          // an index into the dictionary rather than a length so not limited by what is left
+          long index = readVarint(this.in);
+          if (index < 0 || index >= this.dictionary.length) {
+            throw new IllegalArgumentException("Invalid string reference: " + index);
+          }
+          yield this.dictionary[(int) index];
+        }
+        case TABLE -> {
+          LuaTable table = new LuaTable();
+          stack.push(new Filling(table, length()));
+          yield table;
+        }
+        default -> throw new IllegalArgumentException("Unrecognised type tag: " + tag);
+      };
+    }
+
+    private int length() {
+      long length = readVarint(this.in);
+      if (length > this.in.remaining()) {
+        throw new IllegalArgumentException("Invalid length: " + length);
+      }
+      return (int) length;
+    }
+
+    /** reads the bytes of a string as they are, without decoding them */
+    private LuaString readString(int length) {
+      if (length > this.in.remaining()) {
+        throw new BufferUnderflowException();
+      }
+      int start = this.in.position();
+      this.in.position(start + length);
+      return LuaString.of(this.in.slice(start, length));
+    }
+  }
+
+  static long zigzag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  static long unzigzag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  static int varintSize(long value) {
+    int size = 1;
+    while ((value & ~0x7FL) != 0) {
+      value >>>= 7;
+      size++;
+    }
+    return size;
+  }
+
+  static void writeVarint(ByteBuffer out, long value) {
+    while ((value & ~0x7FL) != 0) {
+      out.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.put((byte) value);
+  }
+
+  static long readVarint(ByteBuffer in) {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = in.get();
+      value |= (long) (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("Malformed varint");
+  }
+
+  /**
+   * the number of bytes the given string takes up as UTF-8, unpaired surrogates are counted as the
+   * replacement character {@code ?} as the JDK encoder writes them
+   */
+  static int utf8Length(String value) {
+    int length = value.length();
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c >= 0x800) {
+        if (Character.isHighSurrogate(c) && i + 1 < value.length()
+            && Character.isLowSurrogate(value.charAt(i + 1))) {
+          length += 2;
+          i++;
+        } else if (Character.isSurrogate(c)) {
+          continue;
+        } else {
+          length += 2;
+        }
+      } else if (c >= 0x80) {
+        length++;
+      }
+    }
+    return length;
+  }
+
+  /** writes the given string as UTF-8 straight into the buffer */
+  static void writeUtf8(ByteBuffer out, String value) {
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        out.put((byte) c);
+      } else if (c < 0x800) {
+        out.put((byte) (0xC0 | (c >> 6))).put((byte) (0x80 | (c & 0x3F)));
+      } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+          && Character.isLowSurrogate(value.charAt(i + 1))) {
+        int cp = Character.toCodePoint(c, value.charAt(++i));
+        out.put((byte) (0xF0 | (cp >> 18)))
+            .put((byte) (0x80 | ((cp >> 12) & 0x3F)))
+            .put((byte) (0x80 | ((cp >> 6) & 0x3F)))
+            .put((byte) (0x80 | (cp & 0x3F)));
+      } else if (Character.isSurrogate(c)) {
+        out.put((byte) '?');
+      } else {
+        out.put((byte) (0xE0 | (c >> 12)))
+            .put((byte) (0x80 | ((c >> 6) & 0x3F)))
+            .put((byte) (0x80 | (c & 0x3F)));
+      }
+    }
+  }
+}
@@ -14,13 +14,9 @@ public interface LuaConcatable {
    *
    * @param other the value to concatinate onto this value
    * @return the new concatednated value as
+   * @see LuaString#concat(LuaConcatable...)
    */
   default LuaString concat(LuaConcatable other) {
-    return LuaString.of(
-        toString()
-            + switch (other) {
-              case LuaString string -> string.value;
-              default -> other.toString();
-            });
+    return LuaString.concat(this, other);
   }
 }
@@ -1,45 +1,222 @@
 package com.spag.lua;
 
-import static com.spag.lua.SoftFlyweightUtil.clearExpiredRefs;
-
-import java.lang.ref.SoftReference;
+import java.io.IOException;
 import java.math.BigDecimal;
-import java.util.HashMap;
-import java.util.Map;
+import java.math.BigInteger;
 
 /**
  * LuaNum is the representation of lua's number type which can represent both
  * integers and decimals like the LuaString type this attempts to maintain all
  * observable properties of the number type in lua
  *
+ * <p>
+ * as in lua 5.3 numbers are either integers (held as a {@code long}) or floats
+ * (held as a {@code double}), a third {@link BigDecimal} backed form is only used
+ * when one is explicitly given or when a serialized number can not be held
+ * exactly by either of the other two
+ *
+ * <p>
+ * numbers compare equal by value across the forms, so {@code 1} and {@code 1.0}
+ * are equal as they are in lua
+ *
+ * <p>
+ * this breaks compatibility with earlier versions, which had a public
+ * {@code BigDecimal value} field. it was removed rather than deprecated, as
+ * keeping it filled in would need a BigDecimal for every number, which is the
+ * cost the long and double forms are there to avoid. use {@link #value()} in
+ * its place, or {@link #longValue()} and {@link #doubleValue()} to skip the
+ * BigDecimal
+ *
  * @author MR_Spagetty
  */
 public class LuaNum implements LuaObject, LuaConcatable, Comparable<LuaNum> {
-  private static final Map<String, SoftReference<LuaNum>> cache = new HashMap<>();
-  public final BigDecimal value;
+  private static final byte INTEGER = 0;
+  private static final byte FLOAT = 1;
+  private static final byte DECIMAL = 2;
+
+  private static final int SMALL_MIN = -128;
+  private static final int SMALL_MAX = 1024;
+  private static final LuaNum[] small = new LuaNum[SMALL_MAX - SMALL_MIN + 1];
+  private static final SoftFlyweightCache<Object, LuaNum> cache = new SoftFlyweightCache<>();
+
+  static {
+    for (int i = SMALL_MIN; i <= SMALL_MAX; i++) {
+      small[i - SMALL_MIN] = new LuaNum(i);
+    }
+  }
+
+  private final byte subtype;
+  private final long integer;
+  private final double number;
+  private final BigDecimal decimal;
+  private final boolean integral;
+  private final int hash;
+
+  private LuaNum(long value) {
+    this.subtype = INTEGER;
+    this.integer = value;
+    this.number = value;
+    this.decimal = null;
+    this.integral = true;
+    this.hash = Long.hashCode(value);
+  }
+
+  private LuaNum(double value) {
+    this.subtype = FLOAT;
+    this.number = value;
+    this.integer = (long) value;
+    this.decimal = null;
+    this.integral = value == Math.rint(value) && !Double.isInfinite(value);
+    this.hash = this.integral && fitsLong(value)
+        ? Long.hashCode(this.integer)
+        : Double.hashCode(value);
+  }
 
   private LuaNum(BigDecimal value) {
-    this.value = value;
+    this.subtype = DECIMAL;
+    this.decimal = value;
+    this.number = value.doubleValue();
+    this.integer = value.longValue();
+    this.integral = value.signum() == 0 || value.scale() <= 0
+        || value.stripTrailingZeros().scale() <= 0;
+    if (this.integral && value.compareTo(BigDecimal.valueOf(this.integer)) == 0) {
+      this.hash = Long.hashCode(this.integer);
+    } else if (!Double.isInfinite(this.number)
+        && new BigDecimal(this.number).compareTo(value) == 0) {
+      this.hash = Double.hashCode(this.number);
+    } else {
+      this.hash = value.stripTrailingZeros().hashCode();
+    }
   }
 
   @Override
   public String toString() {
-    return this.value.toString();
+    return switch (this.subtype) {
+      case INTEGER -> Long.toString(this.integer);
+      case FLOAT -> formatFloat(this.number);
+      default -> this.decimal.toString();
+    };
+  }
+
+  /**
+   * writes this number as {@link #toString()} would give it
+   *
+   * @param out where to write the number to
+   * @throws IOException if the appendable fails
+   */
+  void writeTo(Appendable out) throws IOException {
+    if (this.subtype == INTEGER && out instanceof StringBuilder builder) {
+      builder.append(this.integer);
+    } else {
+      out.append(toString());
+    }
+  }
+
+  /**
+   * formats a float so that it reads back as a float, using the same names for
+   * the special values as the OpenComputers serialization library
+   */
+  private static String formatFloat(double value) {
+    if (Double.isNaN(value)) {
+      return "0/0";
+    } else if (Double.isInfinite(value)) {
+      return value > 0 ? "math.huge" : "-math.huge";
+    } else if (value == Math.rint(value) && Math.abs(value) < 1e16) {
+      return (value == 0 && 1 / value < 0 ? "-0" : Long.toString((long) value)) + ".0";
+    }
+    return Double.toString(value);
   }
 
   /**
    * Gets the LuaNum representing the given value, should it not already exist a
    * new LuaNum with the given value will be created
    *
+   * <p>
+   * integer values become integers, values with a fraction or exponent become
+   * floats unless a float would lose some of the given digits. the special
+   * values {@code math.huge}, {@code -math.huge} and {@code 0/0} are also
+   * recognised
+   *
    * @param data the value to obtain the LuaNum of
    * @return the LuaNum
    * @throws NumberFormatException if the given value is not valid BigDecimal
    *                               representable numeric value
    */
   public static LuaNum of(String data) {
-    clearExpiredRefs(cache);
-    return cache.computeIfAbsent(data, val -> new SoftReference<>(new LuaNum(new BigDecimal(val))))
-        .get();
+    LuaNum special = switch (data) {
+      case "math.huge" -> of(Double.POSITIVE_INFINITY);
+      case "-math.huge" -> of(Double.NEGATIVE_INFINITY);
+      case "0/0" -> of(Double.NaN);
+      default -> null;
+    };
+    if (special != null) {
+      return special;
+    }
+    int start = !data.isEmpty() && data.charAt(0) == '-' ? 1 : 0;
+    if (start == data.length()) {
+      throw new NumberFormatException("Invalid number: " + data);
+    }
+    boolean isIntegral = true;
+    int digits = 0;
+    for (int i = start; i < data.length(); i++) {
+      char c = data.charAt(i);
+      if (c >= '0' && c <= '9') {
+        digits++;
+      } else if (c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+        isIntegral = false;
+      } else {
+        throw new NumberFormatException("Invalid number: " + data);
+      }
+    }
+    if (isIntegral) {
+      if (data.length() - start <= 18) {
+        return of(Long.parseLong(data));
+      }
+      BigDecimal exact = new BigDecimal(data);
+      return exact.toBigInteger().bitLength() < 64 ? of(exact.longValue()) : of(exact);
+    }
+    double value = Double.parseDouble(data);
+    if (digits > 15) {
+      BigDecimal exact = new BigDecimal(data);
+      if (exact.compareTo(BigDecimal.valueOf(value)) != 0) {
+        return of(exact);
+      }
+    }
+    return of(value);
+  }
+
+  /**
+   * Gets the integer LuaNum representing the given value, values in a small range
+   * around zero (covering common table indexes) are preallocated
+   *
+   * @param value the value to obtain the LuaNum of
+   * @return the LuaNum
+   */
+  public static LuaNum of(long value) {
+    if (value >= SMALL_MIN && value <= SMALL_MAX) {
+      return small[(int) value - SMALL_MIN];
+    }
+    return cache.get(value, v -> new LuaNum((long) v));
+  }
+
+  /**
+   * Gets the float LuaNum representing the given value
+   *
+   * @param value the value to obtain the LuaNum of
+   * @return the LuaNum
+   */
+  public static LuaNum of(double value) {
+    return cache.get(value, v -> new LuaNum((double) v));
+  }
+
+  /**
+   * Gets the LuaNum holding exactly the given value
+   *
+   * @param value the value to obtain the LuaNum of
+   * @return the LuaNum
+   */
+  public static LuaNum of(BigDecimal value) {
+    return cache.get(value, v -> new LuaNum((BigDecimal) v));
   }
 
   /**
@@ -51,23 +228,78 @@ public class LuaNum implements LuaObject, LuaConcatable, Comparable<LuaNum> {
    */
   public static LuaNum of(Object data) {
     return switch (data) {
-    case Long _ -> of(data.toString());
-    case Integer _ -> of(data.toString());
-    case Double _ -> of(data.toString());
-    case Float _ -> of(data.toString());
-    case BigDecimal _ -> of(data.toString());
+    case Long l -> of(l.longValue());
+    case Integer i -> of(i.longValue());
+    case Short s -> of(s.longValue());
+    case Byte b -> of(b.longValue());
+    case Double d -> of(d.doubleValue());
+    case Float f -> of(f.doubleValue());
+    case BigDecimal d -> of(d);
+    case BigInteger i -> of(new BigDecimal(i));
     default -> throw new IllegalArgumentException(
         "Unrecognised type detected: " + data.getClass().getName());
     };
   }
 
+  /**
+   * Gets the exact value of this LuaNum as a BigDecimal, in place of the public
+   * {@code value} field of earlier versions
+   *
+   * @return the value of this LuaNum
+   * @throws NumberFormatException if this LuaNum is an infinite or NaN float
+   */
+  public BigDecimal value() {
+    return switch (this.subtype) {
+      case INTEGER -> BigDecimal.valueOf(this.integer);
+      case FLOAT -> BigDecimal.valueOf(this.number);
+      default -> this.decimal;
+    };
+  }
+
+  /**
+   * Gets the value of this LuaNum as a long, floats are truncated towards zero
+   *
+   * @return the value of this LuaNum as a long
+   */
+  public long longValue() {
+    return this.integer;
+  }
+
+  /**
+   * Gets the value of this LuaNum as a double
+   *
+   * @return the value of this LuaNum as a double
+   */
+  public double doubleValue() {
+    return this.number;
+  }
+
+  /**
+   * check if this LuaNum is a float as per lua's {@code math.type}, decimals are
+   * considered floats
+   *
+   * @return true if this LuaNum is not an integer, false otherwise
+   */
+  public boolean isFloat() {
+    return this.subtype != INTEGER;
+  }
+
+  /**
+   * check if this LuaNum is held as a BigDecimal
+   *
+   * @return true if this LuaNum is a decimal, false otherwise
+   */
+  boolean isDecimal() {
+    return this.subtype == DECIMAL;
+  }
+
   /**
    * check if this LuaNum represents an integer value
-   * 
+   *
    * @return true if this represents an integer, false otherwise
    */
   public boolean isInteger() {
-    return this.value.remainder(BigDecimal.ONE).equals(BigDecimal.ZERO);
+    return this.integral;
   }
 
   /**
@@ -76,7 +308,35 @@ public class LuaNum implements LuaObject, LuaConcatable, Comparable<LuaNum> {
    * @return true if this LuaNum represents a positive value, false otherwise
    */
   public boolean isPositive() {
-    return this.value.compareTo(BigDecimal.ZERO) > 0;
+    return this.subtype == DECIMAL ? this.decimal.signum() > 0 : this.number > 0;
+  }
+
+  /**
+   * gets the table index this LuaNum represents
+   *
+   * @return the index or 0 if this is not a positive integer value that fits in an
+   *         int
+   */
+  int asIndex() {
+    if (this.integral && this.number >= 1 && this.number <= Integer.MAX_VALUE) {
+      return (int) this.integer;
+    }
+    return 0;
+  }
+
+  /**
+   * gets the LuaNum lua would use as a table key for this value, floats with an
+   * integer value are converted to integers
+   *
+   * @return the normalized LuaNum
+   */
+  LuaNum normalized() {
+    if (this.subtype == FLOAT && this.integral && fitsLong(this.number)
+        || this.subtype == DECIMAL && this.integral
+            && this.decimal.compareTo(BigDecimal.valueOf(this.integer)) == 0) {
+      return of(this.integer);
+    }
+    return this;
   }
 
   @Override
@@ -86,16 +346,57 @@ public class LuaNum implements LuaObject, LuaConcatable, Comparable<LuaNum> {
 
   @Override
   public int compareTo(LuaNum o) {
-    return this.value.compareTo(o.value);
+    if (this.subtype == INTEGER && o.subtype == INTEGER) {
+      return Long.compare(this.integer, o.integer);
+    } else if (this.subtype == INTEGER && o.subtype == FLOAT) {
+      return compare(this.integer, o.number);
+    } else if (this.subtype == FLOAT && o.subtype == INTEGER) {
+      return -compare(o.integer, this.number);
+    } else if (this.subtype == FLOAT && o.subtype == FLOAT
+        || !Double.isFinite(this.number) || !Double.isFinite(o.number)) {
+      return this.number < o.number ? -1
+          : this.number > o.number ? 1
+          : this.number == o.number ? 0
+          : Double.compare(this.number, o.number);
+    }
+    return exact().compareTo(o.exact());
+  }
+
+  /**
+   * the exact value of this number, unlike {@link #value()} a float is not rounded to its shortest
+   * decimal form so comparisons agree with {@link #equals(Object)} and {@link #hashCode()}
+   */
+  private BigDecimal exact() {
+    return this.subtype == FLOAT ? new BigDecimal(this.number) : value();
+  }
+
+  /** compares a long and a double exactly, without rounding the long */
+  private static int compare(long a, double b) {
+    if (Double.isNaN(b) || b >= 0x1p63) {
+      return -1;
+    } else if (b < -0x1p63) {
+      return 1;
+    }
+    long whole = (long) b;
+    if (a != whole) {
+      return Long.compare(a, whole);
+    }
+    double fraction = b - whole;
+    return fraction > 0 ? -1 : fraction < 0 ? 1 : 0;
+  }
+
+  private static boolean fitsLong(double value) {
+    return value >= -0x1p63 && value < 0x1p63;
   }
 
   @Override
   public int hashCode() {
-    return this.value.hashCode();
+    return this.hash;
   }
 
   @Override
   public boolean equals(Object obj) {
-    return this == obj;
+    return this == obj
+        || obj instanceof LuaNum other && this.hash == other.hash && compareTo(other) == 0;
   }
 }
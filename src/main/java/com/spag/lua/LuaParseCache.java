@@ -0,0 +1,323 @@
+package com.spag.lua;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A bounded cache of parsed tables keyed by their serialized form, for data that is received
+ * again and again without changing, so each distinct payload is only parsed once
+ *
+ * <p>payloads are looked up by a 64 bit hash of their content and confirmed by comparing the
+ * content itself, so a hit always gives the table the payload parses to. tables are shared between
+ * everyone that parses the same payload so they are handed out as {@link ReadOnlyLuaTable}s, use
+ * {@link ReadOnlyLuaTable#toTable()} for a copy that can be changed. as they never change, equal
+ * tables nested in a cached table are held once with {@link LuaTable#deduplicate()}
+ *
+ * <p>the cache holds at most the given number of tables and serialized characters. which tables
+ * are kept follows W-TinyLFU: new tables enter a small LRU window and when the cache is full a
+ * table leaving the window only replaces the least recently used table of the main cache if its
+ * payload has been seen more often recently, as estimated by a {@link FrequencySketch}. tables
+ * used again while in the main cache are protected from eviction until they go unused for a while.
+ * a payload seen once never pushes out one that keeps coming back, and a burst of new payloads
+ * does not flush the cache
+ *
+ * <p>the cache is safe to use from several threads at once, payloads are parsed outside of its
+ * lock
+ *
+ * @author MR_Spagetty
+ */
+public final class LuaParseCache {
+  private static final byte WINDOW = 0;
+  private static final byte PROBATION = 1;
+  private static final byte PROTECTED = 2;
+
+  private final int maximumSize;
+  private final long maximumWeight;
+  private final int windowSize;
+  private final long windowWeight;
+  private final int protectedSize;
+  private final long protectedWeight;
+
+  private final Map<Long, Node> nodes = new HashMap<>();
+  private final FrequencySketch sketch;
+  // the three queues, each a circular list around a sentinel from most to least recently used
+  private final Node window = new Node();
+  private final Node probation = new Node();
+  private final Node protect = new Node();
+
+  private int size;
+  private long weight;
+  private int windowCount;
+  private long windowTotal;
+  private int protectedCount;
+  private long protectedTotal;
+
+  private long hits;
+  private long misses;
+  private long evictions;
+  private long evictedWeight;
+
+  /** a cached table, linked into the queue of the part of the cache it is in */
+  private static final class Node {
+    final long hash;
+    final String data;
+    final ReadOnlyLuaTable table;
+    byte queue;
+    Node prev = this;
+    Node next = this;
+
+    Node() {
+      this(0, null, null);
+    }
+
+    Node(long hash, String data, ReadOnlyLuaTable table) {
+      this.hash = hash;
+      this.data = data;
+      this.table = table;
+    }
+
+    int weight() {
+      return this.data.length();
+    }
+  }
+
+  /**
+   * the counts of what the cache has done since it was created
+   *
+   * @param hits the number of payloads found in the cache
+   * @param misses the number of payloads that had to be parsed
+   * @param evictions the number of tables removed to make room
+   * @param evictedWeight the number of serialized characters of the tables removed
+   */
+  public record Stats(long hits, long misses, long evictions, long evictedWeight) {
+    /**
+     * the share of payloads found in the cache
+     *
+     * @return the hit rate from 0 to 1, 1 if nothing has been looked up yet
+     */
+    public double hitRate() {
+      long requests = this.hits + this.misses;
+      return requests == 0 ? 1 : (double) this.hits / requests;
+    }
+  }
+
+  /**
+   * creates a cache holding up to the given number of tables and serialized characters
+   *
+   * @param maximumSize the most tables to hold
+   * @param maximumWeight the most serialized characters to hold across every table, a payload
+   *     longer than this is parsed but never cached
+   * @throws IllegalArgumentException if either limit is not positive
+   */
+  public LuaParseCache(int maximumSize, long maximumWeight) {
+    if (maximumSize <= 0 || maximumWeight <= 0) {
+      throw new IllegalArgumentException("cache limits must be positive");
+    }
+    this.maximumSize = maximumSize;
+    this.maximumWeight = maximumWeight;
+    // 1% for the window and 80% of the rest for the protected part as W-TinyLFU suggests
+    this.windowSize = Math.max(1, maximumSize / 100);
+    this.windowWeight = Math.max(1, maximumWeight / 100);
+    this.protectedSize = (int) ((maximumSize - this.windowSize) * 0.8);
+    this.protectedWeight = (long) ((maximumWeight - this.windowWeight) * 0.8);
+    this.sketch = new FrequencySketch(maximumSize);
+  }
+
+  /**
+   * parses a serialized table, or gives the table already parsed from the same payload
+   *
+   * @param data the serialized representation of the table
+   * @return a read only view of the parsed table, shared with everyone parsing the same payload
+   * @throws IllegalArgumentException if the table is invalid, invalid payloads are not cached
+   */
+  public ReadOnlyLuaTable parse(CharSequence data) {
+    Objects.requireNonNull(data, "Lua data may not be null");
+    long hash = hash(data);
+    synchronized (this) {
+      this.sketch.increment(hash);
+      Node node = this.nodes.get(hash);
+      if (node != null && node.data.contentEquals(data)) {
+        this.hits++;
+        onHit(node);
+        return node.table;
+      }
+      this.misses++;
+    }
+    String content = data.toString();
+    ReadOnlyLuaTable table = LuaTableParser.parse(content).deduplicate().readOnly();
+    if (content.length() > this.maximumWeight) {
+      return table;
+    }
+    synchronized (this) {
+      Node existing = this.nodes.get(hash);
+      if (existing != null) {
+        if (existing.data.equals(content)) {
+          // parsed by another thread in the meantime
+          return existing.table;
+        }
+        // a different payload with the same hash, the newer one takes its place
+        remove(existing);
+      }
+      Node node = new Node(hash, content, table);
+      this.nodes.put(hash, node);
+      node.queue = WINDOW;
+      addFirst(this.window, node);
+      this.size++;
+      this.weight += node.weight();
+      this.windowCount++;
+      this.windowTotal += node.weight();
+      evict();
+      return table;
+    }
+  }
+
+  /**
+   * the counts of what the cache has done so far
+   *
+   * @return a snapshot of the statistics
+   */
+  public synchronized Stats stats() {
+    return new Stats(this.hits, this.misses, this.evictions, this.evictedWeight);
+  }
+
+  /**
+   * the number of tables in the cache
+   *
+   * @return the number of tables
+   */
+  public synchronized int size() {
+    return this.size;
+  }
+
+  /**
+   * the number of serialized characters of the tables in the cache
+   *
+   * @return the total weight
+   */
+  public synchronized long weight() {
+    return this.weight;
+  }
+
+  /** removes every table from the cache, the statistics are kept */
+  public synchronized void clear() {
+    for (Node node : this.nodes.values().toArray(Node[]::new)) {
+      remove(node);
+    }
+  }
+
+  /** moves a table that was used again towards the front of its queue */
+  private void onHit(Node node) {
+    switch (node.queue) {
+      case WINDOW, PROTECTED -> {
+        unlink(node);
+        addFirst(node.queue == WINDOW ? this.window : this.protect, node);
+      }
+      default -> {
+        // used again while on probation, so it is worth protecting
+        unlink(node);
+        node.queue = PROTECTED;
+        addFirst(this.protect, node);
+        this.protectedCount++;
+        this.protectedTotal += node.weight();
+        while ((this.protectedCount > this.protectedSize
+            || this.protectedTotal > this.protectedWeight) && this.protect.prev != node) {
+          Node demoted = this.protect.prev;
+          unlink(demoted);
+          demoted.queue = PROBATION;
+          addFirst(this.probation, demoted);
+          this.protectedCount--;
+          this.protectedTotal -= demoted.weight();
+        }
+      }
+    }
+  }
+
+  /**
+   * moves tables out of the window once it is full, then evicts the less frequently used of the
+   * table leaving the window and the least recently used table of the main cache until the cache
+   * is within its limits
+   */
+  private void evict() {
+    while ((this.windowCount > this.windowSize || this.windowTotal > this.windowWeight)
+        && this.window.prev != this.window) {
+      Node candidate = this.window.prev;
+      unlink(candidate);
+      this.windowCount--;
+      this.windowTotal -= candidate.weight();
+      candidate.queue = PROBATION;
+      addFirst(this.probation, candidate);
+      while (isFull()) {
+        Node victim = this.probation.prev != candidate ? this.probation.prev : this.protect.prev;
+        if (victim == this.protect
+            || this.sketch.frequency(candidate.hash) <= this.sketch.frequency(victim.hash)) {
+          evict(candidate);
+          break;
+        }
+        evict(victim);
+      }
+    }
+    // only the window is left to take from
+    while (isFull() && this.window.prev != this.window) {
+      evict(this.window.prev);
+    }
+  }
+
+  private boolean isFull() {
+    return this.size > this.maximumSize || this.weight > this.maximumWeight;
+  }
+
+  private void evict(Node node) {
+    remove(node);
+    this.evictions++;
+    this.evictedWeight += node.weight();
+  }
+
+  private void remove(Node node) {
+    this.nodes.remove(node.hash);
+    unlink(node);
+    this.size--;
+    this.weight -= node.weight();
+    if (node.queue == WINDOW) {
+      this.windowCount--;
+      this.windowTotal -= node.weight();
+    } else if (node.queue == PROTECTED) {
+      this.protectedCount--;
+      this.protectedTotal -= node.weight();
+    }
+  }
+
+  private static void addFirst(Node queue, Node node) {
+    node.prev = queue;
+    node.next = queue.next;
+    queue.next.prev = node;
+    queue.next = node;
+  }
+
+  private static void unlink(Node node) {
+    node.prev.next = node.next;
+    node.next.prev = node.prev;
+    node.prev = node;
+    node.next = node;
+  }
+
+  /** a 64 bit hash of the content of the payload, reading 4 characters at a time */
+  static long hash(CharSequence data) {
+    int length = data.length();
+    long h = 0x27D4EB2F165667C5L ^ (length * 0x9E3779B97F4A7C15L);
+    int i = 0;
+    for (; i + 4 <= length; i += 4) {
+      long word = data.charAt(i) | (long) data.charAt(i + 1) << 16
+          | (long) data.charAt(i + 2) << 32 | (long) data.charAt(i + 3) << 48;
+      h = Long.rotateLeft(h ^ word * 0xC2B2AE3D27D4EB4FL, 31) * 0x9E3779B97F4A7C15L;
+    }
+    for (; i < length; i++) {
+      h = Long.rotateLeft(h ^ data.charAt(i) * 0x165667B19E3779F9L, 23) * 0xC2B2AE3D27D4EB4FL;
+    }
+    h ^= h >>> 33;
+    h *= 0xFF51AFD7ED558CCDL;
+    h ^= h >>> 33;
+    h *= 0xC4CEB9FE1A85EC53L;
+    return h ^ (h >>> 33);
+  }
+}
@@ -0,0 +1,174 @@
+package com.spag.lua;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+
+/**
+ * A parser for serialized lua tables that is handed its input in chunks as they arrive rather than
+ * reading it itself
+ *
+ * <p>each chunk is parsed as soon as it is fed in and the parser keeps its place between chunks,
+ * including part way through a string, a number or a UTF-8 character, so parsing overlaps with
+ * receiving the data. once the input is finished {@link #complete()} returns the table
+ *
+ * <p>work can start before the table is finished, each top level field is handed to the field
+ * listener as soon as its value is complete and {@link #partial()} gives the table built so far
+ *
+ * <p>a parser parses a single table and may not be used again after it is complete or after it has
+ * thrown an exception. it is not safe to use from several threads at once
+ *
+ * @author MR_Spagetty
+ * @see LuaTableReader LuaTableReader to read a table without building it
+ */
+public final class LuaPushParser {
+  private static final BiConsumer<LuaObject, LuaObject> IGNORE = (k, v) -> {};
+
+  private final Builder builder;
+  private final LuaTableReader reader;
+
+  /** builds tables from the events of a reader */
+  private static final class Builder implements LuaTableVisitor {
+    private final BiConsumer<LuaObject, LuaObject> fields;
+    private final Deque<Frame> stack = new ArrayDeque<>();
+    private Frame frame;
+    private LuaTable root;
+
+    Builder(BiConsumer<LuaObject, LuaObject> fields) {
+      this.fields = fields;
+    }
+
+    @Override
+    public void startTable() {
+      if (this.frame != null) {
+        this.stack.push(this.frame);
+      }
+      this.frame = new Frame();
+      if (this.root == null) {
+        this.root = this.frame.table;
+      }
+    }
+
+    @Override
+    public void endTable() {
+      LuaTable table = this.frame.table;
+      this.frame = this.stack.poll();
+      if (this.frame != null) {
+        value(table);
+      }
+    }
+
+    @Override
+    public void key() {
+      this.frame.inKey = true;
+    }
+
+    @Override
+    public void value(LuaObject value) {
+      Frame frame = this.frame;
+      if (frame.inKey) {
+        frame.inKey = false;
+        frame.key = value;
+        return;
+      }
+      LuaObject key;
+      if (frame.key != null) {
+        key = frame.key;
+        frame.table.put(key, value);
+        frame.key = null;
+      } else {
+        key = LuaNum.of(++frame.position);
+        frame.table.append(value);
+      }
+      if (this.stack.isEmpty() && value != LuaObject.nil) {
+        this.fields.accept(key, value);
+      }
+    }
+  }
+
+  /** the partially built state of a table that is currently being parsed */
+  private static final class Frame {
+    final LuaTable table = new LuaTable();
+    LuaObject key;
+    boolean inKey;
+    int position;
+  }
+
+  /** creates a parser for a single serialized table */
+  public LuaPushParser() {
+    this(IGNORE);
+  }
+
+  /**
+   * creates a parser for a single serialized table that reports the fields of the table as they
+   * are parsed
+   *
+   * @param fields called with the key and value of each non nil top level field as soon as the
+   *     value is complete, positional values are given their index as the key
+   */
+  public LuaPushParser(BiConsumer<LuaObject, LuaObject> fields) {
+    this.builder = new Builder(Objects.requireNonNull(fields));
+    this.reader = new LuaTableReader(this.builder);
+  }
+
+  /**
+   * parses the given characters
+   *
+   * @param data the next chunk of the serialized table, read until it has no characters remaining
+   * @return this parser
+   * @throws IllegalArgumentException if the data is not part of a valid table
+   */
+  public LuaPushParser feed(CharSequence data) {
+    this.reader.feed(data);
+    return this;
+  }
+
+  /**
+   * parses the given characters
+   *
+   * @param data the next chunk of the serialized table, read until it has no characters remaining
+   * @return this parser
+   * @throws IllegalArgumentException if the data is not part of a valid table
+   */
+  public LuaPushParser feed(CharBuffer data) {
+    this.reader.feed(data);
+    return this;
+  }
+
+  /**
+   * parses the given UTF-8 encoded bytes, a character may be split across chunks
+   *
+   * @param data the next chunk of the serialized table, read until it has no bytes remaining
+   * @return this parser
+   * @throws IllegalArgumentException if the data is not valid UTF-8 or not part of a valid table
+   */
+  public LuaPushParser feed(ByteBuffer data) {
+    this.reader.feed(data);
+    return this;
+  }
+
+  /**
+   * the table as parsed so far, nested tables are only added once they are complete
+   *
+   * <p>the table is the one that will be returned by {@link #complete()} and must not be changed
+   *
+   * @return the partially parsed table, empty if its opening brace has not been fed in yet
+   */
+  public LuaTable partial() {
+    return this.builder.root == null ? new LuaTable() : this.builder.root;
+  }
+
+  /**
+   * finishes parsing, to be called once all of the data has been fed in
+   *
+   * @return the parsed table
+   * @throws IllegalArgumentException if the data fed in was not a complete valid table
+   */
+  public LuaTable complete() {
+    this.reader.complete();
+    return this.builder.root;
+  }
+}
@@ -1,36 +1,111 @@
 package com.spag.lua;
 
-import static com.spag.lua.SoftFlyweightUtil.clearExpiredRefs;
-
-import java.lang.ref.SoftReference;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
 
 /**
  * LuaString is a representation of the String type in lua that theoretically preserves all the
  * properties of Lua's strings such as that all strings with the same content are the same string
  * this property is achieved through a soft flyweight
  *
+ * <p>as in lua a string is a sequence of bytes, a string made from java text holds the UTF-8
+ * encoding of that text while one made from bytes holds them exactly as given, whether or not they
+ * are valid UTF-8. strings made from bytes are only decoded to java text when {@link #value()} is
+ * first called so data read from binary channels keeps its exact bytes and skips decoding
+ * entirely. {@link #length()}, equality and hashing are all over the bytes
+ *
+ * <p>the result of a concatenation is a rope holding the strings it was built from rather than a
+ * copy of their content, so a chain of concatenations only copies each character once, when the
+ * content is first needed. equality and hashing are by content so a rope is equal to the interned
+ * string with the same content, {@link #intern()} gives that interned string for when identity
+ * matters. strings made from bytes are likewise not interned until {@link #intern()} is called
+ *
+ * <p>this breaks compatibility with earlier versions, which had a public {@code String value}
+ * field. it was removed rather than deprecated, as the content of a rope or of bytes that have not
+ * been decoded is only worked out when it is asked for, which a field can not do. use {@link
+ * #value()} in its place
+ *
  * @author MR_Spagetty
  */
 public class LuaString implements LuaObject, LuaConcatable {
-  private static Map<String, SoftReference<LuaString>> cache = new HashMap<>();
+  private static final SoftFlyweightCache<Object, LuaString> cache = new SoftFlyweightCache<>();
+
+  /** the content as text, null for a rope that has not been flattened or bytes not yet decoded */
+  private volatile String value;
+  /** the content as bytes, null for strings made from text */
+  private volatile byte[] bytes;
+  /** the strings a rope is made of, dropped once it is flattened */
+  private LuaString[] parts;
+  /** the length in bytes, -1 until it is first needed */
+  private int length;
+  private int hash;
+  private final boolean interned;
 
-  private LuaString(String value) {
+  private LuaString(String value, boolean interned) {
     this.value = value;
+    this.length = -1;
+    this.interned = interned;
+  }
+
+  private LuaString(byte[] bytes, boolean interned) {
+    this.bytes = bytes;
+    this.length = bytes.length;
+    this.interned = interned;
+  }
+
+  private LuaString(LuaString[] parts, int length) {
+    this.parts = parts;
+    this.length = length;
+    this.interned = false;
+  }
+
+  /** the key a string made of bytes that are not valid UTF-8 is interned under */
+  private record Bytes(byte[] bytes) {
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof Bytes other && Arrays.equals(this.bytes, other.bytes);
+    }
+
+    @Override
+    public int hashCode() {
+      return Arrays.hashCode(this.bytes);
+    }
   }
 
   @Override
   public LuaString concat(LuaConcatable other) {
-    return LuaString.of(
-        this.value
-            + switch (other) {
-              case LuaString otherString -> otherString.value;
-              default -> other.toString();
-            });
+    return concat(this, other);
   }
 
-  public final String value;
+  /**
+   * concatenates all of the given values in one go, as the lua expression {@code a .. b .. c}
+   * would
+   *
+   * @param values the values to concatenate
+   * @return the concatenated string, not yet flattened or interned
+   * @throws IllegalArgumentException if the result would be too long to hold in a java String
+   */
+  public static LuaString concat(LuaConcatable... values) {
+    LuaString[] parts = new LuaString[values.length];
+    long length = 0;
+    for (int i = 0; i < values.length; i++) {
+      parts[i] = switch (values[i]) {
+        case LuaString string -> string;
+        case LuaConcatable other -> new LuaString(other.toString(), false);
+      };
+      length += parts[i].length();
+    }
+    if (length > Integer.MAX_VALUE - 8) {
+      throw new IllegalArgumentException("string length overflow");
+    }
+    return new LuaString(parts, (int) length);
+  }
 
   /**
    * Gets the LuaString representing the given value, should it not already exist a new LuaString
@@ -40,13 +115,237 @@ public class LuaString implements LuaObject, LuaConcatable {
    * @return the LuaString
    */
   public static LuaString of(String value) {
-    clearExpiredRefs(cache);
-    return cache.computeIfAbsent(value, val -> new SoftReference<>(new LuaString(val))).get();
+    return cache.get(value, v -> new LuaString((String) v, true));
+  }
+
+  /**
+   * creates a LuaString holding a copy of the given bytes, which need not be valid UTF-8
+   *
+   * @param bytes the content of the string
+   * @return the LuaString, not yet interned
+   */
+  public static LuaString of(byte[] bytes) {
+    return new LuaString(bytes.clone(), false);
+  }
+
+  /**
+   * creates a LuaString holding a copy of the remaining bytes of the given buffer, which need not
+   * be valid UTF-8
+   *
+   * @param bytes the content of the string, its position is advanced to its limit
+   * @return the LuaString, not yet interned
+   */
+  public static LuaString of(ByteBuffer bytes) {
+    byte[] content = new byte[bytes.remaining()];
+    bytes.get(content);
+    return new LuaString(content, false);
+  }
+
+  /**
+   * the content of this string as java text, flattening it first if it is the result of a
+   * concatenation. bytes that are not valid UTF-8 are decoded as the replacement character. this
+   * takes the place of the public {@code value} field of earlier versions
+   *
+   * @return the content of this string
+   */
+  public String value() {
+    String value = this.value;
+    if (value != null) {
+      return value;
+    }
+    byte[] bytes = this.bytes;
+    if (bytes == null) {
+      flatten();
+      return value();
+    }
+    value = new String(bytes, StandardCharsets.UTF_8);
+    this.value = value;
+    return value;
+  }
+
+  /**
+   * the content of this string as bytes, flattening it first if it is the result of a
+   * concatenation
+   *
+   * @return a copy of the bytes of this string
+   */
+  public byte[] bytes() {
+    byte[] bytes = rawBytes();
+    return bytes == this.bytes ? bytes.clone() : bytes;
+  }
+
+  /**
+   * the content of this string as bytes, either the array held by this string which must not be
+   * changed or a new one for strings made from text
+   */
+  byte[] rawBytes() {
+    byte[] bytes = this.bytes;
+    if (bytes != null) {
+      return bytes;
+    }
+    String value = this.value;
+    if (value == null) {
+      flatten();
+      return rawBytes();
+    }
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * check if this string was made from java text rather than bytes, flattening it first if needed
+   *
+   * @return true if the content is held as text
+   */
+  boolean isText() {
+    if (this.bytes != null) {
+      return false;
+    } else if (this.value != null) {
+      return true;
+    }
+    flatten();
+    return isText();
+  }
+
+  /**
+   * the number of bytes in this string, as lua's {@code #} operator, known without flattening it
+   *
+   * @return the length of the content in bytes
+   */
+  public int length() {
+    int length = this.length;
+    if (length < 0) {
+      length = LuaBinary.utf8Length(this.value);
+      this.length = length;
+    }
+    return length;
+  }
+
+  /**
+   * gets the single shared LuaString with the same content as this one
+   *
+   * @return the interned LuaString
+   */
+  public LuaString intern() {
+    if (this.interned) {
+      return this;
+    } else if (isText()) {
+      return of(value());
+    }
+    byte[] bytes = this.bytes;
+    try {
+      // valid UTF-8 shares the instance of the same text
+      return of(StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(bytes)).toString());
+    } catch (CharacterCodingException e) {
+      return cache.get(new Bytes(bytes), b -> new LuaString(((Bytes) b).bytes(), true));
+    }
+  }
+
+  /**
+   * joins the parts of this rope into a single String if they are all text, otherwise into a
+   * single byte array
+   */
+  private synchronized void flatten() {
+    if (this.value != null || this.bytes != null) {
+      return;
+    }
+    List<LuaString> leaves = new ArrayList<>();
+    boolean text = true;
+    // walked with an explicit stack as a long chain of concatenations makes a very deep rope
+    Deque<LuaString> pending = new ArrayDeque<>();
+    pending.push(this);
+    while (!pending.isEmpty()) {
+      LuaString next = pending.pop();
+      LuaString[] parts = next.value == null && next.bytes == null ? next.parts() : null;
+      if (parts == null) {
+        leaves.add(next);
+        text &= next.isText();
+        continue;
+      }
+      for (int i = parts.length - 1; i >= 0; i--) {
+        pending.push(parts[i]);
+      }
+    }
+    if (text) {
+      StringBuilder out = new StringBuilder(this.length);
+      for (LuaString leaf : leaves) {
+        out.append(leaf.value());
+      }
+      this.value = out.toString();
+    } else {
+      byte[] out = new byte[this.length];
+      int at = 0;
+      for (LuaString leaf : leaves) {
+        byte[] bytes = leaf.rawBytes();
+        System.arraycopy(bytes, 0, out, at, bytes.length);
+        at += bytes.length;
+      }
+      this.bytes = out;
+    }
+    this.parts = null;
+  }
+
+  /** the parts of a rope, or null if it has been flattened in the meantime */
+  private synchronized LuaString[] parts() {
+    return this.parts;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof LuaString other) || length() != other.length()
+        || hashCode() != other.hashCode()) {
+      return false;
+    }
+    if (isText() && other.isText()) {
+      return this.value.equals(other.value);
+    }
+    return Arrays.equals(rawBytes(), other.rawBytes());
+  }
+
+  /** a hash of the bytes of this string, the same as {@link Arrays#hashCode(byte[])} */
+  @Override
+  public int hashCode() {
+    int hash = this.hash;
+    if (hash == 0) {
+      hash = isText() ? utf8Hash(this.value) : Arrays.hashCode(this.bytes);
+      this.hash = hash;
+    }
+    return hash;
+  }
+
+  /** hashes the UTF-8 encoding of the given text without encoding it */
+  private static int utf8Hash(String value) {
+    int hash = 1;
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        hash = 31 * hash + c;
+      } else if (c < 0x800) {
+        hash = 31 * (31 * hash + (byte) (0xC0 | (c >> 6))) + (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+          && Character.isLowSurrogate(value.charAt(i + 1))) {
+        int cp = Character.toCodePoint(c, value.charAt(++i));
+        hash = 31 * hash + (byte) (0xF0 | (cp >> 18));
+        hash = 31 * hash + (byte) (0x80 | ((cp >> 12) & 0x3F));
+        hash = 31 * hash + (byte) (0x80 | ((cp >> 6) & 0x3F));
+        hash = 31 * hash + (byte) (0x80 | (cp & 0x3F));
+      } else if (Character.isSurrogate(c)) {
+        // as the JDK encoder writes unpaired surrogates
+        hash = 31 * hash + '?';
+      } else {
+        hash = 31 * hash + (byte) (0xE0 | (c >> 12));
+        hash = 31 * hash + (byte) (0x80 | ((c >> 6) & 0x3F));
+        hash = 31 * hash + (byte) (0x80 | (c & 0x3F));
+      }
+    }
+    return hash;
   }
 
   @Override
   public String toString() {
-    return "\"%s\"".formatted(this.value);
+    return '"' + value() + '"';
   }
 
   @Override
@@ -1,15 +1,25 @@
 package com.spag.lua;
 
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
-import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.BiConsumer;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 /**
@@ -24,34 +34,66 @@ import java.util.stream.Stream;
  *
  * @author MR_Spagetty
  */
-public class LuaTable implements LuaObject {
+public class LuaTable implements MutableLuaTable {
+  // the patterns of the old regular expression based parser, kept only for
+  // compatibility as LuaTableParser no longer uses them
+  @Deprecated(forRemoval = true, since = "v2.1")
   static final String braceRegex = "^\\{(.*)\\}$";
+  @Deprecated(forRemoval = true, since = "v2.1")
   public static final Pattern bracePat = Pattern.compile(braceRegex);
+  @Deprecated(forRemoval = true, since = "v2.1")
   static final String numRegex = "-?(([1-9][0-9]*\\.[0-9]+" + ")|(0\\.[0-9]+)|0|([1-9][0-9]*))";
+  @Deprecated(forRemoval = true, since = "v2.1")
   public static final Pattern numPat = Pattern.compile(numRegex);
+  @Deprecated(forRemoval = true, since = "v2.1")
   static final String stringRegex = "((\\\"\\\")|(\\\".*?[^\\\\]\\\"))";
+  @Deprecated(forRemoval = true, since = "v2.1")
   public static final Pattern stringPat = Pattern.compile(stringRegex);
+  @Deprecated(forRemoval = true, since = "v2.1")
   public static final String luaValueRegex = "(" + stringRegex + "|" + numPat
       + "|\\{((?:[^{}]++|\\{(?:[^{}]++|\\{[^{}]*\\})*\\})*)\\}|" + LuaObject.nil.toString()
       + "|true|false)";
+  @Deprecated(forRemoval = true, since = "v2.1")
   public static final Pattern indexed = Pattern
       .compile("\\G\\s*\\s*" + luaValueRegex + "(?:,|\\Z)\\s*");
+  @Deprecated(forRemoval = true, since = "v2.1")
   public static final Pattern keyed = Pattern
       .compile("\\G\\s*(?:([a-zA-Z_]\\w*)|(\\[" + luaValueRegex + "]))\\s*=");
-  private Map<LuaObject, LuaObject> dataByKey = new LinkedHashMap<>();
+  private final HashPart dataByKey = new HashPart();
 
-  private List<LuaObject> dataByIndex = new LinkedList<>();
+  private final ArrayPart dataByIndex = new ArrayPart();
+
+  // null unless changes are being tracked, so tracking costs a single check when it is off
+  private ChangeJournal journal;
+
+  // 0 until computed, cleared by every write
+  private int hashCode;
 
   /**
    * emulates the bahviour of lua's ipairs loops
    *
    * @param iterator what to do for each iteration
    */
+  @Override
   public void ipairs(BiConsumer<LuaNum, LuaObject> iterator) {
-    IntStream
-        .range(1,
-            Math.min(this.dataByIndex.indexOf(LuaObject.nil) + 1, this.dataByIndex.size() + 1))
-        .forEach(i -> iterator.accept(LuaNum.of(i), this.dataByIndex.get(i - 1)));
+    LuaObject value;
+    for (int i = 1; (value = this.dataByIndex.get(i)) != LuaObject.nil; i++) {
+      iterator.accept(LuaNum.of(i), value);
+    }
+  }
+
+  /**
+   * emulates the behaviour of lua's ipairs loops without boxing the indexes, nothing is allocated
+   * for each step
+   *
+   * @param action what to do for each index and value
+   */
+  @Override
+  public void forEachIndexed(IntObjConsumer<LuaObject> action) {
+    LuaObject value;
+    for (int i = 1; (value = this.dataByIndex.get(i)) != LuaObject.nil; i++) {
+      action.accept(i, value);
+    }
   }
 
   /**
@@ -59,15 +101,159 @@ public class LuaTable implements LuaObject {
    *
    * @param iterator what to do for each iteration
    */
+  @Override
   public void pairs(BiConsumer<LuaObject, LuaObject> iterator) {
-    IntStream.range(1, dataByIndex.size()).forEach(i -> {
-      LuaOptional.ofNilable(dataByIndex.get(i - 1))
-          .ifPresent(v -> iterator.accept(LuaNum.of(i), v));
-    });
-    dataByKey.entrySet().forEach(e -> {
-      LuaObject key = e.getKey();
-      iterator.accept(key, e.getValue());
-    });
+    for (int i = 1; i <= this.dataByIndex.size(); i++) {
+      LuaObject value = this.dataByIndex.get(i);
+      if (value != LuaObject.nil) {
+        iterator.accept(LuaNum.of(i), value);
+      }
+    }
+    this.dataByKey.forEach(iterator);
+  }
+
+  /**
+   * emulates lua's {@code next} function, giving the key that follows the given key in the order
+   * {@link #pairs(BiConsumer)} visits them
+   *
+   * @param key the key to get the key after, nil to get the first key
+   * @return the next key or nil if the given key is the last one
+   * @throws IllegalArgumentException if the given key is not in this table
+   */
+  public LuaObject next(LuaObject key) {
+    Objects.requireNonNull(key, "Key may not be null");
+    int index = key == nil ? 0 : indexOf(key);
+    if (key == nil || index > 0 && index <= this.dataByIndex.size()) {
+      for (int i = index + 1; i <= this.dataByIndex.size(); i++) {
+        if (this.dataByIndex.get(i) != nil) {
+          return LuaNum.of(i);
+        }
+      }
+      int first = this.dataByKey.next(0);
+      return first < 0 ? nil : this.dataByKey.keyAt(first);
+    }
+    if (key instanceof LuaNum ln && !Double.isNaN(ln.doubleValue())) {
+      key = ln.normalized();
+    }
+    int pos = this.dataByKey.find(key);
+    if (pos < 0) {
+      throw new IllegalArgumentException("invalid key to 'next': " + key);
+    }
+    pos = this.dataByKey.next(pos + 1);
+    return pos < 0 ? nil : this.dataByKey.keyAt(pos);
+  }
+
+  /**
+   * creates a cursor over the entries of this table, visiting them in the same order as
+   * {@link #pairs(BiConsumer)}
+   *
+   * @return a new cursor positioned before the first entry
+   */
+  public Cursor cursor() {
+    return new Cursor();
+  }
+
+  /**
+   * A position in a table that steps through its entries, a single cursor is reused for every
+   * step so a loop over the array part allocates nothing after the cursor itself
+   *
+   * <pre>{@code
+   * LuaTable.Cursor cursor = table.cursor();
+   * while (cursor.next()) {
+   *   if (cursor.isIndexed()) {
+   *     use(cursor.index(), cursor.value());
+   *   }
+   * }
+   * }</pre>
+   *
+   * <p>the table must not be changed while a cursor is being used
+   *
+   * @author MR_Spagetty
+   */
+  public final class Cursor {
+    private int index;
+    // the position in the hash part, -1 until the array part is done
+    private int keyed = -1;
+
+    private Cursor() {}
+
+    /**
+     * moves to the next entry
+     *
+     * @return true if there was another entry, false if every entry has been visited
+     */
+    public boolean next() {
+      ArrayPart array = LuaTable.this.dataByIndex;
+      if (this.keyed == -1) {
+        while (++this.index <= array.size()) {
+          if (array.get(this.index) != nil) {
+            return true;
+          }
+        }
+        this.index = 0;
+      } else if (this.keyed < 0) {
+        return false;
+      } else {
+        this.keyed++;
+      }
+      this.keyed = LuaTable.this.dataByKey.next(Math.max(this.keyed, 0));
+      if (this.keyed < 0) {
+        this.keyed = -2;
+        return false;
+      }
+      return true;
+    }
+
+    /**
+     * check if the current entry is in the array part of the table
+     *
+     * @return true if the current entry is stored at an index, false if it has a key
+     */
+    public boolean isIndexed() {
+      return this.index > 0;
+    }
+
+    /**
+     * the index of the current entry
+     *
+     * @return the index or 0 if the current entry is not in the array part
+     */
+    public int index() {
+      return this.index;
+    }
+
+    /**
+     * the key of the current entry, for entries in the array part this is the index as a LuaNum
+     *
+     * @return the key of the current entry
+     * @throws NoSuchElementException if the cursor is not on an entry
+     */
+    public LuaObject key() {
+      if (this.index > 0) {
+        return LuaNum.of(this.index);
+      }
+      return LuaTable.this.dataByKey.keyAt(current());
+    }
+
+    /**
+     * the value of the current entry
+     *
+     * @return the value of the current entry
+     * @throws NoSuchElementException if the cursor is not on an entry
+     */
+    public LuaObject value() {
+      if (this.index > 0) {
+        return LuaTable.this.dataByIndex.get(this.index);
+      }
+      return LuaTable.this.dataByKey.valueAt(current());
+    }
+
+    private int current() {
+      if (this.keyed < 0) {
+        throw new NoSuchElementException();
+      }
+      return this.keyed;
+    }
   }
 
   /**
@@ -76,6 +262,7 @@ public class LuaTable implements LuaObject {
    *
    * @return a sequential {@code Stream} over the indexed elements in this table
    */
+  @Override
   public Stream<LuaObject> stream() {
     return this.dataByIndex.stream();
   }
@@ -88,7 +275,28 @@ public class LuaTable implements LuaObject {
    *         table
    */
   public Stream<LuaObject> parallelStream() {
-    return this.dataByIndex.parallelStream();
+    return this.dataByIndex.stream().parallel();
+  }
+
+  /**
+   * creates a read only view of this table that can be handed out without the table being changed
+   * through it
+   *
+   * @return the read only view
+   */
+  public ReadOnlyLuaTable readOnly() {
+    return new ReadOnlyLuaTable(this);
+  }
+
+  /**
+   * copies this table, and every table nested in it, into an immutable table whose versions share
+   * their structure
+   *
+   * @return the persistent copy
+   * @throws IllegalArgumentException if the table contains itself
+   */
+  public PersistentLuaTable toPersistent() {
+    return PersistentLuaTable.copyOf(this);
   }
 
   /**
@@ -121,12 +329,15 @@ public class LuaTable implements LuaObject {
    *         given key
    * @throws NullPointerException if hte given key/index is null
    */
+  @Override
   public LuaObject get(LuaObject keyInd) {
     Objects.requireNonNull(keyInd, "Key/Index may not be null");
-    if (keyInd instanceof LuaNum ln && ln.isPositive() && ln.isInteger()) {
-      return getByIndex(ln.value.intValue());
+    int index = indexOf(keyInd);
+    if (index > 0) {
+      return getByIndex(index);
     }
-    return dataByKey.getOrDefault(keyInd, LuaObject.nil);
+    LuaObject value = this.dataByKey.get(keyInd);
+    return value == null ? LuaObject.nil : value;
   }
 
   /**
@@ -153,35 +364,47 @@ public class LuaTable implements LuaObject {
    *
    * @param keyInd the key/index to put the new element at
    * @param value  the value to put in the table
-   * @throws NullPointerException if either the key or the element given are null
+   * @throws NullPointerException     if either the key or the element given are
+   *                                  null
+   * @throws IllegalArgumentException if the key is nil or NaN
    * @implNote if the new element is nil and it would be a keyed value it will
    *           just remove the old value
    */
+  @Override
   public void put(LuaObject keyInd, LuaObject value) {
     Objects.requireNonNull(keyInd, "Key may not be null");
     Objects.requireNonNull(value, "new Element may not be null");
     if (keyInd == nil) {
       throw new IllegalArgumentException("Key may not be nil");
     }
-    if (keyInd instanceof LuaNum ln && ln.isInteger() && ln.isPositive()) {
-      int index = ln.value.intValue();
-      while (index >= this.dataByIndex.size()) {
-        this.dataByIndex.add(nil);
-      }
-      this.dataByIndex.set(index - 1, value);
-      while (this.dataByIndex.getLast() == nil) {
-        this.dataByIndex.removeLast();
+    this.hashCode = 0;
+    int index = indexOf(keyInd);
+    if (index > 0) {
+      int size = this.dataByIndex.size();
+      putAtIndex(index, value);
+      if (this.journal != null) {
+        changedAt(index, size);
       }
       return;
     }
+    if (keyInd instanceof LuaNum ln) {
+      if (Double.isNaN(ln.doubleValue())) {
+        throw new IllegalArgumentException("Key may not be NaN");
+      }
+      keyInd = ln.normalized();
+    }
     if (value == LuaObject.nil) {
-      if (this.dataByKey.containsKey(keyInd)) {
-        dataByKey.remove(keyInd);
+      this.dataByKey.remove(keyInd);
+    } else {
+      this.dataByKey.put(keyInd, value);
+    }
+    if (this.journal != null) {
+      this.journal.keys.add(TableKey.of(keyInd));
+      if (value instanceof LuaTable table) {
+        adopt(keyInd, table);
       }
-      return;
+      propagate();
     }
-
-    this.dataByKey.put(keyInd, value);
   }
 
   /**
@@ -190,6 +413,7 @@ public class LuaTable implements LuaObject {
    * @param value the value to insert
    * @see #insert(LuaNum, LuaObject)
    */
+  @Override
   public void insert(LuaObject value) {
     insert(LuaNum.of(dataByIndex.size() + 1), value);
   }
@@ -206,19 +430,100 @@ public class LuaTable implements LuaObject {
    * @throws IndexOutOfBoundsException if the given index is outside of the range
    *                                   of valid indexes
    */
+  @Override
   public void insert(LuaNum index, LuaObject value) {
     Objects.requireNonNull(index);
     Objects.requireNonNull(value);
     if (!index.isInteger() || !index.isPositive()) {
       throw new IllegalArgumentException("Expected positive integer for index");
     }
-    int i = index.value.intValue();
-    if (i > this.dataByIndex.size() + 1) {
-      throw new IndexOutOfBoundsException(i);
+    int i = indexOf(index);
+    if (i < 1 || i > this.dataByIndex.size() + 1) {
+      throw new IndexOutOfBoundsException(index.toString());
     }
-    this.dataByIndex.add(i - 1, value);
-    while (this.dataByIndex.getLast() == nil) {
-      this.dataByIndex.removeLast();
+    this.hashCode = 0;
+    int size = this.dataByIndex.size();
+    this.dataByIndex.insert(i, value);
+    this.dataByIndex.trimTrailingNils();
+    migrateFromHash();
+    if (this.journal != null) {
+      inserted(i, size + 1, value);
+    }
+  }
+
+  /**
+   * converts the given key to the array index it represents
+   *
+   * @param key the key to convert
+   * @return the index or 0 if the key is not a positive integer that fits in an int
+   */
+  private static int indexOf(LuaObject key) {
+    return key instanceof LuaNum ln ? ln.asIndex() : 0;
+  }
+
+  /**
+   * stores a value at a positive integer key deciding between the array and hash parts as lua
+   * does
+   *
+   * <p>indexes within the array part or directly after its border are stored in the array part.
+   * indexes further out only extend the array (filling the gap with nil) while it would remain at
+   * least half full, otherwise they are kept in the hash part until the array grows to reach them
+   *
+   * @param index the index to store the value at
+   * @param value the value to store
+   */
+  private void putAtIndex(int index, LuaObject value) {
+    int size = this.dataByIndex.size();
+    if (index <= size) {
+      this.dataByIndex.set(index, value);
+      this.dataByIndex.trimTrailingNils();
+      return;
+    }
+    LuaNum key = LuaNum.of(index);
+    if (value == LuaObject.nil) {
+      this.dataByKey.remove(key);
+      return;
+    }
+    if (index > size + 1 && (long) (this.dataByIndex.count() + 1) * 2 < index) {
+      this.dataByKey.put(key, value);
+      return;
+    }
+    this.dataByKey.remove(key);
+    this.dataByIndex.fillTo(index - 1);
+    takeFromHash(size + 1, index - 1, true);
+    this.dataByIndex.append(value);
+    migrateFromHash();
+  }
+
+  /**
+   * moves values stored in the hash part at the index directly after the border of the array
+   * part into the array part, keeping the array part as long as the sequence allows
+   */
+  private void migrateFromHash() {
+    if (this.dataByKey.isEmpty()) {
+      return;
+    }
+    LuaObject next;
+    while ((next = this.dataByKey.remove(LuaNum.of(this.dataByIndex.size() + 1))) != null) {
+      this.dataByIndex.append(next);
+    }
+  }
+
+  /**
+   * removes the values kept in the hash part at indexes the array part has grown over, so that no
+   * index is ever held by both parts
+   *
+   * @param from the first index now in the array part
+   * @param to the last index now in the array part
+   * @param keep true to move the removed values into the array part, false if the array part
+   *     already holds newer values at those indexes
+   */
+  private void takeFromHash(int from, int to, boolean keep) {
+    for (int i = from; i <= to && !this.dataByKey.isEmpty(); i++) {
+      LuaObject taken = this.dataByKey.remove(LuaNum.of(i));
+      if (keep && taken != null) {
+        this.dataByIndex.set(i, taken);
+      }
     }
   }
 
@@ -235,11 +540,19 @@ public class LuaTable implements LuaObject {
     return getByIndex(index);
   }
 
-  private LuaObject getByIndex(int index) {
-    if (index < 1 || index > this.dataByIndex.size()) {
-      return LuaObject.nil;
+  /**
+   * gets the value at the given positive index from whichever part of the table
+   * holds it
+   *
+   * @param index the index, from 1
+   * @return the value or nil if there is none
+   */
+  LuaObject getByIndex(int index) {
+    if (index > this.dataByIndex.size()) {
+      LuaObject value = this.dataByKey.isEmpty() ? null : this.dataByKey.get(LuaNum.of(index));
+      return value == null ? LuaObject.nil : value;
     }
-    return this.dataByIndex.get(index - 1);
+    return this.dataByIndex.get(index);
   }
 
   /**
@@ -251,7 +564,24 @@ public class LuaTable implements LuaObject {
   @Deprecated(forRemoval = true, since = "v2.0")
   public void add(LuaObject value) {
     Objects.requireNonNull(value, "new element may not be null");
-    this.dataByIndex.add(value);
+    append(value);
+  }
+
+  /**
+   * adds a value after the last used slot of the array part, unlike
+   * {@link #insert(LuaObject)} nil values are kept as holes in the array part as
+   * they are for positional values in a table constructor
+   *
+   * @param value the value to add
+   */
+  void append(LuaObject value) {
+    this.hashCode = 0;
+    int index = this.dataByIndex.size() + 1;
+    this.dataByIndex.append(value);
+    migrateFromHash();
+    if (this.journal != null) {
+      inserted(index, index, value);
+    }
   }
 
   /**
@@ -268,7 +598,13 @@ public class LuaTable implements LuaObject {
   @Deprecated(forRemoval = true, since = "v2.0")
   public void add(int index, LuaObject value) {
     Objects.requireNonNull(value, "new element may not be null");
-    this.dataByIndex.add(index - 1, value);
+    this.hashCode = 0;
+    int size = this.dataByIndex.size();
+    this.dataByIndex.insert(index, value);
+    migrateFromHash();
+    if (this.journal != null) {
+      inserted(index, size + 1, value);
+    }
   }
 
   /**
@@ -287,7 +623,12 @@ public class LuaTable implements LuaObject {
 
   private LuaObject replaceAtIndex(int i, LuaObject newElm) {
     Objects.requireNonNull(newElm, "the new element may not be null");
-    return this.dataByIndex.set(i - 1, newElm);
+    this.hashCode = 0;
+    LuaObject old = this.dataByIndex.set(i, newElm);
+    if (this.journal != null) {
+      changedAt(i, this.dataByIndex.size());
+    }
+    return old;
   }
 
   /**
@@ -295,30 +636,119 @@ public class LuaTable implements LuaObject {
    *
    * @return the number of indexed elements
    */
+  @Override
   public int size() {
     return this.dataByIndex.size();
   }
 
+  /**
+   * finishes adding values straight to the end of the array part
+   *
+   * @param size the size of the array part before the values were added
+   * @param added the number of values added
+   */
+  private void appended(int size, int added) {
+    this.hashCode = 0;
+    takeFromHash(size + 1, size + added, false);
+    migrateFromHash();
+  }
+
+  /**
+   * the number of entries in the hash part of this table
+   *
+   * @return the number of keyed entries
+   */
+  int keyedSize() {
+    return this.dataByKey.size();
+  }
+
+  /**
+   * visits the entries of the hash part of this table in insertion order
+   *
+   * @param action what to do for each entry
+   */
+  void forEachKeyed(BiConsumer<LuaObject, LuaObject> action) {
+    this.dataByKey.forEach(action);
+  }
+
+  /**
+   * the hash part of this table, for walking its entries by position
+   *
+   * @return the hash part
+   */
+  HashPart keyed() {
+    return this.dataByKey;
+  }
+
+  /**
+   * the array part of this table, for changing it directly
+   *
+   * @return the array part
+   */
+  ArrayPart indexed() {
+    return this.dataByIndex;
+  }
+
   @Override
   public String toString() {
-    if (this.dataByIndex.isEmpty() && this.dataByKey.isEmpty()) {
-      return "{}";
-    }
     StringBuilder out = new StringBuilder();
-    out.append("{");
-    this.dataByIndex.forEach(v -> out.append(v + ","));
-    this.dataByKey.entrySet().forEach(e -> {
-      LuaObject key = e.getKey();
-      out.append("%s=%s,".formatted(switch (key) {
-      case LuaString ls -> ls.value.contains(" ") || ls.value.equals("true")
-          || ls.value.equals("false") ? "[" + ls + "]" : ls.value;
-      default -> "[" + key + "]";
-      }, e.getValue().toString()));
-    });
-    out.setCharAt(out.lastIndexOf(","), '}');
+    try {
+      writeTo(out);
+    } catch (IOException e) {
+      throw new AssertionError("StringBuilders do not throw IOExceptions", e);
+    }
     return out.toString();
   }
 
+  /**
+   * writes this table in its serialized form to the given appendable
+   *
+   * <p>
+   * the table is streamed straight into the appendable without building any
+   * intermediate strings, strings in the table are written exactly as they are
+   * held
+   *
+   * @param out where to write the table to
+   * @throws IOException if the appendable fails
+   * @see #writeTo(Appendable, boolean)
+   */
+  public void writeTo(Appendable out) throws IOException {
+    writeTo(out, false);
+  }
+
+  /**
+   * writes this table in its serialized form to the given appendable
+   *
+   * @param out           where to write the table to
+   * @param escapeStrings if true quotes, backslashes and control characters in
+   *                      strings are escaped so that they read back correctly in
+   *                      lua, otherwise strings are written exactly as they are
+   *                      held (as the parser keeps any escapes in them as they
+   *                      were written)
+   * @throws IOException if the appendable fails
+   */
+  public void writeTo(Appendable out, boolean escapeStrings) throws IOException {
+    new LuaTableWriter(Objects.requireNonNull(out, "out may not be null"), escapeStrings)
+        .write(this);
+  }
+
+  /**
+   * writes this table in its serialized form to the given channel as UTF-8
+   *
+   * <p>
+   * the channel is not closed
+   *
+   * @param channel       the channel to write the table to
+   * @param escapeStrings whether strings should be escaped
+   * @throws IOException if writing to the channel fails
+   * @see #writeTo(Appendable, boolean)
+   */
+  public void writeTo(WritableByteChannel channel, boolean escapeStrings) throws IOException {
+    Writer out = Channels.newWriter(channel, StandardCharsets.UTF_8);
+    writeTo(out, escapeStrings);
+    out.flush();
+  }
+
   /**
    * merges another luaTable into this one
    *
@@ -334,11 +764,244 @@ public class LuaTable implements LuaObject {
    *         operations in a single statement
    */
   public LuaTable merge(LuaTable b) {
-    this.dataByIndex.addAll(b.dataByIndex);
-    b.dataByKey.entrySet().parallelStream().forEach(e -> put(e.getKey(), e.getValue()));
+    int size = this.dataByIndex.size();
+    int added = b.dataByIndex.size();
+    this.dataByIndex.appendAll(b.dataByIndex);
+    appended(size, added);
+    if (this.journal != null) {
+      for (int i = size + 1; i <= size + added; i++) {
+        if (this.dataByIndex.get(i) instanceof LuaTable table) {
+          adopt(LuaNum.of(i), table);
+        }
+      }
+      changed(size + 1, size + added);
+    }
+    b.dataByKey.forEach(this::put);
+    return this;
+  }
+
+  /**
+   * merges any other kind of table into this one
+   *
+   * @param other the table to merge from
+   * @return this table after the merge operation
+   * @see #merge(LuaTable) LuaTable.merge(LuaTable) for merge rules
+   */
+  @Override
+  public LuaTable merge(LuaTableView other) {
+    if (other instanceof LuaTable table) {
+      return merge(table);
+    }
+    int border = other.size();
+    other.stream().forEach(this::append);
+    other.pairs((k, v) -> {
+      if (!(k instanceof LuaNum num) || num.asIndex() == 0 || num.asIndex() > border) {
+        put(k, v);
+      }
+    });
+    return this;
+  }
+
+  /**
+   * finds the changes between two versions of a table, so only what changed has to be sent to
+   * keep a copy of the table in sync
+   *
+   * @param old the old version of the table
+   * @param updated the new version of the table
+   * @return the patch that turns a table equal to the old version into the new version
+   * @throws IllegalArgumentException if either version has a table used as a key
+   * @see LuaTablePatch
+   */
+  public static LuaTablePatch diff(LuaTable old, LuaTable updated) {
+    return LuaTablePatch.diff(old, updated);
+  }
+
+  /**
+   * changes this table by applying a patch made by {@link #diff(LuaTable, LuaTable)}, this table
+   * should be equal to the old version the patch was made from and is then equal to the new one
+   *
+   * @param patch the patch to apply
+   * @return this table after the patch is applied
+   * @throws IllegalArgumentException if the patch does not fit this table, the table may be left
+   *     partly patched
+   */
+  public LuaTable apply(LuaTablePatch patch) {
+    patch.applyTo(this);
     return this;
   }
 
+  /**
+   * starts or stops recording which keys of this table change, so they can be sent on with
+   * {@link #drainChanges()} without keeping an old copy of the table to compare against
+   *
+   * <p>the tables nested in this one are tracked as well, a change to one of them is reported by
+   * this table as a change in place at the key holding it. tables put into this table later are
+   * tracked when they are put. stopping also stops tracking the nested tables that are not in
+   * another tracked table
+   *
+   * @param track whether changes should be tracked
+   */
+  public void trackChanges(boolean track) {
+    if (track == (this.journal != null)) {
+      return;
+    }
+    Deque<LuaTable> pending = new ArrayDeque<>();
+    pending.push(this);
+    if (track) {
+      this.journal = new ChangeJournal();
+      while (!pending.isEmpty()) {
+        LuaTable table = pending.pop();
+        table.pairs((key, value) -> {
+          if (value instanceof LuaTable child) {
+            if (child.journal == null) {
+              child.journal = new ChangeJournal();
+              pending.push(child);
+            }
+            child.journal.parents.put(table, key);
+          }
+        });
+      }
+      return;
+    }
+    this.journal = null;
+    while (!pending.isEmpty()) {
+      LuaTable table = pending.pop();
+      table.pairs((key, value) -> {
+        if (value instanceof LuaTable child && child.journal != null) {
+          child.journal.parents.remove(table);
+          if (child.journal.parents.isEmpty()) {
+            child.journal = null;
+            pending.push(child);
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * check if this table is recording its changes
+   *
+   * @return true if changes are being tracked
+   * @see #trackChanges(boolean)
+   */
+  public boolean isTrackingChanges() {
+    return this.journal != null;
+  }
+
+  /**
+   * takes the changes made to this table since tracking started or they were last drained
+   *
+   * <p>the changes are given as a patch that turns a copy of this table from when they were last
+   * drained into an equal copy of the table as it is now. only the keys that changed are in it,
+   * with their current values, and a nested table that changed in place is given as a nested
+   * patch. changes drained from a nested table directly are no longer reported by the tables it
+   * is in
+   *
+   * @return the changes, an empty patch if nothing changed
+   * @throws IllegalStateException if changes are not being tracked
+   * @see #trackChanges(boolean)
+   */
+  public LuaTablePatch drainChanges() {
+    if (this.journal == null) {
+      throw new IllegalStateException("Changes are not being tracked");
+    }
+    return LuaTablePatch.drain(this);
+  }
+
+  /**
+   * the changes recorded for this table
+   *
+   * @return the journal or null if changes are not being tracked
+   */
+  ChangeJournal journal() {
+    return this.journal;
+  }
+
+  /**
+   * records a change to the value at a single index
+   *
+   * @param index the index that changed
+   * @param size the size of the array part before the change
+   */
+  private void changedAt(int index, int size) {
+    // indexes far past the array part are kept with the keys so a sparse index does not grow
+    // the set of indexes
+    if (index <= Math.max(size, this.dataByIndex.size()) + 1) {
+      this.journal.indexes.set(index);
+    } else {
+      this.journal.keys.add(LuaNum.of(index));
+    }
+    if (getByIndex(index) instanceof LuaTable table) {
+      adopt(LuaNum.of(index), table);
+    }
+    propagate();
+  }
+
+  /**
+   * records a value being inserted at the given index, shifting the values up to the given index
+   */
+  private void inserted(int index, int to, LuaObject value) {
+    if (value instanceof LuaTable table) {
+      adopt(LuaNum.of(index), table);
+    }
+    changed(index, to);
+  }
+
+  /**
+   * records a change to every index in the given range made directly to the array part
+   *
+   * @param from the first index that changed
+   * @param to the last index that changed
+   */
+  void changed(int from, int to) {
+    this.hashCode = 0;
+    if (this.journal == null || from > to) {
+      return;
+    }
+    this.journal.indexes.set(from, to + 1);
+    propagate();
+  }
+
+  /**
+   * tracks the changes of a table put into this one so they are reported by this table
+   *
+   * @param key the key the table is at
+   * @param child the table
+   */
+  void adopt(LuaObject key, LuaTable child) {
+    if (child.journal == null) {
+      child.trackChanges(true);
+    }
+    child.journal.parents.put(this, key);
+  }
+
+  /**
+   * reports a change to this table to the tables it is in, and to the tables they are in, until
+   * reaching one that already knows about it
+   */
+  private void propagate() {
+    if (this.journal.parents.isEmpty()) {
+      return;
+    }
+    Deque<LuaTable> pending = new ArrayDeque<>();
+    pending.push(this);
+    while (!pending.isEmpty()) {
+      LuaTable child = pending.pop();
+      Iterator<Map.Entry<LuaTable, LuaObject>> links = child.journal.parents.entrySet().iterator();
+      while (links.hasNext()) {
+        Map.Entry<LuaTable, LuaObject> link = links.next();
+        LuaTable parent = link.getKey();
+        if (parent.journal == null || parent.get(link.getValue()) != child) {
+          // no longer tracked or moved since, a move is itself a change to the parent
+          links.remove();
+        } else if (parent.journal.nested.get(TableKey.of(link.getValue())) != child) {
+          parent.journal.nested.put(TableKey.of(link.getValue()), child);
+          pending.push(parent);
+        }
+      }
+    }
+  }
+
   /**
    * creates a new table combinding the data from the given data where a is merged
    * first and then b
@@ -355,6 +1018,326 @@ public class LuaTable implements LuaObject {
     return out;
   }
 
+  /**
+   * creates a builder for a new table
+   *
+   * @return the builder
+   * @see Builder
+   */
+  public static Builder builder() {
+    return new Builder(0, 0);
+  }
+
+  /**
+   * creates a builder for a new table with room for the given number of values, so the table
+   * does not have to grow while it is built
+   *
+   * @param indexed the expected number of indexed values
+   * @param keyed the expected number of keyed values
+   * @return the builder
+   * @throws IllegalArgumentException if either number is negative
+   * @see Builder
+   */
+  public static Builder builder(int indexed, int keyed) {
+    return new Builder(indexed, keyed);
+  }
+
+  /**
+   * creates a table holding the given values at the indexes 1 to {@code values.length}
+   *
+   * @param values the values
+   * @return the table
+   */
+  public static LuaTable ofArray(long[] values) {
+    return new Builder(values.length, 0).addAll(values).build();
+  }
+
+  /**
+   * creates a table holding the given values at the indexes 1 to {@code values.length}
+   *
+   * @param values the values
+   * @return the table
+   */
+  public static LuaTable ofArray(double[] values) {
+    return new Builder(values.length, 0).addAll(values).build();
+  }
+
+  /**
+   * creates a table holding the given values at the indexes 1 to {@code values.length}, null
+   * elements are left as nil holes
+   *
+   * @param values the values
+   * @return the table
+   */
+  public static LuaTable ofArray(String[] values) {
+    return new Builder(values.length, 0).addAll(values).build();
+  }
+
+  /**
+   * creates a table holding the given values at the indexes 1 to {@code values.size()}, converted
+   * as by {@link Builder#addAll(Collection)}
+   *
+   * @param values the values
+   * @return the table
+   * @throws IllegalArgumentException if a value can not be converted
+   */
+  public static LuaTable ofArray(List<?> values) {
+    return new Builder(values.size(), 0).addAll(values).build();
+  }
+
+  /**
+   * creates a table holding the entries of the given map, with keys and values converted as by
+   * {@link Builder#addAll(Collection)}. entries with a null value are left out as in lua
+   *
+   * @param values the entries
+   * @return the table
+   * @throws IllegalArgumentException if a key or value can not be converted or a key is null or
+   *     NaN
+   */
+  public static LuaTable ofMap(Map<?, ?> values) {
+    Builder builder = new Builder(0, values.size());
+    values.forEach((k, v) -> builder.put(toLua(k), toLua(v)));
+    return builder.build();
+  }
+
+  /**
+   * converts a java value into the lua value it represents
+   *
+   * @param value the value to convert
+   * @return the lua value
+   * @throws IllegalArgumentException if the value is of a type that has no lua equivalent
+   */
+  private static LuaObject toLua(Object value) {
+    return switch (value) {
+      case null -> LuaObject.nil;
+      case LuaObject lua -> lua;
+      case String string -> LuaString.of(string);
+      case Character c -> LuaString.of(c.toString());
+      case Boolean bool -> LuaBool.of(bool);
+      case Number number -> LuaNum.of(number);
+      case long[] array -> ofArray(array);
+      case double[] array -> ofArray(array);
+      case String[] array -> ofArray(array);
+      case List<?> list -> ofArray(list);
+      case Map<?, ?> map -> ofMap(map);
+      default -> throw new IllegalArgumentException(
+          "Unrecognised type detected: " + value.getClass().getName());
+    };
+  }
+
+  /**
+   * Builds a table from java data, indexed values are added straight to the array part without
+   * making an index or checking for a border for each one
+   *
+   * <pre>{@code
+   * LuaTable metrics = LuaTable.builder(samples.length, 1)
+   *     .addAll(samples)
+   *     .put("name", LuaString.of("tps"))
+   *     .build();
+   * }</pre>
+   *
+   * <p>as with positional values in a table constructor added nil values are kept as holes, any
+   * at the end are dropped when the table is built. a builder builds a single table
+   *
+   * @author MR_Spagetty
+   */
+  public static final class Builder {
+    private LuaTable table = new LuaTable();
+
+    private Builder(int indexed, int keyed) {
+      if (indexed < 0 || keyed < 0) {
+        throw new IllegalArgumentException("Capacity may not be negative");
+      }
+      this.table.dataByIndex.ensureCapacity(indexed);
+      this.table.dataByKey.ensureCapacity(keyed);
+    }
+
+    /**
+     * adds a value after the indexed values added so far
+     *
+     * @param value the value to add
+     * @return this builder
+     * @throws NullPointerException if the value is null
+     * @throws IllegalStateException if the table has been built
+     */
+    public Builder add(LuaObject value) {
+      Objects.requireNonNull(value, "new element may not be null");
+      table().append(value);
+      return this;
+    }
+
+    /**
+     * adds an integer after the indexed values added so far
+     *
+     * @param value the integer to add
+     * @return this builder
+     * @throws IllegalStateException if the table has been built
+     */
+    public Builder add(long value) {
+      return add(LuaNum.of(value));
+    }
+
+    /**
+     * adds a float after the indexed values added so far
+     *
+     * @param value the float to add
+     * @return this builder
+     * @throws IllegalStateException if the table has been built
+     */
+    public Builder add(double value) {
+      return add(LuaNum.of(value));
+    }
+
+    /**
+     * adds a string after the indexed values added so far
+     *
+     * @param value the string to add, null for a nil hole
+     * @return this builder
+     * @throws IllegalStateException if the table has been built
+     */
+    public Builder add(String value) {
+      return add(value == null ? LuaObject.nil : LuaString.of(value));
+    }
+
+    /**
+     * adds a boolean after the indexed values added so far
+     *
+     * @param value the boolean to add
+     * @return this builder
+     * @throws IllegalStateException if the table has been built
+     */
+    public Builder add(boolean value) {
+      return add(LuaBool.of(value));
+    }
+
+    /**
+     * adds the given integers after the indexed values added so far
+     *
+     * @param values the integers to add
+     * @return this builder
+     * @throws IllegalStateException if the table has been built
+     */
+    public Builder addAll(long[] values) {
+      LuaTable table = table();
+      int size = table.dataByIndex.size();
+      table.dataByIndex.ensureCapacity(size + values.length);
+      for (long value : values) {
+        table.dataByIndex.append(LuaNum.of(value));
+      }
+      table.appended(size, values.length);
+      return this;
+    }
+
+    /**
+     * adds the given floats after the indexed values added so far
+     *
+     * @param values the floats to add
+     * @return this builder
+     * @throws IllegalStateException if the table has been built
+     */
+    public Builder addAll(double[] values) {
+      LuaTable table = table();
+      int size = table.dataByIndex.size();
+      table.dataByIndex.ensureCapacity(size + values.length);
+      for (double value : values) {
+        table.dataByIndex.append(LuaNum.of(value));
+      }
+      table.appended(size, values.length);
+      return this;
+    }
+
+    /**
+     * adds the given strings after the indexed values added so far
+     *
+     * @param values the strings to add, null elements are added as nil holes
+     * @return this builder
+     * @throws IllegalStateException if the table has been built
+     */
+    public Builder addAll(String[] values) {
+      LuaTable table = table();
+      int size = table.dataByIndex.size();
+      table.dataByIndex.ensureCapacity(size + values.length);
+      for (String value : values) {
+        table.dataByIndex.append(value == null ? LuaObject.nil : LuaString.of(value));
+      }
+      table.appended(size, values.length);
+      return this;
+    }
+
+    /**
+     * adds the given values after the indexed values added so far, converting them to lua values
+     *
+     * <p>lua values are added as they are, strings and characters become LuaStrings, booleans
+     * LuaBools, numbers LuaNums, null a nil hole and arrays, lists and maps nested tables as
+     * {@link LuaTable#ofArray} and {@link LuaTable#ofMap} would make them
+     *
+     * @param values the values to add
+     * @return this builder
+     * @throws IllegalArgumentException if a value can not be converted
+     * @throws IllegalStateException if the table has been built
+     */
+    public Builder addAll(Collection<?> values) {
+      LuaTable table = table();
+      int size = table.dataByIndex.size();
+      table.dataByIndex.ensureCapacity(size + values.size());
+      int added = 0;
+      for (Object value : values) {
+        table.dataByIndex.append(toLua(value));
+        added++;
+      }
+      table.appended(size, added);
+      return this;
+    }
+
+    /**
+     * puts a value in the table at the given key or index
+     *
+     * @param key the key or index
+     * @param value the value, nil leaves the key out
+     * @return this builder
+     * @throws IllegalArgumentException if the key is nil or NaN
+     * @throws IllegalStateException if the table has been built
+     * @see LuaTable#put(LuaObject, LuaObject)
+     */
+    public Builder put(LuaObject key, LuaObject value) {
+      table().put(key, value);
+      return this;
+    }
+
+    /**
+     * puts a value in the table at the given string key
+     *
+     * @param key the key
+     * @param value the value, nil leaves the key out
+     * @return this builder
+     * @throws IllegalStateException if the table has been built
+     */
+    public Builder put(String key, LuaObject value) {
+      Objects.requireNonNull(key, "Key may not be null");
+      return put(LuaString.of(key), value);
+    }
+
+    /**
+     * finishes the table, the builder can not be used afterwards
+     *
+     * @return the table
+     * @throws IllegalStateException if the table has already been built
+     */
+    public LuaTable build() {
+      LuaTable table = table();
+      table.dataByIndex.trimTrailingNils();
+      this.table = null;
+      return table;
+    }
+
+    private LuaTable table() {
+      if (this.table == null) {
+        throw new IllegalStateException("The table has already been built");
+      }
+      return this.table;
+    }
+  }
+
   /**
    * parses a LuaTable that is serialized into a string
    *
@@ -369,57 +1352,103 @@ public class LuaTable implements LuaObject {
    * @implNote may not currently allow all possible serialized data
    */
   public static LuaTable fromString(String data) {
-    Matcher match = bracePat.matcher(data);
-    if (!match.matches()) {
-      throw new IllegalArgumentException("Invalid Lua table: " + data);
-    }
-    LuaTable out = new LuaTable();
-    data = match.group(1);
-    Matcher indexedValues = indexed.matcher(data);
-    Matcher keyedValues = keyed.matcher(data);
-    int end = 0;
-    while (indexedValues.find(end) || keyedValues.find(end)) {
-      while (indexedValues.find(end)) {
-        String val = indexedValues.group(1);
-        end = indexedValues.end();
-        out.add(parseObject(val));
-      }
-      while (keyedValues.find(end)) {
-        String key = Optional.ofNullable(keyedValues.group(2)).orElse(keyedValues.group(1));
-        if (key.equals("true") || key.equals("false") || key.equals("nil")) {
-          throw new IllegalArgumentException(
-              "implicit string keys may not match boolean value names or nil");
-        } else if (key.startsWith("[") && key.endsWith(
-            "]") /* && (!stringPat.matcher(key.substring(1, key.length()-1)).matches()) */) {
-          key = key.substring(1, key.length() - 1);
-        } else if (Pattern.matches("[a-zA-Z_]\\w*", key)) {
-          key = "\"" + key + "\"";
-        }
-        if (!indexedValues.find(keyedValues.end())) {
-          throw new IllegalArgumentException("Invalid lua table, no value for key: " + key);
-        }
-        String val = indexedValues.group(1);
-        end = indexedValues.end();
-        out.put(parseObject(key), parseObject(val));
-      }
-    }
-    return out;
+    return fromString((CharSequence) data);
   }
 
-  private static LuaObject parseObject(String data) {
-    Objects.requireNonNull(data, "Lua data may not be null");
-    if (data.startsWith("{")) {
-      return fromString(data);
-    } else if (stringPat.matcher(data).matches()) {
-      return LuaString.of(data.substring(1, data.length() - 1));
-    } else if (numPat.matcher(data).matches()) {
-      return LuaNum.of(data);
-    } else if (data.equals("true") || data.equals("false")) {
-      return LuaBool.of(data);
-    } else if (data.equals(LuaObject.nil.toString())) {
-      return LuaObject.nil;
-    }
-    throw new IllegalArgumentException("Unrecognised type detected: " + data);
+  /**
+   * parses a LuaTable that is serialized into a character sequence
+   *
+   * @param data the serialized representation of the table
+   * @return the parsed table
+   * @throws IllegalArgumentException if the table is invalid
+   * @see #fromString(String)
+   */
+  public static LuaTable fromString(CharSequence data) {
+    return LuaTableParser.parse(data);
+  }
+
+  /**
+   * parses a large serialized table on several threads of the common fork join pool
+   *
+   * @param data the serialized representation of the table, must not change while it is being
+   *             parsed
+   * @return the parsed table, the same as {@link #fromString(CharSequence)} would give
+   * @throws IllegalArgumentException if the table is invalid
+   * @see #fromStringParallel(CharSequence, ForkJoinPool)
+   */
+  public static LuaTable fromStringParallel(CharSequence data) {
+    return fromStringParallel(data, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * parses a large serialized table on several threads of the given pool
+   *
+   * <p>
+   * the top level of the table is scanned first to find where each of its values are, then the
+   * values are parsed in parallel, splitting up large nested tables the same way. tables of only
+   * a few kilobytes are parsed on the calling thread as with {@link #fromString(CharSequence)}, as
+   * is every table when the pool only has a single thread
+   *
+   * @param data the serialized representation of the table, must not change while it is being
+   *             parsed
+   * @param pool the pool to parse the table with
+   * @return the parsed table, the same as {@link #fromString(CharSequence)} would give
+   * @throws IllegalArgumentException if the table is invalid
+   */
+  public static LuaTable fromStringParallel(CharSequence data, ForkJoinPool pool) {
+    return ParallelTableParser.parse(data, pool);
+  }
+
+  /**
+   * creates a read only view of a serialized table that only parses values as they are accessed,
+   * much cheaper than {@link #fromString(CharSequence)} when only a few values of a large table
+   * are needed
+   *
+   * @param data the serialized representation of the table, must not change while the view is
+   *             in use
+   * @return the lazy view of the table
+   * @throws IllegalArgumentException if the top level of the table is invalid
+   * @see LazyLuaTable
+   */
+  public static LazyLuaTable lazy(CharSequence data) {
+    return LazyLuaTable.of(data);
+  }
+
+  /**
+   * parses a serialized LuaTable as it is read from the given reader
+   *
+   * <p>
+   * the reader is read to its end, which must hold exactly one table with nothing but whitespace
+   * after it. the reader is not closed
+   *
+   * @param reader the reader to read the serialized table from
+   * @return the parsed table
+   * @throws IOException              if reading from the reader fails
+   * @throws IllegalArgumentException if the table is invalid or is followed by
+   *                                  more data
+   * @see #fromString(String)
+   */
+  public static LuaTable read(Reader reader) throws IOException {
+    return LuaTableParser.parse(reader);
+  }
+
+  /**
+   * parses a UTF-8 encoded serialized LuaTable as it is read from the given
+   * channel
+   *
+   * <p>
+   * the channel is read to its end, which must hold exactly one table with nothing but whitespace
+   * after it. the channel is not closed
+   *
+   * @param channel the channel to read the serialized table from
+   * @return the parsed table
+   * @throws IOException              if reading from the channel fails
+   * @throws IllegalArgumentException if the table is invalid or is followed by
+   *                                  more data
+   * @see #fromString(String)
+   */
+  public static LuaTable read(ReadableByteChannel channel) throws IOException {
+    return LuaTableParser.parse(Channels.newReader(channel, StandardCharsets.UTF_8));
   }
 
   @Override
@@ -429,10 +1458,154 @@ public class LuaTable implements LuaObject {
 
   @Override
   public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
     if (!(obj instanceof LuaTable)) {
       return false;
     }
     LuaTable other = (LuaTable) obj;
-    return this.dataByIndex.equals(other.dataByIndex) && this.dataByKey.equals(other.dataByKey);
+    if (this.dataByIndex.count() + this.dataByKey.size()
+        != other.dataByIndex.count() + other.dataByKey.size()
+        || hashCode() != other.hashCode()) {
+      return false;
+    }
+    for (int i = 1; i <= this.dataByIndex.size(); i++) {
+      LuaObject value = this.dataByIndex.get(i);
+      if (value != LuaObject.nil && !value.equals(other.getByIndex(i))) {
+        return false;
+      }
+    }
+    for (int pos = this.dataByKey.next(0); pos >= 0; pos = this.dataByKey.next(pos + 1)) {
+      if (!this.dataByKey.valueAt(pos).equals(other.get(this.dataByKey.keyAt(pos)))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * a hash of the content, kept until the table is next changed so tables with different hashes
+   * are told apart by {@link #equals(Object)} without comparing them
+   *
+   * <p>nested tables only count as being tables and not by their content, so a change to a nested
+   * table never has to reach the tables it is in. as with {@link #equals(Object)} the hash does
+   * not depend on how values are split between the array and hash parts
+   */
+  @Override
+  public int hashCode() {
+    int hash = this.hashCode;
+    if (hash == 0) {
+      hash = 1;
+      for (int i = 1; i <= this.dataByIndex.size(); i++) {
+        LuaObject value = this.dataByIndex.get(i);
+        if (value != LuaObject.nil) {
+          hash += i ^ hashOf(value);
+        }
+      }
+      for (int pos = this.dataByKey.next(0); pos >= 0; pos = this.dataByKey.next(pos + 1)) {
+        hash += keyHash(this.dataByKey.keyAt(pos)) ^ hashOf(this.dataByKey.valueAt(pos));
+      }
+      this.hashCode = hash;
+    }
+    return hash;
+  }
+
+  private static int hashOf(LuaObject value) {
+    return value instanceof LuaTableView ? 0x7AB1E : value.hashCode();
+  }
+
+  /** the hash of a key, tables are keys by their identity */
+  private static int keyHash(LuaObject key) {
+    return key instanceof LuaTable ? System.identityHashCode(key) : key.hashCode();
+  }
+
+  /**
+   * makes the nested tables that are equal share a single table, so a table with many repeated
+   * nested tables is held in less memory
+   *
+   * <p>a change to a shared table is seen everywhere it is, so this is for tables that are not
+   * changed afterwards such as those handed out by {@link LuaParseCache}. tables used as keys are
+   * left as they are
+   *
+   * @return this table
+   * @throws IllegalArgumentException if the table contains itself
+   */
+  public LuaTable deduplicate() {
+    Map<Shape, LuaTable> seen = new HashMap<>();
+    Map<LuaTable, Boolean> done = new IdentityHashMap<>();
+    Map<LuaTable, Boolean> entered = new IdentityHashMap<>();
+    // walked depth first with an explicit stack as tables may be nested very deeply, the tables
+    // in a table are shared before it is compared with others so comparing them is cheap
+    Deque<LuaTable> pending = new ArrayDeque<>();
+    pending.push(this);
+    while (!pending.isEmpty()) {
+      LuaTable next = pending.peek();
+      if (done.containsKey(next)) {
+        pending.pop();
+        continue;
+      }
+      if (entered.put(next, Boolean.TRUE) == null) {
+        next.pairs((k, v) -> {
+          if (v instanceof LuaTable inner && !done.containsKey(inner)) {
+            if (entered.containsKey(inner)) {
+              throw new IllegalArgumentException("tables that contain themselves can not be"
+                  + " deduplicated");
+            }
+            pending.push(inner);
+          }
+        });
+        continue;
+      }
+      pending.pop();
+      for (int i = 1; i <= next.dataByIndex.size(); i++) {
+        if (next.dataByIndex.get(i) instanceof LuaTable inner) {
+          next.dataByIndex.set(i, shared(inner, seen));
+        }
+      }
+      HashPart keyed = next.dataByKey;
+      for (int pos = keyed.next(0); pos >= 0; pos = keyed.next(pos + 1)) {
+        if (keyed.valueAt(pos) instanceof LuaTable inner) {
+          keyed.put(keyed.keyAt(pos), shared(inner, seen));
+        }
+      }
+      done.put(next, Boolean.TRUE);
+    }
+    return this;
+  }
+
+  /** gives the first table seen that is equal to the given one, whose tables are all shared */
+  private static LuaTable shared(LuaTable table, Map<Shape, LuaTable> seen) {
+    return seen.computeIfAbsent(new Shape(table), shape -> table);
+  }
+
+  /**
+   * a table whose nested tables are already shared, so unlike {@link LuaTable#hashCode()} the
+   * nested tables can count by their identity
+   */
+  private static final class Shape {
+    final LuaTable table;
+    final int hash;
+
+    Shape(LuaTable table) {
+      this.table = table;
+      int[] hash = {table.hashCode()};
+      table.pairs((k, v) -> {
+        if (v instanceof LuaTable) {
+          hash[0] += keyHash(k) ^ System.identityHashCode(v);
+        }
+      });
+      this.hash = hash[0];
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof Shape other && this.table.equals(other.table);
+    }
+
+    @Override
+    public int hashCode() {
+      return this.hash;
+    }
   }
 }
@@ -0,0 +1,422 @@
+package com.spag.lua;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Objects;
+
+/**
+ * Single pass parser for serialized lua tables (as per the Minecraft OpenComputers mod
+ * serialization library)
+ *
+ * <p>reads its input one character at a time through a small reusable buffer and builds the
+ * {@link LuaTable} as it goes, nested tables are tracked on an explicit stack so there is no limit
+ * on how deeply tables may be nested
+ *
+ * @author MR_Spagetty
+ */
+final class LuaTableParser {
+  private static final int BUFFER_SIZE = 8192;
+
+  private final CharSequence seq;
+  private final Reader reader;
+  private int seqPos;
+  private final int seqEnd;
+
+  private final char[] buf = new char[BUFFER_SIZE];
+  private int pos;
+  private int limit;
+  private long base;
+  private final StringBuilder scratch = new StringBuilder();
+
+  private LuaTableParser(CharSequence seq, Reader reader) {
+    this(seq, reader, 0, seq == null ? 0 : seq.length());
+  }
+
+  private LuaTableParser(CharSequence seq, Reader reader, int start, int end) {
+    this.seq = seq;
+    this.reader = reader;
+    this.seqPos = start;
+    this.seqEnd = end;
+    this.base = start;
+  }
+
+  /**
+   * parses the serialized table held in the given character sequence
+   *
+   * @param data the serialized table
+   * @return the parsed table
+   * @throws IllegalArgumentException if the table is invalid
+   */
+  static LuaTable parse(CharSequence data) {
+    Objects.requireNonNull(data, "Lua data may not be null");
+    try {
+      return new LuaTableParser(data, null).parseDocument();
+    } catch (IOException e) {
+      throw new AssertionError("character sequences do not throw IOExceptions", e);
+    }
+  }
+
+  /**
+   * parses the serialized table read from the given reader
+   *
+   * @param reader the reader to read the serialized table from
+   * @return the parsed table
+   * @throws IOException if the reader fails
+   * @throws IllegalArgumentException if the table is invalid
+   */
+  static LuaTable parse(Reader reader) throws IOException {
+    Objects.requireNonNull(reader, "reader may not be null");
+    return new LuaTableParser(null, reader).parseDocument();
+  }
+
+  /**
+   * parses the single serialized value held in part of the given character sequence, used by
+   * {@link LazyLuaTable} to materialize values
+   *
+   * @param data the sequence holding the value
+   * @param start the offset of the first character of the value
+   * @param end the offset after the last character of the value
+   * @return the parsed value
+   * @throws IllegalArgumentException if the value is invalid
+   */
+  static LuaObject parse(CharSequence data, int start, int end) {
+    LuaTableParser parser = new LuaTableParser(data, null, start, end);
+    try {
+      parser.skipWhitespace();
+      LuaObject out = parser.peek() == '{' ? parser.parseTable() : parser.readScalar();
+      parser.skipWhitespace();
+      if (parser.peek() != -1) {
+        throw parser.error("Invalid Lua value, unexpected data after the value");
+      }
+      return out;
+    } catch (IOException e) {
+      throw new AssertionError("character sequences do not throw IOExceptions", e);
+    }
+  }
+
+  private LuaTable parseDocument() throws IOException {
+    skipWhitespace();
+    if (peek() != '{') {
+      throw error("Invalid Lua table, expected '{'");
+    }
+    LuaTable out = parseTable();
+    skipWhitespace();
+    if (peek() != -1) {
+      throw error("Invalid Lua table, unexpected data after the closing '}'");
+    }
+    return out;
+  }
+
+  /** the partially built state of a table that is currently being parsed */
+  private static final class Frame {
+    final LuaTable table = new LuaTable();
+    LuaObject key;
+    boolean inKey;
+  }
+
+  private enum State {
+    FIELD_START,
+    VALUE,
+    AFTER_FIELD
+  }
+
+  private LuaTable parseTable() throws IOException {
+    Deque<Frame> stack = new ArrayDeque<>();
+    next();
+    Frame frame = new Frame();
+    State state = State.FIELD_START;
+    while (true) {
+      LuaObject value = null;
+      skipWhitespace();
+      int c = peek();
+      switch (state) {
+        case FIELD_START -> {
+          if (c == '}') {
+            value = closeTable(frame);
+          } else if (c == '[') {
+            next();
+            frame.inKey = true;
+            state = State.VALUE;
+          } else if (isNameStart(c)) {
+            String name = readName();
+            skipWhitespace();
+            if (peek() == '=') {
+              next();
+              if (name.equals("true") || name.equals("false") || name.equals("nil")) {
+                throw error("implicit string keys may not match boolean value names or nil");
+              }
+              frame.key = LuaString.of(name);
+              state = State.VALUE;
+            } else {
+              value = keyword(name);
+            }
+          } else {
+            state = State.VALUE;
+          }
+        }
+        case VALUE -> {
+          if (c == '{') {
+            next();
+            stack.push(frame);
+            frame = new Frame();
+            state = State.FIELD_START;
+          } else {
+            value = readScalar();
+          }
+        }
+        case AFTER_FIELD -> {
+          if (c == '}') {
+            value = closeTable(frame);
+          } else if (c == ',' || c == ';') {
+            next();
+            state = State.FIELD_START;
+          } else {
+            throw error("Invalid Lua table, expected ',' or '}'");
+          }
+        }
+      }
+      if (value == null) {
+        continue;
+      }
+      if (value == frame.table) {
+        if (stack.isEmpty()) {
+          return frame.table;
+        }
+        frame = stack.pop();
+      }
+      state = deliver(frame, value);
+    }
+  }
+
+  private LuaTable closeTable(Frame frame) throws IOException {
+    next();
+    if (frame.inKey || frame.key != null) {
+      throw error("Invalid lua table, no value for key: " + frame.key);
+    }
+    return frame.table;
+  }
+
+  /**
+   * hands a fully parsed value to the table it belongs to
+   *
+   * @param frame the table the value was parsed in
+   * @param value the parsed value
+   * @return the state to continue parsing the table in
+   */
+  private State deliver(Frame frame, LuaObject value) throws IOException {
+    if (frame.inKey) {
+      frame.inKey = false;
+      expect(']');
+      expect('=');
+      frame.key = value;
+      return State.VALUE;
+    }
+    if (frame.key != null) {
+      frame.table.put(frame.key, value);
+      frame.key = null;
+    } else {
+      frame.table.append(value);
+    }
+    return State.AFTER_FIELD;
+  }
+
+  private LuaObject readScalar() throws IOException {
+    int c = peek();
+    if (c == '"') {
+      return LuaString.of(readString());
+    } else if (c == '-' || c == '.' || isDigit(c)) {
+      return readNumber();
+    } else if (isNameStart(c)) {
+      return keyword(readName());
+    } else if (c == -1) {
+      throw error("Invalid Lua table, unexpected end of data");
+    }
+    throw error("Unrecognised type detected: " + (char) c);
+  }
+
+  private LuaObject keyword(String name) throws IOException {
+    return switch (name) {
+      case "nil" -> LuaObject.nil;
+      case "true" -> LuaBool.True;
+      case "false" -> LuaBool.False;
+      case "math" -> LuaNum.of(readHuge());
+      default -> throw error("Unrecognised type detected: " + name);
+    };
+  }
+
+  /**
+   * reads the rest of {@code math.huge} after the {@code math}
+   *
+   * @return positive infinity
+   */
+  private double readHuge() throws IOException {
+    if (next() != '.' || !readName().equals("huge")) {
+      throw error("Unrecognised type detected: math");
+    }
+    return Double.POSITIVE_INFINITY;
+  }
+
+  /**
+   * reads a quoted string leaving any escape sequences in it as they are
+   *
+   * @return the content of the string without the surrounding quotes
+   */
+  private String readString() throws IOException {
+    next();
+    this.scratch.setLength(0);
+    boolean escaped = false;
+    while (true) {
+      if (this.pos == this.limit && fill() == -1) {
+        throw error("Invalid Lua table, unterminated string");
+      }
+      int start = this.pos;
+      while (this.pos < this.limit) {
+        char c = this.buf[this.pos];
+        if (escaped) {
+          escaped = false;
+        } else if (c == '\\') {
+          escaped = true;
+        } else if (c == '"') {
+          String out = this.scratch.isEmpty()
+              ? new String(this.buf, start, this.pos - start)
+              : this.scratch.append(this.buf, start, this.pos - start).toString();
+          this.pos++;
+          return out;
+        }
+        this.pos++;
+      }
+      this.scratch.append(this.buf, start, this.pos - start);
+    }
+  }
+
+  /**
+   * reads a number including the {@code -math.huge} and {@code 0/0} forms used
+   * for infinities and NaN
+   *
+   * @return the number
+   */
+  private LuaNum readNumber() throws IOException {
+    this.scratch.setLength(0);
+    int c = peek();
+    if (c == '-') {
+      this.scratch.append((char) next());
+      if (isNameStart(peek())) {
+        if (!readName().equals("math")) {
+          throw error("Invalid number");
+        }
+        return LuaNum.of(-readHuge());
+      }
+    }
+    int prev = -1;
+    while ((c = peek()) != -1
+        && (isDigit(c) || c == '.' || c == 'e' || c == 'E'
+            || ((c == '+' || c == '-') && (prev == 'e' || prev == 'E')))) {
+      this.scratch.append((char) next());
+      prev = c;
+    }
+    if (peek() == '/') {
+      next();
+      if (next() != '0' || !this.scratch.toString().equals("0")) {
+        throw error("Invalid number");
+      }
+      return LuaNum.of(Double.NaN);
+    }
+    try {
+      return LuaNum.of(this.scratch.toString());
+    } catch (NumberFormatException e) {
+      throw error("Invalid number: " + this.scratch);
+    }
+  }
+
+  private String readName() throws IOException {
+    this.scratch.setLength(0);
+    int c;
+    while ((c = peek()) != -1 && (isNameStart(c) || isDigit(c))) {
+      this.scratch.append((char) next());
+    }
+    return this.scratch.toString();
+  }
+
+  private void expect(char expected) throws IOException {
+    skipWhitespace();
+    if (peek() != expected) {
+      throw error("Invalid Lua table, expected '" + expected + "'");
+    }
+    next();
+  }
+
+  private void skipWhitespace() throws IOException {
+    while (true) {
+      while (this.pos < this.limit) {
+        if (this.buf[this.pos] > ' ') {
+          return;
+        }
+        this.pos++;
+      }
+      if (fill() == -1) {
+        return;
+      }
+    }
+  }
+
+  private int peek() throws IOException {
+    if (this.pos == this.limit && fill() == -1) {
+      return -1;
+    }
+    return this.buf[this.pos];
+  }
+
+  private int next() throws IOException {
+    int c = peek();
+    if (c != -1) {
+      this.pos++;
+    }
+    return c;
+  }
+
+  /**
+   * refills the buffer from the input once everything in it has been consumed
+   *
+   * @return the number of characters read or -1 if the input is exhausted
+   */
+  private int fill() throws IOException {
+    int n;
+    if (this.seq != null) {
+      n = Math.min(this.buf.length, this.seqEnd - this.seqPos);
+      if (n <= 0) {
+        return -1;
+      }
+      if (this.seq instanceof String s) {
+        s.getChars(this.seqPos, this.seqPos + n, this.buf, 0);
+      } else {
+        for (int i = 0; i < n; i++) {
+          this.buf[i] = this.seq.charAt(this.seqPos + i);
+        }
+      }
+      this.seqPos += n;
+    } else {
+      n = this.reader.read(this.buf, 0, this.buf.length);
+      if (n <= 0) {
+        return -1;
+      }
+    }
+    this.base += this.limit;
+    this.pos = 0;
+    this.limit = n;
+    return n;
+  }
+
+  private IllegalArgumentException error(String message) {
+    return new IllegalArgumentException(message + " at offset " + (this.base + this.pos));
+  }
+
+  private static boolean isDigit(int c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static boolean isNameStart(int c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+  }
+}
@@ -0,0 +1,480 @@
+package com.spag.lua;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The changes between two versions of a table, so a table that changes slowly can be kept in sync
+ * by sending only what changed rather than the whole table each time
+ *
+ * <p>a patch is made with {@link LuaTable#diff(LuaTable, LuaTable)} and applied to a table equal
+ * to the old version with {@link LuaTable#apply(LuaTablePatch)}, after which that table is equal
+ * to the new version. it is itself held as a lua table so it can be sent as text with
+ * {@link #toString()} and {@link #fromString(CharSequence)} or in the binary form of
+ * {@link LuaBinary} with {@link #encode()} and {@link #decode(ByteBuffer)}, both the size of a
+ * patch and the cost of reading it depend only on the size of the change. the table has up to five
+ * entries:
+ *
+ * <ul>
+ *   <li>{@code removed}: a list of the keys that no longer have a value
+ *   <li>{@code splice}: {@code {at, removed, inserted, moved}} when the array part changed length,
+ *       replacing the given number of values at the given index with as many nil holes as were
+ *       inserted and moving the given number of values after them to follow the holes, the new
+ *       values are then filled in by {@code set}
+ *   <li>{@code set}: the keys and indexes to set to a new value
+ *   <li>{@code holes}: a list of the indexes of the array part that are now nil
+ *   <li>{@code nested}: patches for the tables at the given keys and indexes that changed in place
+ * </ul>
+ *
+ * <p>a patch only depends on the content of the old version and not on how its values are split
+ * between the array and hash parts, which can differ between equal tables. indexes in
+ * {@code set}, {@code holes} and {@code nested} are those of the new version, a
+ * change that shifts the array part is sent as a single splice of the run of slots that changed
+ * so inserting or removing a value near the start of a long array part stays small. tables in the
+ * new version are matched against the old one by their position, a table that only changed in
+ * place is sent as a nested patch rather than in full unless it is inside a splice
+ *
+ * <p>a patch refers to the values of the new version rather than copying them, it should be
+ * applied or serialized before they change. applying it copies the tables it sets
+ *
+ * <p>tables used as keys are not supported. they only match by identity, so a key in one version
+ * can never be found in a copy of it or in a patch that was sent as text, diffing tables that have
+ * table keys or applying a patch that names one throws an {@link IllegalArgumentException}.
+ * tables used as keys inside a table that is set in full are copied with it as normal
+ *
+ * @author MR_Spagetty
+ */
+public final class LuaTablePatch {
+  private static final LuaString REMOVED = LuaString.of("removed");
+  private static final LuaString SPLICE = LuaString.of("splice");
+  private static final LuaString SET = LuaString.of("set");
+  private static final LuaString HOLES = LuaString.of("holes");
+  private static final LuaString NESTED = LuaString.of("nested");
+
+  private final LuaTable data;
+
+  private LuaTablePatch(LuaTable data) {
+    this.data = data;
+  }
+
+  /**
+   * finds the changes that turn one table into another
+   *
+   * @param from the old version of the table
+   * @param to the new version of the table
+   * @return the patch, empty if the tables are equal
+   * @throws IllegalArgumentException if a table that is compared has a table as a key
+   */
+  static LuaTablePatch diff(LuaTable from, LuaTable to) {
+    Objects.requireNonNull(from);
+    Objects.requireNonNull(to);
+    LuaTable root = new LuaTable();
+    // walked with an explicit stack as tables may be nested very deeply, nested patches are made
+    // before knowing whether anything in them changed so the empty ones are dropped at the end
+    Deque<LuaTable[]> pending = new ArrayDeque<>();
+    List<Nested> nested = new ArrayList<>();
+    pending.push(new LuaTable[] {from, to, root});
+    while (!pending.isEmpty()) {
+      LuaTable[] next = pending.pop();
+      diff(next[0], next[1], next[2], pending, nested);
+    }
+    attach(nested);
+    return new LuaTablePatch(root);
+  }
+
+  /**
+   * puts the nested patches that are not empty into the patches they are in
+   *
+   * @param nested the nested patches in the order they were found
+   */
+  private static void attach(List<Nested> nested) {
+    // a nested patch is always found after the patch it is in so going backwards sees it first
+    Map<LuaTable, Boolean> kept = new IdentityHashMap<>();
+    for (int i = nested.size() - 1; i >= 0; i--) {
+      Nested next = nested.get(i);
+      if (!isEmpty(next.patch()) || kept.containsKey(next.patch())) {
+        kept.put(next.parent(), Boolean.TRUE);
+      }
+    }
+    for (Nested next : nested) {
+      if (!isEmpty(next.patch()) || kept.containsKey(next.patch())) {
+        section(next.parent(), NESTED).put(next.key(), next.patch());
+      }
+    }
+  }
+
+  /** a patch for a table nested in the one the parent patch is for */
+  private record Nested(LuaTable parent, LuaObject key, LuaTable patch) {}
+
+  private static void diff(LuaTable from, LuaTable to, LuaTable patch, Deque<LuaTable[]> pending,
+      List<Nested> nested) {
+    LuaTable set = new LuaTable();
+    LuaTable holes = new LuaTable();
+    LuaTable splice = null;
+    int oldSize = from.size();
+    int newSize = to.size();
+    // the indexes the splice clears
+    int clearFrom = 0;
+    int clearTo = 0;
+    if (oldSize == newSize) {
+      for (int i = 1; i <= newSize; i++) {
+        LuaObject old = from.getByIndex(i);
+        LuaObject value = to.getByIndex(i);
+        if (old instanceof LuaTable oldTable && value instanceof LuaTable table) {
+          if (oldTable != table) {
+            nest(patch, LuaNum.of(i), oldTable, table, pending, nested);
+          }
+        } else if (value == LuaObject.nil) {
+          if (old != LuaObject.nil) {
+            holes.append(LuaNum.of(i));
+          }
+        } else if (!value.equals(old)) {
+          set.put(LuaNum.of(i), value);
+        }
+      }
+    } else {
+      int shared = Math.min(oldSize, newSize);
+      int prefix = 0;
+      while (prefix < shared && same(from.getByIndex(prefix + 1), to.getByIndex(prefix + 1))) {
+        prefix++;
+      }
+      int suffix = 0;
+      while (suffix < shared - prefix
+          && same(from.getByIndex(oldSize - suffix), to.getByIndex(newSize - suffix))) {
+        suffix++;
+      }
+      int removed = oldSize - suffix - prefix;
+      int inserted = newSize - suffix - prefix;
+      splice = new LuaTable();
+      splice.append(LuaNum.of(prefix + 1));
+      splice.append(LuaNum.of(removed));
+      splice.append(LuaNum.of(inserted));
+      splice.append(LuaNum.of(suffix));
+      clearFrom = prefix + 1;
+      clearTo = prefix + Math.max(removed, inserted) + suffix;
+      for (int i = prefix + 1; i <= prefix + inserted; i++) {
+        LuaObject value = to.getByIndex(i);
+        if (value != LuaObject.nil) {
+          set.put(LuaNum.of(i), value);
+        }
+      }
+    }
+
+    // the remaining keys are compared by content as equal tables may not split their values
+    // between the array and hash parts the same way
+    int cleared = clearFrom;
+    int clearedTo = clearTo;
+    to.forEachKeyed((k, value) -> {
+      checkKey(k);
+      int index = indexOf(k);
+      if (index > 0 && index <= newSize) {
+        return;
+      }
+      LuaObject old = index > 0 && index >= cleared && index <= clearedTo ? LuaObject.nil
+          : from.get(k);
+      if (old instanceof LuaTable oldTable && value instanceof LuaTable table) {
+        if (oldTable != table) {
+          nest(patch, k, oldTable, table, pending, nested);
+        }
+      } else if (!value.equals(old)) {
+        set.put(k, value);
+      }
+    });
+    LuaTable removed = new LuaTable();
+    from.forEachKeyed((k, old) -> {
+      checkKey(k);
+      int index = indexOf(k);
+      if (!(index > 0 && (index <= oldSize || index >= cleared && index <= clearedTo))
+          && to.get(k) == LuaObject.nil) {
+        removed.append(k);
+      }
+    });
+    // in the order they are applied
+    putSection(patch, REMOVED, removed);
+    putSection(patch, SPLICE, splice);
+    putSection(patch, SET, set);
+    putSection(patch, HOLES, holes);
+  }
+
+  /**
+   * takes the changes recorded for a table that is tracking its changes, see
+   * {@link LuaTable#drainChanges()}
+   *
+   * @param table the table
+   * @return the patch from the table as it was when its changes were last drained
+   */
+  static LuaTablePatch drain(LuaTable table) {
+    LuaTable root = new LuaTable();
+    Deque<LuaTable[]> pending = new ArrayDeque<>();
+    List<Nested> nested = new ArrayList<>();
+    pending.push(new LuaTable[] {table, root});
+    while (!pending.isEmpty()) {
+      LuaTable[] next = pending.pop();
+      drain(next[0], next[1], pending, nested);
+    }
+    attach(nested);
+    return new LuaTablePatch(root);
+  }
+
+  private static void drain(LuaTable table, LuaTable patch, Deque<LuaTable[]> pending,
+      List<Nested> nested) {
+    ChangeJournal journal = table.journal();
+    if (journal == null || journal.isEmpty()) {
+      return;
+    }
+    LuaTable removed = new LuaTable();
+    LuaTable set = new LuaTable();
+    LuaTable holes = new LuaTable();
+    for (int i = journal.indexes.nextSetBit(0); i >= 0; i = journal.indexes.nextSetBit(i + 1)) {
+      drained(table, LuaNum.of(i), i, removed, set, holes);
+    }
+    for (Object changed : journal.keys) {
+      LuaObject key = TableKey.unwrap(changed);
+      drained(table, key, indexOf(key), removed, set, holes);
+    }
+    journal.nested.forEach((wrapped, child) -> {
+      LuaObject key = TableKey.unwrap(wrapped);
+      // a table that was replaced is sent in full and one that moved is no longer at the key
+      if (!journal.changed(key, indexOf(key)) && table.get(key) == child) {
+        LuaTable inner = new LuaTable();
+        nested.add(new Nested(patch, key, inner));
+        pending.push(new LuaTable[] {child, inner});
+      }
+    });
+    journal.clear();
+    putSection(patch, REMOVED, removed);
+    putSection(patch, SET, set);
+    putSection(patch, HOLES, holes);
+  }
+
+  /** adds the current value at a key that changed to the patch */
+  private static void drained(LuaTable table, LuaObject key, int index, LuaTable removed,
+      LuaTable set, LuaTable holes) {
+    LuaObject value = index > 0 ? table.getByIndex(index) : table.get(key);
+    if (value == LuaObject.nil) {
+      (index > 0 ? holes : removed).append(key);
+      return;
+    }
+    set.put(key, value);
+    if (value instanceof LuaTable child) {
+      // sent in full so what changed inside it no longer needs to be, and it may have been moved
+      // here so is linked to its current key
+      table.adopt(key, child);
+      Deque<LuaTable> inside = new ArrayDeque<>();
+      inside.push(child);
+      while (!inside.isEmpty()) {
+        ChangeJournal changes = inside.pop().journal();
+        if (changes != null && !changes.isEmpty()) {
+          inside.addAll(changes.nested.values());
+          changes.clear();
+        }
+      }
+    }
+  }
+
+  /** rejects a table used as a key, as it can not be matched between versions */
+  private static void checkKey(LuaObject key) {
+    if (key instanceof LuaTableView) {
+      throw new IllegalArgumentException("Tables used as keys can not be matched by a patch");
+    }
+  }
+
+  private static void putSection(LuaTable patch, LuaString name, LuaTable section) {
+    if (section != null && !isEmpty(section)) {
+      patch.put(name, section);
+    }
+  }
+
+  private static void nest(LuaTable patch, LuaObject key, LuaTable from, LuaTable to,
+      Deque<LuaTable[]> pending, List<Nested> nested) {
+    LuaTable child = new LuaTable();
+    nested.add(new Nested(patch, key, child));
+    pending.push(new LuaTable[] {from, to, child});
+  }
+
+  private static boolean same(LuaObject a, LuaObject b) {
+    return a == b || a.equals(b);
+  }
+
+  private static LuaTable section(LuaTable patch, LuaString name) {
+    LuaObject section = patch.get(name);
+    if (section instanceof LuaTable table) {
+      return table;
+    }
+    LuaTable table = new LuaTable();
+    patch.put(name, table);
+    return table;
+  }
+
+  private static boolean isEmpty(LuaTable table) {
+    return table.size() == 0 && table.keyedSize() == 0;
+  }
+
+  /**
+   * applies this patch to the given table, see {@link LuaTable#apply(LuaTablePatch)}
+   *
+   * @throws IllegalArgumentException if the patch does not fit the table
+   */
+  void applyTo(LuaTable table) {
+    Objects.requireNonNull(table);
+    Deque<LuaTable[]> pending = new ArrayDeque<>();
+    pending.push(new LuaTable[] {table, this.data});
+    while (!pending.isEmpty()) {
+      LuaTable[] next = pending.pop();
+      try {
+        applyTo(next[0], next[1], pending);
+      } catch (ClassCastException e) {
+        throw new IllegalArgumentException("Patch does not fit the table", e);
+      }
+    }
+  }
+
+  private static void applyTo(LuaTable table, LuaTable patch, Deque<LuaTable[]> pending) {
+    if (patch.get(REMOVED) instanceof LuaTable removed) {
+      removed.forEachIndexed((i, key) -> {
+        checkKey(key);
+        table.put(key, LuaObject.nil);
+      });
+    }
+    if (patch.get(SPLICE) instanceof LuaTable splice) {
+      splice(table, count(splice.getByIndex(1)), count(splice.getByIndex(2)),
+          count(splice.getByIndex(3)), count(splice.getByIndex(4)));
+    }
+    if (patch.get(SET) instanceof LuaTable set) {
+      set.pairs((key, value) -> {
+        checkKey(key);
+        table.put(key, value instanceof LuaTable nested ? ReadOnlyLuaTable.copy(nested) : value);
+      });
+    }
+    if (patch.get(HOLES) instanceof LuaTable holes) {
+      holes.forEachIndexed((i, index) -> table.put(LuaNum.of(count(index)), LuaObject.nil));
+    }
+    if (patch.get(NESTED) instanceof LuaTable nested) {
+      nested.pairs((key, child) -> {
+        checkKey(key);
+        if (!(table.get(key) instanceof LuaTable inner)) {
+          throw new IllegalArgumentException("Patch does not fit the table, no table at " + key);
+        }
+        pending.push(new LuaTable[] {inner, (LuaTable) child});
+      });
+    }
+  }
+
+  /**
+   * replaces the removed values at the given index with as many nil holes as were inserted,
+   * moving the given number of values after them
+   */
+  private static void splice(LuaTable table, int at, int removed, int inserted, int moved) {
+    long oldSize = at - 1L + removed + moved;
+    long newSize = at - 1L + inserted + moved;
+    if (at < 1 || Math.max(oldSize, newSize) > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Patch does not fit the table, invalid splice");
+    }
+    if (table.size() == oldSize) {
+      // the usual case, the values to move are exactly those at the end of the array part
+      table.indexed().splice(at, removed, inserted);
+      for (int i = (int) oldSize + 1; i <= newSize && !table.keyed().isEmpty(); i++) {
+        table.keyed().remove(LuaNum.of(i));
+      }
+      table.indexed().trimTrailingNils();
+      table.changed(at, (int) Math.max(oldSize, newSize));
+      return;
+    }
+    LuaObject[] values = new LuaObject[moved];
+    for (int i = 0; i < moved; i++) {
+      values[i] = table.getByIndex(at + removed + i);
+    }
+    for (int i = (int) Math.max(oldSize, newSize); i >= at; i--) {
+      table.put(LuaNum.of(i), LuaObject.nil);
+    }
+    for (int i = 0; i < moved; i++) {
+      if (values[i] != LuaObject.nil) {
+        table.put(LuaNum.of(at + inserted + i), values[i]);
+      }
+    }
+  }
+
+  private static int indexOf(LuaObject key) {
+    return key instanceof LuaNum ln ? ln.asIndex() : 0;
+  }
+
+  /** reads a non negative count or index of the patch */
+  private static int count(LuaObject value) {
+    if (value instanceof LuaNum ln && ln.isInteger() && ln.longValue() >= 0
+        && ln.longValue() <= Integer.MAX_VALUE) {
+      return (int) ln.longValue();
+    }
+    throw new IllegalArgumentException("Expected a count in the patch but got " + value);
+  }
+
+  /**
+   * check if this patch changes nothing
+   *
+   * @return true if the two versions were equal
+   */
+  public boolean isEmpty() {
+    return isEmpty(this.data);
+  }
+
+  /**
+   * the patch as a lua table, in the form described for this class
+   *
+   * @return a copy of the table holding the patch
+   */
+  public LuaTable toTable() {
+    return ReadOnlyLuaTable.copy(this.data);
+  }
+
+  /**
+   * reads a patch from its lua table form
+   *
+   * @param table the table holding the patch, copied so it can be changed afterwards
+   * @return the patch
+   */
+  public static LuaTablePatch of(LuaTable table) {
+    return new LuaTablePatch(ReadOnlyLuaTable.copy(table));
+  }
+
+  /**
+   * parses a patch serialized with {@link #toString()}
+   *
+   * @param data the serialized patch
+   * @return the patch
+   * @throws IllegalArgumentException if the data is not a valid serialized table
+   */
+  public static LuaTablePatch fromString(CharSequence data) {
+    return new LuaTablePatch(LuaTable.fromString(data));
+  }
+
+  /**
+   * encodes this patch in the binary form of {@link LuaBinary}
+   *
+   * @return the encoded patch ready to be read
+   */
+  public ByteBuffer encode() {
+    return LuaBinary.encode(this.data);
+  }
+
+  /**
+   * decodes a patch encoded with {@link #encode()}
+   *
+   * @param in the buffer to read from, its position is advanced past the patch
+   * @return the patch
+   * @throws IllegalArgumentException if the data is not a valid encoded table
+   */
+  public static LuaTablePatch decode(ByteBuffer in) {
+    return new LuaTablePatch(LuaBinary.decodeTable(in));
+  }
+
+  /** the patch serialized in the same format as {@link LuaTable#toString()} */
+  @Override
+  public String toString() {
+    return this.data.toString();
+  }
+}
@@ -0,0 +1,494 @@
+package com.spag.lua;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Reads serialized tables and reports their content to a {@link LuaTableVisitor} without building
+ * any tables
+ *
+ * <p>the reader is handed its input in chunks, each chunk is read as soon as it is fed in and the
+ * reader keeps its place between chunks, including part way through a string, a number or a UTF-8
+ * character. {@link #complete()} is called once the input is finished. only the current string or
+ * number and a few bits per level of nesting are held in memory, so tables of any size can be read
+ * in constant memory
+ *
+ * <p>the input is checked as it is read and the same input is accepted as by {@link
+ * LuaTable#fromString(String)}, an error is reported as soon as it is found though events for the
+ * data before it will already have been sent
+ *
+ * <p>a reader reads a single table and may not be used again after it is complete or after it has
+ * thrown an exception. it is not safe to use from several threads at once
+ *
+ * @author MR_Spagetty
+ * @see LuaPushParser
+ */
+public final class LuaTableReader {
+  private static final int BUFFER_SIZE = 8192;
+  // flags for each level of nesting
+  private static final byte IN_KEY = 1;
+  private static final byte HAS_KEY = 2;
+
+  private final LuaTableVisitor visitor;
+
+  // structure
+  private State state = State.START;
+  private byte[] flags = new byte[16];
+  private int depth;
+
+  // the token being read, a pending name is held in the token until it is known what it is
+  private final StringBuilder token = new StringBuilder();
+  private boolean inString;
+  private boolean escaped;
+  private boolean inWord;
+  private long tokenStart;
+  private long offset;
+
+  // bytes are decoded through a small buffer, carry holds a character split between chunks
+  private CharsetDecoder decoder;
+  private ByteBuffer carry;
+  private CharBuffer chars;
+
+  private enum State {
+    START,
+    FIELD_START,
+    NAME,
+    VALUE,
+    KEY_END,
+    KEY_EQUALS,
+    AFTER_FIELD,
+    DONE
+  }
+
+  /**
+   * creates a reader for a single serialized table
+   *
+   * @param visitor where to send the content of the table
+   */
+  public LuaTableReader(LuaTableVisitor visitor) {
+    this.visitor = Objects.requireNonNull(visitor);
+  }
+
+  /**
+   * reads the serialized table held in the given character sequence
+   *
+   * @param data the serialized table
+   * @param visitor where to send the content of the table
+   * @throws IllegalArgumentException if the table is invalid
+   */
+  public static void read(CharSequence data, LuaTableVisitor visitor) {
+    new LuaTableReader(visitor).feed(data).complete();
+  }
+
+  /**
+   * reads the serialized table read from the given reader, the reader is read to its end but is not
+   * closed
+   *
+   * @param reader the reader to read the serialized table from
+   * @param visitor where to send the content of the table
+   * @throws IOException if the reader fails
+   * @throws IllegalArgumentException if the table is invalid
+   */
+  public static void read(Reader reader, LuaTableVisitor visitor) throws IOException {
+    LuaTableReader out = new LuaTableReader(visitor);
+    CharBuffer buffer = CharBuffer.allocate(BUFFER_SIZE);
+    while (reader.read(buffer) >= 0) {
+      out.feed(buffer.flip());
+      buffer.clear();
+    }
+    out.complete();
+  }
+
+  /**
+   * reads the UTF-8 encoded serialized table read from the given channel, the channel is read to
+   * its end but is not closed
+   *
+   * @param channel the channel to read the serialized table from
+   * @param visitor where to send the content of the table
+   * @throws IOException if the channel fails
+   * @throws IllegalArgumentException if the table is invalid
+   */
+  public static void read(ReadableByteChannel channel, LuaTableVisitor visitor)
+      throws IOException {
+    LuaTableReader out = new LuaTableReader(visitor);
+    ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    while (channel.read(buffer) >= 0) {
+      out.feed(buffer.flip());
+      buffer.clear();
+    }
+    out.complete();
+  }
+
+  /**
+   * reads the given characters
+   *
+   * @param data the next chunk of the serialized table, read until it has no characters remaining
+   * @return this reader
+   * @throws IllegalArgumentException if the data is not part of a valid table
+   */
+  public LuaTableReader feed(CharSequence data) {
+    return feed(CharBuffer.wrap(data));
+  }
+
+  /**
+   * reads the given characters
+   *
+   * @param data the next chunk of the serialized table, read until it has no characters remaining
+   * @return this reader
+   * @throws IllegalArgumentException if the data is not part of a valid table
+   */
+  public LuaTableReader feed(CharBuffer data) {
+    while (data.hasRemaining()) {
+      if (this.inString && !this.escaped) {
+        // copy the plain run of the string in one go
+        int start = data.position();
+        int end = start;
+        char c;
+        while (end < data.limit() && (c = data.get(end)) != '"' && c != '\\') {
+          end++;
+        }
+        this.token.append(data, 0, end - start);
+        this.offset += end - start;
+        data.position(end);
+        if (!data.hasRemaining()) {
+          break;
+        }
+      }
+      char c = data.get();
+      if (this.inString) {
+        readString(c);
+      } else if (this.inWord && isWordChar(c)) {
+        this.token.append(c);
+      } else {
+        if (this.inWord) {
+          this.inWord = false;
+          word();
+        }
+        symbol(c);
+      }
+      this.offset++;
+    }
+    return this;
+  }
+
+  /**
+   * reads the given UTF-8 encoded bytes, a character may be split across chunks
+   *
+   * @param data the next chunk of the serialized table, read until it has no bytes remaining
+   * @return this reader
+   * @throws IllegalArgumentException if the data is not valid UTF-8 or not part of a valid table
+   */
+  public LuaTableReader feed(ByteBuffer data) {
+    if (this.decoder == null) {
+      this.decoder = StandardCharsets.UTF_8.newDecoder();
+      this.carry = ByteBuffer.allocate(4);
+      this.chars = CharBuffer.allocate(1024);
+    }
+    // finish off a character left over from the last chunk
+    while (this.carry.position() > 0 && data.hasRemaining()) {
+      this.carry.put(data.get());
+      decode(this.carry.flip(), false);
+      this.carry.compact();
+    }
+    decode(data, false);
+    this.carry.put(data);
+    return this;
+  }
+
+  private void decode(ByteBuffer in, boolean end) {
+    while (true) {
+      CoderResult result = this.decoder.decode(in, this.chars, end);
+      if (result.isError()) {
+        throw new IllegalArgumentException("Invalid UTF-8 data near offset " + this.offset);
+      }
+      feed(this.chars.flip());
+      this.chars.clear();
+      if (result.isUnderflow()) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * finishes reading, to be called once all of the data has been fed in
+   *
+   * @throws IllegalArgumentException if the data fed in was not a complete valid table
+   */
+  public void complete() {
+    if (this.decoder != null) {
+      decode(this.carry.flip(), true);
+      if (this.carry.hasRemaining()) {
+        throw new IllegalArgumentException("Invalid UTF-8 data, truncated character");
+      }
+      this.carry.clear();
+      this.decoder.flush(this.chars);
+      feed(this.chars.flip());
+    }
+    if (this.inString) {
+      throw error("Invalid Lua table, unterminated string", this.tokenStart);
+    }
+    if (this.inWord) {
+      this.inWord = false;
+      word();
+    }
+    if (this.state == State.NAME) {
+      keyword();
+    }
+    if (this.state == State.START) {
+      throw error("Invalid Lua table, expected '{'", this.offset);
+    } else if (this.state != State.DONE) {
+      throw error("Invalid Lua table, unexpected end of data", this.offset);
+    }
+  }
+
+  /** reads a character of a quoted string leaving any escape sequences in it as they are */
+  private void readString(char c) {
+    if (this.escaped) {
+      this.escaped = false;
+    } else if (c == '\\') {
+      this.escaped = true;
+    } else if (c == '"') {
+      this.inString = false;
+      this.visitor.value(this.token);
+      valueDone();
+      return;
+    }
+    this.token.append(c);
+  }
+
+  /** handles a character outside of strings and words */
+  private void symbol(char c) {
+    if (c <= ' ') {
+      return;
+    }
+    if (this.state == State.NAME && c != '=') {
+      // the name was a value after all
+      keyword();
+    }
+    if (c == '"' || isWordChar(c)) {
+      expectValue(c);
+      this.token.setLength(0);
+      this.tokenStart = this.offset;
+      this.inString = c == '"';
+      this.inWord = c != '"';
+      if (this.inWord) {
+        this.token.append(c);
+      }
+      return;
+    }
+    switch (c) {
+      case '{' -> {
+        if (this.state != State.START) {
+          expectValue(c);
+        }
+        if (++this.depth == this.flags.length) {
+          this.flags = Arrays.copyOf(this.flags, this.depth << 1);
+        }
+        this.flags[this.depth] = 0;
+        this.state = State.FIELD_START;
+        this.visitor.startTable();
+      }
+      case '}' -> {
+        if (this.state != State.FIELD_START && this.state != State.AFTER_FIELD) {
+          if (this.state == State.VALUE) {
+            throw error("Invalid lua table, no value for key", this.offset);
+          }
+          throw unexpected(c);
+        }
+        this.depth--;
+        this.visitor.endTable();
+        if (this.depth == 0) {
+          this.state = State.DONE;
+        } else {
+          valueDone();
+        }
+      }
+      case '[' -> {
+        if (this.state != State.FIELD_START) {
+          throw unexpected(c);
+        }
+        this.flags[this.depth] = IN_KEY;
+        this.state = State.VALUE;
+        this.visitor.key();
+      }
+      case ']' -> {
+        if (this.state != State.KEY_END) {
+          throw unexpected(c);
+        }
+        this.state = State.KEY_EQUALS;
+      }
+      case '=' -> {
+        if (this.state == State.NAME) {
+          if (is("true") || is("false") || is("nil")) {
+            throw error("implicit string keys may not match boolean value names or nil",
+                this.offset);
+          }
+          this.visitor.key();
+          this.visitor.value(this.token);
+          this.flags[this.depth] = HAS_KEY;
+        } else if (this.state != State.KEY_EQUALS) {
+          throw unexpected(c);
+        }
+        this.state = State.VALUE;
+      }
+      case ',', ';' -> {
+        if (this.state != State.AFTER_FIELD) {
+          throw unexpected(c);
+        }
+        this.state = State.FIELD_START;
+      }
+      default -> throw error("Unrecognised type detected: " + c, this.offset);
+    }
+  }
+
+  /** handles a complete run of word characters, a name, number or keyword */
+  private void word() {
+    if (this.state == State.FIELD_START && isName()) {
+      // only a key if it is followed by '='
+      this.state = State.NAME;
+      return;
+    }
+    keyword();
+  }
+
+  /** reports the word in the token as a value */
+  private void keyword() {
+    if (is("nil")) {
+      this.visitor.nil();
+    } else if (is("true")) {
+      this.visitor.value(true);
+    } else if (is("false")) {
+      this.visitor.value(false);
+    } else {
+      char first = this.token.charAt(0);
+      if (first != '-' && first != '.' && !isDigit(first) && !is("math.huge")) {
+        throw error("Unrecognised type detected: " + this.token, this.tokenStart);
+      }
+      number();
+    }
+    valueDone();
+  }
+
+  /**
+   * reports the number in the token, only creating a {@link LuaNum} for numbers that need a
+   * decimal to be held exactly
+   */
+  private void number() {
+    StringBuilder token = this.token;
+    if (is("math.huge") || is("-math.huge") || is("0/0")) {
+      this.visitor.value(LuaNum.of(token.toString()).doubleValue());
+      return;
+    }
+    int start = token.charAt(0) == '-' ? 1 : 0;
+    boolean integral = start < token.length();
+    int digits = 0;
+    for (int i = start; i < token.length(); i++) {
+      char c = token.charAt(i);
+      if (isDigit(c)) {
+        digits++;
+      } else if (c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+        integral = false;
+      } else {
+        throw error("Invalid number: " + token, this.tokenStart);
+      }
+    }
+    if (integral && digits <= 18) {
+      long value = 0;
+      for (int i = start; i < token.length(); i++) {
+        value = value * 10 + (token.charAt(i) - '0');
+      }
+      this.visitor.value(start == 0 ? value : -value);
+      return;
+    }
+    LuaNum value;
+    try {
+      if (!integral && digits <= 15) {
+        // a double always holds this many digits exactly
+        this.visitor.value(Double.parseDouble(token.toString()));
+        return;
+      }
+      value = LuaNum.of(token.toString());
+    } catch (NumberFormatException e) {
+      throw error("Invalid number: " + token, this.tokenStart);
+    }
+    if (!value.isFloat()) {
+      this.visitor.value(value.longValue());
+    } else if (value.isDecimal()) {
+      this.visitor.value(value);
+    } else {
+      this.visitor.value(value.doubleValue());
+    }
+  }
+
+  /** moves on once a value, or the key of a field, is complete */
+  private void valueDone() {
+    byte flags = this.flags[this.depth];
+    if ((flags & IN_KEY) != 0) {
+      this.flags[this.depth] = HAS_KEY;
+      this.state = State.KEY_END;
+    } else {
+      this.flags[this.depth] = 0;
+      this.state = State.AFTER_FIELD;
+    }
+  }
+
+  /** checks that a value may start at the current position */
+  private void expectValue(char c) {
+    if (this.state != State.FIELD_START && this.state != State.VALUE) {
+      throw unexpected(c);
+    }
+  }
+
+  /** the error for a character that can not appear in the current state */
+  private IllegalArgumentException unexpected(char c) {
+    return switch (this.state) {
+      case START -> error("Invalid Lua table, expected '{'", this.offset);
+      case AFTER_FIELD -> error("Invalid Lua table, expected ',' or '}'", this.offset);
+      case KEY_END -> error("Invalid Lua table, expected ']'", this.offset);
+      case KEY_EQUALS -> error("Invalid Lua table, expected '='", this.offset);
+      case DONE -> error("Invalid Lua table, unexpected data after the closing '}'", this.offset);
+      default -> error("Unrecognised type detected: " + c, this.offset);
+    };
+  }
+
+  private boolean is(String word) {
+    return this.token.length() == word.length() && word.contentEquals(this.token);
+  }
+
+  private boolean isName() {
+    if (!isNameStart(this.token.charAt(0))) {
+      return false;
+    }
+    for (int i = 1; i < this.token.length(); i++) {
+      char c = this.token.charAt(i);
+      if (!isNameStart(c) && !isDigit(c)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static IllegalArgumentException error(String message, long offset) {
+    return new IllegalArgumentException(message + " at offset " + offset);
+  }
+
+  private static boolean isWordChar(char c) {
+    return isNameStart(c) || isDigit(c) || c == '.' || c == '-' || c == '+' || c == '/';
+  }
+
+  private static boolean isDigit(int c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static boolean isNameStart(int c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+  }
+}
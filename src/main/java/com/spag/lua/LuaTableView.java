@@ -0,0 +1,67 @@
+package com.spag.lua;
+
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+/**
+ * The read only side of a lua table, implemented by every table representation in this library
+ *
+ * <p><b>NOTE</b>: as with {@link LuaTable} indexed values index from 1
+ *
+ * @author MR_Spagetty
+ */
+public interface LuaTableView extends LuaObject {
+  /**
+   * Gets the element at the given key/index
+   *
+   * <p>if there is no element at the given key/index nil will be returned as in lua, numbers which
+   * are positive integers are treated as indexes
+   *
+   * @param keyInd the key/index to get the value at
+   * @return the element at the given key or nil if there is no element at the given key
+   * @throws NullPointerException if the given key/index is null
+   */
+  LuaObject get(LuaObject keyInd);
+
+  /**
+   * equivilent to lua's {@code #} operator
+   *
+   * @return the number of indexed elements
+   */
+  int size();
+
+  /**
+   * emulates the bahviour of lua's ipairs loops
+   *
+   * @param iterator what to do for each iteration
+   */
+  void ipairs(BiConsumer<LuaNum, LuaObject> iterator);
+
+  /**
+   * emulates the behaviour of lua's ipairs loops without boxing the indexes
+   *
+   * @param action what to do for each index and value
+   */
+  default void forEachIndexed(IntObjConsumer<LuaObject> action) {
+    ipairs((i, v) -> action.accept(i.asIndex(), v));
+  }
+
+  /**
+   * emulates the behaviour of lua's pairs loops
+   *
+   * @param iterator what to do for each iteration
+   */
+  void pairs(BiConsumer<LuaObject, LuaObject> iterator);
+
+  /**
+   * Returns a sequential stream with the indexed data of this table as its source.
+   *
+   * @return a sequential {@code Stream} over the indexed elements in this table
+   */
+  Stream<LuaObject> stream();
+
+  @Override
+  default String type() {
+    return "LuaTable";
+  }
+}
@@ -0,0 +1,87 @@
+package com.spag.lua;
+
+/**
+ * Receives the content of a serialized table as a series of events rather than as a built {@link
+ * LuaTable}, see {@link LuaTableReader}
+ *
+ * <p>a table is reported as {@link #startTable()}, then each of its fields, then {@link
+ * #endTable()}. a positional field is just its value, a field with a key is {@link #key()}
+ * followed by the key and then the value, so {@code {"a",b=2}} is reported as
+ *
+ * <pre>
+ * startTable()
+ * value("a")
+ * key() value("b") value(2)
+ * endTable()
+ * </pre>
+ *
+ * <p>values are reported through the primitive callbacks, which by default wrap the value in the
+ * matching {@link LuaObject} and pass it to {@link #value(LuaObject)}. a visitor only interested in
+ * the lua objects overrides that one method, one that wants to avoid creating them overrides the
+ * primitive callbacks instead. every method does nothing by default
+ *
+ * @author MR_Spagetty
+ */
+public interface LuaTableVisitor {
+  /** a table starts, it is a value (or key) of the enclosing table if there is one */
+  default void startTable() {}
+
+  /** the table started by the matching {@link #startTable()} ends */
+  default void endTable() {}
+
+  /**
+   * the next value (a scalar or a whole table) is the key of a field, the value after it is the
+   * value of that field
+   */
+  default void key() {}
+
+  /** a nil value */
+  default void nil() {
+    value(LuaObject.nil);
+  }
+
+  /**
+   * a boolean value
+   *
+   * @param value the value
+   */
+  default void value(boolean value) {
+    value(LuaBool.of(value));
+  }
+
+  /**
+   * an integer value
+   *
+   * @param value the value
+   */
+  default void value(long value) {
+    value(LuaNum.of(value));
+  }
+
+  /**
+   * a float value
+   *
+   * @param value the value
+   */
+  default void value(double value) {
+    value(LuaNum.of(value));
+  }
+
+  /**
+   * a string value, with any escape sequences left as they were serialized
+   *
+   * @param value the content of the string, only valid until this method returns as the reader
+   *     reuses it
+   */
+  default void value(CharSequence value) {
+    value(LuaString.of(value.toString()));
+  }
+
+  /**
+   * a value as a lua object, also called directly for numbers that can only be held exactly as a
+   * decimal
+   *
+   * @param value the value
+   */
+  default void value(LuaObject value) {}
+}
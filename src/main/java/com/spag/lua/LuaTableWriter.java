@@ -0,0 +1,194 @@
+package com.spag.lua;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Writes tables in the Minecraft OpenComputers mod serialization format straight into an {@link
+ * Appendable}
+ *
+ * <p>nothing is built up in memory along the way, nested tables, including tables used as keys, are
+ * written in place and tracked on an explicit stack so there is no limit on how deeply tables may
+ * be nested. a table that contains itself can not be written
+ *
+ * @author MR_Spagetty
+ */
+final class LuaTableWriter {
+  private final Appendable out;
+  private final boolean escapeStrings;
+
+  /**
+   * @param out where to write to
+   * @param escapeStrings whether the content of strings should be escaped as lua's {@code %q}
+   *     format does, otherwise strings are written exactly as they are held
+   */
+  LuaTableWriter(Appendable out, boolean escapeStrings) {
+    this.out = out;
+    this.escapeStrings = escapeStrings;
+  }
+
+  /** the position reached in a table that is currently being written */
+  private static final class Frame {
+    final LuaTable table;
+    int index = 1;
+    int keyed = -1;
+    boolean first = true;
+    /** the value to write once the table key being written is finished, otherwise null */
+    LuaObject afterKey;
+
+    Frame(LuaTable table) {
+      this.table = table;
+    }
+  }
+
+  /**
+   * writes the given value
+   *
+   * @param value the value to write
+   * @throws IOException if the appendable fails
+   * @throws IllegalArgumentException if a table contains itself
+   */
+  void write(LuaObject value) throws IOException {
+    if (!(value instanceof LuaTable root)) {
+      writeScalar(value);
+      return;
+    }
+    Deque<Frame> stack = new ArrayDeque<>();
+    // the tables being written, only made once there is a nested table
+    Map<LuaTable, Boolean> open = null;
+    Frame frame = new Frame(root);
+    this.out.append('{');
+    while (frame != null) {
+      LuaObject next;
+      if (frame.afterKey != null) {
+        next = frame.afterKey;
+        frame.afterKey = null;
+        this.out.append("]=");
+      } else if (frame.index <= frame.table.size()) {
+        next = frame.table.getByIndex(frame.index++);
+        separator(frame);
+      } else {
+        HashPart keyed = frame.table.keyed();
+        frame.keyed = keyed.next(frame.keyed + 1);
+        if (frame.keyed < 0) {
+          this.out.append('}');
+          if (open != null) {
+            open.remove(frame.table);
+          }
+          frame = stack.poll();
+          continue;
+        }
+        separator(frame);
+        LuaObject key = keyed.keyAt(frame.keyed);
+        next = keyed.valueAt(frame.keyed);
+        if (key instanceof LuaTable table) {
+          // the key is written as a nested table and its value once it is finished
+          this.out.append('[');
+          frame.afterKey = next;
+          next = table;
+        } else {
+          writeKey(key);
+          this.out.append('=');
+        }
+      }
+      if (next instanceof LuaTable table) {
+        if (open == null) {
+          open = new IdentityHashMap<>();
+          open.put(root, Boolean.TRUE);
+        }
+        if (open.put(table, Boolean.TRUE) != null) {
+          throw new IllegalArgumentException("tables that contain themselves can not be written");
+        }
+        stack.push(frame);
+        frame = new Frame(table);
+        this.out.append('{');
+      } else {
+        writeScalar(next);
+      }
+    }
+  }
+
+  private void separator(Frame frame) throws IOException {
+    if (frame.first) {
+      frame.first = false;
+    } else {
+      this.out.append(',');
+    }
+  }
+
+  /**
+   * writes a key, strings that are valid names are written bare and everything else is wrapped in
+   * brackets
+   */
+  private void writeKey(LuaObject key) throws IOException {
+    if (key instanceof LuaString string && isName(string.value())) {
+      this.out.append(string.value());
+      return;
+    }
+    this.out.append('[');
+    writeScalar(key);
+    this.out.append(']');
+  }
+
+  private void writeScalar(LuaObject value) throws IOException {
+    switch (value) {
+      case LuaString string -> writeString(string.value());
+      case LuaNum num -> num.writeTo(this.out);
+      default -> this.out.append(value.toString());
+    }
+  }
+
+  private void writeString(String value) throws IOException {
+    this.out.append('"');
+    if (!this.escapeStrings) {
+      this.out.append(value);
+    } else {
+      int start = 0;
+      for (int i = 0; i < value.length(); i++) {
+        char c = value.charAt(i);
+        if (c == '"' || c == '\\' || c == '\n' || c == '\r' || c < ' ' || c == 0x7F) {
+          this.out.append(value, start, i);
+          start = i + 1;
+          switch (c) {
+            case '"' -> this.out.append("\\\"");
+            case '\\' -> this.out.append("\\\\");
+            case '\n' -> this.out.append("\\n");
+            case '\r' -> this.out.append("\\r");
+            default -> {
+              // a digit straight after a decimal escape would be read as part of it
+              boolean padded = i + 1 < value.length()
+                  && value.charAt(i + 1) >= '0' && value.charAt(i + 1) <= '9';
+              String code = Integer.toString(c);
+              this.out.append('\\').append(padded ? "00".substring(code.length() - 1) : "")
+                  .append(code);
+            }
+          }
+        }
+      }
+      this.out.append(value, start, value.length());
+    }
+    this.out.append('"');
+  }
+
+  /**
+   * checks if the given string can be written as a bare key, that is it is a name that the parser
+   * accepts as an implicit string key
+   */
+  static boolean isName(String value) {
+    if (value.isEmpty() || value.equals("true") || value.equals("false")
+        || value.equals("nil")) {
+      return false;
+    }
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c == '_'
+          || i > 0 && c >= '0' && c <= '9')) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,361 @@
+package com.spag.lua;
+
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+/**
+ * A read only view of a serialized table stored in a file, served straight from the file mapped
+ * into memory rather than from a copy on the java heap
+ *
+ * <p>the file is read the same way as {@link LazyLuaTable}, only the positions of values are noted
+ * and a value is only parsed when it is accessed. finding those positions means scanning the whole
+ * file so the first time a file is opened the positions are saved to an index file next to it,
+ * later opens of the unchanged file load the index instead of scanning again. the index holds the
+ * top level of the table and every nested table of at least {@value #NESTED_INDEX_SIZE} bytes, so
+ * following a path through a large file only ever scans the small tables along the way
+ *
+ * <p>an index is only used if the size, modification time and a hash of the first and last
+ * {@value #SAMPLE_SIZE} bytes of the file match those recorded in it, otherwise it is rebuilt. the
+ * index is only there to save time, if it can not be written, for example as the file is on read
+ * only media, the table is still opened and the file is scanned again the next time. the file must
+ * be UTF-8 encoded and must not change while it is mapped
+ *
+ * <p>the mapping is released by {@link #close()}, reading the table or any value taken from it
+ * that has not been parsed yet afterwards throws an {@link IllegalStateException}. like {@link
+ * LuaTable} it is not safe to use from several threads at once
+ *
+ * @author MR_Spagetty
+ */
+public final class MappedLuaTable implements LuaTableView, AutoCloseable {
+  /** nested tables at least this many bytes long are indexed when the index is built */
+  static final int NESTED_INDEX_SIZE = 1 << 16;
+  /** how many bytes at each end of the file are hashed to check that an index is up to date */
+  static final int SAMPLE_SIZE = 1 << 12;
+
+  private static final byte[] MAGIC = {'L', 'U', 'A', 'I'};
+  private static final byte VERSION = 2;
+  private static final int HEADER = MAGIC.length + 1 + 3 * Long.BYTES;
+
+  private static final byte NIL = 0;
+  private static final byte FALSE = 1;
+  private static final byte TRUE = 2;
+  private static final byte SPAN = 3;
+  private static final byte TABLE = 4;
+
+  private final Arena arena;
+  private final LazyLuaTable table;
+
+  private MappedLuaTable(Arena arena, LazyLuaTable table) {
+    this.arena = arena;
+    this.table = table;
+  }
+
+  /** a source over the UTF-8 bytes of a mapped file */
+  private record Bytes(MemorySegment segment) implements LazyLuaTable.Source {
+    @Override
+    public long length() {
+      return this.segment.byteSize();
+    }
+
+    @Override
+    public int charAt(long pos) {
+      return this.segment.get(JAVA_BYTE, pos) & 0xFF;
+    }
+
+    @Override
+    public LuaObject parse(long start, long end) {
+      if (end - start > Integer.MAX_VALUE - 8) {
+        throw new IllegalArgumentException(
+            "Lua value at offset " + start + " is too large to parse");
+      }
+      byte[] bytes = this.segment.asSlice(start, end - start).toArray(JAVA_BYTE);
+      String text = new String(bytes, StandardCharsets.UTF_8);
+      return LuaTableParser.parse(text, 0, text.length());
+    }
+  }
+
+  /**
+   * maps the serialized table in the given file, using or creating the index file named after it
+   * with {@code .idx} added
+   *
+   * @param file the file holding the serialized table
+   * @return the view of the table
+   * @throws IOException if reading the file or reading the index fails
+   * @throws IllegalArgumentException if the top level of the table is invalid
+   * @see #open(Path, Path)
+   */
+  public static MappedLuaTable open(Path file) throws IOException {
+    Objects.requireNonNull(file);
+    return open(file, file.resolveSibling(file.getFileName() + ".idx"));
+  }
+
+  /**
+   * maps the serialized table in the given file, using the given index if it is up to date
+   * otherwise scanning the file and writing a new index
+   *
+   * @param file the file holding the serialized table
+   * @param index the index file for the table
+   * @return the view of the table
+   * @throws IOException if reading the file or reading the index fails
+   * @throws IllegalArgumentException if the top level of the table is invalid
+   */
+  public static MappedLuaTable open(Path file, Path index) throws IOException {
+    Objects.requireNonNull(file);
+    Objects.requireNonNull(index);
+    Arena arena = Arena.ofShared();
+    try {
+      long size;
+      MemorySegment segment;
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+        size = channel.size();
+        segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, size, arena);
+      }
+      long modified = Files.getLastModifiedTime(file).toMillis();
+      long sample = sample(segment);
+      Bytes source = new Bytes(segment);
+      LazyLuaTable table = readIndex(index, source, size, modified, sample);
+      if (table == null) {
+        table = LazyLuaTable.of(source);
+        indexNested(table, source);
+        writeIndex(index, table, size, modified, sample);
+      }
+      return new MappedLuaTable(arena, table);
+    } catch (IOException | RuntimeException | Error e) {
+      arena.close();
+      throw e;
+    }
+  }
+
+  /** unmaps the file, the table and any unparsed values taken from it can no longer be read */
+  @Override
+  public void close() {
+    this.arena.close();
+  }
+
+  @Override
+  public LuaObject get(LuaObject keyInd) {
+    return this.table.get(keyInd);
+  }
+
+  @Override
+  public int size() {
+    return this.table.size();
+  }
+
+  @Override
+  public void ipairs(BiConsumer<LuaNum, LuaObject> iterator) {
+    this.table.ipairs(iterator);
+  }
+
+  @Override
+  public void pairs(BiConsumer<LuaObject, LuaObject> iterator) {
+    this.table.pairs(iterator);
+  }
+
+  @Override
+  public Stream<LuaObject> stream() {
+    return this.table.stream();
+  }
+
+  /**
+   * fully parses the table into the java heap
+   *
+   * @return the parsed table
+   * @throws IllegalArgumentException if the table is invalid
+   */
+  public LuaTable toTable() {
+    return this.table.toTable();
+  }
+
+  @Override
+  public String toString() {
+    return this.table.toString();
+  }
+
+  /** scans every nested table large enough to be worth keeping in the index */
+  private static void indexNested(LazyLuaTable table, Bytes source) {
+    List<LuaObject> large = new ArrayList<>();
+    table.index().pairs((k, v) -> {
+      if (v instanceof LazyLuaTable.Span span && span.end() - span.start() >= NESTED_INDEX_SIZE
+          && source.charAt(span.start()) == '{') {
+        large.add(k);
+      }
+    });
+    for (LuaObject key : large) {
+      indexNested((LazyLuaTable) table.get(key), source);
+    }
+  }
+
+  /**
+   * hashes the first and last {@value #SAMPLE_SIZE} bytes of a file, catching a rewrite that kept
+   * the size and modification time without reading the whole file
+   */
+  private static long sample(MemorySegment segment) {
+    long size = segment.byteSize();
+    long head = Math.min(size, SAMPLE_SIZE);
+    long hash = 0xCBF29CE484222325L;
+    for (long pos = 0; pos < head; pos++) {
+      hash = (hash ^ segment.get(JAVA_BYTE, pos)) * 0x100000001B3L;
+    }
+    for (long pos = Math.max(head, size - SAMPLE_SIZE); pos < size; pos++) {
+      hash = (hash ^ segment.get(JAVA_BYTE, pos)) * 0x100000001B3L;
+    }
+    return hash;
+  }
+
+  // index format: magic, version, size, modification time and sample hash of the file, then the
+  // table as its start and end offsets, its array part and its keyed entries. keys are stored in
+  // the binary format and values as a tag optionally followed by a span or a nested table
+
+  /** writes the index, a failure only means the file is scanned again the next time */
+  private static void writeIndex(Path index, LazyLuaTable table, long size, long modified,
+      long sample) {
+    Path temp = index.resolveSibling(index.getFileName() + ".tmp");
+    try {
+      try (OutputStream file = Files.newOutputStream(temp);
+          DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+        out.writeLong(size);
+        out.writeLong(modified);
+        out.writeLong(sample);
+        writeTable(out, table);
+      }
+      // readers never see a partly written index
+      Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      try {
+        Files.deleteIfExists(temp);
+      } catch (IOException ignored) {
+        // the directory can not be written to at all
+      }
+    }
+  }
+
+  private static void writeTable(DataOutputStream out, LazyLuaTable table) throws IOException {
+    LuaTable index = table.index();
+    out.writeLong(table.start());
+    out.writeLong(table.end());
+    out.writeInt(index.size());
+    for (int i = 1; i <= index.size(); i++) {
+      writeValue(out, index.getByIndex(i));
+    }
+    out.writeInt(index.keyedSize());
+    HashPart keyed = index.keyed();
+    for (int pos = keyed.next(0); pos >= 0; pos = keyed.next(pos + 1)) {
+      ByteBuffer key = LuaBinary.encode(keyed.keyAt(pos));
+      out.write(key.array(), key.position(), key.remaining());
+      writeValue(out, keyed.valueAt(pos));
+    }
+  }
+
+  private static void writeValue(DataOutputStream out, LuaObject value) throws IOException {
+    switch (value) {
+      case LazyLuaTable.Span span -> {
+        out.writeByte(SPAN);
+        out.writeLong(span.start());
+        out.writeLong(span.end());
+      }
+      case LazyLuaTable nested -> {
+        out.writeByte(TABLE);
+        writeTable(out, nested);
+      }
+      case LuaBool bool -> out.writeByte(bool == LuaBool.True ? TRUE : FALSE);
+      default -> out.writeByte(NIL);
+    }
+  }
+
+  /**
+   * loads the index of a table if it exists and is up to date
+   *
+   * @return the table or null if the index has to be rebuilt
+   */
+  private static LazyLuaTable readIndex(Path index, Bytes source, long size, long modified,
+      long sample) throws IOException {
+    ByteBuffer in;
+    try (FileChannel channel = FileChannel.open(index, StandardOpenOption.READ)) {
+      if (channel.size() < HEADER || channel.size() > Integer.MAX_VALUE) {
+        return null;
+      }
+      in = ByteBuffer.allocate((int) channel.size());
+      while (in.hasRemaining() && channel.read(in) >= 0) {}
+      in.flip();
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+    for (byte b : MAGIC) {
+      if (in.get() != b) {
+        return null;
+      }
+    }
+    if (in.get() != VERSION || in.getLong() != size || in.getLong() != modified
+        || in.getLong() != sample) {
+      return null;
+    }
+    try {
+      LazyLuaTable table = readTable(in, source);
+      return in.hasRemaining() ? null : table;
+    } catch (BufferUnderflowException | IllegalArgumentException | ClassCastException e) {
+      // a damaged index is simply rebuilt
+      return null;
+    }
+  }
+
+  private static LazyLuaTable readTable(ByteBuffer in, Bytes source) {
+    long start = in.getLong();
+    long end = in.getLong();
+    if (start < 0 || end > source.length() || start >= end) {
+      throw new IllegalArgumentException("Table outside of the mapped file");
+    }
+    LuaTable index = new LuaTable();
+    int arraySize = in.getInt();
+    for (int i = 0; i < arraySize; i++) {
+      index.append(readValue(in, source));
+    }
+    int keyedSize = in.getInt();
+    for (int i = 0; i < keyedSize; i++) {
+      LuaObject key = LuaBinary.decode(in);
+      index.put(key, readValue(in, source));
+    }
+    return new LazyLuaTable(source, start, end, index);
+  }
+
+  private static LuaObject readValue(ByteBuffer in, Bytes source) {
+    return switch (in.get()) {
+      case NIL -> LuaObject.nil;
+      case FALSE -> LuaBool.False;
+      case TRUE -> LuaBool.True;
+      case SPAN -> {
+        long start = in.getLong();
+        long end = in.getLong();
+        if (start < 0 || end > source.length() || start >= end) {
+          throw new IllegalArgumentException("Value outside of the mapped file");
+        }
+        yield new LazyLuaTable.Span(start, end);
+      }
+      case TABLE -> readTable(in, source);
+      default -> throw new IllegalArgumentException("Unknown index tag");
+    };
+  }
+}
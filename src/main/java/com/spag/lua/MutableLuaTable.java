@@ -0,0 +1,54 @@
+package com.spag.lua;
+
+/**
+ * A lua table that can be modified, implemented by {@link LuaTable} and {@link
+ * ConcurrentLuaTable}
+ *
+ * @author MR_Spagetty
+ */
+public interface MutableLuaTable extends LuaTableView {
+  /**
+   * put a new element in the table at the given key or index
+   *
+   * <p>as per lua an item being stored at a positive integer will be an indexed item
+   *
+   * @param keyInd the key/index to put the new element at
+   * @param value the value to put in the table
+   * @throws NullPointerException if either the key or the element given are null
+   * @throws IllegalArgumentException if the key is nil or NaN
+   * @implNote if the new element is nil and it would be a keyed value it will just remove the old
+   *     value
+   */
+  void put(LuaObject keyInd, LuaObject value);
+
+  /**
+   * inserts the given value at the end of the indexed values of this table
+   *
+   * @param value the value to insert
+   * @see #insert(LuaNum, LuaObject)
+   */
+  void insert(LuaObject value);
+
+  /**
+   * inserts the new value at the given index shunting items at the given index and higher up
+   *
+   * @param index the index to insert at
+   * @param value the value to insert
+   * @implNote indexed from 1 as per lua
+   * @throws IllegalArgumentException if the given index is not valid (i.e. non positive integers)
+   * @throws IndexOutOfBoundsException if the given index is outside of the range of valid indexes
+   */
+  void insert(LuaNum index, LuaObject value);
+
+  /**
+   * merges another table into this one
+   *
+   * <p>indexed items from the other table will be added after items from this one, keyed items
+   * from the other table will override corresponding items in this one
+   *
+   * @param other the table to merge from
+   * @return this table after the merge operation to allow multiple consecutive operations in a
+   *     single statement
+   */
+  MutableLuaTable merge(LuaTableView other);
+}
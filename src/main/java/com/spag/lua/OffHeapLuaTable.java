@@ -0,0 +1,471 @@
+package com.spag.lua;
+
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_DOUBLE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * A read only copy of a table held entirely outside of the java heap in a single {@link
+ * MemorySegment}, so that large long lived tables put no load on the garbage collector
+ *
+ * <p>every nested table is laid out in the same segment as the table it was copied from, each as
+ * a fixed size header followed by
+ *
+ * <ul>
+ *   <li>the array part, a 16 byte slot per index
+ *   <li>the hash part, a 16 byte key slot and 16 byte value slot per entry in insertion order,
+ *       then the hash of each key, then a linear probing index of entry positions
+ *   <li>the UTF-8 bytes of the strings held in the table
+ * </ul>
+ *
+ * <p>a slot is a tag byte, the byte length of a string at offset 4 and a long payload at offset 8
+ * holding an integer, the bits of a float or the offset of a nested table or string. values are
+ * only turned back into java objects as they are read. a table that appears more than once in the
+ * copied table is only stored once
+ *
+ * <p>tables used as keys are copied like any other table and are seen by {@link #pairs}, but as
+ * table keys match by identity and their copy is a different table they can not be found with
+ * {@link #get(LuaObject)}
+ *
+ * <p>the memory is freed when the arena it was allocated from is closed, a table created with
+ * {@link #copyOf(LuaTableView)} owns its arena and is freed by {@link #close()}. reading a table
+ * after its memory is freed throws an {@link IllegalStateException}
+ *
+ * @author MR_Spagetty
+ */
+public final class OffHeapLuaTable implements LuaTableView, AutoCloseable {
+  private static final byte NIL = 0;
+  private static final byte FALSE = 1;
+  private static final byte TRUE = 2;
+  private static final byte INTEGER = 3;
+  private static final byte FLOAT = 4;
+  private static final byte DECIMAL = 5;
+  private static final byte STRING = 6;
+  private static final byte TABLE = 7;
+
+  private static final int HEADER = 16;
+  private static final int SLOT = 16;
+  private static final int ENTRY = 2 * SLOT;
+
+  private final MemorySegment segment;
+  private final Arena owned;
+  private final long array;
+  private final int arraySize;
+  private final int keyedSize;
+  private final long entries;
+  private final long hashes;
+  private final long index;
+  private final int indexMask;
+
+  private OffHeapLuaTable(MemorySegment segment, long offset, Arena owned) {
+    this.segment = segment;
+    this.owned = owned;
+    this.arraySize = segment.get(JAVA_INT, offset);
+    this.keyedSize = segment.get(JAVA_INT, offset + 4);
+    this.indexMask = segment.get(JAVA_INT, offset + 8) - 1;
+    this.array = offset + HEADER;
+    this.entries = this.array + (long) this.arraySize * SLOT;
+    this.hashes = this.entries + (long) this.keyedSize * ENTRY;
+    this.index = this.hashes + 4L * this.keyedSize;
+  }
+
+  /**
+   * copies the given table into off heap memory owned by the new table, freed by {@link
+   * #close()}
+   *
+   * @param table the table to copy
+   * @return the off heap copy
+   */
+  public static OffHeapLuaTable copyOf(LuaTableView table) {
+    Arena arena = Arena.ofShared();
+    try {
+      return copy(table, arena, arena);
+    } catch (RuntimeException | Error e) {
+      arena.close();
+      throw e;
+    }
+  }
+
+  /**
+   * copies the given table into off heap memory allocated from the given arena, the copy is freed
+   * when the arena is closed
+   *
+   * @param table the table to copy
+   * @param arena the arena to allocate from
+   * @return the off heap copy
+   */
+  public static OffHeapLuaTable copyOf(LuaTableView table, Arena arena) {
+    return copy(table, arena, null);
+  }
+
+  /**
+   * frees the memory of this table if it owns it, that is it was created by {@link
+   * #copyOf(LuaTableView)}. tables created from a given arena and nested tables are freed with
+   * their arena, for them this does nothing
+   */
+  @Override
+  public void close() {
+    if (this.owned != null) {
+      this.owned.close();
+    }
+  }
+
+  @Override
+  public LuaObject get(LuaObject keyInd) {
+    Objects.requireNonNull(keyInd, "Key/Index may not be null");
+    int index = keyInd instanceof LuaNum ln ? ln.asIndex() : 0;
+    if (index > 0 && index <= this.arraySize) {
+      return decode(this.array + (long) (index - 1) * SLOT);
+    }
+    if (keyInd instanceof LuaNum ln && !Double.isNaN(ln.doubleValue())) {
+      keyInd = ln.normalized();
+    }
+    int pos = find(keyInd);
+    return pos < 0 ? LuaObject.nil : decode(this.entries + (long) pos * ENTRY + SLOT);
+  }
+
+  @Override
+  public int size() {
+    return this.arraySize;
+  }
+
+  @Override
+  public void ipairs(BiConsumer<LuaNum, LuaObject> iterator) {
+    forEachIndexed((i, v) -> iterator.accept(LuaNum.of(i), v));
+  }
+
+  @Override
+  public void forEachIndexed(IntObjConsumer<LuaObject> action) {
+    for (int i = 0; i < this.arraySize; i++) {
+      long slot = this.array + (long) i * SLOT;
+      if (tag(slot) == NIL) {
+        return;
+      }
+      action.accept(i + 1, decode(slot));
+    }
+  }
+
+  @Override
+  public void pairs(BiConsumer<LuaObject, LuaObject> iterator) {
+    for (int i = 0; i < this.arraySize; i++) {
+      long slot = this.array + (long) i * SLOT;
+      if (tag(slot) != NIL) {
+        iterator.accept(LuaNum.of(i + 1), decode(slot));
+      }
+    }
+    for (int pos = 0; pos < this.keyedSize; pos++) {
+      long entry = this.entries + (long) pos * ENTRY;
+      iterator.accept(decode(entry), decode(entry + SLOT));
+    }
+  }
+
+  @Override
+  public Stream<LuaObject> stream() {
+    return IntStream.range(0, this.arraySize)
+        .mapToObj(i -> decode(this.array + (long) i * SLOT));
+  }
+
+  /**
+   * copies this table and every table nested in it back onto the heap
+   *
+   * @return a new LuaTable holding the values in this table
+   */
+  public LuaTable toTable() {
+    Map<Long, LuaTable> copies = new HashMap<>();
+    Deque<OffHeapLuaTable> pending = new ArrayDeque<>();
+    LuaTable root = (LuaTable) onHeap(this, copies, pending);
+    while (!pending.isEmpty()) {
+      OffHeapLuaTable table = pending.poll();
+      LuaTable out = copies.get(table.array);
+      for (int i = 0; i < table.arraySize; i++) {
+        out.append(onHeap(table.decode(table.array + (long) i * SLOT), copies, pending));
+      }
+      for (int pos = 0; pos < table.keyedSize; pos++) {
+        long entry = table.entries + (long) pos * ENTRY;
+        out.put(onHeap(table.decode(entry), copies, pending),
+            onHeap(table.decode(entry + SLOT), copies, pending));
+      }
+    }
+    return root;
+  }
+
+  /** swaps nested off heap tables for their on heap copies, queueing them to be filled */
+  private static LuaObject onHeap(LuaObject value, Map<Long, LuaTable> copies,
+      Deque<OffHeapLuaTable> pending) {
+    if (!(value instanceof OffHeapLuaTable table)) {
+      return value;
+    }
+    return copies.computeIfAbsent(table.array, k -> {
+      pending.add(table);
+      return new LuaTable();
+    });
+  }
+
+  @Override
+  public String toString() {
+    return toTable().toString();
+  }
+
+  private byte tag(long slot) {
+    return this.segment.get(JAVA_BYTE, slot);
+  }
+
+  private LuaObject decode(long slot) {
+    return switch (tag(slot)) {
+      case NIL -> LuaObject.nil;
+      case FALSE -> LuaBool.False;
+      case TRUE -> LuaBool.True;
+      case INTEGER -> LuaNum.of(this.segment.get(JAVA_LONG, slot + 8));
+      case FLOAT -> LuaNum.of(this.segment.get(JAVA_DOUBLE, slot + 8));
+      case DECIMAL -> LuaNum.of(new BigDecimal(string(slot)));
+      case STRING -> LuaString.of(bytes(slot).asByteBuffer());
+      case TABLE -> new OffHeapLuaTable(this.segment, this.segment.get(JAVA_LONG, slot + 8), null);
+      default -> throw new IllegalStateException("corrupt off heap table");
+    };
+  }
+
+  private String string(long slot) {
+    return new String(bytes(slot).toArray(JAVA_BYTE), StandardCharsets.UTF_8);
+  }
+
+  private MemorySegment bytes(long slot) {
+    long offset = this.segment.get(JAVA_LONG, slot + 8);
+    int length = this.segment.get(JAVA_INT, slot + 4);
+    return this.segment.asSlice(offset, length);
+  }
+
+  /** finds the entry position of a key in the hash part, or -1 */
+  private int find(LuaObject key) {
+    if (this.keyedSize == 0) {
+      return -1;
+    }
+    int hash = keyHash(key);
+    for (int slot = spread(hash) & this.indexMask; ; slot = (slot + 1) & this.indexMask) {
+      int entry = this.segment.get(JAVA_INT, this.index + 4L * slot);
+      if (entry == 0) {
+        return -1;
+      }
+      int pos = entry - 1;
+      if (this.segment.get(JAVA_INT, this.hashes + 4L * pos) == hash
+          && matches(this.entries + (long) pos * ENTRY, key)) {
+        return pos;
+      }
+    }
+  }
+
+  private boolean matches(long slot, LuaObject key) {
+    return switch (key) {
+      case LuaString string -> tag(slot) == STRING && matches(slot, string);
+      case LuaNum _ -> key.equals(decode(slot));
+      case LuaBool _ -> key == decode(slot);
+      default -> false;
+    };
+  }
+
+  /** compares the bytes of a stored string, ascii text is compared without encoding it */
+  private boolean matches(long slot, LuaString string) {
+    long offset = this.segment.get(JAVA_LONG, slot + 8);
+    int length = this.segment.get(JAVA_INT, slot + 4);
+    if (length != string.length()) {
+      return false;
+    }
+    if (string.isText()) {
+      String value = string.value();
+      for (int i = 0; i < value.length(); i++) {
+        char c = value.charAt(i);
+        if (c >= 0x80) {
+          break;
+        } else if (this.segment.get(JAVA_BYTE, offset + i) != c) {
+          return false;
+        }
+        if (i == length - 1) {
+          return true;
+        }
+      }
+    }
+    return MemorySegment.mismatch(this.segment, offset, offset + length,
+        MemorySegment.ofArray(string.rawBytes()), 0, length) == -1;
+  }
+
+  /** a hash of a key that only depends on its value so that it can be stored */
+  private static int keyHash(LuaObject key) {
+    return switch (key) {
+      case LuaString string -> string.hashCode();
+      case LuaNum num -> num.hashCode();
+      case LuaBool bool -> bool == LuaBool.True ? TRUE : FALSE;
+      default -> 0;
+    };
+  }
+
+  private static int spread(int hash) {
+    int h = hash * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private static OffHeapLuaTable copy(LuaTableView root, Arena arena, Arena owned) {
+    Map<LuaTableView, Layout> layouts = new IdentityHashMap<>();
+    List<Layout> order = new ArrayList<>();
+    Deque<LuaTableView> pending = new ArrayDeque<>();
+    pending.add(root);
+    long total = 0;
+    while (!pending.isEmpty()) {
+      LuaTableView table = pending.poll();
+      if (layouts.containsKey(table)) {
+        continue;
+      }
+      Layout layout = new Layout(table, total);
+      total += layout.size;
+      layouts.put(table, layout);
+      order.add(layout);
+      Consumer<LuaObject> queue = value -> {
+        if (value instanceof LuaTableView nested && !layouts.containsKey(nested)) {
+          pending.add(nested);
+        }
+      };
+      layout.forEachValue(queue);
+      layout.keys.forEach(queue);
+    }
+    MemorySegment segment = arena.allocate(Math.max(total, 1), 8);
+    for (Layout layout : order) {
+      layout.write(segment, layouts);
+    }
+    return new OffHeapLuaTable(segment, 0, owned);
+  }
+
+  /** where a table and each of its parts will be placed in the segment */
+  private static final class Layout {
+    final long offset;
+    final LuaObject[] array;
+    final List<LuaObject> keys = new ArrayList<>();
+    final List<LuaObject> values = new ArrayList<>();
+    final int indexSlots;
+    final long strings;
+    final long size;
+
+    Layout(LuaTableView table, long offset) {
+      this.offset = offset;
+      int border = table.size();
+      this.array = new LuaObject[border];
+      for (int i = 0; i < border; i++) {
+        this.array[i] = table.get(LuaNum.of(i + 1));
+      }
+      table.pairs((k, v) -> {
+        if (!(k instanceof LuaNum num) || num.asIndex() == 0 || num.asIndex() > border) {
+          this.keys.add(k);
+          this.values.add(v);
+        }
+      });
+      int keyed = this.keys.size();
+      this.indexSlots = keyed == 0 ? 0 : Integer.highestOneBit(keyed * 2 - 1) << 1;
+      this.strings = HEADER + (long) border * SLOT + (long) keyed * (ENTRY + 4)
+          + 4L * this.indexSlots;
+      long[] bytes = {0};
+      forEachValue(value -> bytes[0] += stringLength(value));
+      this.keys.forEach(key -> bytes[0] += stringLength(key));
+      this.size = (this.strings + bytes[0] + 7) & ~7L;
+    }
+
+    void forEachValue(Consumer<LuaObject> action) {
+      for (LuaObject value : this.array) {
+        action.accept(value);
+      }
+      this.values.forEach(action);
+    }
+
+    void write(MemorySegment segment, Map<LuaTableView, Layout> layouts) {
+      int keyed = this.keys.size();
+      segment.set(JAVA_INT, this.offset, this.array.length);
+      segment.set(JAVA_INT, this.offset + 4, keyed);
+      segment.set(JAVA_INT, this.offset + 8, this.indexSlots);
+      long slot = this.offset + HEADER;
+      long strings = this.offset + this.strings;
+      for (LuaObject value : this.array) {
+        strings = writeSlot(segment, slot, value, strings, layouts);
+        slot += SLOT;
+      }
+      long hashes = slot + (long) keyed * ENTRY;
+      long index = hashes + 4L * keyed;
+      int mask = this.indexSlots - 1;
+      for (int pos = 0; pos < keyed; pos++) {
+        LuaObject key = this.keys.get(pos);
+        strings = writeSlot(segment, slot, key, strings, layouts);
+        strings = writeSlot(segment, slot + SLOT, this.values.get(pos), strings, layouts);
+        slot += ENTRY;
+        int hash = keyHash(key);
+        segment.set(JAVA_INT, hashes + 4L * pos, hash);
+        int at = spread(hash) & mask;
+        while (segment.get(JAVA_INT, index + 4L * at) != 0) {
+          at = (at + 1) & mask;
+        }
+        segment.set(JAVA_INT, index + 4L * at, pos + 1);
+      }
+    }
+
+    private static long writeSlot(MemorySegment segment, long slot, LuaObject value,
+        long strings, Map<LuaTableView, Layout> layouts) {
+      switch (value) {
+        case LuaBool bool -> segment.set(JAVA_BYTE, slot, bool == LuaBool.True ? TRUE : FALSE);
+        case LuaNum num when !num.isFloat() -> {
+          segment.set(JAVA_BYTE, slot, INTEGER);
+          segment.set(JAVA_LONG, slot + 8, num.longValue());
+        }
+        case LuaNum num when !num.isDecimal() -> {
+          segment.set(JAVA_BYTE, slot, FLOAT);
+          segment.set(JAVA_DOUBLE, slot + 8, num.doubleValue());
+        }
+        case LuaNum num -> {
+          return writeString(segment, slot, DECIMAL, num.value().toString(), strings);
+        }
+        case LuaString string -> {
+          return writeBytes(segment, slot, STRING, string.rawBytes(), strings);
+        }
+        case LuaTableView table -> {
+          segment.set(JAVA_BYTE, slot, TABLE);
+          segment.set(JAVA_LONG, slot + 8, layouts.get(table).offset);
+        }
+        default -> segment.set(JAVA_BYTE, slot, NIL);
+      }
+      return strings;
+    }
+
+    private static long writeString(MemorySegment segment, long slot, byte tag, String value,
+        long strings) {
+      return writeBytes(segment, slot, tag, value.getBytes(StandardCharsets.UTF_8), strings);
+    }
+
+    private static long writeBytes(MemorySegment segment, long slot, byte tag, byte[] bytes,
+        long strings) {
+      segment.set(JAVA_BYTE, slot, tag);
+      segment.set(JAVA_INT, slot + 4, bytes.length);
+      segment.set(JAVA_LONG, slot + 8, strings);
+      MemorySegment.copy(bytes, 0, segment, JAVA_BYTE, strings, bytes.length);
+      return strings + bytes.length;
+    }
+
+    private static long stringLength(LuaObject value) {
+      return switch (value) {
+        case LuaString string -> string.length();
+        case LuaNum num when num.isDecimal() -> num.value().toString().length();
+        default -> 0;
+      };
+    }
+  }
+}
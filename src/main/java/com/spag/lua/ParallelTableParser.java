@@ -0,0 +1,155 @@
+package com.spag.lua;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Parses large serialized tables on several threads of a {@link ForkJoinPool}
+ *
+ * <p>the top level of the table is scanned the same way as {@link LazyLuaTable}, which only finds
+ * where each field starts and ends without creating anything, using a {@link StructuralIndex} of
+ * the whole data to step over nested tables. the values are then parsed in batches of about
+ * {@value #SPLIT_SIZE} characters by the pool, a nested table at least that long is split up the
+ * same way rather than being parsed by a single thread. once every value of a table is parsed it
+ * is put back in place of its span, so the result has exactly the same array part and keys as
+ * {@link LuaTableParser} would give, including for repeated keys
+ *
+ * @author MR_Spagetty
+ */
+final class ParallelTableParser {
+  /** values are parsed in batches of about this many characters */
+  static final int SPLIT_SIZE = 1 << 15;
+
+  private ParallelTableParser() {}
+
+  /**
+   * parses a serialized table using the given pool
+   *
+   * @param data the serialized table, must not change while it is being parsed
+   * @param pool the pool to parse the table with
+   * @return the parsed table
+   * @throws IllegalArgumentException if the table is invalid
+   */
+  static LuaTable parse(CharSequence data, ForkJoinPool pool) {
+    Objects.requireNonNull(data, "Lua data may not be null");
+    Objects.requireNonNull(pool);
+    if (data.length() < SPLIT_SIZE || pool.getParallelism() == 1) {
+      // not worth splitting up, scanning ahead only pays off when there are threads to share with
+      return LuaTableParser.parse(data);
+    }
+    LuaObject[] out = new LuaObject[1];
+    pool.invoke(new TableTask(data, LazyLuaTable.of(data), out, 0));
+    return (LuaTable) out[0];
+  }
+
+  /** parses a table by parsing each of its values in parallel then filling them in */
+  private static final class TableTask extends RecursiveAction {
+    private final CharSequence data;
+    private final LazyLuaTable.Source source;
+    private final long start;
+    private final long end;
+    private LazyLuaTable table;
+    private final LuaObject[] out;
+    private final int slot;
+
+    TableTask(CharSequence data, LazyLuaTable table, LuaObject[] out, int slot) {
+      this(data, table.source(), table.start(), table.end(), out, slot);
+      this.table = table;
+    }
+
+    TableTask(CharSequence data, LazyLuaTable.Source source, long start, long end,
+        LuaObject[] out, int slot) {
+      this.data = data;
+      this.source = source;
+      this.start = start;
+      this.end = end;
+      this.out = out;
+      this.slot = slot;
+    }
+
+    @Override
+    protected void compute() {
+      if (this.table == null) {
+        // nested tables are scanned with the structural index of the whole data
+        this.table = LazyLuaTable.of(this.source, this.start, this.end);
+      }
+      LuaTable index = this.table.index();
+      List<LuaObject> keys = new ArrayList<>();
+      List<LazyLuaTable.Span> spans = new ArrayList<>();
+      for (int i = 1; i <= index.size(); i++) {
+        if (index.getByIndex(i) instanceof LazyLuaTable.Span span) {
+          keys.add(LuaNum.of(i));
+          spans.add(span);
+        }
+      }
+      HashPart keyed = index.keyed();
+      for (int pos = keyed.next(0); pos >= 0; pos = keyed.next(pos + 1)) {
+        if (keyed.valueAt(pos) instanceof LazyLuaTable.Span span) {
+          keys.add(keyed.keyAt(pos));
+          spans.add(span);
+        }
+      }
+
+      LuaObject[] values = new LuaObject[spans.size()];
+      List<ForkJoinTask<?>> tasks = new ArrayList<>();
+      int from = 0;
+      long batch = 0;
+      for (int i = 0; i < spans.size(); i++) {
+        LazyLuaTable.Span span = spans.get(i);
+        long length = span.end() - span.start();
+        if (length >= SPLIT_SIZE && this.data.charAt((int) span.start()) == '{') {
+          if (from < i) {
+            tasks.add(new BatchTask(this.data, spans, values, from, i));
+          }
+          tasks.add(new TableTask(this.data, this.source, span.start(), span.end(), values, i));
+          from = i + 1;
+          batch = 0;
+        } else if ((batch += length) >= SPLIT_SIZE) {
+          tasks.add(new BatchTask(this.data, spans, values, from, i + 1));
+          from = i + 1;
+          batch = 0;
+        }
+      }
+      if (from < spans.size()) {
+        tasks.add(new BatchTask(this.data, spans, values, from, spans.size()));
+      }
+      invokeAll(tasks);
+
+      // replacing a span with its value never changes the shape of the table
+      for (int i = 0; i < values.length; i++) {
+        index.put(keys.get(i), values[i]);
+      }
+      this.out[this.slot] = index;
+    }
+  }
+
+  /** parses a run of values that are small enough to not be worth splitting up further */
+  private static final class BatchTask extends RecursiveAction {
+    private final CharSequence data;
+    private final List<LazyLuaTable.Span> spans;
+    private final LuaObject[] values;
+    private final int from;
+    private final int to;
+
+    BatchTask(CharSequence data, List<LazyLuaTable.Span> spans, LuaObject[] values, int from,
+        int to) {
+      this.data = data;
+      this.spans = spans;
+      this.values = values;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      for (int i = this.from; i < this.to; i++) {
+        LazyLuaTable.Span span = this.spans.get(i);
+        this.values[i] = LuaTableParser.parse(this.data, (int) span.start(), (int) span.end());
+      }
+    }
+  }
+}
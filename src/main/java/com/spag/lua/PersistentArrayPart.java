@@ -0,0 +1,275 @@
+package com.spag.lua;
+
+import java.util.Arrays;
+
+/**
+ * The array part of a {@link PersistentLuaTable}, an immutable vector where every change gives a
+ * new vector sharing all but the changed path with the old one
+ *
+ * <p>the values are held in chunks of 32 at the leaves of a tree with 32 children per node, so
+ * getting, replacing, appending and removing the last value take time proportional to the depth
+ * of the tree, at most 7 levels for an int sized vector. the last chunk is kept out of the tree as
+ * the tail so appending usually only copies that chunk
+ *
+ * <p>as with {@link ArrayPart} indexes are lua style (from 1) and slots that hold no value contain
+ * {@link LuaObject#nil}
+ *
+ * @author MR_Spagetty
+ */
+final class PersistentArrayPart {
+  private static final int BITS = 5;
+  private static final int WIDTH = 1 << BITS;
+  private static final int MASK = WIDTH - 1;
+  private static final Object[] EMPTY_NODE = new Object[WIDTH];
+  static final PersistentArrayPart EMPTY =
+      new PersistentArrayPart(0, 0, BITS, EMPTY_NODE, new Object[0]);
+
+  private final int size;
+  private final int count;
+  private final int shift;
+  private final Object[] root;
+  private final Object[] tail;
+
+  private PersistentArrayPart(int size, int count, int shift, Object[] root, Object[] tail) {
+    this.size = size;
+    this.count = count;
+    this.shift = shift;
+    this.root = root;
+    this.tail = tail;
+  }
+
+  /**
+   * creates a vector of the given values
+   *
+   * @param values the values, slots without a value must hold nil
+   * @param size the number of values to take
+   * @return the vector
+   */
+  static PersistentArrayPart of(LuaObject[] values, int size) {
+    PersistentArrayPart out = EMPTY;
+    int count = 0;
+    for (int i = 0; i < size; i++) {
+      if (values[i] != LuaObject.nil) {
+        count++;
+      }
+    }
+    // whole chunks are pushed into the tree directly rather than appended a value at a time
+    for (int from = 0; from < size; from += WIDTH) {
+      Object[] chunk =
+          Arrays.copyOfRange(values, from, Math.min(size, from + WIDTH), Object[].class);
+      out = out.size == 0
+          ? new PersistentArrayPart(chunk.length, 0, BITS, EMPTY_NODE, chunk)
+          : out.pushTail(chunk);
+    }
+    return out.size == 0 ? EMPTY : new PersistentArrayPart(out.size, count, out.shift, out.root,
+        out.tail);
+  }
+
+  /** the number of slots in use, including any nil holes */
+  int size() {
+    return this.size;
+  }
+
+  /** the number of non nil values */
+  int count() {
+    return this.count;
+  }
+
+  private int tailOffset() {
+    return this.size < WIDTH ? 0 : ((this.size - 1) >>> BITS) << BITS;
+  }
+
+  /** the chunk holding the value at the given 0 based position */
+  private Object[] chunkFor(int i) {
+    if (i >= tailOffset()) {
+      return this.tail;
+    }
+    Object[] node = this.root;
+    for (int level = this.shift; level > 0; level -= BITS) {
+      node = (Object[]) node[(i >>> level) & MASK];
+    }
+    return node;
+  }
+
+  /**
+   * gets the value at the given index
+   *
+   * @param index the index to get the value at
+   * @return the value or nil if the index is outside of the used slots
+   */
+  LuaObject get(int index) {
+    if (index < 1 || index > this.size) {
+      return LuaObject.nil;
+    }
+    return (LuaObject) chunkFor(index - 1)[(index - 1) & MASK];
+  }
+
+  /**
+   * replaces the value at the given index
+   *
+   * @param index the index to set, from 1 to {@link #size()}
+   * @param value the new value
+   * @return the new vector
+   */
+  PersistentArrayPart set(int index, LuaObject value) {
+    int i = index - 1;
+    LuaObject old = get(index);
+    if (old == value) {
+      return this;
+    }
+    int count = this.count + weight(value) - weight(old);
+    if (i >= tailOffset()) {
+      Object[] tail = this.tail.clone();
+      tail[i & MASK] = value;
+      return new PersistentArrayPart(this.size, count, this.shift, this.root, tail);
+    }
+    return new PersistentArrayPart(this.size, count, this.shift, set(this.shift, this.root, i,
+        value), this.tail);
+  }
+
+  private static Object[] set(int level, Object[] node, int i, LuaObject value) {
+    Object[] out = node.clone();
+    if (level == 0) {
+      out[i & MASK] = value;
+    } else {
+      int child = (i >>> level) & MASK;
+      out[child] = set(level - BITS, (Object[]) node[child], i, value);
+    }
+    return out;
+  }
+
+  /**
+   * adds a value after the last slot
+   *
+   * @param value the value to add
+   * @return the new vector
+   */
+  PersistentArrayPart append(LuaObject value) {
+    int count = this.count + weight(value);
+    if (this.size - tailOffset() < WIDTH) {
+      Object[] tail = Arrays.copyOf(this.tail, this.tail.length + 1);
+      tail[this.tail.length] = value;
+      return new PersistentArrayPart(this.size + 1, count, this.shift, this.root, tail);
+    }
+    PersistentArrayPart out = pushTail(new Object[] {value});
+    return new PersistentArrayPart(out.size, count, out.shift, out.root, out.tail);
+  }
+
+  /**
+   * moves the full tail into the tree and starts a new tail with the given chunk, the count is
+   * left for the caller to fix
+   */
+  private PersistentArrayPart pushTail(Object[] chunk) {
+    Object[] root;
+    int shift = this.shift;
+    if ((this.size >>> BITS) > (1 << this.shift)) {
+      // the tree is full, it gains a level
+      root = new Object[WIDTH];
+      root[0] = this.root;
+      root[1] = newPath(this.shift, this.tail);
+      shift += BITS;
+    } else {
+      root = pushTail(this.shift, this.root, this.tail);
+    }
+    return new PersistentArrayPart(this.size + chunk.length, this.count, shift, root, chunk);
+  }
+
+  private Object[] pushTail(int level, Object[] parent, Object[] chunk) {
+    int child = ((this.size - 1) >>> level) & MASK;
+    Object[] out = parent.clone();
+    if (level == BITS) {
+      out[child] = chunk;
+    } else {
+      Object[] node = (Object[]) parent[child];
+      out[child] = node != null ? pushTail(level - BITS, node, chunk)
+          : newPath(level - BITS, chunk);
+    }
+    return out;
+  }
+
+  private static Object[] newPath(int level, Object[] chunk) {
+    if (level == 0) {
+      return chunk;
+    }
+    Object[] out = new Object[WIDTH];
+    out[0] = newPath(level - BITS, chunk);
+    return out;
+  }
+
+  /**
+   * removes the last slot
+   *
+   * @return the new vector
+   */
+  PersistentArrayPart pop() {
+    if (this.size <= 1) {
+      return EMPTY;
+    }
+    int count = this.count - weight(get(this.size));
+    if (this.size - tailOffset() > 1) {
+      return new PersistentArrayPart(this.size - 1, count, this.shift, this.root,
+          Arrays.copyOf(this.tail, this.tail.length - 1));
+    }
+    Object[] tail = chunkFor(this.size - 2);
+    Object[] root = popTail(this.shift, this.root);
+    int shift = this.shift;
+    if (root == null) {
+      root = EMPTY_NODE;
+    }
+    if (shift > BITS && root[1] == null) {
+      root = (Object[]) root[0];
+      shift -= BITS;
+    }
+    return new PersistentArrayPart(this.size - 1, count, shift, root, tail);
+  }
+
+  private Object[] popTail(int level, Object[] node) {
+    int child = ((this.size - 2) >>> level) & MASK;
+    if (level > BITS) {
+      Object[] popped = popTail(level - BITS, (Object[]) node[child]);
+      if (popped == null && child == 0) {
+        return null;
+      }
+      Object[] out = node.clone();
+      out[child] = popped;
+      return out;
+    } else if (child == 0) {
+      return null;
+    }
+    Object[] out = node.clone();
+    out[child] = null;
+    return out;
+  }
+
+  /**
+   * removes any nil values from the end so the last slot holds a value
+   *
+   * @return the new vector
+   */
+  PersistentArrayPart trimTrailingNils() {
+    PersistentArrayPart out = this;
+    while (out.size > 0 && out.get(out.size) == LuaObject.nil) {
+      out = out.pop();
+    }
+    return out;
+  }
+
+  /**
+   * visits every slot in order
+   *
+   * @param action what to do for each index and value, including nil values
+   */
+  void forEach(IntObjConsumer<LuaObject> action) {
+    for (int from = 0; from < this.size; from += WIDTH) {
+      Object[] chunk = chunkFor(from);
+      int to = Math.min(WIDTH, this.size - from);
+      for (int i = 0; i < to; i++) {
+        action.accept(from + i + 1, (LuaObject) chunk[i]);
+      }
+    }
+  }
+
+  private static int weight(LuaObject value) {
+    return value == LuaObject.nil ? 0 : 1;
+  }
+}
@@ -0,0 +1,287 @@
+package com.spag.lua;
+
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/**
+ * The hash part of a {@link PersistentLuaTable}, an immutable hash array mapped trie where every
+ * change gives a new map sharing all but the changed path with the old one
+ *
+ * <p>each level of the trie takes 5 more bits of the hash of a key to pick one of up to 32
+ * children, a node only holds the children that exist along with a bitmap of which ones they are.
+ * so lookups, puts and removes take time proportional to the depth, which is rarely more than a
+ * few levels, and a change only copies the nodes along one path. keys whose whole hash is the same
+ * share a collision node
+ *
+ * <p>unlike {@link HashPart} entries are visited in the order of their hashes rather than the order
+ * they were put in
+ *
+ * @author MR_Spagetty
+ */
+final class PersistentHashPart {
+  private static final int BITS = 5;
+  private static final int MASK = (1 << BITS) - 1;
+  static final PersistentHashPart EMPTY = new PersistentHashPart(null, 0);
+
+  private final Node root;
+  private final int size;
+
+  private PersistentHashPart(Node root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  /** a node of the trie, changes give a new node or the same node if nothing changed */
+  private sealed interface Node permits BitmapNode, CollisionNode {
+    LuaObject find(int shift, int hash, LuaObject key);
+
+    Node put(int shift, int hash, LuaObject key, LuaObject value, boolean[] added);
+
+    /** @return the node without the key, null if it is left empty */
+    Node remove(int shift, int hash, LuaObject key);
+
+    void forEach(BiConsumer<LuaObject, LuaObject> action);
+  }
+
+  /**
+   * a node holding an entry or a child node for each set bit of its bitmap, as pairs in the array
+   * of either the key and value or null and the child
+   */
+  private record BitmapNode(int bitmap, Object[] array) implements Node {
+    static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+    private int indexOf(int bit) {
+      return Integer.bitCount(this.bitmap & (bit - 1)) * 2;
+    }
+
+    @Override
+    public LuaObject find(int shift, int hash, LuaObject key) {
+      int bit = 1 << ((hash >>> shift) & MASK);
+      if ((this.bitmap & bit) == 0) {
+        return null;
+      }
+      int i = indexOf(bit);
+      Object k = this.array[i];
+      if (k == null) {
+        return ((Node) this.array[i + 1]).find(shift + BITS, hash, key);
+      }
+      return matches(key, k) ? (LuaObject) this.array[i + 1] : null;
+    }
+
+    @Override
+    public Node put(int shift, int hash, LuaObject key, LuaObject value, boolean[] added) {
+      int bit = 1 << ((hash >>> shift) & MASK);
+      int i = indexOf(bit);
+      if ((this.bitmap & bit) == 0) {
+        Object[] array = new Object[this.array.length + 2];
+        System.arraycopy(this.array, 0, array, 0, i);
+        array[i] = key;
+        array[i + 1] = value;
+        System.arraycopy(this.array, i, array, i + 2, this.array.length - i);
+        added[0] = true;
+        return new BitmapNode(this.bitmap | bit, array);
+      }
+      Object k = this.array[i];
+      Object v = this.array[i + 1];
+      Object replacement;
+      if (k == null) {
+        Node child = ((Node) v).put(shift + BITS, hash, key, value, added);
+        if (child == v) {
+          return this;
+        }
+        replacement = child;
+      } else if (matches(key, k)) {
+        if (v == value) {
+          return this;
+        }
+        return new BitmapNode(this.bitmap, with(this.array, i + 1, value));
+      } else {
+        added[0] = true;
+        replacement = pair(shift + BITS, (LuaObject) k, (LuaObject) v, hash, key, value);
+      }
+      Object[] array = with(this.array, i + 1, replacement);
+      array[i] = null;
+      return new BitmapNode(this.bitmap, array);
+    }
+
+    @Override
+    public Node remove(int shift, int hash, LuaObject key) {
+      int bit = 1 << ((hash >>> shift) & MASK);
+      if ((this.bitmap & bit) == 0) {
+        return this;
+      }
+      int i = indexOf(bit);
+      Object k = this.array[i];
+      if (k == null) {
+        Node child = ((Node) this.array[i + 1]).remove(shift + BITS, hash, key);
+        if (child == this.array[i + 1]) {
+          return this;
+        } else if (child != null) {
+          return new BitmapNode(this.bitmap, with(this.array, i + 1, child));
+        }
+      } else if (!matches(key, k)) {
+        return this;
+      }
+      if (this.bitmap == bit) {
+        return null;
+      }
+      Object[] array = new Object[this.array.length - 2];
+      System.arraycopy(this.array, 0, array, 0, i);
+      System.arraycopy(this.array, i + 2, array, i, array.length - i);
+      return new BitmapNode(this.bitmap ^ bit, array);
+    }
+
+    @Override
+    public void forEach(BiConsumer<LuaObject, LuaObject> action) {
+      for (int i = 0; i < this.array.length; i += 2) {
+        if (this.array[i] == null) {
+          ((Node) this.array[i + 1]).forEach(action);
+        } else {
+          action.accept((LuaObject) this.array[i], (LuaObject) this.array[i + 1]);
+        }
+      }
+    }
+  }
+
+  /** a node for keys that all have the same hash, as pairs of keys and values */
+  private record CollisionNode(int hash, Object[] array) implements Node {
+    private int indexOf(LuaObject key) {
+      for (int i = 0; i < this.array.length; i += 2) {
+        if (matches(key, this.array[i])) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    public LuaObject find(int shift, int hash, LuaObject key) {
+      int i = indexOf(key);
+      return i < 0 ? null : (LuaObject) this.array[i + 1];
+    }
+
+    @Override
+    public Node put(int shift, int hash, LuaObject key, LuaObject value, boolean[] added) {
+      if (hash != this.hash) {
+        // the new key goes beside this node in a bitmap node
+        Node nested = new BitmapNode(1 << ((this.hash >>> shift) & MASK), new Object[] {null, this});
+        return nested.put(shift, hash, key, value, added);
+      }
+      int i = indexOf(key);
+      if (i >= 0) {
+        return this.array[i + 1] == value ? this
+            : new CollisionNode(hash, with(this.array, i + 1, value));
+      }
+      Object[] array = Arrays.copyOf(this.array, this.array.length + 2);
+      array[this.array.length] = key;
+      array[this.array.length + 1] = value;
+      added[0] = true;
+      return new CollisionNode(hash, array);
+    }
+
+    @Override
+    public Node remove(int shift, int hash, LuaObject key) {
+      int i = indexOf(key);
+      if (i < 0) {
+        return this;
+      } else if (this.array.length == 2) {
+        return null;
+      }
+      Object[] array = new Object[this.array.length - 2];
+      System.arraycopy(this.array, 0, array, 0, i);
+      System.arraycopy(this.array, i + 2, array, i, array.length - i);
+      return new CollisionNode(hash, array);
+    }
+
+    @Override
+    public void forEach(BiConsumer<LuaObject, LuaObject> action) {
+      for (int i = 0; i < this.array.length; i += 2) {
+        action.accept((LuaObject) this.array[i], (LuaObject) this.array[i + 1]);
+      }
+    }
+  }
+
+  private static Object[] with(Object[] array, int i, Object value) {
+    Object[] out = array.clone();
+    out[i] = value;
+    return out;
+  }
+
+  /** a node holding two entries that collided at the level above */
+  private static Node pair(int shift, LuaObject k1, LuaObject v1, int h2, LuaObject k2,
+      LuaObject v2) {
+    int h1 = hash(k1);
+    if (h1 == h2) {
+      return new CollisionNode(h1, new Object[] {k1, v1, k2, v2});
+    }
+    boolean[] added = new boolean[1];
+    return BitmapNode.EMPTY.put(shift, h1, k1, v1, added).put(shift, h2, k2, v2, added);
+  }
+
+  /** tables are keys by their identity, as they are in {@link HashPart} */
+  private static int hash(LuaObject key) {
+    int h = key instanceof LuaTableView ? System.identityHashCode(key) : key.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+  private static boolean matches(LuaObject key, Object other) {
+    return other == key || !(key instanceof LuaTableView) && key.equals(other);
+  }
+
+  /** the number of entries */
+  int size() {
+    return this.size;
+  }
+
+  boolean isEmpty() {
+    return this.size == 0;
+  }
+
+  /**
+   * gets the value for the given key
+   *
+   * @return the value or null if the key is not present
+   */
+  LuaObject get(LuaObject key) {
+    return this.root == null ? null : this.root.find(0, hash(key), key);
+  }
+
+  /**
+   * puts the given entry, replacing the value of the key if it is already present
+   *
+   * @return the new map
+   */
+  PersistentHashPart put(LuaObject key, LuaObject value) {
+    boolean[] added = new boolean[1];
+    Node root = (this.root == null ? BitmapNode.EMPTY : this.root)
+        .put(0, hash(key), key, value, added);
+    return root == this.root ? this : new PersistentHashPart(root, this.size + (added[0] ? 1 : 0));
+  }
+
+  /**
+   * removes the entry for the given key
+   *
+   * @return the new map, this map if the key is not present
+   */
+  PersistentHashPart remove(LuaObject key) {
+    if (this.root == null) {
+      return this;
+    }
+    Node root = this.root.remove(0, hash(key), key);
+    if (root == this.root) {
+      return this;
+    }
+    return root == null ? EMPTY : new PersistentHashPart(root, this.size - 1);
+  }
+
+  /**
+   * visits every entry
+   *
+   * @param action what to do for each key and value
+   */
+  void forEach(BiConsumer<LuaObject, LuaObject> action) {
+    if (this.root != null) {
+      this.root.forEach(action);
+    }
+  }
+}
@@ -0,0 +1,468 @@
+package com.spag.lua;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * An immutable lua table where every change gives a new table that shares almost all of its
+ * structure with the one it was made from, so keeping many versions of a table (such as a snapshot
+ * each tick) costs only what changed between them rather than a copy of the whole table
+ *
+ * <p>the array part is a {@link PersistentArrayPart}, a tree of 32 value chunks, and the hash part
+ * a {@link PersistentHashPart}, a hash array mapped trie. {@link #get}, {@link #with},
+ * {@link #insert(LuaObject)} and each value of {@link #merge} take time logarithmic in the size of
+ * the table. {@link #insert(LuaNum, LuaObject)} part way through the array part has to move every
+ * value after the index so it takes time proportional to the number of those values
+ *
+ * <p>values are placed exactly as {@link LuaTable#put} would place them, with the same split
+ * between the array and hash parts. keyed entries are visited in the order of their hashes rather
+ * than the order they were put in
+ *
+ * <p>mutable tables given to this class, as values or to {@link #copyOf(LuaTableView)}, are copied
+ * into persistent tables (nested tables included) so no version can be changed afterwards. tables
+ * that contain themselves can not be copied. as in {@link LuaTable} tables used as keys are keys by
+ * their identity, each distinct table copied stays a distinct key
+ *
+ * @author MR_Spagetty
+ * @see LuaTable#toPersistent()
+ */
+public final class PersistentLuaTable implements LuaTableView {
+  private static final PersistentLuaTable EMPTY =
+      new PersistentLuaTable(PersistentArrayPart.EMPTY, PersistentHashPart.EMPTY);
+
+  private final PersistentArrayPart array;
+  private final PersistentHashPart hash;
+  private int hashCode;
+
+  private PersistentLuaTable(PersistentArrayPart array, PersistentHashPart hash) {
+    this.array = array;
+    this.hash = hash;
+  }
+
+  private static PersistentLuaTable of(PersistentArrayPart array, PersistentHashPart hash) {
+    return array.size() == 0 && hash.isEmpty() ? EMPTY : new PersistentLuaTable(array, hash);
+  }
+
+  /**
+   * the empty table
+   *
+   * @return the empty table
+   */
+  public static PersistentLuaTable empty() {
+    return EMPTY;
+  }
+
+  /**
+   * copies the given table, and every mutable table nested in it, into a persistent table
+   *
+   * @param table the table to copy
+   * @return the persistent table with the same content
+   * @throws IllegalArgumentException if the table contains itself
+   */
+  public static PersistentLuaTable copyOf(LuaTableView table) {
+    Objects.requireNonNull(table);
+    if (table instanceof PersistentLuaTable persistent) {
+      return persistent;
+    }
+    Map<LuaTableView, PersistentLuaTable> done = new IdentityHashMap<>();
+    // walked depth first with an explicit stack as tables may be nested very deeply, a table is
+    // copied once every table nested in it has been
+    Deque<LuaTableView> pending = new ArrayDeque<>();
+    Map<LuaTableView, Boolean> entered = new IdentityHashMap<>();
+    pending.push(table);
+    while (!pending.isEmpty()) {
+      LuaTableView next = pending.peek();
+      if (done.containsKey(next)) {
+        pending.pop();
+        continue;
+      }
+      if (entered.put(next, Boolean.TRUE) == null) {
+        next.pairs((k, v) -> {
+          for (LuaObject nested : new LuaObject[] {k, v}) {
+            if (nested instanceof MutableLuaTable inner && !done.containsKey(inner)) {
+              if (entered.containsKey(inner)) {
+                throw new IllegalArgumentException("tables that contain themselves can not be"
+                    + " made persistent");
+              }
+              pending.push(inner);
+            }
+          }
+        });
+        continue;
+      }
+      pending.pop();
+      done.put(next, copyShallow(next, done));
+    }
+    return done.get(table);
+  }
+
+  /** copies a single table whose nested mutable tables have all been copied already */
+  private static PersistentLuaTable copyShallow(LuaTableView table,
+      Map<LuaTableView, PersistentLuaTable> done) {
+    if (table instanceof LuaTable lua) {
+      LuaObject[] values = new LuaObject[lua.size()];
+      for (int i = 0; i < values.length; i++) {
+        values[i] = replace(lua.getByIndex(i + 1), done);
+      }
+      PersistentHashPart[] hash = {PersistentHashPart.EMPTY};
+      lua.forEachKeyed((k, v) -> hash[0] = hash[0].put(replace(k, done), replace(v, done)));
+      return new PersistentLuaTable(PersistentArrayPart.of(values, values.length), hash[0]);
+    }
+    PersistentLuaTable[] out = {EMPTY};
+    table.pairs((k, v) -> out[0] = out[0].withCopied(replace(k, done), replace(v, done)));
+    // never the shared empty table, as tables are keys by their identity each copy has its own
+    return out[0] == EMPTY ? new PersistentLuaTable(EMPTY.array, EMPTY.hash) : out[0];
+  }
+
+  private static LuaObject replace(LuaObject value, Map<LuaTableView, PersistentLuaTable> done) {
+    return value instanceof MutableLuaTable table ? done.get(table) : value;
+  }
+
+  /** copies a mutable table given as a key or value */
+  private static LuaObject persistent(LuaObject value) {
+    return value instanceof MutableLuaTable table ? copyOf(table) : value;
+  }
+
+  /**
+   * copies this table into a new mutable table, nested persistent tables become mutable tables too
+   *
+   * @return the mutable table with the same content
+   */
+  public LuaTable toTable() {
+    LuaTable out = new LuaTable();
+    // filled in with an explicit stack as tables may be nested very deeply
+    Deque<Object[]> pending = new ArrayDeque<>();
+    pending.push(new Object[] {this, out});
+    while (!pending.isEmpty()) {
+      Object[] next = pending.pop();
+      PersistentLuaTable from = (PersistentLuaTable) next[0];
+      LuaTable to = (LuaTable) next[1];
+      from.array.forEach((i, v) -> to.append(mutable(v, pending)));
+      from.hash.forEach((k, v) -> to.put(mutable(k, pending), mutable(v, pending)));
+    }
+    return out;
+  }
+
+  private static LuaObject mutable(LuaObject value, Deque<Object[]> pending) {
+    if (!(value instanceof PersistentLuaTable nested)) {
+      return value;
+    }
+    LuaTable copy = new LuaTable();
+    pending.push(new Object[] {nested, copy});
+    return copy;
+  }
+
+  @Override
+  public LuaObject get(LuaObject keyInd) {
+    Objects.requireNonNull(keyInd, "Key/Index may not be null");
+    int index = indexOf(keyInd);
+    if (index > 0 && index <= this.array.size()) {
+      return this.array.get(index);
+    }
+    LuaObject value = this.hash.get(normalized(keyInd));
+    return value == null ? LuaObject.nil : value;
+  }
+
+  /**
+   * gives a table with the given value stored at the given key or index, placed as
+   * {@link LuaTable#put(LuaObject, LuaObject)} would place it
+   *
+   * @param keyInd the key/index to put the new value at
+   * @param value the value to store, nil to remove the key
+   * @return the new table, this table if nothing changed
+   * @throws IllegalArgumentException if the key is nil or NaN
+   */
+  public PersistentLuaTable with(LuaObject keyInd, LuaObject value) {
+    Objects.requireNonNull(keyInd, "Key may not be null");
+    Objects.requireNonNull(value, "new Element may not be null");
+    return withCopied(persistent(keyInd), persistent(value));
+  }
+
+  private PersistentLuaTable withCopied(LuaObject keyInd, LuaObject value) {
+    if (keyInd == nil) {
+      throw new IllegalArgumentException("Key may not be nil");
+    }
+    int index = indexOf(keyInd);
+    if (index > 0) {
+      return withIndex(index, value);
+    }
+    if (keyInd instanceof LuaNum ln && Double.isNaN(ln.doubleValue())) {
+      throw new IllegalArgumentException("Key may not be NaN");
+    }
+    keyInd = normalized(keyInd);
+    PersistentHashPart hash = value == LuaObject.nil ? this.hash.remove(keyInd)
+        : this.hash.put(keyInd, value);
+    return hash == this.hash ? this : of(this.array, hash);
+  }
+
+  /**
+   * gives a table without the given key
+   *
+   * @param keyInd the key/index to remove
+   * @return the new table, this table if the key was not present
+   */
+  public PersistentLuaTable without(LuaObject keyInd) {
+    return with(keyInd, LuaObject.nil);
+  }
+
+  /** stores a value at a positive integer key, see LuaTable.putAtIndex */
+  private PersistentLuaTable withIndex(int index, LuaObject value) {
+    PersistentArrayPart array = this.array;
+    PersistentHashPart hash = this.hash;
+    int size = array.size();
+    if (index <= size) {
+      array = array.set(index, value).trimTrailingNils();
+      return array == this.array ? this : of(array, hash);
+    }
+    LuaNum key = LuaNum.of(index);
+    if (value == LuaObject.nil) {
+      hash = hash.remove(key);
+      return hash == this.hash ? this : of(array, hash);
+    }
+    if (index > size + 1 && (long) (array.count() + 1) * 2 < index) {
+      return of(array, hash.put(key, value));
+    }
+    hash = hash.remove(key);
+    while (array.size() < index - 1) {
+      // the indexes skipped over may already have values in the hash part
+      LuaNum skipped = LuaNum.of(array.size() + 1);
+      LuaObject moved = hash.isEmpty() ? null : hash.get(skipped);
+      if (moved != null) {
+        hash = hash.remove(skipped);
+      }
+      array = array.append(moved == null ? LuaObject.nil : moved);
+    }
+    return migrateFromHash(array.append(value), hash);
+  }
+
+  /** moves the values in the hash part directly after the border into the array part */
+  private static PersistentLuaTable migrateFromHash(PersistentArrayPart array,
+      PersistentHashPart hash) {
+    LuaObject next;
+    while (!hash.isEmpty() && (next = hash.get(LuaNum.of(array.size() + 1))) != null) {
+      hash = hash.remove(LuaNum.of(array.size() + 1));
+      array = array.append(next);
+    }
+    return of(array, hash);
+  }
+
+  /**
+   * removes the values kept in the hash part at indexes the array part has grown over, see
+   * LuaTable.takeFromHash
+   */
+  private static PersistentHashPart takeFromHash(PersistentHashPart hash, int from, int to) {
+    for (int i = from; i <= to && !hash.isEmpty(); i++) {
+      hash = hash.remove(LuaNum.of(i));
+    }
+    return hash;
+  }
+
+  /**
+   * gives a table with the given value added at the end of the indexed values
+   *
+   * @param value the value to insert
+   * @return the new table
+   * @see LuaTable#insert(LuaObject)
+   */
+  public PersistentLuaTable insert(LuaObject value) {
+    Objects.requireNonNull(value);
+    if (value == LuaObject.nil) {
+      return this;
+    }
+    return migrateFromHash(this.array.append(persistent(value)), this.hash);
+  }
+
+  /**
+   * gives a table with the given value inserted at the given index, moving the values at the index
+   * and after it up by one
+   *
+   * @param index the index to insert at, from 1 to one past the size
+   * @param value the value to insert
+   * @return the new table
+   * @throws IllegalArgumentException if the index is not a positive integer
+   * @throws IndexOutOfBoundsException if the index is past the end of the indexed values
+   * @see LuaTable#insert(LuaNum, LuaObject)
+   */
+  public PersistentLuaTable insert(LuaNum index, LuaObject value) {
+    Objects.requireNonNull(index);
+    Objects.requireNonNull(value);
+    if (!index.isInteger() || !index.isPositive()) {
+      throw new IllegalArgumentException("Expected positive integer for index");
+    }
+    int i = indexOf(index);
+    if (i < 1 || i > this.array.size() + 1) {
+      throw new IndexOutOfBoundsException(index.toString());
+    }
+    PersistentArrayPart array = this.array;
+    List<LuaObject> moved = new ArrayList<>();
+    while (array.size() >= i) {
+      moved.add(array.get(array.size()));
+      array = array.pop();
+    }
+    array = array.append(persistent(value));
+    for (int j = moved.size() - 1; j >= 0; j--) {
+      array = array.append(moved.get(j));
+    }
+    return migrateFromHash(array.trimTrailingNils(), this.hash);
+  }
+
+  /**
+   * gives a table with the content of the given table merged into this one, following the rules
+   * of {@link LuaTable#merge(LuaTable)}: the indexed values of the other table are added after
+   * those of this one and its keyed values replace those of this one
+   *
+   * @param other the table to merge from
+   * @return the new table, sharing the structure of this one
+   */
+  public PersistentLuaTable merge(LuaTableView other) {
+    Objects.requireNonNull(other);
+    PersistentArrayPart[] array = {this.array};
+    int size = this.array.size();
+    if (other instanceof PersistentLuaTable persistent) {
+      persistent.array.forEach((i, v) -> array[0] = array[0].append(v));
+      PersistentLuaTable[] out = {migrateFromHash(array[0],
+          takeFromHash(this.hash, size + 1, array[0].size()))};
+      persistent.hash.forEach((k, v) -> out[0] = out[0].withCopied(k, v));
+      return out[0];
+    } else if (other instanceof LuaTable table) {
+      for (int i = 1; i <= table.size(); i++) {
+        array[0] = array[0].append(persistent(table.getByIndex(i)));
+      }
+      PersistentLuaTable[] out = {migrateFromHash(array[0],
+          takeFromHash(this.hash, size + 1, array[0].size()))};
+      table.forEachKeyed((k, v) -> out[0] = out[0].with(k, v));
+      return out[0];
+    }
+    int border = other.size();
+    other.stream().forEach(v -> array[0] = array[0].append(persistent(v)));
+    array[0] = array[0].trimTrailingNils();
+    PersistentLuaTable[] out = {migrateFromHash(array[0],
+        takeFromHash(this.hash, size + 1, array[0].size()))};
+    other.pairs((k, v) -> {
+      if (!(k instanceof LuaNum num) || num.asIndex() == 0 || num.asIndex() > border) {
+        out[0] = out[0].with(k, v);
+      }
+    });
+    return out[0];
+  }
+
+  private static int indexOf(LuaObject key) {
+    return key instanceof LuaNum ln ? ln.asIndex() : 0;
+  }
+
+  private static LuaObject normalized(LuaObject key) {
+    return key instanceof LuaNum ln && !Double.isNaN(ln.doubleValue()) ? ln.normalized() : key;
+  }
+
+  @Override
+  public int size() {
+    return this.array.size();
+  }
+
+  @Override
+  public void ipairs(BiConsumer<LuaNum, LuaObject> iterator) {
+    forEachIndexed((i, v) -> iterator.accept(LuaNum.of(i), v));
+  }
+
+  @Override
+  public void forEachIndexed(IntObjConsumer<LuaObject> action) {
+    // the array part ends at the first nil, the index after it is never in the hash part
+    LuaObject value;
+    for (int i = 1; i <= this.array.size() && (value = this.array.get(i)) != LuaObject.nil; i++) {
+      action.accept(i, value);
+    }
+  }
+
+  @Override
+  public void pairs(BiConsumer<LuaObject, LuaObject> iterator) {
+    this.array.forEach((i, v) -> {
+      if (v != LuaObject.nil) {
+        iterator.accept(LuaNum.of(i), v);
+      }
+    });
+    this.hash.forEach(iterator);
+  }
+
+  @Override
+  public Stream<LuaObject> stream() {
+    return IntStream.rangeClosed(1, size()).mapToObj(this.array::get);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof PersistentLuaTable other)) {
+      return false;
+    }
+    // nested tables are compared with an explicit stack as they may be nested very deeply
+    Deque<PersistentLuaTable[]> pending = new ArrayDeque<>();
+    pending.push(new PersistentLuaTable[] {this, other});
+    boolean[] equal = {true};
+    while (equal[0] && !pending.isEmpty()) {
+      PersistentLuaTable[] next = pending.pop();
+      PersistentLuaTable a = next[0];
+      PersistentLuaTable b = next[1];
+      if (a.array.size() != b.array.size() || a.array.count() != b.array.count()
+          || a.hash.size() != b.hash.size() || a.hashCode() != b.hashCode()) {
+        return false;
+      }
+      a.array.forEach((i, v) -> equal[0] &= valueEquals(v, b.array.get(i), pending));
+      a.hash.forEach((k, v) -> equal[0] &= valueEquals(v, b.hash.get(k), pending));
+    }
+    return equal[0];
+  }
+
+  /** compares two values, nested persistent tables are left on the stack to be compared later */
+  private static boolean valueEquals(LuaObject a, LuaObject b,
+      Deque<PersistentLuaTable[]> pending) {
+    if (a == b) {
+      return true;
+    } else if (a instanceof PersistentLuaTable nested && b instanceof PersistentLuaTable other) {
+      pending.push(new PersistentLuaTable[] {nested, other});
+      return true;
+    }
+    return a.equals(b);
+  }
+
+  /**
+   * a hash of the content, computed once as the table never changes
+   *
+   * <p>as with {@link LuaTable#hashCode()} nested tables only count as being tables and tables
+   * used as keys count by their identity
+   */
+  @Override
+  public int hashCode() {
+    int hash = this.hashCode;
+    if (hash == 0) {
+      int[] sum = {1};
+      this.array.forEach((i, v) -> sum[0] += i ^ hashOf(v));
+      this.hash.forEach((k, v) -> sum[0] += keyHash(k) ^ hashOf(v));
+      hash = sum[0];
+      this.hashCode = hash;
+    }
+    return hash;
+  }
+
+  private static int hashOf(LuaObject value) {
+    return value instanceof LuaTableView ? 0x7AB1E : value.hashCode();
+  }
+
+  private static int keyHash(LuaObject key) {
+    return key instanceof LuaTableView ? System.identityHashCode(key) : key.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return toTable().toString();
+  }
+}
@@ -0,0 +1,117 @@
+package com.spag.lua;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+/**
+ * A read only view of a {@link LuaTable}, safe to share between any number of users as none of
+ * them can change the table through it
+ *
+ * <p>nested tables are handed out as read only views of their own so the whole tree below the view
+ * is protected. the view reads the table it was made from so changes made to that table directly
+ * are seen through the view, {@link #toTable()} gives a private copy that can be changed freely
+ *
+ * @author MR_Spagetty
+ * @see LuaTable#readOnly()
+ */
+public final class ReadOnlyLuaTable implements LuaTableView {
+  private final LuaTable table;
+
+  ReadOnlyLuaTable(LuaTable table) {
+    this.table = Objects.requireNonNull(table);
+  }
+
+  private static LuaObject wrap(LuaObject value) {
+    return value instanceof LuaTable table ? new ReadOnlyLuaTable(table) : value;
+  }
+
+  @Override
+  public LuaObject get(LuaObject keyInd) {
+    return wrap(this.table.get(keyInd));
+  }
+
+  @Override
+  public int size() {
+    return this.table.size();
+  }
+
+  @Override
+  public void ipairs(BiConsumer<LuaNum, LuaObject> iterator) {
+    this.table.ipairs((i, v) -> iterator.accept(i, wrap(v)));
+  }
+
+  @Override
+  public void forEachIndexed(IntObjConsumer<LuaObject> action) {
+    this.table.forEachIndexed((i, v) -> action.accept(i, wrap(v)));
+  }
+
+  @Override
+  public void pairs(BiConsumer<LuaObject, LuaObject> iterator) {
+    this.table.pairs((k, v) -> iterator.accept(wrap(k), wrap(v)));
+  }
+
+  @Override
+  public Stream<LuaObject> stream() {
+    return this.table.stream().map(ReadOnlyLuaTable::wrap);
+  }
+
+  /**
+   * copies the table this is a view of, including every nested table
+   *
+   * @return a new table with the same content that can be changed without affecting this view
+   */
+  public LuaTable toTable() {
+    return copy(this.table);
+  }
+
+  /**
+   * copies the given table and every table nested in it, keeping the shape of the array parts
+   *
+   * @param table the table to copy
+   * @return the copy
+   */
+  static LuaTable copy(LuaTable table) {
+    LuaTable out = new LuaTable();
+    // copied with an explicit stack as tables may be nested very deeply
+    Deque<LuaTable[]> pending = new ArrayDeque<>();
+    pending.push(new LuaTable[] {table, out});
+    while (!pending.isEmpty()) {
+      LuaTable[] next = pending.pop();
+      LuaTable from = next[0];
+      LuaTable to = next[1];
+      for (int i = 1; i <= from.size(); i++) {
+        to.append(copyValue(from.getByIndex(i), pending));
+      }
+      from.forEachKeyed((k, v) -> to.put(copyValue(k, pending), copyValue(v, pending)));
+    }
+    return out;
+  }
+
+  /** gives the copy of a value, a nested table is added to the tables still to be filled in */
+  private static LuaObject copyValue(LuaObject value, Deque<LuaTable[]> pending) {
+    if (!(value instanceof LuaTable nested)) {
+      return value;
+    }
+    LuaTable copy = new LuaTable();
+    pending.push(new LuaTable[] {nested, copy});
+    return copy;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return obj instanceof ReadOnlyLuaTable other && this.table.equals(other.table);
+  }
+
+  @Override
+  public int hashCode() {
+    return this.table.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return this.table.toString();
+  }
+}
@@ -0,0 +1,87 @@
+package com.spag.lua;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * A thread safe cache for soft flyweights (flyweights that use soft references), mapping keys to
+ * the single live instance for that key
+ *
+ * <p>lookups of live instances are lock free, references that the garbage collector has cleared
+ * are removed from the cache through a {@link ReferenceQueue} so cleaning up only costs as much as
+ * the number of expired entries
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the flyweights
+ * @author MR_Spagetty
+ */
+final class SoftFlyweightCache<K, V> {
+  private final ConcurrentHashMap<K, Ref<K, V>> cache = new ConcurrentHashMap<>();
+  private final ReferenceQueue<V> expired = new ReferenceQueue<>();
+
+  /** a soft reference that remembers the key it is cached under */
+  private static final class Ref<K, V> extends SoftReference<V> {
+    final K key;
+
+    Ref(K key, V value, ReferenceQueue<? super V> queue) {
+      super(value, queue);
+      this.key = key;
+    }
+  }
+
+  /**
+   * gets the live instance for the given key, creating and caching a new one if there is none
+   *
+   * <p>should two threads race to create the instance for the same key only one of the created
+   * instances is ever returned
+   *
+   * @param key the key of the instance
+   * @param factory creates a new instance for the key
+   * @return the instance for the key
+   */
+  V get(K key, Function<? super K, ? extends V> factory) {
+    Ref<K, V> ref = this.cache.get(key);
+    V value;
+    if (ref != null && (value = ref.get()) != null) {
+      return value;
+    }
+    clearExpiredRefs();
+    V created = null;
+    while (true) {
+      if (ref != null && (value = ref.get()) != null) {
+        return value;
+      }
+      if (created == null) {
+        created = factory.apply(key);
+      }
+      Ref<K, V> fresh = new Ref<>(key, created, this.expired);
+      if (ref == null ? this.cache.putIfAbsent(key, fresh) == null
+          : this.cache.replace(key, ref, fresh)) {
+        return created;
+      }
+      ref = this.cache.get(key);
+    }
+  }
+
+  /**
+   * gets the number of entries in the cache, which may include entries whose instances have
+   * expired but have not yet been cleared
+   *
+   * @return the number of entries
+   */
+  int size() {
+    return this.cache.size();
+  }
+
+  /** removes the entries whose references have been cleared by the garbage collector */
+  void clearExpiredRefs() {
+    Reference<? extends V> cleared;
+    while ((cleared = this.expired.poll()) != null) {
+      Ref<?, ?> ref = (Ref<?, ?>) cleared;
+      this.cache.remove(ref.key, ref);
+    }
+  }
+}
@@ -9,19 +9,34 @@ import java.util.Map.Entry;
  * softreferences)
  *
  * @author MR_Spagetty
+ * @deprecated the flyweights now use {@link SoftFlyweightCache}, which clears expired references
+ *     itself as they are collected rather than by scanning the whole cache
  */
+@Deprecated(forRemoval = true, since = "v2.1")
 public abstract class SoftFlyweightUtil {
   /**
    * clears elements from the given cache where the reference is expired
    *
    * @param <T> the type of the objects being stored in the cache
    * @param cache the cache to clear the references from
+   * @deprecated use a {@link SoftFlyweightCache}, see {@link #clearExpiredRefs(SoftFlyweightCache)}
    */
+  @Deprecated(forRemoval = true, since = "v2.1")
   static <T> void clearExpiredRefs(Map<String, SoftReference<T>> cache) {
     cache.entrySet().stream().toList().stream()
         .filter(e -> e.getValue().get() == null)
         .map(Entry::getKey)
         .forEach(cache::remove);
-    ;
+  }
+
+  /**
+   * clears elements from the given cache where the reference is expired
+   *
+   * @param cache the cache to clear the references from
+   * @deprecated call {@link SoftFlyweightCache#clearExpiredRefs()} directly
+   */
+  @Deprecated(forRemoval = true, since = "v2.1")
+  static void clearExpiredRefs(SoftFlyweightCache<?, ?> cache) {
+    cache.clearExpiredRefs();
   }
 }
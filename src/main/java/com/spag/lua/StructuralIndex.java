@@ -0,0 +1,156 @@
+package com.spag.lua;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * The positions of the structural characters of a serialized table, found in a single pass ahead
+ * of parsing in the style of simdjson's first stage
+ *
+ * <p>the index holds, in order, the offset of every brace, bracket, comma, semicolon and equals
+ * sign that is not inside a string, the opening quote of every string and the first character of
+ * every other value or name. a backslash escapes the character after it wherever it is, so an
+ * escaped quote never starts or ends a string. with the index the end of a nested table is found by
+ * counting the braces in the index rather than reading every character of the table
+ *
+ * <p>when the {@code jdk.incubator.vector} module is enabled (for example by running with
+ * {@code --add-modules jdk.incubator.vector}) the data is classified many characters at a time by
+ * {@link VectorStructuralScanner}, otherwise one character at a time by {@link #scan(CharSequence)},
+ * both give exactly the same index
+ *
+ * @author MR_Spagetty
+ */
+final class StructuralIndex {
+  /** whether the vector scanner is used */
+  static final boolean VECTORIZED = ModuleLayer.boot().findModule("jdk.incubator.vector")
+      .isPresent() && VectorStructuralScanner.isAccelerated();
+
+  private final CharSequence data;
+  private final int[] positions;
+  private final int size;
+
+  StructuralIndex(CharSequence data, int[] positions, int size) {
+    this.data = data;
+    this.positions = positions;
+    this.size = size;
+  }
+
+  /**
+   * indexes the given serialized data, with the vector scanner if it is available
+   *
+   * @param data the serialized data, must not change while the index is in use
+   * @return the index of the data
+   */
+  static StructuralIndex of(CharSequence data) {
+    Objects.requireNonNull(data, "Lua data may not be null");
+    return VECTORIZED ? VectorStructuralScanner.scan(data) : scan(data);
+  }
+
+  /**
+   * indexes the given serialized data one character at a time
+   *
+   * @param data the serialized data, must not change while the index is in use
+   * @return the index of the data
+   */
+  static StructuralIndex scan(CharSequence data) {
+    int[] positions = new int[initialCapacity(data.length())];
+    int size = 0;
+    boolean inString = false;
+    boolean escaped = false;
+    // the start of the data counts as following a separator
+    boolean separated = true;
+    for (int i = 0; i < data.length(); i++) {
+      char c = data.charAt(i);
+      boolean quote = false;
+      if (escaped) {
+        escaped = false;
+      } else if (c == '\\') {
+        escaped = true;
+      } else if (c == '"') {
+        quote = true;
+      }
+      boolean op = isOperator(c);
+      boolean structural;
+      if (quote) {
+        inString = !inString;
+        structural = inString;
+      } else {
+        structural = !inString && (op || c > ' ' && separated);
+      }
+      if (structural) {
+        if (size == positions.length) {
+          positions = grow(positions);
+        }
+        positions[size++] = i;
+      }
+      separated = op || c <= ' ';
+    }
+    return new StructuralIndex(data, positions, size);
+  }
+
+  /** the characters that separate the values of a table */
+  static boolean isOperator(char c) {
+    return switch (c) {
+      case '{', '}', '[', ']', ',', ';', '=' -> true;
+      default -> false;
+    };
+  }
+
+  static int initialCapacity(int length) {
+    return length / 8 + 16;
+  }
+
+  static int[] grow(int[] positions) {
+    return Arrays.copyOf(positions, positions.length + (positions.length >> 1) + 64);
+  }
+
+  /** the number of positions in the index */
+  int size() {
+    return this.size;
+  }
+
+  /** the offset in the data of the given entry of the index */
+  int position(int i) {
+    Objects.checkIndex(i, this.size);
+    return this.positions[i];
+  }
+
+  /**
+   * finds the entry for the given offset
+   *
+   * @return the entry or -1 if the character at the offset is not in the index
+   */
+  int find(int offset) {
+    int i = Arrays.binarySearch(this.positions, 0, this.size, offset);
+    return i < 0 ? -1 : i;
+  }
+
+  /**
+   * finds the end of the table starting at the given offset by counting braces in the index
+   *
+   * @param start the offset of the opening brace of the table
+   * @return the offset after the matching closing brace or -1 if there is none
+   */
+  int tableEnd(int start) {
+    int i = find(start);
+    if (i < 0) {
+      return -1;
+    }
+    int depth = 0;
+    for (; i < this.size; i++) {
+      char c = this.data.charAt(this.positions[i]);
+      if (c == '{') {
+        depth++;
+      } else if (c == '}' && --depth == 0) {
+        return this.positions[i] + 1;
+      }
+    }
+    return -1;
+  }
+
+  /** the positions in the index */
+  @Override
+  public String toString() {
+    return Arrays.toString(Arrays.copyOf(this.positions, this.size));
+  }
+}
@@ -0,0 +1,50 @@
+package com.spag.lua;
+
+/**
+ * A table used as a key in a java map, matched by its identity as tables are in lua rather than by
+ * its content
+ *
+ * <p>for maps that can not be told how to hash their keys such as {@link
+ * java.util.concurrent.ConcurrentHashMap}. other keys go in as they are so only table keys pay for
+ * the wrapper, and a table key keeps its place however its content changes
+ *
+ * @author MR_Spagetty
+ * @see HashPart
+ */
+final class TableKey {
+  private final LuaTableView table;
+
+  private TableKey(LuaTableView table) {
+    this.table = table;
+  }
+
+  /**
+   * the map key for a lua key
+   *
+   * @param key the lua key
+   * @return a wrapper for a table, otherwise the key itself
+   */
+  static Object of(LuaObject key) {
+    return key instanceof LuaTableView table ? new TableKey(table) : key;
+  }
+
+  /**
+   * the lua key for a map key made by {@link #of(LuaObject)}
+   *
+   * @param key the map key
+   * @return the lua key
+   */
+  static LuaObject unwrap(Object key) {
+    return key instanceof TableKey wrapper ? wrapper.table : (LuaObject) key;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return obj instanceof TableKey other && this.table == other.table;
+  }
+
+  @Override
+  public int hashCode() {
+    return System.identityHashCode(this.table);
+  }
+}
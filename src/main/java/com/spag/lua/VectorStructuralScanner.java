@@ -0,0 +1,126 @@
+package com.spag.lua;
+
+import java.util.Arrays;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Builds a {@link StructuralIndex} with the incubating vector API, only loaded when the
+ * {@code jdk.incubator.vector} module is enabled
+ *
+ * <p>the data is copied into a buffer and classified in blocks of 64 characters, each block is
+ * turned into bit masks of its quotes, backslashes, separators and whitespace with as many
+ * characters compared at once as the hardware allows (8 to 32). strings are then found for the
+ * whole block with bit tricks rather than a character at a time, as in simdjson: the escaped
+ * characters from the runs of backslashes, the characters inside strings from a prefix xor of the
+ * unescaped quotes. the state carried from one block to the next is just three bits
+ *
+ * @author MR_Spagetty
+ */
+final class VectorStructuralScanner {
+  private static final VectorSpecies<Short> SPECIES = ShortVector.SPECIES_PREFERRED;
+  private static final int BLOCK = 64;
+  private static final int BUFFER = BLOCK * 64;
+  private static final long EVEN_BITS = 0x5555_5555_5555_5555L;
+
+  private VectorStructuralScanner() {}
+
+  /** check if the hardware compares enough characters at once for the scanner to pay off */
+  static boolean isAccelerated() {
+    return SPECIES.length() >= 8;
+  }
+
+  /**
+   * indexes the given serialized data
+   *
+   * @param data the serialized data, must not change while the index is in use
+   * @return the index of the data, the same as {@link StructuralIndex#scan(CharSequence)} gives
+   */
+  static StructuralIndex scan(CharSequence data) {
+    int length = data.length();
+    int[] positions = new int[StructuralIndex.initialCapacity(length)];
+    int size = 0;
+    char[] buffer = new char[BUFFER];
+    long prevEscaped = 0;
+    long prevInString = 0;
+    // the start of the data counts as following a separator
+    long prevSeparated = 1;
+    for (int base = 0; base < length; base += BUFFER) {
+      int count = Math.min(BUFFER, length - base);
+      copy(data, base, base + count, buffer);
+      // pad the last block with whitespace, which is never structural
+      int padded = (count + BLOCK - 1) & -BLOCK;
+      Arrays.fill(buffer, count, padded, ' ');
+      for (int block = 0; block < padded; block += BLOCK) {
+        long quotes = 0;
+        long backslashes = 0;
+        long operators = 0;
+        long whitespace = 0;
+        for (int i = 0; i < BLOCK; i += SPECIES.length()) {
+          ShortVector v = ShortVector.fromCharArray(SPECIES, buffer, block + i);
+          quotes |= v.eq((short) '"').toLong() << i;
+          backslashes |= v.eq((short) '\\').toLong() << i;
+          VectorMask<Short> op = v.eq((short) '{').or(v.eq((short) '}'))
+              .or(v.eq((short) '[')).or(v.eq((short) ']'))
+              .or(v.eq((short) ',')).or(v.eq((short) ';')).or(v.eq((short) '='));
+          operators |= op.toLong() << i;
+          whitespace |= v.compare(VectorOperators.UNSIGNED_LE, (short) ' ').toLong() << i;
+        }
+
+        // a backslash escapes the next character, so only the odd positions of a run of them do
+        backslashes &= ~prevEscaped;
+        long followsEscape = (backslashes << 1) | prevEscaped;
+        long oddStarts = backslashes & ~EVEN_BITS & ~followsEscape;
+        long evenSequences = oddStarts + backslashes;
+        prevEscaped = Long.compareUnsigned(evenSequences, backslashes) < 0 ? 1 : 0;
+        long escaped = (EVEN_BITS ^ (evenSequences << 1)) & followsEscape;
+        quotes &= ~escaped;
+
+        // every character after an odd number of quotes is in a string, including opening quotes
+        long inString = prefixXor(quotes) ^ prevInString;
+        prevInString = inString >> 63;
+
+        long separators = operators | whitespace;
+        long separated = (separators << 1) | prevSeparated;
+        prevSeparated = separators >>> 63;
+        long starts = ~(separators | quotes) & separated;
+        long structural = (operators | starts) & ~inString | quotes & inString;
+
+        int offset = base + block;
+        if (size + BLOCK > positions.length) {
+          positions = StructuralIndex.grow(positions);
+        }
+        while (structural != 0) {
+          positions[size++] = offset + Long.numberOfTrailingZeros(structural);
+          structural &= structural - 1;
+        }
+      }
+    }
+    return new StructuralIndex(data, positions, size);
+  }
+
+  /** sets each bit to the xor of itself and every bit below it */
+  private static long prefixXor(long bits) {
+    bits ^= bits << 1;
+    bits ^= bits << 2;
+    bits ^= bits << 4;
+    bits ^= bits << 8;
+    bits ^= bits << 16;
+    bits ^= bits << 32;
+    return bits;
+  }
+
+  private static void copy(CharSequence data, int from, int to, char[] buffer) {
+    switch (data) {
+      case String string -> string.getChars(from, to, buffer, 0);
+      case StringBuilder builder -> builder.getChars(from, to, buffer, 0);
+      default -> {
+        for (int i = from; i < to; i++) {
+          buffer[i - from] = data.charAt(i);
+        }
+      }
+    }
+  }
+}
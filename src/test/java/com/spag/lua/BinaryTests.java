@@ -0,0 +1,140 @@
+package com.spag.lua;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import org.junit.jupiter.api.Test;
+import static com.spag.lua.Util.*;
+
+public class BinaryTests {
+  static final String sample = "{\"03/02/70 04:28:08\",nil,-5,1.5,12345678901234567890,"
+      + "id=\"1eb0a1e1-9a12-41e9-a297-76bd6485d70d\","
+      + "data={\"init\",hasDHD=false,dialed=\"[]\",status=\"idle\",name=\"Chülak\"},"
+      + "two={threee={4,math.huge}},[-1.25]=true,[\"with space\"]=\"status\"}";
+
+  @Test
+  void roundTrip() {
+    LuaTable table = LuaTable.fromString(sample);
+    ByteBuffer encoded = LuaBinary.encode(table);
+    assertEquals(encoded.remaining(), LuaBinary.encodedSize(table));
+    LuaTable decoded = LuaBinary.decodeTable(encoded);
+    assertEquals(table, decoded);
+    assertEquals(table.toString(), decoded.toString());
+    assertEquals(0, encoded.remaining());
+  }
+
+  @Test
+  void directBuffer() {
+    LuaTable table = LuaTable.fromString(sample);
+    ByteBuffer out = ByteBuffer.allocateDirect(LuaBinary.encodedSize(table) + 3);
+    out.put((byte) 1);
+    LuaBinary.encode(table, out);
+    out.flip().get();
+    assertEquals(table.toString(), LuaBinary.decode(out).toString());
+  }
+
+  @Test
+  void memorySegment() {
+    LuaTable table = LuaTable.fromString(sample);
+    try (Arena arena = Arena.ofConfined()) {
+      MemorySegment segment = arena.allocate(LuaBinary.encodedSize(table));
+      assertEquals(segment.byteSize(), LuaBinary.encode(table, segment));
+      assertEquals(table.toString(), LuaBinary.decode(segment).toString());
+    }
+  }
+
+  @Test
+  void repeatedStringsWrittenOnce() {
+    LuaTable table = new LuaTable();
+    for (int i = 0; i < 100; i++) {
+      LuaTable row = new LuaTable();
+      row.put(ls("status"), ls("idle and waiting for a connection"));
+      table.insert(row);
+    }
+    assertTrue(LuaBinary.encodedSize(table) < 100 * 8);
+    assertEquals(table, LuaBinary.decode(LuaBinary.encode(table)));
+
+    // a reference near the end to an entry further into the dictionary than bytes are left
+    LuaTable late = LuaTable.fromString("{\"a\",\"a\",\"b\",\"b\",\"c\",\"c\",\"d\",\"d\"}");
+    assertEquals(late, LuaBinary.decode(LuaBinary.encode(late)));
+  }
+
+  @Test
+  void rawBytesKept() {
+    byte[] raw = {0, (byte) 0x80, (byte) 0xFE, 'a'};
+    LuaTable table = new LuaTable();
+    table.put(LuaString.of(raw), LuaString.of(raw));
+    table.insert(LuaString.of(raw));
+    LuaTable back = LuaBinary.decodeTable(LuaBinary.encode(table));
+    assertEquals(table, back);
+    assertArrayEquals(raw, ((LuaString) back.get(ln(1))).bytes());
+    try (OffHeapLuaTable copy = OffHeapLuaTable.copyOf(table)) {
+      assertArrayEquals(raw, ((LuaString) copy.get(LuaString.of(raw))).bytes());
+      assertEquals(LuaObject.nil, copy.get(LuaString.of(new String(raw))));
+    }
+  }
+
+  @Test
+  void scalars() {
+    assertEquals(LuaObject.nil, LuaBinary.decode(LuaBinary.encode(LuaObject.nil)));
+    assertEquals(lb(true), LuaBinary.decode(LuaBinary.encode(lb(true))));
+    assertEquals(ln(Long.MIN_VALUE), LuaBinary.decode(LuaBinary.encode(ln(Long.MIN_VALUE))));
+    LuaNum decimal = LuaNum.of(new BigDecimal("-123.456"));
+    assertEquals(decimal, LuaBinary.decode(LuaBinary.encode(decimal)));
+  }
+
+  @Test
+  void deepNesting() {
+    LuaTable table = new LuaTable();
+    LuaTable inner = table;
+    for (int i = 0; i < 10_000; i++) {
+      LuaTable next = new LuaTable();
+      inner.insert(next);
+      LuaTable key = new LuaTable();
+      key.insert(ln(i));
+      inner.put(key, ls("key"));
+      inner = next;
+    }
+    inner.insert(ls("bottom"));
+    ByteBuffer encoded = LuaBinary.encode(table);
+    assertEquals(encoded.remaining(), LuaBinary.encodedSize(table));
+    LuaObject back = LuaBinary.decode(encoded);
+    for (int i = 0; i < 10_000; i++) {
+      LuaTable level = (LuaTable) back;
+      back = level.get(ln(1));
+      String key = "{" + i + "}";
+      level.forEachKeyed((k, v) -> assertEquals(key + "=\"key\"", k + "=" + v));
+    }
+    assertEquals(ls("bottom"), ((LuaTable) back).get(ln(1)));
+
+    LuaTable self = new LuaTable();
+    self.insert(self);
+    assertThrows(IllegalArgumentException.class, () -> LuaBinary.encode(self));
+  }
+
+  @Test
+  void trailingNilsDropped() {
+    LuaTable table = LuaTable.fromString("{1,{2},k=3}");
+    table.append(LuaObject.nil);
+    table.append(LuaObject.nil);
+    LuaTable decoded = LuaBinary.decodeTable(LuaBinary.encode(table));
+    assertEquals(2, decoded.size());
+    assertEquals(LuaTable.fromString(table.toString()), decoded);
+    assertEquals("{1,{2},k=3}", decoded.toString());
+  }
+
+  @Test
+  void invalid() {
+    assertThrows(IllegalArgumentException.class,
+        () -> LuaBinary.decode(ByteBuffer.wrap(new byte[] {'L', 'U', 'A'})));
+    ByteBuffer truncated = LuaBinary.encode(LuaTable.fromString(sample));
+    truncated.limit(truncated.limit() - 4);
+    assertThrows(IllegalArgumentException.class, () -> LuaBinary.decode(truncated));
+  }
+}
@@ -0,0 +1,89 @@
+package com.spag.lua;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import static com.spag.lua.Util.*;
+
+public class CacheTests {
+  static final String sample = "{\"init\",hasDHD=false,x={y={1,nil,3}},name=\"Chulak\"}";
+
+  @Test
+  void hitsShareTheTable() {
+    LuaParseCache cache = new LuaParseCache(10, 1000);
+    ReadOnlyLuaTable first = cache.parse(sample);
+    ReadOnlyLuaTable second = cache.parse(new StringBuilder(sample));
+    assertSame(first, second);
+    assertEquals(LuaTable.fromString(sample).toString(), first.toString());
+    assertEquals(new LuaParseCache.Stats(1, 1, 0, 0), cache.stats());
+    assertEquals(0.5, cache.stats().hitRate());
+    assertEquals(1, cache.size());
+    assertEquals(sample.length(), cache.weight());
+
+    assertThrows(IllegalArgumentException.class, () -> cache.parse("{1 2}"));
+    assertEquals(1, cache.size());
+    cache.clear();
+    assertEquals(0, cache.weight());
+    assertNotSame(first, cache.parse(sample));
+  }
+
+  @Test
+  void readOnlyViews() {
+    ReadOnlyLuaTable table = new LuaParseCache(10, 1000).parse(sample);
+    ReadOnlyLuaTable x = assertInstanceOf(ReadOnlyLuaTable.class, table.get(ls("x")));
+    LuaTableView y = (LuaTableView) x.get(ls("y"));
+    assertEquals(3, y.size());
+    table.pairs((k, v) -> assertTrue(!(v instanceof MutableLuaTable)));
+
+    LuaTable copy = table.toTable();
+    assertEquals(LuaTable.fromString(sample), copy);
+    LuaTable copiedY = (LuaTable) ((LuaTable) copy.get(ls("x"))).get(ls("y"));
+    copiedY.put(ln(2), ln(2));
+    assertEquals(ln(2), copiedY.get(ln(2)));
+    assertEquals(LuaObject.nil, y.get(ln(2)));
+  }
+
+  @Test
+  void limits() {
+    LuaParseCache bySize = new LuaParseCache(3, 1000);
+    for (int i = 0; i < 10; i++) {
+      bySize.parse("{" + i + "}");
+    }
+    assertEquals(3, bySize.size());
+    assertEquals(7, bySize.stats().evictions());
+
+    LuaParseCache byWeight = new LuaParseCache(100, 20);
+    byWeight.parse("{\"0123456789\"}");
+    byWeight.parse("{\"abcdefghij\"}");
+    assertEquals(1, byWeight.size());
+    assertEquals(14, byWeight.stats().evictedWeight());
+    byWeight.parse("{\"this is longer than the whole cache\"}");
+    assertEquals(1, byWeight.size());
+
+    assertThrows(IllegalArgumentException.class, () -> new LuaParseCache(0, 10));
+  }
+
+  @Test
+  void frequentPayloadsStay() {
+    LuaParseCache cache = new LuaParseCache(100, 100_000);
+    for (int round = 0; round < 5; round++) {
+      for (int i = 0; i < 50; i++) {
+        cache.parse("{hot=" + i + "}");
+      }
+    }
+    // a scan of payloads seen only once does not push out the ones that keep coming back
+    for (int i = 0; i < 500; i++) {
+      cache.parse("{cold=" + i + "}");
+    }
+    long hits = cache.stats().hits();
+    for (int i = 0; i < 50; i++) {
+      cache.parse("{hot=" + i + "}");
+    }
+    assertEquals(hits + 50, cache.stats().hits());
+  }
+}
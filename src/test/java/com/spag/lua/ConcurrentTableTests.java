@@ -0,0 +1,152 @@
+package com.spag.lua;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntConsumer;
+import org.junit.jupiter.api.Test;
+import static com.spag.lua.Util.*;
+
+public class ConcurrentTableTests {
+  private static void runAll(int threads, IntConsumer task)
+      throws InterruptedException {
+    List<Thread> workers = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      int id = t;
+      Thread worker = new Thread(() -> task.accept(id));
+      workers.add(worker);
+      worker.start();
+    }
+    for (Thread worker : workers) {
+      worker.join();
+    }
+  }
+
+  @Test
+  void behavesLikeLuaTable() {
+    LuaTable data = LuaTable.fromString("{1,2,nil,4,a=\"b\",[10]=10,[1.5]=true}");
+    ConcurrentLuaTable table = new ConcurrentLuaTable(data);
+    assertEquals(data, table.snapshot());
+    assertEquals(4, table.size());
+    assertEquals(ln(10), table.get(ln(10)));
+    table.put(ln(3), ln(3));
+    table.put(ln(4), LuaObject.nil);
+    assertEquals(LuaObject.nil, table.get(ln(4)));
+    assertEquals(3, table.size());
+    table.insert(ln(1), ln(0));
+    assertEquals(ln(0), table.get(ln(1)));
+    assertEquals(ln(3), table.get(ln(4)));
+    assertThrows(IllegalArgumentException.class, () -> table.put(LuaObject.nil, ln(1)));
+    assertThrows(IndexOutOfBoundsException.class, () -> table.insert(ln(7), ln(1)));
+  }
+
+  @Test
+  void concurrentInsert() throws InterruptedException {
+    ConcurrentLuaTable table = new ConcurrentLuaTable();
+    runAll(8, id -> {
+      for (int i = 0; i < 10_000; i++) {
+        table.insert(ln(id));
+      }
+    });
+    assertEquals(80_000, table.size());
+    int[] counts = new int[8];
+    table.ipairs((i, v) -> counts[(int) ((LuaNum) v).longValue()]++);
+    for (int count : counts) {
+      assertEquals(10_000, count);
+    }
+  }
+
+  @Test
+  void concurrentPut() throws InterruptedException {
+    ConcurrentLuaTable table = new ConcurrentLuaTable();
+    runAll(8, id -> {
+      for (int i = 0; i < 5_000; i++) {
+        table.put(ls("k" + id + "_" + i), ln(i));
+        table.put(ln(id * 5_000 + i + 1), ln(i));
+      }
+    });
+    assertEquals(40_000, table.size());
+    int[] keyed = new int[1];
+    table.pairs((k, v) -> keyed[0]++);
+    assertEquals(80_000, keyed[0]);
+  }
+
+  @Test
+  void concurrentMerge() throws InterruptedException {
+    LuaTable part = LuaTable.fromString("{1,2,3,4,5}");
+    ConcurrentLuaTable a = new ConcurrentLuaTable();
+    ConcurrentLuaTable b = new ConcurrentLuaTable(part);
+    runAll(8, id -> {
+      if (id % 2 == 0) {
+        for (int i = 0; i < 200; i++) {
+          a.merge(part);
+          a.put(ls("a" + id), ln(i));
+        }
+      } else {
+        for (int i = 0; i < 5; i++) {
+          b.merge(a);
+        }
+      }
+    });
+    assertEquals(4 * 200 * 5, a.size());
+    assertEquals(0, b.size() % 5);
+    b.ipairs((i, v) -> assertEquals(ln((i.longValue() - 1) % 5 + 1), v));
+  }
+
+  @Test
+  void luaTableMergeKeepsEveryKey() {
+    LuaTable a = new LuaTable();
+    LuaTable b = new LuaTable();
+    for (int i = 0; i < 100_000; i++) {
+      b.put(ls("key" + i), ln(i));
+    }
+    a.merge(b);
+    assertEquals(b, a);
+    assertEquals(b, new LuaTable().merge(new ConcurrentLuaTable(b)));
+  }
+
+  @Test
+  void skippedIndexesComeFromTheHashPart() {
+    ConcurrentLuaTable table = new ConcurrentLuaTable();
+    table.put(ln(3), ls("c"));
+    table.put(ln(1), ls("a"));
+    table.put(ln(4), ls("d"));
+    assertEquals(ls("c"), table.get(ln(3)));
+    List<LuaObject> keys = new ArrayList<>();
+    table.pairs((k, v) -> keys.add(k));
+    assertEquals(List.of(ln(1), ln(3), ln(4)), keys);
+    assertEquals("{\"a\",nil,\"c\",\"d\"}", table.toString());
+  }
+
+  @Test
+  void tableKeys() {
+    ConcurrentLuaTable table = new ConcurrentLuaTable();
+    LuaTable first = new LuaTable();
+    LuaTable second = new LuaTable();
+    table.put(first, ln(1));
+    table.put(second, ln(2));
+    first.insert(ln(3));
+    assertEquals(ln(1), table.get(first));
+    assertEquals(ln(2), table.get(second));
+    assertEquals(LuaObject.nil, table.get(new LuaTable()));
+    LuaTable copy = table.snapshot();
+    assertEquals(ln(1), copy.get(first));
+    assertEquals(ln(2), copy.get(second));
+    table.put(first, LuaObject.nil);
+    assertEquals(LuaObject.nil, table.get(first));
+    assertEquals(ln(2), table.get(second));
+  }
+
+  @Test
+  void mergeOverSparseIndex() {
+    ConcurrentLuaTable table = new ConcurrentLuaTable(LuaTable.fromString("{1,[5]=5}"));
+    table.merge(LuaTable.fromString("{2,3,4,\"x\"}"));
+    List<LuaObject> keys = new ArrayList<>();
+    table.pairs((k, v) -> keys.add(k));
+    assertEquals(List.of(ln(1), ln(2), ln(3), ln(4), ln(5)), keys);
+    assertEquals(ls("x"), table.get(ln(5)));
+    assertEquals("{1,2,3,4,\"x\"}", table.toString());
+  }
+}
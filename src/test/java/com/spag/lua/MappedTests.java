@@ -0,0 +1,124 @@
+package com.spag.lua;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static com.spag.lua.Util.*;
+
+public class MappedTests {
+  @TempDir
+  Path dir;
+
+  @Test
+  void readAndReopen() throws IOException {
+    Path file = this.dir.resolve("table.lua");
+    Files.writeString(file, OffHeapTests.sample, StandardCharsets.UTF_8);
+    LuaTable expected = LuaTable.fromString(OffHeapTests.sample);
+    try (MappedLuaTable table = MappedLuaTable.open(file)) {
+      assertEquals(expected.size(), table.size());
+      assertEquals(ls("Chülak"), table.get(ls("name")));
+      assertEquals(ls("sparse"), table.get(ln(100)));
+      assertEquals(expected, table.toTable());
+    }
+    Path index = this.dir.resolve("table.lua.idx");
+    assertTrue(Files.exists(index));
+    FileTime written = Files.getLastModifiedTime(index);
+    try (MappedLuaTable table = MappedLuaTable.open(file)) {
+      assertEquals(written, Files.getLastModifiedTime(index));
+      assertEquals(ln(1), table.get(lb(true)));
+      LuaTableView x = (LuaTableView) table.get(ls("x"));
+      assertEquals(ls("deep"), ((LuaTableView) x.get(ls("y"))).get(ls("z")));
+      assertEquals(expected.toString(), table.toString());
+    }
+  }
+
+  @Test
+  void largeNestedTablesAreIndexed() throws IOException {
+    LuaTable big = new LuaTable();
+    for (int i = 0; i < MappedLuaTable.NESTED_INDEX_SIZE / 4; i++) {
+      big.insert(ln(i));
+    }
+    big.put(ls("last"), ls("end"));
+    LuaTable outer = new LuaTable();
+    outer.put(ls("big"), big);
+    outer.put(ls("small"), LuaTable.fromString("{1,2}"));
+    Path file = this.dir.resolve("big.lua");
+    Files.writeString(file, outer.toString());
+    MappedLuaTable.open(file).close();
+    long indexSize = Files.size(this.dir.resolve("big.lua.idx"));
+    assertTrue(indexSize > big.size() * 17L, "the big table should be in the index");
+    try (MappedLuaTable table = MappedLuaTable.open(file)) {
+      LuaTableView nested = assertInstanceOf(LazyLuaTable.class, table.get(ls("big")));
+      assertEquals(ls("end"), nested.get(ls("last")));
+      assertEquals(ln(41), nested.get(ln(42)));
+      assertEquals(big.size(), nested.size());
+      assertEquals(outer, table.toTable());
+    }
+  }
+
+  @Test
+  void staleIndexIsRebuilt() throws IOException {
+    Path file = this.dir.resolve("table.lua");
+    Path index = this.dir.resolve("custom.idx");
+    Files.writeString(file, "{1,2,3}");
+    MappedLuaTable.open(file, index).close();
+    byte[] first = Files.readAllBytes(index);
+    Files.writeString(file, "{a=\"b\",1}");
+    Files.setLastModifiedTime(file, FileTime.fromMillis(0));
+    try (MappedLuaTable table = MappedLuaTable.open(file, index)) {
+      assertEquals(ls("b"), table.get(ls("a")));
+      assertEquals(1, table.size());
+    }
+    assertNotEquals(first.length, Files.readAllBytes(index).length);
+    Files.write(index, new byte[] {'L', 'U', 'A', 'I', 1, 0});
+    try (MappedLuaTable table = MappedLuaTable.open(file, index)) {
+      assertEquals(ln(1), table.get(ln(1)));
+    }
+  }
+
+  @Test
+  void rewriteKeepingSizeAndTime() throws IOException {
+    Path file = this.dir.resolve("table.lua");
+    Files.writeString(file, "{1,2,3}");
+    MappedLuaTable.open(file).close();
+    FileTime modified = Files.getLastModifiedTime(file);
+    Files.writeString(file, "{a=1,2}");
+    Files.setLastModifiedTime(file, modified);
+    try (MappedLuaTable table = MappedLuaTable.open(file)) {
+      assertEquals(ln(1), table.get(ls("a")));
+      assertEquals(1, table.size());
+    }
+  }
+
+  @Test
+  void indexNotWritable() throws IOException {
+    Path file = this.dir.resolve("table.lua");
+    Files.writeString(file, "{1,a=2}");
+    Path index = this.dir.resolve("missing").resolve("table.idx");
+    try (MappedLuaTable table = MappedLuaTable.open(file, index)) {
+      assertEquals(ln(2), table.get(ls("a")));
+    }
+    assertTrue(Files.notExists(index.getParent()));
+  }
+
+  @Test
+  void closed() throws IOException {
+    Path file = this.dir.resolve("table.lua");
+    Files.writeString(file, "{\"a\",\"b\"}");
+    MappedLuaTable table = MappedLuaTable.open(file);
+    table.close();
+    assertThrows(IllegalStateException.class, () -> table.get(ln(1)));
+    assertThrows(IllegalArgumentException.class,
+        () -> MappedLuaTable.open(Files.writeString(this.dir.resolve("bad.lua"), "{1,")));
+  }
+}
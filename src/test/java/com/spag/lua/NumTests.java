@@ -0,0 +1,102 @@
+package com.spag.lua;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import org.junit.jupiter.api.Test;
+import static com.spag.lua.Util.*;
+
+public class NumTests {
+  @Test
+  void subtypes() {
+    assertFalse(ln("123").isFloat());
+    assertTrue(ln("1.23").isFloat());
+    assertTrue(ln("1.0").isFloat());
+    assertTrue(ln("1.0").isInteger());
+    assertFalse(ln("1.5").isInteger());
+    assertFalse(LuaNum.of(Double.NaN).isInteger());
+  }
+
+  @Test
+  void smallIntegersPreallocated() {
+    assertSame(LuaNum.of(7), LuaNum.of("7"));
+    assertSame(LuaNum.of(1024), ln(1024));
+    assertSame(LuaNum.of(-128L), ln(-128));
+  }
+
+  @Test
+  void flyweight() {
+    assertSame(LuaNum.of(123456789L), LuaNum.of("123456789"));
+    assertSame(LuaNum.of(1.25), LuaNum.of("1.25"));
+  }
+
+  @Test
+  void equalAcrossSubtypes() {
+    assertEquals(LuaNum.of(1), LuaNum.of(1.0));
+    assertEquals(LuaNum.of(1).hashCode(), LuaNum.of(1.0).hashCode());
+    assertEquals(LuaNum.of(1.5), LuaNum.of(new BigDecimal("1.50")));
+    assertEquals(LuaNum.of(1.5).hashCode(), LuaNum.of(new BigDecimal("1.50")).hashCode());
+    assertEquals(LuaNum.of(0.0), LuaNum.of(-0.0));
+    assertNotEquals(LuaNum.of(Long.MAX_VALUE), LuaNum.of((double) Long.MAX_VALUE));
+    assertTrue(LuaNum.of(2).compareTo(LuaNum.of(2.5)) < 0);
+    assertTrue(LuaNum.of(3).compareTo(LuaNum.of(2.5)) > 0);
+    // floats compare by their exact value, as they are hashed
+    assertNotEquals(LuaNum.of(0.1), LuaNum.of(new BigDecimal("0.1")));
+    assertNotEquals(0, LuaNum.of(0.1).compareTo(LuaNum.of(new BigDecimal("0.1"))));
+    assertEquals(0, LuaNum.of(0.5).compareTo(LuaNum.of(new BigDecimal("0.50"))));
+  }
+
+  @Test
+  void boxedFloats() {
+    assertEquals(LuaNum.of(1.5), LuaNum.of((Object) 1.5f));
+    assertEquals("0/0", LuaNum.of((Object) Float.NaN).toString());
+    assertEquals("math.huge", LuaNum.of((Object) Float.POSITIVE_INFINITY).toString());
+    assertEquals("-math.huge", LuaNum.of((Object) Float.NEGATIVE_INFINITY).toString());
+  }
+
+  @Test
+  void toStrings() {
+    assertEquals("123", ln("123").toString());
+    assertEquals("-1.23", ln("-1.23").toString());
+    assertEquals("2.0", LuaNum.of(2.0).toString());
+    assertEquals("math.huge", LuaNum.of(Double.POSITIVE_INFINITY).toString());
+    assertEquals("-math.huge", LuaNum.of(Double.NEGATIVE_INFINITY).toString());
+    assertEquals("0/0", LuaNum.of(Double.NaN).toString());
+    assertEquals("12345678901234567890", ln("12345678901234567890").toString());
+    assertEquals("0.12345678901234567890", ln("0.12345678901234567890").toString());
+  }
+
+  @Test
+  void specialValuesRoundTrip() {
+    String data = "{math.huge,-math.huge,0/0,-1.5e-7}";
+    LuaTable table = LuaTable.fromString(data);
+    assertEquals(Double.POSITIVE_INFINITY, ((LuaNum) table.get(ln(1))).doubleValue());
+    assertEquals(Double.NEGATIVE_INFINITY, ((LuaNum) table.get(ln(2))).doubleValue());
+    assertTrue(Double.isNaN(((LuaNum) table.get(ln(3))).doubleValue()));
+    assertEquals(LuaTable.fromString(table.toString()).toString(), table.toString());
+  }
+
+  @Test
+  void floatKeysNormalized() {
+    LuaTable table = new LuaTable();
+    table.put(LuaNum.of(1.0), ls("one"));
+    table.put(LuaNum.of(-2.0), ls("minus two"));
+    assertEquals(ls("one"), table.get(ln(1)));
+    assertEquals(ls("minus two"), table.get(ln(-2)));
+    assertEquals("{\"one\",[-2]=\"minus two\"}", table.toString());
+    assertThrows(IllegalArgumentException.class,
+        () -> table.put(LuaNum.of(Double.NaN), ls("nan")));
+  }
+
+  @Test
+  void invalid() {
+    assertThrows(NumberFormatException.class, () -> ln("12a"));
+    assertThrows(NumberFormatException.class, () -> ln("-"));
+    assertThrows(NumberFormatException.class, () -> ln("NaN"));
+  }
+}
@@ -0,0 +1,83 @@
+package com.spag.lua;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.lang.foreign.Arena;
+import java.math.BigDecimal;
+import org.junit.jupiter.api.Test;
+import static com.spag.lua.Util.*;
+
+public class OffHeapTests {
+  static final String sample = "{\"init\",nil,3,hasDHD=false,dialed=\"[]\",[5]={1,2.5,{}},"
+      + "name=\"Chülak\",[true]=1,[1.5]=-math.huge,[100]=\"sparse\",x={y={z=\"deep\"}}}";
+
+  @Test
+  void roundTrip() {
+    LuaTable table = LuaTable.fromString(sample);
+    table.put(ls("exact"), LuaNum.of(new BigDecimal("0.12345678901234567890")));
+    try (OffHeapLuaTable copy = OffHeapLuaTable.copyOf(table)) {
+      assertEquals(table, copy.toTable());
+      assertEquals(table.toString(), copy.toString());
+      assertEquals(table.size(), copy.size());
+    }
+  }
+
+  @Test
+  void get() {
+    try (OffHeapLuaTable copy = OffHeapLuaTable.copyOf(LuaTable.fromString(sample))) {
+      assertEquals(ls("init"), copy.get(ln(1)));
+      assertEquals(LuaObject.nil, copy.get(ln(2)));
+      assertEquals(ln(3), copy.get(LuaNum.of(3.0)));
+      assertEquals(ls("Chülak"), copy.get(ls("name")));
+      assertEquals(ls("sparse"), copy.get(ln(100)));
+      assertEquals(ln(1), copy.get(lb(true)));
+      assertEquals(LuaNum.of(Double.NEGATIVE_INFINITY), copy.get(ln(1.5)));
+      assertEquals(LuaObject.nil, copy.get(ls("nam")));
+      assertEquals(LuaObject.nil, copy.get(ls("missing")));
+      LuaTableView x = (LuaTableView) copy.get(ls("x"));
+      assertEquals(ls("deep"), ((LuaTableView) x.get(ls("y"))).get(ls("z")));
+      int[] steps = {0};
+      copy.ipairs((i, v) -> steps[0]++);
+      assertEquals(1, steps[0]);
+    }
+  }
+
+  @Test
+  void tableKeys() {
+    LuaTable key = LuaTable.fromString("{1}");
+    LuaTable table = LuaTable.fromString("{k={[{3,{4}}]=5}}");
+    table.put(key, ln(2));
+    try (OffHeapLuaTable copy = OffHeapLuaTable.copyOf(table)) {
+      assertEquals(table.toString(), copy.toString());
+      assertEquals(LuaObject.nil, copy.get(key));
+      copy.pairs((k, v) -> {
+        if (k instanceof LuaTableView copied) {
+          assertEquals(ln(1), copied.get(ln(1)));
+          assertEquals(ln(2), v);
+        }
+      });
+    }
+  }
+
+  @Test
+  void sharedAndFreed() {
+    LuaTable shared = LuaTable.fromString("{1,2,3}");
+    LuaTable table = new LuaTable();
+    table.insert(shared);
+    table.insert(shared);
+    table.insert(table);
+    OffHeapLuaTable copy;
+    try (Arena arena = Arena.ofConfined()) {
+      copy = OffHeapLuaTable.copyOf(table, arena);
+      assertEquals(ln(3), ((LuaTableView) copy.get(ln(2))).get(ln(3)));
+      LuaTableView self = (LuaTableView) copy.get(ln(3));
+      assertEquals(ln(2), ((LuaTableView) self.get(ln(1))).get(ln(2)));
+      LuaTable back = copy.toTable();
+      assertSame(back, back.get(ln(3)));
+      assertSame(back.get(ln(1)), back.get(ln(2)));
+    }
+    assertThrows(IllegalStateException.class, () -> copy.get(ln(1)));
+  }
+}
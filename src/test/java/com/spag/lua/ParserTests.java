@@ -0,0 +1,299 @@
+package com.spag.lua;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.api.Test;
+import static com.spag.lua.Util.*;
+
+public class ParserTests {
+  static final String sample = "{\"init\",hasDHD=false,dialed=\"[]\",[5]={1,2,{}},name=\"Chulak\"}";
+
+  @Test
+  void deepNesting() {
+    int depth = 10_000;
+    String data = "{".repeat(depth) + "}".repeat(depth);
+    LuaTable table = LuaTable.fromString(data);
+    for (int i = 1; i < depth; i++) {
+      table = (LuaTable) table.get(ln(1));
+    }
+    assertEquals("{}", table.toString());
+  }
+
+  @Test
+  void reader() throws IOException {
+    assertEquals(sample, LuaTable.read(new StringReader(sample)).toString());
+  }
+
+  @Test
+  void channel() throws IOException {
+    String data = "{\"héllo wörld\",[\"ключ\"]=1}";
+    var channel = Channels.newChannel(
+        new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8)));
+    LuaTable table = LuaTable.read(channel);
+    assertEquals(ls("héllo wörld"), table.get(ln(1)));
+    assertEquals(ln(1), table.get(ls("ключ")));
+  }
+
+  @Test
+  void charSequence() {
+    assertEquals(sample, LuaTable.fromString(new StringBuilder(sample)).toString());
+  }
+
+  @Test
+  void escapedQuote() {
+    LuaTable table = LuaTable.fromString("{\"a\\\"b\",\"c\\\\\"}");
+    assertEquals(ls("a\\\"b"), table.get(ln(1)));
+    assertEquals(ls("c\\\\"), table.get(ln(2)));
+  }
+
+  @Test
+  void whitespaceAndSeparators() {
+    LuaTable table = LuaTable.fromString("  {\n\t1 ; 2,\r\n a = { } ,\n}  ");
+    assertEquals("{1,2,a={}}", table.toString());
+  }
+
+  @Test
+  void tableKey() {
+    LuaTable table = LuaTable.fromString("{[{1}]=2}");
+    assertEquals("{[{1}]=2}", table.toString());
+  }
+
+  @Test
+  void invalid() {
+    assertThrows(IllegalArgumentException.class, () -> LuaTable.fromString("{1,2"));
+    assertThrows(IllegalArgumentException.class, () -> LuaTable.fromString("{1 2}"));
+    assertThrows(IllegalArgumentException.class, () -> LuaTable.fromString("{\"abc}"));
+    assertThrows(IllegalArgumentException.class, () -> LuaTable.fromString("{a=}"));
+    assertThrows(IllegalArgumentException.class, () -> LuaTable.fromString("{}}"));
+    assertThrows(IllegalArgumentException.class, () -> LuaTable.fromString("{foo}"));
+    assertThrows(IllegalArgumentException.class, () -> LuaTable.fromString("1"));
+  }
+
+  @Test
+  void lazy() {
+    String data = "{1,nil,\"a\\\"}\",x={y={z=\"deep\"}},[\"k k\"]=-math.huge,[20]=0/0,broken={foo}}";
+    LazyLuaTable table = LuaTable.lazy(data);
+    LuaTable eager = LuaTable.fromString(data.replace("{foo}", "{}"));
+    assertEquals(eager.size(), table.size());
+    assertEquals(ln(1), table.get(ln(1)));
+    assertEquals(ls("a\\\"}"), table.get(ln(3)));
+    LuaTableView x = (LuaTableView) table.get(ls("x"));
+    assertEquals(ls("deep"), ((LuaTableView) x.get(ls("y"))).get(ls("z")));
+    assertEquals(eager.get(ls("k k")), table.get(ls("k k")));
+    assertEquals(LuaObject.nil, table.get(ls("missing")));
+    LuaTableView broken = (LuaTableView) table.get(ls("broken"));
+    assertThrows(IllegalArgumentException.class, () -> broken.get(ln(1)));
+    assertEquals(sample, LuaTable.lazy(sample).toString());
+    assertEquals(LuaTable.fromString(sample), LuaTable.lazy(sample).toTable());
+  }
+
+  @Test
+  void lazyInvalid() {
+    assertThrows(IllegalArgumentException.class, () -> LuaTable.lazy("{1,2"));
+    assertThrows(IllegalArgumentException.class, () -> LuaTable.lazy("{1 2}"));
+    assertThrows(IllegalArgumentException.class, () -> LuaTable.lazy("{\"abc}"));
+    assertThrows(IllegalArgumentException.class, () -> LuaTable.lazy("{a=}"));
+    assertThrows(IllegalArgumentException.class, () -> LuaTable.lazy("{}}"));
+    assertThrows(IllegalArgumentException.class, () -> LuaTable.lazy("{true=1}"));
+  }
+
+  @Test
+  void parallel() {
+    StringBuilder out = new StringBuilder("{");
+    for (int i = 0; i < 20_000; i++) {
+      out.append("{id=").append(i).append(",name=\"n").append(i).append("\",tags={1,2,3}},");
+      if (i % 5000 == 0) {
+        // repeated keys and keys that land in the array part
+        out.append("[").append(i / 5000 + 1).append("]=\"k\",x=").append(i).append(',');
+      }
+    }
+    out.append("big={").append("{1,2,3},".repeat(20_000)).append("},nil,true,\"end\"}");
+    String data = out.toString();
+    LuaTable sequential = LuaTable.fromString(data);
+    try (ForkJoinPool pool = new ForkJoinPool(4)) {
+      LuaTable parallel = LuaTable.fromStringParallel(data, pool);
+      assertEquals(sequential, parallel);
+      assertEquals(sequential.size(), parallel.size());
+      assertEquals(sequential.toString(), parallel.toString());
+    }
+    assertEquals(LuaTable.fromString(sample), LuaTable.fromStringParallel(sample));
+    String invalid = data.replace("big={{1,2,3}", "big={{1 2,3}");
+    assertThrows(IllegalArgumentException.class, () -> LuaTable.fromStringParallel(invalid));
+  }
+
+  @Test
+  void structuralIndex() {
+    String data = "{a=1, [\"b{\"]={2;\"x\\\"}\"}, nil,c=\"\\\\\"}";
+    StructuralIndex index = StructuralIndex.scan(data);
+    assertEquals("[0, 1, 2, 3, 4, 6, 7, 11, 12, 13, 14, 15, 16, 22, 23, 25, 28, 29, 30, 31, 35]",
+        index.toString());
+    assertEquals(data.length(), index.tableEnd(0));
+    assertEquals(23, index.tableEnd(13));
+    assertEquals(-1, index.tableEnd(8));
+    assertEquals(-1, StructuralIndex.scan("{{}").tableEnd(0));
+
+    String big = LuaTable.fromString(sample).toString().repeat(500);
+    assertEquals(StructuralIndex.scan(big).toString(), StructuralIndex.of(big).toString());
+
+    if (!StructuralIndex.VECTORIZED) {
+      return;
+    }
+    // the vector scanner must agree with the scalar one across block boundaries
+    Random random = new Random(7);
+    char[] alphabet = "\"\\{}[],;= \n\tab1é".toCharArray();
+    for (int round = 0; round < 200; round++) {
+      char[] chars = new char[random.nextInt(300)];
+      for (int i = 0; i < chars.length; i++) {
+        chars[i] = alphabet[random.nextInt(round % 2 == 0 ? alphabet.length : 4)];
+      }
+      String text = new String(chars);
+      assertEquals(StructuralIndex.scan(text).toString(),
+          VectorStructuralScanner.scan(text).toString(), text);
+      assertEquals(StructuralIndex.scan(text).toString(),
+          VectorStructuralScanner.scan(new StringBuilder(text)).toString(), text);
+    }
+  }
+
+  @Test
+  void push() {
+    String data = "{\"ini\\\"t\",nil,3,hasDHD=false, dialed = \"[]\",[5]={1,2.5e-3,{}},"
+        + "name=\"Chülak\",[true]=1,[1.5]=-math.huge,[\"ключ\"]=math.huge;x={y={z=0/0}}}";
+    LuaTable expected = LuaTable.fromString(data);
+    byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+    for (int chunk = 1; chunk <= 8; chunk++) {
+      LuaPushParser chars = new LuaPushParser();
+      LuaPushParser utf8 = new LuaPushParser();
+      for (int i = 0; i < data.length(); i += chunk) {
+        chars.feed(data.substring(i, Math.min(data.length(), i + chunk)));
+      }
+      for (int i = 0; i < bytes.length; i += chunk) {
+        utf8.feed(ByteBuffer.wrap(bytes, i, Math.min(chunk, bytes.length - i)));
+      }
+      assertEquals(expected.toString(), chars.complete().toString());
+      assertEquals(expected.toString(), utf8.complete().toString());
+    }
+  }
+
+  @Test
+  void pushEvents() {
+    List<String> seen = new ArrayList<>();
+    LuaPushParser parser = new LuaPushParser((k, v) -> seen.add(k + "=" + v));
+    parser.feed("{\"a\",nil,b=");
+    assertEquals(List.of("1=\"a\""), seen);
+    assertEquals(ls("a"), parser.partial().get(ln(1)));
+    parser.feed("{1,2");
+    assertEquals(1, seen.size());
+    parser.feed("},true}");
+    assertEquals(List.of("1=\"a\"", "\"b\"={1,2}", "3=true"), seen);
+    assertEquals(LuaTable.fromString("{\"a\",nil,b={1,2},true}"), parser.complete());
+  }
+
+  @Test
+  void pushInvalid() {
+    for (String data : List.of("{1,2", "{1 2}", "{\"abc}", "{a=}", "{}}", "{true=1}", "1",
+        "{[1]}", "{foo}", "{1.2.3}", "", "{x=1 y=2}")) {
+      assertThrows(IllegalArgumentException.class, () -> new LuaPushParser().feed(data).complete(),
+          data);
+    }
+    LuaPushParser parser = new LuaPushParser();
+    parser.feed(ByteBuffer.wrap(new byte[] {'{', '"', (byte) 0xC3}));
+    assertThrows(IllegalArgumentException.class, parser::complete);
+  }
+
+  @Test
+  void events() {
+    List<String> events = new ArrayList<>();
+    LuaTableReader.read("{\"a\",b=2,[3.5]={nil,true},[{}]=-1.5e300,12345678901234567890}",
+        new LuaTableVisitor() {
+          @Override
+          public void startTable() {
+            events.add("{");
+          }
+
+          @Override
+          public void endTable() {
+            events.add("}");
+          }
+
+          @Override
+          public void key() {
+            events.add("key");
+          }
+
+          @Override
+          public void nil() {
+            events.add("nil");
+          }
+
+          @Override
+          public void value(boolean value) {
+            events.add("bool " + value);
+          }
+
+          @Override
+          public void value(long value) {
+            events.add("long " + value);
+          }
+
+          @Override
+          public void value(double value) {
+            events.add("double " + value);
+          }
+
+          @Override
+          public void value(CharSequence value) {
+            events.add("string " + value);
+          }
+
+          @Override
+          public void value(LuaObject value) {
+            events.add("object " + value);
+          }
+        });
+    assertEquals(List.of("{", "string a", "key", "string b", "long 2", "key", "double 3.5", "{",
+        "nil", "bool true", "}", "key", "{", "}", "double -1.5E300", "object 12345678901234567890",
+        "}"), events);
+  }
+
+  @Test
+  void aggregate() throws IOException {
+    StringBuilder data = new StringBuilder("{");
+    for (int i = 0; i < 1000; i++) {
+      data.append("{id=").append(i).append(",load=").append(i % 10).append(".5},");
+    }
+    data.append('}');
+    double[] total = {0};
+    LuaTableVisitor sum = new LuaTableVisitor() {
+      @Override
+      public void value(double value) {
+        total[0] += value;
+      }
+
+      @Override
+      public void value(CharSequence value) {}
+
+      @Override
+      public void value(long value) {}
+
+      @Override
+      public void value(LuaObject value) {
+        throw new AssertionError("no lua objects should be created");
+      }
+    };
+    LuaTableReader.read(new StringReader(data.toString()), sum);
+    assertEquals(5000.0, total[0]);
+    assertThrows(IllegalArgumentException.class,
+        () -> LuaTableReader.read(new StringReader("{1,{2}"), sum));
+  }
+}
@@ -0,0 +1,170 @@
+package com.spag.lua;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import static com.spag.lua.Util.*;
+
+public class PatchTests {
+  static final String sample = "{\"init\",2,3,4,5,hasDHD=false,status=\"idle\","
+      + "x={y={1,2,3},z=\"z\"},[1.5]=true,list={\"a\",\"b\",\"c\"}}";
+
+  static void assertPatches(LuaTable from, LuaTable to) {
+    LuaTablePatch patch = LuaTable.diff(from, to);
+    assertEquals(to, ReadOnlyLuaTable.copy(from).apply(patch));
+    assertEquals(to, ReadOnlyLuaTable.copy(from).apply(LuaTablePatch.fromString(patch.toString())));
+    assertEquals(to, ReadOnlyLuaTable.copy(from).apply(LuaTablePatch.decode(patch.encode())));
+  }
+
+  @Test
+  void changes() {
+    LuaTable from = LuaTable.fromString(sample);
+    LuaTable to = LuaTable.fromString(sample);
+    assertTrue(LuaTable.diff(from, to).isEmpty());
+    assertEquals("{}", LuaTable.diff(from, to).toString());
+
+    to.put(ls("status"), ls("open"));
+    to.put(ls("hasDHD"), LuaObject.nil);
+    to.put(ls("new"), ln(1));
+    ((LuaTable) ((LuaTable) to.get(ls("x"))).get(ls("y"))).put(ln(2), ls("two"));
+    to.put(ln(3), LuaObject.nil);
+    LuaTablePatch patch = LuaTable.diff(from, to);
+    assertFalse(patch.isEmpty());
+    assertEquals("{removed={\"hasDHD\"},set={status=\"open\",new=1},holes={3},"
+        + "nested={x={nested={y={set={nil,\"two\"}}}}}}", patch.toString());
+    assertPatches(from, to);
+  }
+
+  @Test
+  void splices() {
+    LuaTable from = LuaTable.fromString("{1,2,3,4,5,6,7,8,9,10}");
+    LuaTable to = LuaTable.fromString("{1,2,3,4,5,6,7,8,9,10}");
+    to.insert(ln(3), ls("x"));
+    assertEquals("{splice={3,0,1,8},set={[3]=\"x\"}}", LuaTable.diff(from, to).toString());
+    assertPatches(from, to);
+
+    to = LuaTable.fromString("{1,2,9,10}");
+    assertEquals("{splice={3,6,0,2}}", LuaTable.diff(from, to).toString());
+    assertPatches(from, to);
+    assertPatches(from, new LuaTable());
+    assertPatches(new LuaTable(), from);
+    assertPatches(LuaTable.fromString("{1,2,[4]=4,[20]=20}"), LuaTable.fromString("{1,2,3,4}"));
+    assertPatches(LuaTable.fromString("{1,2,3,4}"), LuaTable.fromString("{1,[4]=4}"));
+    assertPatches(LuaTable.fromString("{1,nil,3,{1}}"), LuaTable.fromString("{1,{2},nil,nil,5}"));
+
+    // the same content with a different split between the array and hash parts
+    LuaTable sparse = new LuaTable();
+    sparse.insert(ln(1));
+    sparse.put(ln(4), ln(4));
+    LuaTable filled = LuaTable.fromString("{1,nil,nil,4}");
+    assertEquals(sparse, filled);
+    LuaTable updated = LuaTable.fromString("{1,2,nil,4,5}");
+    assertEquals(updated, filled.apply(LuaTable.diff(sparse, updated)));
+  }
+
+  @Test
+  void randomChanges() {
+    Random random = new Random(7);
+    for (int round = 0; round < 200; round++) {
+      LuaTable from = new LuaTable();
+      for (int i = 0; i < 30; i++) {
+        change(from, random);
+      }
+      LuaTable to = ReadOnlyLuaTable.copy(from);
+      for (int i = random.nextInt(10); i >= 0; i--) {
+        change(to, random);
+      }
+      assertPatches(from, to);
+    }
+  }
+
+  static void change(LuaTable table, Random random) {
+    LuaObject value = switch (random.nextInt(4)) {
+      case 0 -> LuaObject.nil;
+      case 1 -> LuaTable.fromString("{" + random.nextInt(3) + ",k=" + random.nextInt(3) + "}");
+      default -> ln(random.nextInt(5));
+    };
+    switch (random.nextInt(4)) {
+      case 0 -> {
+        if (value != LuaObject.nil) {
+          table.insert(ln(random.nextInt(table.size() + 1) + 1), value);
+        }
+      }
+      case 1 -> table.put(ls("k" + random.nextInt(8)), value);
+      case 2 -> {
+        if (table.get(ln(random.nextInt(table.size() + 1) + 1)) instanceof LuaTable nested) {
+          change(nested, random);
+        }
+      }
+      default -> table.put(ln(random.nextInt(table.size() + 10) + 1), value);
+    }
+  }
+
+  @Test
+  void smallPatches() {
+    LuaTable from = new LuaTable();
+    for (int i = 0; i < 10_000; i++) {
+      from.insert(LuaTable.fromString("{id=" + i + ",name=\"gate " + i + "\",open=false}"));
+    }
+    LuaTable to = ReadOnlyLuaTable.copy(from);
+    ((LuaTable) to.get(ln(5000))).put(ls("open"), lb(true));
+    LuaTablePatch patch = LuaTable.diff(from, to);
+    assertEquals("{nested={[5000]={set={open=true}}}}", patch.toString());
+    assertTrue(patch.encode().remaining() < 50);
+  }
+
+  @Test
+  void deepNesting() {
+    LuaTable from = new LuaTable();
+    LuaTable inner = from;
+    for (int i = 0; i < 100_000; i++) {
+      LuaTable next = new LuaTable();
+      inner.insert(next);
+      inner = next;
+    }
+    LuaTable to = ReadOnlyLuaTable.copy(from);
+    inner = to;
+    while (inner.get(ln(1)) instanceof LuaTable next) {
+      inner = next;
+    }
+    inner.insert(ls("bottom"));
+    from.apply(LuaTable.diff(from, to));
+    inner = from;
+    while (inner.get(ln(1)) instanceof LuaTable next) {
+      inner = next;
+    }
+    assertEquals(ls("bottom"), inner.get(ln(1)));
+  }
+
+  @Test
+  void invalid() {
+    LuaTablePatch patch = LuaTablePatch.fromString("{nested={x={set={1}}}}");
+    assertThrows(IllegalArgumentException.class, () -> new LuaTable().apply(patch));
+    LuaTablePatch splice = LuaTablePatch.fromString("{splice={5,1,0}}");
+    assertThrows(IllegalArgumentException.class, () -> new LuaTable().apply(splice));
+    LuaTablePatch count = LuaTablePatch.fromString("{holes={-1}}");
+    assertThrows(IllegalArgumentException.class, () -> new LuaTable().apply(count));
+  }
+
+  @Test
+  void tableKeys() {
+    LuaTable from = LuaTable.fromString("{[{1}]=2}");
+    LuaTable to = LuaTable.fromString("{[{1}]=3}");
+    assertThrows(IllegalArgumentException.class, () -> LuaTable.diff(from, to));
+    LuaTable nested = LuaTable.fromString("{x={1}}");
+    assertThrows(IllegalArgumentException.class,
+        () -> LuaTable.diff(nested, LuaTable.fromString("{x={1,[{2}]=2}}")));
+    assertThrows(IllegalArgumentException.class,
+        () -> from.apply(LuaTablePatch.fromString("{removed={{1}}}")));
+
+    // a table set in full may have table keys
+    LuaTable set = LuaTable.fromString("{x=1}");
+    LuaTable copy = ReadOnlyLuaTable.copy(set);
+    copy.apply(LuaTable.diff(set, LuaTable.fromString("{x={[{1}]=3}}")));
+    assertEquals("{x={[{1}]=3}}", copy.toString());
+  }
+}
@@ -0,0 +1,217 @@
+package com.spag.lua;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import static com.spag.lua.Util.*;
+
+public class PersistentTests {
+  static void assertSameContent(LuaTableView expected, LuaTableView actual) {
+    assertEquals(expected.size(), actual.size());
+    int[] entries = {0, 0};
+    expected.pairs((k, v) -> {
+      entries[0]++;
+      assertEquals(v, actual.get(k), "at " + k);
+    });
+    actual.pairs((k, v) -> entries[1]++);
+    assertEquals(entries[0], entries[1]);
+  }
+
+  @Test
+  void matchesLuaTable() {
+    LuaTable expected = new LuaTable();
+    PersistentLuaTable actual = PersistentLuaTable.empty();
+    Random random = new Random(7);
+    for (int i = 0; i < 50_000; i++) {
+      LuaObject value = random.nextInt(4) == 0 ? LuaObject.nil : ln(i);
+      switch (random.nextInt(5)) {
+        case 0 -> {
+          expected.insert(value);
+          actual = actual.insert(value);
+        }
+        case 1 -> {
+          LuaNum index = ln(random.nextInt(expected.size() + 1) + 1);
+          if (value != LuaObject.nil) {
+            expected.insert(index, value);
+            actual = actual.insert(index, value);
+          }
+        }
+        case 2 -> {
+          LuaObject key = ls("k" + random.nextInt(300));
+          expected.put(key, value);
+          actual = actual.with(key, value);
+        }
+        default -> {
+          LuaNum key = ln(random.nextInt(expected.size() + 40) + (random.nextBoolean() ? 1 : 1.5));
+          expected.put(key, value);
+          actual = actual.with(key, value);
+        }
+      }
+      if (i % 1000 == 0) {
+        assertSameContent(expected, actual);
+      }
+    }
+    assertSameContent(expected, actual);
+    assertEquals(expected, actual.toTable());
+    assertEquals(actual, expected.toPersistent());
+    assertEquals(actual.hashCode(), expected.toPersistent().hashCode());
+  }
+
+  @Test
+  void versionsAreKept() {
+    List<PersistentLuaTable> versions = new ArrayList<>();
+    PersistentLuaTable table = PersistentLuaTable.empty();
+    // crosses the tail, a full root and a root gaining a level
+    for (int i = 1; i <= 33_000; i++) {
+      versions.add(table);
+      table = table.insert(ln(i));
+    }
+    for (int i = 0; i < versions.size(); i += 97) {
+      PersistentLuaTable version = versions.get(i);
+      assertEquals(i, version.size());
+      assertEquals(i == 0 ? LuaObject.nil : ln(i), version.get(ln(i)));
+      assertEquals(LuaObject.nil, version.get(ln(i + 1)));
+    }
+    PersistentLuaTable changed = table.with(ln(1024), ls("x")).with(ln(32_769), ls("y"));
+    assertEquals(ln(1024), table.get(ln(1024)));
+    assertEquals(ls("x"), changed.get(ln(1024)));
+    assertEquals(ls("y"), changed.get(ln(32_769)));
+    assertNotEquals(table, changed);
+
+    PersistentLuaTable popped = table;
+    for (int i = 33_000; i > 0; i--) {
+      assertEquals(ln(i), popped.get(ln(i)));
+      popped = popped.without(ln(i));
+      assertEquals(i - 1, popped.size());
+    }
+    assertSame(PersistentLuaTable.empty(), popped);
+    assertEquals(33_000, table.size());
+    assertSame(table, table.with(ln(5), ln(5)));
+  }
+
+  @Test
+  void keys() {
+    PersistentLuaTable table = PersistentLuaTable.empty()
+        .with(ls("Aa"), ln(1)).with(ls("BB"), ln(2)).with(ln(2.0), ln(3)).with(ln(-1), ln(4));
+    assertEquals(ln(1), table.get(ls("Aa")));
+    assertEquals(ln(2), table.get(ls("BB")));
+    assertEquals(ln(3), table.get(ln(2)));
+    assertEquals(2, table.size());
+    assertEquals(LuaObject.nil, table.get(ln(1)));
+    table = table.with(ln(1), lb(true));
+    assertEquals(lb(true), table.get(ln(1)));
+    assertEquals(ln(2), table.without(ls("Aa")).get(ls("BB")));
+    assertEquals(LuaObject.nil, table.without(ls("BB")).get(ls("BB")));
+    assertSame(table, table.without(ls("missing")));
+
+    PersistentLuaTable empty = PersistentLuaTable.empty();
+    assertThrows(IllegalArgumentException.class, () -> empty.with(LuaObject.nil, ln(1)));
+    assertThrows(IllegalArgumentException.class, () -> empty.with(ln(Double.NaN), ln(1)));
+    assertThrows(IllegalArgumentException.class, () -> empty.insert(ln(1.5), ln(1)));
+    assertThrows(IndexOutOfBoundsException.class, () -> empty.insert(ln(2), ln(1)));
+  }
+
+  @Test
+  void merge() {
+    LuaTable a = LuaTable.fromString("{1,2,x=1,y=2}");
+    LuaTable b = LuaTable.fromString("{3,nil,4,y=3,z=4}");
+    PersistentLuaTable merged = a.toPersistent().merge(b);
+    assertSameContent(LuaTable.merge(a, b), merged);
+    assertSameContent(LuaTable.merge(a, b), a.toPersistent().merge(b.toPersistent()));
+    assertSameContent(LuaTable.merge(a, b), a.toPersistent().merge(b.readOnly()));
+    assertSameContent(a, a.toPersistent());
+  }
+
+  @Test
+  void mergeOverHashIndexes() {
+    LuaTable a = LuaTable.fromString("{[3]=\"x\",[6]=\"y\"}");
+    LuaTable b = LuaTable.fromString("{1,2,3,4}");
+    LuaTable expected = LuaTable.merge(a, b);
+    assertSameContent(expected, a.toPersistent().merge(b));
+    assertSameContent(expected, a.toPersistent().merge(b.toPersistent()));
+    assertSameContent(expected, a.toPersistent().merge(b.readOnly()));
+    assertEquals(ls("y"), a.toPersistent().merge(b).get(ln(6)));
+  }
+
+  @Test
+  void tableKeys() {
+    LuaTable source = new LuaTable();
+    LuaTable key = new LuaTable();
+    source.put(key, ln(1));
+    source.put(new LuaTable(), ln(2));
+    PersistentLuaTable table = source.toPersistent();
+    int[] entries = {0};
+    table.pairs((k, v) -> entries[0]++);
+    assertEquals(2, entries[0]);
+
+    PersistentLuaTable twoKeys = PersistentLuaTable.empty()
+        .with(new LuaTable(), ln(1)).with(new LuaTable(), ln(2));
+    entries[0] = 0;
+    twoKeys.pairs((k, v) -> {
+      entries[0]++;
+      assertEquals(v, twoKeys.get(k));
+    });
+    assertEquals(2, entries[0]);
+    assertEquals(LuaObject.nil, twoKeys.get(PersistentLuaTable.empty()));
+  }
+
+  @Test
+  void changedTableKeys() {
+    LuaTable source = new LuaTable();
+    ReadOnlyLuaTable key = source.readOnly();
+    PersistentLuaTable table = PersistentLuaTable.empty().with(key, ln(1));
+    source.insert(ln(2));
+    assertEquals(ln(1), table.get(key));
+    assertEquals(LuaObject.nil, table.without(key).get(key));
+    assertEquals(LuaObject.nil, table.get(new LuaTable().readOnly()));
+  }
+
+  @Test
+  void indexedValuesStopAtNil() {
+    PersistentLuaTable table = LuaTable.fromString("{1,2,nil,4}").toPersistent();
+    List<LuaObject> values = new ArrayList<>();
+    table.forEachIndexed((i, v) -> values.add(v));
+    assertEquals(List.of(ln(1), ln(2)), values);
+  }
+
+  @Test
+  void nestedTables() {
+    LuaTable source = LuaTable.fromString("{x={y={1,2,3}},[{}]=true}");
+    PersistentLuaTable table = source.toPersistent();
+    PersistentLuaTable y = assertInstanceOf(PersistentLuaTable.class,
+        ((LuaTableView) table.get(ls("x"))).get(ls("y")));
+    ((LuaTable) ((LuaTable) source.get(ls("x"))).get(ls("y"))).insert(ln(4));
+    assertEquals(3, y.size());
+
+    LuaTable copy = table.toTable();
+    assertInstanceOf(LuaTable.class, copy.get(ls("x")));
+    // the table used as a key is copied into a new table, so a different key
+    assertNotEquals(table, copy.toPersistent());
+    assertEquals(table.get(ls("x")), copy.toPersistent().get(ls("x")));
+    assertEquals(table.toString(), copy.toString());
+
+    LuaTable deep = new LuaTable();
+    LuaTable inner = deep;
+    for (int i = 0; i < 100_000; i++) {
+      LuaTable next = new LuaTable();
+      inner.insert(next);
+      inner = next;
+    }
+    PersistentLuaTable deepCopy = deep.toPersistent();
+    assertEquals(1, deepCopy.size());
+    assertEquals(1, deepCopy.toTable().size());
+    assertEquals(deepCopy, deep.toPersistent());
+    assertEquals(deepCopy.hashCode(), deep.toPersistent().hashCode());
+
+    LuaTable loop = new LuaTable();
+    loop.put(ls("self"), loop);
+    assertThrows(IllegalArgumentException.class, loop::toPersistent);
+  }
+}
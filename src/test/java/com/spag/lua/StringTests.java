@@ -1,7 +1,13 @@
 package com.spag.lua;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import org.junit.jupiter.api.Test;
 
 public class StringTests {
@@ -9,7 +15,7 @@ public class StringTests {
   void basicString() {
     String s = "test";
     LuaString luaS = LuaString.of(s);
-    assertEquals(s, luaS.value);
+    assertEquals(s, luaS.value());
   }
 
   @Test
@@ -48,4 +54,80 @@ public class StringTests {
     assert luaS1 == luaS2;
     assert luaS1 == luaS3;
   }
+
+  @Test
+  void flyweightConcurrent() throws InterruptedException {
+    int threads = 8;
+    LuaString[][] seen = new LuaString[threads][1000];
+    Thread[] workers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      int id = t;
+      workers[t] = new Thread(() -> {
+        for (int i = 0; i < 1000; i++) {
+          seen[id][i] = LuaString.of("concurrent" + i);
+        }
+      });
+      workers[t].start();
+    }
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    for (int t = 1; t < threads; t++) {
+      for (int i = 0; i < 1000; i++) {
+        assert seen[0][i] == seen[t][i];
+      }
+    }
+  }
+
+  @Test
+  void concat() {
+    LuaString hello = LuaString.of("hello ");
+    LuaString joined = hello.concat(LuaString.of("world")).concat(LuaNum.of(42));
+    assertEquals(13, joined.length());
+    assertEquals("hello world42", joined.value());
+    assertEquals(LuaString.of("hello world42"), joined);
+    assertEquals(LuaString.of("hello world42").hashCode(), joined.hashCode());
+    assertNotSame(LuaString.of("hello world42"), joined);
+    assertSame(LuaString.of("hello world42"), joined.intern());
+    assertEquals(LuaString.of("1.5x"), LuaNum.of(1.5).concat(LuaString.of("x")));
+    assertEquals(LuaString.of("a1b"),
+        LuaString.concat(LuaString.of("a"), LuaNum.of(1), LuaString.of("b")));
+    LuaTable table = new LuaTable();
+    table.put(joined, LuaBool.True);
+    assertEquals(LuaBool.True, table.get(LuaString.of("hello world42")));
+  }
+
+  @Test
+  void longConcatChain() {
+    LuaString piece = LuaString.of("ab");
+    LuaString out = LuaString.of("");
+    for (int i = 0; i < 100_000; i++) {
+      out = out.concat(piece);
+    }
+    assertEquals(200_000, out.length());
+    assertEquals("ab".repeat(100_000), out.value());
+  }
+
+  @Test
+  void bytes() {
+    String text = "Chülak \uD83D\uDE80";
+    LuaString fromBytes = LuaString.of(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)));
+    assertEquals(LuaString.of(text), fromBytes);
+    assertEquals(LuaString.of(text).hashCode(), fromBytes.hashCode());
+    assertEquals(text.getBytes(StandardCharsets.UTF_8).length, LuaString.of(text).length());
+    assertEquals(text, fromBytes.value());
+    assertSame(LuaString.of(text), fromBytes.intern());
+
+    byte[] raw = {'o', 'c', (byte) 0xFF, (byte) 0xC3};
+    LuaString binary = LuaString.of(raw);
+    raw[0] = 'x';
+    assertEquals(4, binary.length());
+    assertArrayEquals(new byte[] {'o', 'c', (byte) 0xFF, (byte) 0xC3}, binary.bytes());
+    assertEquals(LuaString.of(binary.bytes()), binary);
+    assertNotEquals(LuaString.of(binary.value()), binary);
+    assertSame(binary.intern(), LuaString.of(binary.bytes()).intern());
+    LuaString joined = LuaString.of("id:").concat(binary);
+    assertArrayEquals(new byte[] {'i', 'd', ':', 'o', 'c', (byte) 0xFF, (byte) 0xC3},
+        joined.bytes());
+  }
 }
@@ -2,8 +2,21 @@ package com.spag.lua;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
-
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.IntStream;
 import org.junit.jupiter.api.Test;
 import static com.spag.lua.Util.*;
 
@@ -113,6 +126,100 @@ public class TableTests {
     assertNotEquals(a2, b);
   }
 
+  @Test
+  void hashCodes() {
+    LuaTable sparse = new LuaTable();
+    sparse.insert(ln(1));
+    sparse.put(ln(4), ln(4));
+    LuaTable filled = LuaTable.fromString("{1,nil,nil,4}");
+    assertEquals(sparse.hashCode(), filled.hashCode());
+
+    LuaTable a = LuaTable.fromString("{1,x={2}}");
+    LuaTable b = LuaTable.fromString("{1,x={2}}");
+    Set<LuaTable> set = new HashSet<>();
+    set.add(a);
+    assertTrue(set.contains(b));
+    int hash = a.hashCode();
+    a.put(ls("y"), ln(3));
+    assertNotEquals(hash, a.hashCode());
+    assertNotEquals(a, b);
+    a.put(ls("y"), LuaObject.nil);
+    assertEquals(hash, a.hashCode());
+    ((LuaTable) a.get(ls("x"))).insert(ln(3));
+    assertNotEquals(a, b);
+
+    // tables are keys by identity, so changing one does not lose its value
+    LuaTable key = LuaTable.fromString("{1}");
+    LuaTable keyed = new LuaTable();
+    keyed.put(key, ls("value"));
+    key.insert(ln(2));
+    assertEquals(ls("value"), keyed.get(key));
+    assertEquals(LuaObject.nil, keyed.get(LuaTable.fromString("{1,2}")));
+  }
+
+  @Test
+  void deduplicate() {
+    LuaTable table = LuaTable.fromString("{{1,{2}},{1,{2}},{1,{3}},x={1,{2}},y={{2}}}");
+    LuaTable expected = LuaTable.fromString(table.toString());
+    assertSame(table, table.deduplicate());
+    assertEquals(expected, table);
+    LuaTable first = (LuaTable) table.get(ln(1));
+    assertSame(first, table.get(ln(2)));
+    assertSame(first, table.get(ls("x")));
+    assertNotSame(first, table.get(ln(3)));
+    assertSame(first.get(ln(2)), ((LuaTable) table.get(ls("y"))).get(ln(1)));
+
+    LuaTable looped = new LuaTable();
+    looped.insert(looped);
+    assertThrows(IllegalArgumentException.class, looped::deduplicate);
+  }
+
+  @Test
+  void builder() {
+    LuaTable table = LuaTable.builder(4, 2)
+        .add(1)
+        .add(1.5)
+        .add("two")
+        .add(true)
+        .put("name", ls("gate"))
+        .put(ln(20), ln(20))
+        .addAll(new long[] {5, 6})
+        .addAll(new String[] {null, "eight", null})
+        .build();
+    String expected = "{1,1.5,\"two\",true,5,6,nil,\"eight\",name=\"gate\",[20]=20}";
+    assertEquals(LuaTable.fromString(expected), table);
+    assertEquals(expected, table.toString());
+
+    LuaTable.Builder builder = LuaTable.builder();
+    builder.build();
+    assertThrows(IllegalStateException.class, () -> builder.add(1));
+    assertThrows(IllegalArgumentException.class, () -> LuaTable.builder(-1, 0));
+  }
+
+  @Test
+  void ofArrayAndMap() {
+    assertEquals(LuaTable.fromString("{1,2,3}"), LuaTable.ofArray(new long[] {1, 2, 3}));
+    assertEquals(LuaTable.fromString("{0.5,2.0}"), LuaTable.ofArray(new double[] {0.5, 2}));
+    assertEquals(LuaTable.fromString("{\"a\",nil,\"b\"}"),
+        LuaTable.ofArray(new String[] {"a", null, "b", null}));
+    assertEquals(new LuaTable(), LuaTable.ofArray(new long[0]));
+
+    Map<Object, Object> map = new LinkedHashMap<>();
+    map.put("name", "gate");
+    map.put(1, 'x');
+    map.put(2, List.of(1, 2.5, false));
+    map.put("address", new long[] {26, 6});
+    map.put("dialed", null);
+    map.put("nested", Map.of("deep", Map.of(1, ls("lua"))));
+    assertEquals(LuaTable.fromString("{\"x\",{1,2.5,false},name=\"gate\",address={26,6},"
+        + "nested={deep={\"lua\"}}}"), LuaTable.ofMap(map));
+
+    assertThrows(IllegalArgumentException.class, () -> LuaTable.ofArray(List.of(new Object())));
+    Map<Object, Object> nullKey = new LinkedHashMap<>();
+    nullKey.put(null, 1);
+    assertThrows(IllegalArgumentException.class, () -> LuaTable.ofMap(nullKey));
+  }
+
   @Test
   void nilToEmpty() {
     String init = "{wow=nil,a=nil}";
@@ -184,6 +291,14 @@ public class TableTests {
     assertEquals(staticMerge, transitiveMerge);
   }
 
+  @Test
+  void mergeOverSparseIndex() {
+    LuaTable a = LuaTable.fromString("{1,[5]=5}");
+    a.merge(LuaTable.fromString("{2,3,4,\"x\"}"));
+    assertEquals(LuaTable.fromString("{1,2,3,4,\"x\"}"), a);
+    assertEquals("{1,2,3,4,\"x\"}", a.toString());
+  }
+
   @Test
   void explicitStringKey() {
     LuaTable a = LuaTable.fromString("{[\"0test blah blah\"]=3}");
@@ -269,4 +384,136 @@ public class TableTests {
     LuaTable a = LuaTable.fromString(exp);
     assertEquals(exp, a.toString());
   }
+
+  @Test
+  void largeSequence() {
+    LuaTable table = new LuaTable();
+    for (int i = 1; i <= 2_000; i++) {
+      table.insert(ln(i));
+    }
+    assertEquals(2_000, table.size());
+    assertEquals(ln(1_000), table.get(ln(1_000)));
+    table.put(ln(1_000), ls("replaced"));
+    assertEquals(ls("replaced"), table.get(ln(1_000)));
+    int[] steps = {0};
+    table.ipairs((k, v) -> steps[0]++);
+    assertEquals(2_000, steps[0]);
+  }
+
+  @Test
+  void largeSequenceOfInternedNumbers() {
+    // well past the numbers that are always cached, so most go through the flyweight cache
+    LuaTable table = new LuaTable();
+    for (int i = 1; i <= 50_000; i++) {
+      table.insert(ln(i));
+    }
+    assertEquals(50_000, table.size());
+    assertEquals(ln(25_000), table.get(ln(25_000)));
+    table.put(ln(25_000), ls("replaced"));
+    assertEquals(ls("replaced"), table.get(ln(25_000)));
+    int[] steps = {0};
+    table.ipairs((k, v) -> steps[0]++);
+    assertEquals(50_000, steps[0]);
+  }
+
+  @Test
+  void sparseIndexMigrates() {
+    LuaTable table = new LuaTable();
+    table.put(ln(100), ls("far"));
+    assertEquals(0, table.size());
+    assertEquals(ls("far"), table.get(ln(100)));
+    for (int i = 1; i < 100; i++) {
+      table.insert(ln(i));
+    }
+    assertEquals(100, table.size());
+    assertEquals(ls("far"), table.get(ln(100)));
+    assertEquals("{" + IntStream.range(1, 100)
+        .mapToObj(Integer::toString).reduce((a, b) -> a + "," + b).get() + ",\"far\"}",
+        table.toString());
+
+    LuaTable skipped = new LuaTable();
+    skipped.put(ln(3), ls("c"));
+    skipped.put(ln(1), ls("a"));
+    skipped.put(ln(4), ls("d"));
+    assertEquals(4, skipped.size());
+    assertEquals(ls("c"), skipped.get(ln(3)));
+    assertEquals("{\"a\",nil,\"c\",\"d\"}", skipped.toString());
+    List<LuaObject> keys = new ArrayList<>();
+    skipped.pairs((k, v) -> keys.add(k));
+    assertEquals(List.of(ln(1), ln(3), ln(4)), keys);
+  }
+
+  @Test
+  void pairsVisitsLastIndex() {
+    LuaTable table = LuaTable.fromString("{1,2,3,a=4}");
+    int[] steps = {0};
+    table.pairs((k, v) -> steps[0]++);
+    assertEquals(4, steps[0]);
+  }
+
+  @Test
+  void nextWalksLikePairs() {
+    LuaTable table = LuaTable.fromString("{1,nil,3,a=4,[20]=5,b=6}");
+    List<LuaObject> pairsKeys = new ArrayList<>();
+    table.pairs((k, v) -> pairsKeys.add(k));
+    List<LuaObject> nextKeys = new ArrayList<>();
+    for (LuaObject k = table.next(LuaObject.nil); k != LuaObject.nil; k = table.next(k)) {
+      nextKeys.add(k);
+    }
+    assertEquals(pairsKeys, nextKeys);
+    assertEquals(LuaObject.nil, new LuaTable().next(LuaObject.nil));
+    assertThrows(IllegalArgumentException.class, () -> table.next(ls("missing")));
+  }
+
+  @Test
+  void cursor() {
+    LuaTable table = LuaTable.fromString("{1,nil,3,a=4}");
+    LuaTable.Cursor cursor = table.cursor();
+    List<String> seen = new ArrayList<>();
+    while (cursor.next()) {
+      seen.add(cursor.index() + ":" + cursor.key() + "=" + cursor.value());
+    }
+    assertEquals(List.of("1:1=1", "3:3=3", "0:\"a\"=4"), seen);
+    assertThrows(NoSuchElementException.class, cursor::value);
+  }
+
+  @Test
+  void forEachIndexedAllocatesNothing() {
+    LuaTable table = new LuaTable();
+    for (int i = 0; i < 100_000; i++) {
+      table.insert(ln(i % 100));
+    }
+    long[] sum = {0};
+    IntObjConsumer<LuaObject> action = (i, v) -> sum[0] += i;
+    table.forEachIndexed(action);
+    var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long before = threads.getCurrentThreadAllocatedBytes();
+    table.forEachIndexed(action);
+    long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+    assertEquals(2L * 100_000 * 100_001 / 2, sum[0]);
+    assertTrue(allocated < 1024, "allocated " + allocated + " bytes");
+  }
+
+  @Test
+  void hashPartMatchesLinkedHashMap() {
+    HashPart part = new HashPart();
+    Map<LuaObject, LuaObject> expected = new LinkedHashMap<>();
+    Random random = new Random(7);
+    for (int i = 0; i < 200_000; i++) {
+      LuaObject key = random.nextBoolean() ? ln(random.nextInt(2000) + 0.5)
+          : ls("k" + random.nextInt(2000));
+      if (random.nextInt(3) == 0) {
+        assertEquals(expected.remove(key), part.remove(key));
+      } else {
+        assertEquals(expected.put(key, ln(i)), part.put(key, ln(i)));
+      }
+    }
+    assertEquals(expected.size(), part.size());
+    List<LuaObject> order = new ArrayList<>();
+    part.forEach((k, v) -> {
+      order.add(k);
+      assertEquals(expected.get(k), v);
+    });
+    assertEquals(new ArrayList<>(expected.keySet()), order);
+  }
 }
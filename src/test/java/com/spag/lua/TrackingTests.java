@@ -0,0 +1,149 @@
+package com.spag.lua;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import static com.spag.lua.Util.*;
+
+public class TrackingTests {
+  static final String sample = "{\"init\",2,3,hasDHD=false,status=\"idle\","
+      + "x={y={1,2,3},z=\"z\"},list={\"a\",\"b\",\"c\"}}";
+
+  @Test
+  void changes() {
+    LuaTable table = LuaTable.fromString(sample);
+    assertFalse(table.isTrackingChanges());
+    assertThrows(IllegalStateException.class, table::drainChanges);
+    table.trackChanges(true);
+    assertTrue(table.drainChanges().isEmpty());
+
+    table.put(ls("status"), ls("open"));
+    table.put(ls("hasDHD"), LuaObject.nil);
+    table.put(ln(2), LuaObject.nil);
+    ((LuaTable) ((LuaTable) table.get(ls("x"))).get(ls("y"))).put(ln(2), ls("two"));
+    assertEquals("{removed={\"hasDHD\"},set={status=\"open\"},holes={2},"
+        + "nested={x={nested={y={set={nil,\"two\"}}}}}}", table.drainChanges().toString());
+    assertTrue(table.drainChanges().isEmpty());
+
+    ((LuaTable) table.get(ls("list"))).insert(ln(1), ls("first"));
+    assertEquals("{nested={list={set={\"first\",\"a\",\"b\",\"c\"}}}}",
+        table.drainChanges().toString());
+
+    table.trackChanges(false);
+    assertFalse(((LuaTable) table.get(ls("x"))).isTrackingChanges());
+  }
+
+  @Test
+  void replacedTables() {
+    LuaTable table = LuaTable.fromString(sample);
+    table.trackChanges(true);
+    LuaTable old = (LuaTable) table.get(ls("x"));
+    LuaTable added = LuaTable.fromString("{1,{2}}");
+    table.put(ls("x"), added);
+    ((LuaTable) added.get(ln(2))).insert(ln(3));
+    assertEquals("{set={x={1,{2,3}}}}", table.drainChanges().toString());
+
+    // neither the table that was replaced nor one that was only sent in full report changes
+    old.put(ls("z"), ls("gone"));
+    assertTrue(table.drainChanges().isEmpty());
+    ((LuaTable) added.get(ln(2))).insert(ln(4));
+    assertEquals("{nested={x={nested={nil,{set={[3]=4}}}}}}", table.drainChanges().toString());
+
+    // a nested table moved by an insert is sent again at its new index
+    table.put(ln(3), new LuaTable());
+    table.drainChanges();
+    table.insert(ln(1), ls("zero"));
+    table.drainChanges();
+    ((LuaTable) table.get(ln(4))).put(ls("k"), ln(1));
+    assertEquals("{nested={[4]={set={k=1}}}}", table.drainChanges().toString());
+  }
+
+  @Test
+  void randomChanges() {
+    Random random = new Random(11);
+    for (int round = 0; round < 100; round++) {
+      LuaTable table = new LuaTable();
+      for (int i = 0; i < 30; i++) {
+        PatchTests.change(table, random);
+      }
+      table.trackChanges(true);
+      LuaTable copy = ReadOnlyLuaTable.copy(table);
+      for (int drain = 0; drain < 5; drain++) {
+        for (int i = random.nextInt(10); i >= 0; i--) {
+          if (random.nextInt(8) == 0) {
+            table.merge(LuaTable.fromString("{" + random.nextInt(3) + ",{1},k1=2}"));
+          } else {
+            PatchTests.change(table, random);
+          }
+        }
+        LuaTablePatch changes = table.drainChanges();
+        copy.apply(LuaTablePatch.fromString(changes.toString()));
+        assertEquals(table, copy);
+        // applying a patch to a tracked table tracks what it changed
+        LuaTable other = ReadOnlyLuaTable.copy(copy);
+        other.trackChanges(true);
+        other.apply(LuaTable.diff(copy, new LuaTable()));
+        assertEquals(new LuaTable(), ReadOnlyLuaTable.copy(copy).apply(other.drainChanges()));
+      }
+    }
+  }
+
+  @Test
+  void tableKeys() {
+    LuaTable table = new LuaTable();
+    table.trackChanges(true);
+    LuaTable first = new LuaTable();
+    LuaTable second = new LuaTable();
+    table.put(first, ln(1));
+    table.put(second, ln(2));
+    first.insert(ln(3));
+    // the patch holds copies of the keys, so only the values are compared
+    Set<String> values = new HashSet<>();
+    ((LuaTable) table.drainChanges().toTable().get(ls("set")))
+        .pairs((k, v) -> values.add(v.toString()));
+    assertEquals(Set.of("1", "2"), values);
+
+    LuaTable firstChild = new LuaTable();
+    LuaTable secondChild = new LuaTable();
+    table.put(first, firstChild);
+    table.put(second, secondChild);
+    table.drainChanges();
+    second.insert(ln(3));
+    firstChild.insert(ls("a"));
+    secondChild.insert(ls("b"));
+    values.clear();
+    ((LuaTable) table.drainChanges().toTable().get(ls("nested")))
+        .pairs((k, v) -> values.add(v.toString()));
+    assertEquals(Set.of("{set={\"a\"}}", "{set={\"b\"}}"), values);
+  }
+
+  @Test
+  void deepNesting() {
+    LuaTable table = new LuaTable();
+    LuaTable inner = table;
+    for (int i = 0; i < 100_000; i++) {
+      LuaTable next = new LuaTable();
+      inner.insert(next);
+      inner = next;
+    }
+    table.trackChanges(true);
+    inner.insert(ls("bottom"));
+    LuaTable copy = new LuaTable();
+    LuaTable bottom = copy;
+    for (int i = 0; i < 100_000; i++) {
+      LuaTable next = new LuaTable();
+      bottom.insert(next);
+      bottom = next;
+    }
+    copy.apply(table.drainChanges());
+    assertEquals(ls("bottom"), bottom.get(ln(1)));
+    table.trackChanges(false);
+    assertFalse(inner.isTrackingChanges());
+  }
+}
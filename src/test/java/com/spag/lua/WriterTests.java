@@ -0,0 +1,90 @@
+package com.spag.lua;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+import static com.spag.lua.Util.*;
+
+public class WriterTests {
+  static final String sample = "{\"init\",2,{},hasDHD=false,[\"a-b\"]=\"[]\",_x1={1,{2}}}";
+
+  @Test
+  void writer() throws IOException {
+    StringWriter out = new StringWriter();
+    LuaTable.fromString(sample).writeTo(out);
+    assertEquals(sample, out.toString());
+  }
+
+  @Test
+  void channel() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    LuaTable table = LuaTable.fromString("{\"ключ\",a=\"é\"}");
+    table.writeTo(Channels.newChannel(bytes), false);
+    assertEquals("{\"ключ\",a=\"é\"}", bytes.toString(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void deepNesting() {
+    int depth = 10_000;
+    String data = "{".repeat(depth) + "}".repeat(depth);
+    assertEquals(data, LuaTable.fromString(data).toString());
+  }
+
+  @Test
+  void tableKeys() {
+    String data = "{[{1,[{2}]={3}}]={4},x=5}";
+    assertEquals(data, LuaTable.fromString(data).toString());
+    LuaTable table = new LuaTable();
+    LuaTable key = table;
+    for (int i = 0; i < 10_000; i++) {
+      LuaTable next = new LuaTable();
+      key.put(next, ln(i));
+      key = next;
+    }
+    String deep = table.toString();
+    assertEquals(deep, LuaTable.fromString(deep).toString());
+  }
+
+  @Test
+  void selfContaining() {
+    LuaTable table = LuaTable.fromString("{1,{2}}");
+    ((LuaTable) table.get(ln(2))).insert(table);
+    assertThrows(IllegalArgumentException.class, table::toString);
+    LuaTable key = new LuaTable();
+    key.put(key, ln(1));
+    assertThrows(IllegalArgumentException.class, key::toString);
+    // the same table more than once is not a cycle
+    LuaTable shared = LuaTable.fromString("{1}");
+    LuaTable twice = new LuaTable();
+    twice.insert(shared);
+    twice.insert(shared);
+    assertEquals("{{1},{1}}", twice.toString());
+  }
+
+  @Test
+  void escapedStrings() throws IOException {
+    LuaTable table = new LuaTable();
+    table.insert(ls("say \"hi\"\\\n\u00011\u0002"));
+    StringBuilder out = new StringBuilder();
+    table.writeTo(out, true);
+    assertEquals("{\"say \\\"hi\\\"\\\\\\n\\0011\\2\"}", out.toString());
+    table.writeTo(out.delete(0, out.length()), false);
+    assertEquals("{\"say \"hi\"\\\n\u00011\u0002\"}", out.toString());
+  }
+
+  @Test
+  void keys() {
+    LuaTable table = new LuaTable();
+    table.put(ls("nil"), ln(1));
+    table.put(ls("9lives"), ln(2));
+    table.put(ls("ok_9"), ln(3));
+    assertEquals("{[\"nil\"]=1,[\"9lives\"]=2,ok_9=3}", table.toString());
+    assertEquals(table, LuaTable.fromString(table.toString()));
+  }
+}